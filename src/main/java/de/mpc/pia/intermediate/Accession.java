@@ -1,5 +1,7 @@
 package de.mpc.pia.intermediate;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -32,6 +34,9 @@ public class Accession implements Serializable {
     /** the sequence of the protein, as reported in a database */
     private String dbSequence;
 
+    /** the store holding the sequence, if it is not kept in this accession */
+    private transient FastaSequenceStore sequenceStore;
+
     /** the IDs of the searchDatabases this accession is found in */
     private Set<String> searchDatabaseRefs;
 
@@ -89,7 +94,9 @@ public class Accession implements Serializable {
         if (descriptions != null ? !descriptions.equals(accession.descriptions) : accession.descriptions != null) {
             return false;
         }
-        if (dbSequence != null ? !dbSequence.equals(accession.dbSequence) : accession.dbSequence != null) return false;
+        String sequence = getDbSequence();
+        String otherSequence = accession.getDbSequence();
+        if (sequence != null ? !sequence.equals(otherSequence) : otherSequence != null) return false;
         if (searchDatabaseRefs != null ? !searchDatabaseRefs.equals(accession.searchDatabaseRefs) : accession.searchDatabaseRefs != null) {
             return false;
         }
@@ -101,7 +108,6 @@ public class Accession implements Serializable {
         int result = id != null ? id.hashCode() : 0;
         result = 31 * result + (accessionStr != null ? accessionStr.hashCode() : 0);
         result = 31 * result + (descriptions != null ? descriptions.hashCode() : 0);
-        result = 31 * result + (dbSequence != null ? dbSequence.hashCode() : 0);
         result = 31 * result + (searchDatabaseRefs != null ? searchDatabaseRefs.hashCode() : 0);
         result = 31 * result + (pGroup != null ? (int) (pGroup.getID() ^ (pGroup.getID() >>>32)) : 0);
         return result;
@@ -202,10 +208,14 @@ public class Accession implements Serializable {
 
 
     /**
-     * Getter for the dbSequence.
+     * Getter for the dbSequence. If the sequence is not kept in the accession,
+     * it is read from the {@link FastaSequenceStore}.
      * @return
      */
     public String getDbSequence() {
+        if ((dbSequence == null) && (sequenceStore != null)) {
+            return sequenceStore.getSequence(accessionStr);
+        }
         return dbSequence;
     }
 
@@ -221,6 +231,41 @@ public class Accession implements Serializable {
     }
 
 
+    /**
+     * Sets the store for the sequence of this accession. If the store holds
+     * the same sequence as this accession (or the accession has none yet), the
+     * sequence is not kept on the heap anymore but read from the store.
+     *
+     * @param store
+     */
+    public void setSequenceStore(FastaSequenceStore store) {
+        String sequence = getDbSequence();
+        sequenceStore = store;
+
+        if ((store != null) && store.contains(accessionStr)
+                && ((sequence == null) || sequence.equals(store.getSequence(accessionStr)))) {
+            dbSequence = null;
+        } else {
+            dbSequence = sequence;
+        }
+    }
+
+
+    /**
+     * Writes the sequence into the serialization, as the store is not
+     * serialized.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        String storedSequence = dbSequence;
+        dbSequence = getDbSequence();
+        try {
+            out.defaultWriteObject();
+        } finally {
+            dbSequence = storedSequence;
+        }
+    }
+
+
     /**
      * Adds the given dbRef to the searchDatabaseRefs.
      * @param dbRef
@@ -22,6 +22,12 @@ public class AccessionOccurrence implements Serializable {
     /** end in the DBSequence for this occurrence */
     Integer end;
 
+    /** the residue before this occurrence, if it is known without the DBSequence */
+    Character pre;
+
+    /** the residue after this occurrence, if it is known without the DBSequence */
+    Character post;
+
 
     /**
      * Simple constructor
@@ -30,9 +36,27 @@ public class AccessionOccurrence implements Serializable {
      * @param end
      */
     public AccessionOccurrence(Accession accession, Integer start, Integer end) {
+        this(accession, start, end, null, null);
+    }
+
+
+    /**
+     * Constructor with the flanking residues, e.g. as stored in the
+     * intermediate file.
+     *
+     * @param accession
+     * @param start
+     * @param end
+     * @param pre the residue before the occurrence, may be null
+     * @param post the residue after the occurrence, may be null
+     */
+    public AccessionOccurrence(Accession accession, Integer start, Integer end,
+            Character pre, Character post) {
         this.accession = accession;
         this.start = start;
         this.end = end;
+        this.pre = pre;
+        this.post = post;
     }
 
 
@@ -51,6 +75,30 @@ public class AccessionOccurrence implements Serializable {
     }
 
 
+    /**
+     * Returns the residue before this occurrence, if it was given explicitly.
+     * The flanking residues of all occurrences are given by the
+     * {@link PeptideOccurrenceTable}.
+     *
+     * @return the residue or null
+     */
+    public Character getPre() {
+        return pre;
+    }
+
+
+    /**
+     * Returns the residue after this occurrence, if it was given explicitly.
+     * The flanking residues of all occurrences are given by the
+     * {@link PeptideOccurrenceTable}.
+     *
+     * @return the residue or null
+     */
+    public Character getPost() {
+        return post;
+    }
+
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,307 @@
+package de.mpc.pia.intermediate;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import de.mpc.pia.intermediate.compiler.parser.FastaHeaderInfos;
+
+
+/**
+ * Holds the protein sequences of a FASTA file in a memory-mapped file and
+ * returns them by the accession, so they do not need to be kept on the heap.
+ * <p>
+ * The offsets of the sequences are indexed once and stored in a sidecar file
+ * next to the FASTA file (the FASTA file name with ".pia.idx" appended),
+ * which is reused as long as it is not older than the FASTA file. The columns
+ * of the sidecar are the same as for samtools faidx, but the accessions are
+ * parsed like by the {@link FastaHeaderInfos}, hence the own suffix, which
+ * does not overwrite a ".fai" of samtools. If an accession occurs more than
+ * once, only the first sequence is kept.
+ *
+ * @author julian
+ *
+ */
+public class FastaSequenceStore {
+
+    /** logger for this class */
+    private static final Logger LOGGER = Logger.getLogger(FastaSequenceStore.class);
+
+    /** the suffix of the index sidecar file */
+    public static final String INDEX_SUFFIX = ".pia.idx";
+
+    /** the bits for the size of the mapped chunks */
+    private static final int CHUNK_BITS = 30;
+
+    /** the size of the mapped chunks */
+    private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+
+    /** the path of the FASTA file */
+    private final String fileName;
+
+    /** the size of the FASTA file */
+    private final long fileSize;
+
+    /** the mapped chunks of the FASTA file */
+    private final MappedByteBuffer[] chunks;
+
+    /** the positions of the sequences, mapped by the accessions (in the order of the file) */
+    private final Map<String, IndexEntry> index;
+
+
+    /**
+     * Opens the store for the given FASTA file. The index is read from the
+     * sidecar file or built (and written into the sidecar, if possible).
+     *
+     * @param fileName the path to the FASTA file
+     * @throws IOException if the FASTA file cannot be read
+     */
+    public FastaSequenceStore(String fileName) throws IOException {
+        File fastaFile = new File(fileName);
+        this.fileName = fastaFile.getAbsolutePath();
+        this.index = new LinkedHashMap<>();
+
+        try (FileChannel channel = FileChannel.open(fastaFile.toPath(), StandardOpenOption.READ)) {
+            this.fileSize = channel.size();
+
+            int nrChunks = (int) ((fileSize + CHUNK_SIZE - 1) >>> CHUNK_BITS);
+            this.chunks = new MappedByteBuffer[nrChunks];
+            for (int i = 0; i < nrChunks; i++) {
+                long start = i * CHUNK_SIZE;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(CHUNK_SIZE, fileSize - start));
+            }
+        }
+
+        File indexFile = new File(this.fileName + INDEX_SUFFIX);
+        if (indexFile.exists() && (indexFile.lastModified() >= fastaFile.lastModified())
+                && readIndex(indexFile)) {
+            LOGGER.debug("read index for " + index.size() + " sequences from " + indexFile);
+        } else {
+            index.clear();
+            buildIndex();
+            writeIndex(indexFile);
+            LOGGER.info("indexed " + index.size() + " sequences of " + this.fileName);
+        }
+    }
+
+
+    /**
+     * Returns the path of the FASTA file.
+     *
+     * @return
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+
+    /**
+     * Returns the number of stored sequences.
+     *
+     * @return
+     */
+    public int size() {
+        return index.size();
+    }
+
+
+    /**
+     * Returns, whether a sequence for the given accession is stored.
+     *
+     * @param accession
+     * @return
+     */
+    public boolean contains(String accession) {
+        return index.containsKey(accession);
+    }
+
+
+    /**
+     * Reads the sequence of the given accession from the mapped file.
+     *
+     * @param accession
+     * @return the sequence or null, if the accession is not in the store
+     */
+    public String getSequence(String accession) {
+        IndexEntry entry = index.get(accession);
+        if (entry == null) {
+            return null;
+        }
+
+        char[] sequence = new char[entry.length];
+        int len = 0;
+        long pos = entry.offset;
+        while ((len < entry.length) && (pos < fileSize)) {
+            char c = (char) (getByte(pos++) & 0xff);
+            if (c > ' ') {
+                sequence[len++] = c;
+            }
+        }
+
+        return new String(sequence, 0, len);
+    }
+
+
+    /**
+     * Returns the byte at the given position of the file.
+     */
+    private byte getByte(long pos) {
+        return chunks[(int) (pos >>> CHUNK_BITS)].get((int) (pos & (CHUNK_SIZE - 1)));
+    }
+
+
+    /**
+     * Scans the mapped file for the headers and the positions of the
+     * sequences. Only the header lines are collected, the residues of the
+     * sequence lines are just counted. Whitespace is not counted to the length
+     * of a sequence, like in the
+     * {@link de.mpc.pia.intermediate.compiler.parser.FastaFileParser}.
+     */
+    private void buildIndex() {
+        StringBuilder header = new StringBuilder();
+        String accession = null;
+        IndexEntry entry = null;
+        boolean inLine = false;
+        boolean inHeader = false;
+        long lineStart = 0;
+        int lineBases = 0;
+
+        for (long pos = 0; pos <= fileSize; pos++) {
+            char c = (pos < fileSize) ? (char) (getByte(pos) & 0xff) : '\n';
+
+            if (c != '\n') {
+                if (!inLine) {
+                    inLine = true;
+                    inHeader = (c == '>');
+                    lineStart = pos;
+                }
+                if (inHeader) {
+                    header.append(c);
+                } else if (c > ' ') {
+                    lineBases++;
+                }
+                continue;
+            }
+
+            if (inHeader) {
+                addToIndex(accession, entry);
+
+                if (header.charAt(header.length() - 1) == '\r') {
+                    header.setLength(header.length() - 1);
+                }
+                accession = FastaHeaderInfos.parseHeaderInfos(header.toString()).getAccession();
+                entry = new IndexEntry(pos + 1);
+                header.setLength(0);
+            } else if ((entry != null) && (lineBases > 0)) {
+                if (entry.length == 0) {
+                    entry.offset = lineStart;
+                    entry.lineBases = lineBases;
+                    entry.lineWidth = (int) (pos + 1 - lineStart);
+                }
+                entry.length += lineBases;
+            }
+
+            inLine = false;
+            inHeader = false;
+            lineBases = 0;
+        }
+
+        addToIndex(accession, entry);
+    }
+
+
+    /**
+     * Adds the entry to the index, if it has a sequence and the accession is
+     * not yet indexed.
+     */
+    private void addToIndex(String accession, IndexEntry entry) {
+        if ((accession != null) && (entry != null) && (entry.length > 0)) {
+            index.putIfAbsent(accession, entry);
+        }
+    }
+
+
+    /**
+     * Reads the index from the sidecar file.
+     *
+     * @return false, if the sidecar could not be read
+     */
+    private boolean readIndex(File indexFile) {
+        try (BufferedReader reader = Files.newBufferedReader(indexFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] columns = line.split("\t");
+                IndexEntry entry = new IndexEntry(Long.parseLong(columns[2]));
+                entry.length = Integer.parseInt(columns[1]);
+                entry.lineBases = Integer.parseInt(columns[3]);
+                entry.lineWidth = Integer.parseInt(columns[4]);
+
+                if ((entry.offset < 0) || (entry.offset + entry.length > fileSize)) {
+                    LOGGER.warn("index " + indexFile + " does not fit the FASTA file");
+                    return false;
+                }
+                index.putIfAbsent(columns[0], entry);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("could not read the index " + indexFile + ", rebuilding it", e);
+            return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Writes the index into the sidecar file. If this is not possible, the
+     * index is only kept in memory.
+     */
+    private void writeIndex(File indexFile) {
+        try (BufferedWriter writer = Files.newBufferedWriter(indexFile.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, IndexEntry> entryIt : index.entrySet()) {
+                IndexEntry entry = entryIt.getValue();
+                writer.write(entryIt.getKey() + '\t' + entry.length + '\t' + entry.offset
+                        + '\t' + entry.lineBases + '\t' + entry.lineWidth);
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("could not write the index " + indexFile + ", keeping it only in memory", e);
+        }
+    }
+
+
+    /**
+     * The position of a sequence in the FASTA file.
+     */
+    private static class IndexEntry {
+
+        /** the offset of the first residue */
+        private long offset;
+
+        /** the number of residues */
+        private int length;
+
+        /** the residues per line (of the first line) */
+        private int lineBases;
+
+        /** the bytes per line including the line break (of the first line) */
+        private int lineWidth;
+
+
+        private IndexEntry(long offset) {
+            this.offset = offset;
+            this.length = 0;
+            this.lineBases = 0;
+            this.lineWidth = 0;
+        }
+    }
+}
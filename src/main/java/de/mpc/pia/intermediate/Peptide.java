@@ -26,6 +26,9 @@ public class Peptide implements Serializable {
     /** the occurrences of this peptide, mapped from the accession */
     private HashSet<AccessionOccurrence> occurrences;
 
+    /** the table of the occurrences of all peptides, if it was built */
+    private transient PeptideOccurrenceTable occurrenceTable;
+
 
 
     /**
@@ -40,6 +43,7 @@ public class Peptide implements Serializable {
         this.spectra = null;
         this.pGroup = null;
         this.occurrences = new HashSet<>();
+        this.occurrenceTable = null;
     }
 
     @Override
@@ -157,7 +161,29 @@ public class Peptide implements Serializable {
      * @return true if the set did not already contain this occurrence
      */
     public boolean addAccessionOccurrence(Accession accession, int start, int end) {
-        return occurrences.add(new AccessionOccurrence(accession, start, end));
+        return addAccessionOccurrence(accession, start, end, null, null);
+    }
+
+
+    /**
+     * Adds a new {@link AccessionOccurrence} with the given parameters and
+     * the flanking residues to the occurences set.
+     *
+     * @param accession
+     * @param start
+     * @param end
+     * @param pre the residue before the occurrence, may be null
+     * @param post the residue after the occurrence, may be null
+     * @return true if the set did not already contain this occurrence
+     */
+    public boolean addAccessionOccurrence(Accession accession, int start, int end,
+            Character pre, Character post) {
+        boolean added = occurrences.add(new AccessionOccurrence(accession, start, end, pre, post));
+        if (added) {
+            // the table does not contain the new occurrence
+            occurrenceTable = null;
+        }
+        return added;
     }
 
 
@@ -168,4 +194,25 @@ public class Peptide implements Serializable {
     public Set<AccessionOccurrence> getAccessionOccurrences() {
         return occurrences;
     }
+
+
+    /**
+     * Getter for the table of the occurrences, which contains the occurrences
+     * of this peptide. Use {@link PeptideOccurrenceTable#getTable(Peptide)}
+     * to get a table also if none was built.
+     *
+     * @return the table or null, if it was not built (yet)
+     */
+    public PeptideOccurrenceTable getOccurrenceTable() {
+        return occurrenceTable;
+    }
+
+
+    /**
+     * Setter for the table of the occurrences, called while building the
+     * table.
+     */
+    void setOccurrenceTable(PeptideOccurrenceTable table) {
+        this.occurrenceTable = table;
+    }
 }
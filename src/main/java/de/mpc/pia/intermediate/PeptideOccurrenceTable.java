@@ -0,0 +1,381 @@
+package de.mpc.pia.intermediate;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * A compact table of the occurrences of the peptides in the accessions with
+ * their flanking residues. Each row holds the peptide ID, accession, start,
+ * end and the residues before (pre) and after (post) the peptide. The rows
+ * are sorted by peptide ID, accession ID and start, so the occurrences of a
+ * peptide (and accession) are found by a binary search and lie in
+ * consecutive rows.
+ * <p>
+ * The flanking residues are taken from the {@link AccessionOccurrence}s, if
+ * they are given (e.g. read from the intermediate file), otherwise they are
+ * calculated from the sequence of the accession. The table is built once,
+ * either by the compiler or while reading the intermediate file, and linked
+ * to the peptides. As the link is not serialized, the holder of the table
+ * has to link it again after deserialization (see
+ * {@link #linkPeptides(Collection)}).
+ *
+ * @author julian
+ *
+ */
+public class PeptideOccurrenceTable implements Serializable {
+
+    private static final long serialVersionUID = -3125384201857611384L;
+
+    /** logger for this class */
+    private static final Logger LOGGER = Logger.getLogger(PeptideOccurrenceTable.class);
+
+
+    /** the residue given for the pre or post of protein termini */
+    public static final char TERMINUS_RESIDUE = '-';
+
+    /** the residue given, if the pre or post is not known (e.g. no sequence of the accession is given) */
+    public static final char UNKNOWN_RESIDUE = '\0';
+
+
+    /** the IDs of the peptides */
+    private final long[] peptideIDs;
+
+    /** the accessions */
+    private final Accession[] accessions;
+
+    /** the IDs of the accessions, for faster searching */
+    private final long[] accessionIDs;
+
+    /** the starts in the sequences of the accessions (1-based) */
+    private final int[] starts;
+
+    /** the ends in the sequences of the accessions (1-based, inclusive) */
+    private final int[] ends;
+
+    /** the residues before the peptides */
+    private final char[] pres;
+
+    /** the residues after the peptides */
+    private final char[] posts;
+
+
+    /**
+     * An occurrence with its peptide ID, used while building the table.
+     */
+    private static final class PeptideOccurrence {
+        private final long peptideID;
+
+        private final AccessionOccurrence occurrence;
+
+        private PeptideOccurrence(long peptideID, AccessionOccurrence occurrence) {
+            this.peptideID = peptideID;
+            this.occurrence = occurrence;
+        }
+    }
+
+
+    /**
+     * Creates the table with the given number of rows, which are filled by
+     * {@link #build(Collection)}.
+     */
+    private PeptideOccurrenceTable(int nrRows) {
+        peptideIDs = new long[nrRows];
+        accessions = new Accession[nrRows];
+        accessionIDs = new long[nrRows];
+        starts = new int[nrRows];
+        ends = new int[nrRows];
+        pres = new char[nrRows];
+        posts = new char[nrRows];
+    }
+
+
+    /**
+     * Builds the table for the occurrences of the given peptides and links it
+     * to the peptides.
+     *
+     * @param peptides
+     * @return
+     */
+    public static PeptideOccurrenceTable build(Collection<Peptide> peptides) {
+        List<PeptideOccurrence> occurrences = new ArrayList<>(peptides.size());
+        for (Peptide peptide : peptides) {
+            for (AccessionOccurrence occurrence : peptide.getAccessionOccurrences()) {
+                occurrences.add(new PeptideOccurrence(peptide.getID(), occurrence));
+            }
+        }
+
+        occurrences.sort(Comparator
+                .comparingLong((PeptideOccurrence occ) -> occ.peptideID)
+                .thenComparingLong(occ -> occ.occurrence.getAccession().getID())
+                .thenComparingInt(occ -> occ.occurrence.getStart())
+                .thenComparingInt(occ -> occ.occurrence.getEnd()));
+
+        PeptideOccurrenceTable table = new PeptideOccurrenceTable(occurrences.size());
+        List<Integer> rowsWithoutResidues = new ArrayList<>();
+        for (int row = 0; row < occurrences.size(); row++) {
+            AccessionOccurrence occurrence = occurrences.get(row).occurrence;
+            Accession accession = occurrence.getAccession();
+
+            table.peptideIDs[row] = occurrences.get(row).peptideID;
+            table.accessions[row] = accession;
+            table.accessionIDs[row] = accession.getID();
+            table.starts[row] = occurrence.getStart();
+            table.ends[row] = occurrence.getEnd();
+
+            if ((occurrence.getPre() != null) && (occurrence.getPost() != null)) {
+                table.pres[row] = occurrence.getPre();
+                table.posts[row] = occurrence.getPost();
+            } else {
+                rowsWithoutResidues.add(row);
+            }
+        }
+        table.calculateResidues(rowsWithoutResidues);
+
+        table.linkPeptides(peptides);
+
+        return table;
+    }
+
+
+    /**
+     * Calculates the flanking residues of the given rows from the sequences
+     * of their accessions. The rows are visited by accession, as the
+     * sequence may be loaded from a sequence store and is fetched only once
+     * per accession.
+     */
+    private void calculateResidues(List<Integer> rows) {
+        rows.sort(Comparator.comparingLong(row -> accessionIDs[row]));
+
+        String lastSequence = null;
+        Accession lastAccession = null;
+        for (int row : rows) {
+            if (accessions[row] != lastAccession) {
+                lastSequence = accessions[row].getDbSequence();
+                lastAccession = accessions[row];
+            }
+            pres[row] = getPreResidue(lastSequence, starts[row]);
+            posts[row] = getPostResidue(lastSequence, ends[row]);
+        }
+    }
+
+
+    /**
+     * Links this table to the given peptides. This is needed after
+     * deserialization, as the link is not serialized. Only peptides, whose
+     * occurrences are all contained in the table, are linked; for the others
+     * a table is built on demand by {@link #getTable(Peptide)}.
+     *
+     * @param peptides
+     */
+    public void linkPeptides(Collection<Peptide> peptides) {
+        int nrNotContained = 0;
+        for (Peptide peptide : peptides) {
+            if (containsOccurrencesOf(peptide)) {
+                peptide.setOccurrenceTable(this);
+            } else {
+                nrNotContained++;
+            }
+        }
+
+        if (nrNotContained > 0) {
+            LOGGER.warn(nrNotContained + " peptides are not contained in the occurrence table and were not linked");
+        }
+    }
+
+
+    /**
+     * Checks, whether the table holds the same number of occurrences for the
+     * given peptide as the peptide itself. As the occurrences of a peptide
+     * are unique, this means all of them are contained.
+     */
+    private boolean containsOccurrencesOf(Peptide peptide) {
+        int nrRows = getRowsEnd(peptide.getID()) - getRowsStart(peptide.getID());
+        return nrRows == peptide.getAccessionOccurrences().size();
+    }
+
+
+    /**
+     * Returns the table linked to the given peptide. If none is linked (i.e.
+     * the peptide got new occurrences after building the table), a new table
+     * with the occurrences of only this peptide is built, linked to the
+     * peptide and a warning is logged. So the table is rebuilt only once per
+     * change of the peptide's occurrences.
+     *
+     * @param peptide
+     * @return
+     */
+    public static PeptideOccurrenceTable getTable(Peptide peptide) {
+        PeptideOccurrenceTable table = peptide.getOccurrenceTable();
+        if (table == null) {
+            LOGGER.warn("no occurrence table linked to peptide " + peptide.getID()
+                    + ", building one for this peptide only");
+            // building links the new table to the peptide
+            table = build(Collections.singletonList(peptide));
+        }
+        return table;
+    }
+
+
+    /**
+     * Returns the residue before the peptide starting at the given position
+     * of the sequence.
+     *
+     * @param dbSequence the sequence of the accession, may be null
+     * @param start the 1-based start of the peptide
+     * @return the residue, {@link #TERMINUS_RESIDUE} for the N-terminus or
+     * {@link #UNKNOWN_RESIDUE}, if no valid residue is given
+     */
+    public static char getPreResidue(String dbSequence, int start) {
+        if ((dbSequence == null) || dbSequence.isEmpty() || (start < 1) || (start > dbSequence.length())) {
+            return UNKNOWN_RESIDUE;
+        }
+        return (start > 1) ? dbSequence.charAt(start - 2) : TERMINUS_RESIDUE;
+    }
+
+
+    /**
+     * Returns the residue after the peptide ending at the given position of
+     * the sequence.
+     *
+     * @param dbSequence the sequence of the accession, may be null
+     * @param end the 1-based (inclusive) end of the peptide
+     * @return the residue, {@link #TERMINUS_RESIDUE} for the C-terminus or
+     * {@link #UNKNOWN_RESIDUE}, if no valid residue is given
+     */
+    public static char getPostResidue(String dbSequence, int end) {
+        if ((dbSequence == null) || dbSequence.isEmpty() || (end < 1) || (end > dbSequence.length())) {
+            return UNKNOWN_RESIDUE;
+        }
+        return (end < dbSequence.length()) ? dbSequence.charAt(end) : TERMINUS_RESIDUE;
+    }
+
+
+    /**
+     * Returns the number of rows (occurrences) in the table.
+     */
+    public int getNrRows() {
+        return peptideIDs.length;
+    }
+
+
+    /**
+     * Returns the first row of the occurrences of the given peptide. If there
+     * are no occurrences, this equals {@link #getRowsEnd(long)}.
+     *
+     * @param peptideID
+     * @return
+     */
+    public int getRowsStart(long peptideID) {
+        return lowerBound(peptideID, Long.MIN_VALUE);
+    }
+
+
+    /**
+     * Returns the row after the last occurrence of the given peptide.
+     *
+     * @param peptideID
+     * @return
+     */
+    public int getRowsEnd(long peptideID) {
+        return (peptideID < Long.MAX_VALUE) ? lowerBound(peptideID + 1, Long.MIN_VALUE) : peptideIDs.length;
+    }
+
+
+    /**
+     * Returns the first row of the occurrences of the given peptide in the
+     * given accession. If there are no occurrences, this equals
+     * {@link #getRowsEnd(long, long)}.
+     *
+     * @param peptideID
+     * @param accessionID
+     * @return
+     */
+    public int getRowsStart(long peptideID, long accessionID) {
+        return lowerBound(peptideID, accessionID);
+    }
+
+
+    /**
+     * Returns the row after the last occurrence of the given peptide in the
+     * given accession.
+     *
+     * @param peptideID
+     * @param accessionID
+     * @return
+     */
+    public int getRowsEnd(long peptideID, long accessionID) {
+        return (accessionID < Long.MAX_VALUE) ? lowerBound(peptideID, accessionID + 1) : getRowsEnd(peptideID);
+    }
+
+
+    /**
+     * Returns the first row, which is not smaller than the given peptide and
+     * accession IDs, or the number of rows, if there is none.
+     */
+    private int lowerBound(long peptideID, long accessionID) {
+        int low = 0;
+        int high = peptideIDs.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int cmp = (peptideIDs[mid] != peptideID) ?
+                    Long.compare(peptideIDs[mid], peptideID) :
+                    Long.compare(accessionIDs[mid], accessionID);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+
+    public long getPeptideID(int row) {
+        return peptideIDs[row];
+    }
+
+
+    public Accession getAccession(int row) {
+        return accessions[row];
+    }
+
+
+    public long getAccessionID(int row) {
+        return accessionIDs[row];
+    }
+
+
+    public int getStart(int row) {
+        return starts[row];
+    }
+
+
+    public int getEnd(int row) {
+        return ends[row];
+    }
+
+
+    /**
+     * Returns the residue before the peptide, {@link #TERMINUS_RESIDUE} at
+     * the N-terminus or {@link #UNKNOWN_RESIDUE}, if it is not known.
+     */
+    public char getPre(int row) {
+        return pres[row];
+    }
+
+
+    /**
+     * Returns the residue after the peptide, {@link #TERMINUS_RESIDUE} at
+     * the C-terminus or {@link #UNKNOWN_RESIDUE}, if it is not known.
+     */
+    public char getPost(int row) {
+        return posts[row];
+    }
+}
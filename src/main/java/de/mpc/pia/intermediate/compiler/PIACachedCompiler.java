@@ -336,5 +336,7 @@ public class PIACachedCompiler extends PIACompiler {
         } catch (IOException e) {
             LOGGER.error(e);
         }
+
+        deleteRetainedTempFiles();
     }
 }
@@ -48,10 +48,13 @@ import uk.ac.ebi.jmzidml.model.mzidml.SpectrumIdentification;
 import uk.ac.ebi.jmzidml.model.utils.ModelConstants;
 import uk.ac.ebi.pride.utilities.pridemod.ModReader;
 import de.mpc.pia.intermediate.Accession;
+import de.mpc.pia.intermediate.FastaSequenceStore;
 import de.mpc.pia.intermediate.Group;
 import de.mpc.pia.intermediate.PIAInputFile;
 import de.mpc.pia.intermediate.Peptide;
+import de.mpc.pia.intermediate.PeptideOccurrenceTable;
 import de.mpc.pia.intermediate.PeptideSpectrumMatch;
+import de.mpc.pia.intermediate.compiler.parser.CompressedInputFiles;
 import de.mpc.pia.intermediate.compiler.parser.InputFileParserFactory;
 import de.mpc.pia.intermediate.piaxml.AccessionXML;
 import de.mpc.pia.intermediate.piaxml.PIAInputFileXML;
@@ -129,6 +132,25 @@ public abstract class PIACompiler {
     /** the number of used threads */
     private int numThreads;
 
+    /** whether the sequences of parsed FASTA files are read from a {@link FastaSequenceStore} instead of the heap */
+    private boolean useSequenceStores;
+
+    /** whether mzTab files are streamed line by line instead of being loaded and validated completely */
+    private boolean streamMzTabFiles;
+
+    /** whether Mascot DAT files are read via an index instead of completely into memory */
+    private boolean indexMascotDatFiles;
+
+    /** whether the online versions of the ontologies are used instead of the shared, shipped ones */
+    private boolean useOnlineOntologies;
+
+
+    /** mapping from the temporary files of decompressed input files to the original file names */
+    private Map<String, String> decompressedFileNames;
+
+    /** temporary files, which are still needed by sequence stores and deleted in {@link #finish()} */
+    private List<File> retainedTempFiles;
+
 
     /** map of the groups */
     private Map<Long, Group> groups;
@@ -168,6 +190,8 @@ public abstract class PIACompiler {
         startDate = new Date();
 
         files = new HashMap<>();
+        decompressedFileNames = new HashMap<>();
+        retainedTempFiles = new ArrayList<>();
 
         spectraDataMap = new HashMap<>();
         searchDatabasesMap = new HashMap<>();
@@ -180,6 +204,10 @@ public abstract class PIACompiler {
         modReader = null;
 
         numThreads = 0;
+        useSequenceStores = false;
+        streamMzTabFiles = false;
+        indexMascotDatFiles = false;
+        useOnlineOntologies = false;
     }
 
 
@@ -189,7 +217,7 @@ public abstract class PIACompiler {
      */
     public final OBOMapper getOBOMapper() {
         if (oboMapper == null) {
-            oboMapper = new OBOMapper();
+            oboMapper = useOnlineOntologies ? new OBOMapper(true) : OBOMapper.getInstance();
         }
         return oboMapper;
     }
@@ -204,7 +232,7 @@ public abstract class PIACompiler {
     public final UnimodParser getUnimodParser() {
         if (unimodParser == null) {
             LOGGER.info("Initializing unimod parser...");
-            unimodParser = new UnimodParser();
+            unimodParser = useOnlineOntologies ? new UnimodParser(true) : UnimodParser.getInstance();
             LOGGER.info("unimod parser initialized...");
         }
         return unimodParser;
@@ -217,7 +245,7 @@ public abstract class PIACompiler {
      */
     public final PsiModParser getPsiModParser() {
         if (psiModParser == null) {
-            psiModParser = new PsiModParser();
+            psiModParser = useOnlineOntologies ? new PsiModParser(true) : PsiModParser.getInstance();
         }
         return psiModParser;
     }
@@ -254,8 +282,36 @@ public abstract class PIACompiler {
             String additionalInfoFileName, String inputFileType) {
         boolean fileParsed;
 
-        fileParsed = InputFileParserFactory.getDataFromFile(name, fileName,
-                this, additionalInfoFileName, inputFileType);
+        File tmpFile = null;
+        File tmpAdditionalFile = null;
+        try {
+            String parsedFileName = fileName;
+            if (CompressedInputFiles.isCompressed(fileName)) {
+                tmpFile = CompressedInputFiles.decompressToTempFile(fileName);
+                parsedFileName = tmpFile.getAbsolutePath();
+                decompressedFileNames.put(parsedFileName, fileName);
+            }
+
+            String parsedAdditionalFileName = additionalInfoFileName;
+            if (CompressedInputFiles.isCompressed(additionalInfoFileName)) {
+                tmpAdditionalFile = CompressedInputFiles.decompressToTempFile(additionalInfoFileName);
+                parsedAdditionalFileName = tmpAdditionalFile.getAbsolutePath();
+            }
+
+            fileParsed = InputFileParserFactory.getDataFromFile(name, parsedFileName,
+                    this, parsedAdditionalFileName, inputFileType);
+        } catch (IOException e) {
+            LOGGER.error("Could not decompress the file " + fileName, e);
+            fileParsed = false;
+        } finally {
+            if (tmpFile != null) {
+                decompressedFileNames.remove(tmpFile.getAbsolutePath());
+                deleteDecompressedFile(tmpFile);
+            }
+            if (tmpAdditionalFile != null) {
+                deleteDecompressedFile(tmpAdditionalFile);
+            }
+        }
 
         if (!fileParsed) {
             LOGGER.error("Error parsing the file "+fileName);
@@ -270,8 +326,44 @@ public abstract class PIACompiler {
     }
 
 
+    /**
+     * Deletes the temporary file of a decompressed input file. If sequence
+     * stores are used, the file (and its index) may still be read by a
+     * {@link FastaSequenceStore} until the compilation is written, so these
+     * are deleted by {@link #deleteRetainedTempFiles()}.
+     *
+     * @param tmpFile
+     */
+    private void deleteDecompressedFile(File tmpFile) {
+        if (useSequenceStores) {
+            File indexFile = new File(tmpFile.getAbsolutePath() + FastaSequenceStore.INDEX_SUFFIX);
+            indexFile.deleteOnExit();
+            retainedTempFiles.add(tmpFile);
+            retainedTempFiles.add(indexFile);
+        } else {
+            CompressedInputFiles.deleteTempFile(tmpFile);
+        }
+    }
+
+
+    /**
+     * Deletes the temporary files of decompressed input files, which were
+     * kept for the sequence stores. This should be called by {@link #finish()}.
+     */
+    protected final void deleteRetainedTempFiles() {
+        for (File tmpFile : retainedTempFiles) {
+            if (tmpFile.exists()) {
+                CompressedInputFiles.deleteTempFile(tmpFile);
+            }
+        }
+        retainedTempFiles.clear();
+    }
+
+
     /**
      * Inserts a new file into the map of file and return a reference to it.
+     * For decompressed input files, the name of the original (compressed) file
+     * is stored.
      *
      * @param name
      * @param fileName
@@ -282,7 +374,7 @@ public abstract class PIACompiler {
         PIAInputFile file;
         Long id = (long)files.size()+1;
 
-        file = new PIAInputFile(id, name, fileName, format);
+        file = new PIAInputFile(id, name, decompressedFileNames.getOrDefault(fileName, fileName), format);
         files.put(id, file);
 
         return file;
@@ -669,6 +761,27 @@ public abstract class PIACompiler {
 
 
 
+    /**
+     * Builds the table of the occurrences of all peptides with their flanking
+     * residues and links it to the peptides. The flanking residues are taken
+     * from the sequences of the accessions once, so this should be called
+     * after all data was read in. It is called before writing the
+     * intermediate file, which stores the flanking residues.
+     *
+     * @return the built table
+     */
+    public final PeptideOccurrenceTable buildPeptideOccurrenceTable() {
+        List<Peptide> allPeptides = new ArrayList<>(getNrPeptides());
+        for (Long pepId : getAllPeptideIDs()) {
+            allPeptides.add(getPeptide(pepId));
+        }
+
+        PeptideOccurrenceTable table = PeptideOccurrenceTable.build(allPeptides);
+        LOGGER.info("built the occurrence table with " + table.getNrRows() + " occurrences");
+        return table;
+    }
+
+
     /**
      * Builds up the list of peptide accession maps. The list is clustered, i.e.
      * each entry in the list may be processed in parallel.
@@ -910,6 +1023,88 @@ public abstract class PIACompiler {
     }
 
 
+    /**
+     * Sets whether the sequences of parsed FASTA files are kept in a
+     * memory-mapped {@link FastaSequenceStore} instead of the heap. This
+     * creates an index file next to each FASTA file.
+     *
+     * @param useStores
+     */
+    public final void setUseSequenceStores(boolean useStores) {
+        useSequenceStores = useStores;
+    }
+
+
+    /**
+     * Gets whether the sequences of parsed FASTA files are kept in a
+     * {@link FastaSequenceStore}.
+     */
+    public final boolean getUseSequenceStores() {
+        return useSequenceStores;
+    }
+
+
+    /**
+     * Sets whether mzTab files are streamed line by line into the compiler,
+     * instead of loading and validating the complete file first. This needs
+     * much less memory for large files.
+     *
+     * @param stream
+     */
+    public final void setStreamMzTabFiles(boolean stream) {
+        streamMzTabFiles = stream;
+    }
+
+
+    /**
+     * Gets whether mzTab files are streamed line by line into the compiler.
+     */
+    public final boolean getStreamMzTabFiles() {
+        return streamMzTabFiles;
+    }
+
+
+    /**
+     * Sets whether Mascot DAT files are read via an index of their sections
+     * instead of loading them completely into memory. The indexed mode needs
+     * memory independent of the file size, but is slower for small files.
+     *
+     * @param index
+     */
+    public final void setIndexMascotDatFiles(boolean index) {
+        indexMascotDatFiles = index;
+    }
+
+
+    /**
+     * Gets whether Mascot DAT files are read via an index.
+     */
+    public final boolean getIndexMascotDatFiles() {
+        return indexMascotDatFiles;
+    }
+
+
+    /**
+     * Sets whether the online versions of the ontologies (PSI-MS, PSI-MOD and
+     * Unimod) are fetched and parsed for this compiler. By default, the
+     * shipped versions are used, which are shared in the JVM and need no
+     * network access. Must be set before the first file is parsed.
+     *
+     * @param useOnline
+     */
+    public final void setUseOnlineOntologies(boolean useOnline) {
+        useOnlineOntologies = useOnline;
+    }
+
+
+    /**
+     * Gets whether the online versions of the ontologies are used.
+     */
+    public final boolean getUseOnlineOntologies() {
+        return useOnlineOntologies;
+    }
+
+
     /**
      * Write out the intermediate structure into an XML file.
      *
@@ -1161,6 +1356,9 @@ public abstract class PIACompiler {
     private void writeOutJaxbPeptides(XMLStreamWriter xmlOut) throws XMLStreamException, JAXBException {
         xmlOut.writeStartElement("peptidesList");
 
+        // the peptides write their occurrences from the table
+        buildPeptideOccurrenceTable();
+
         Marshaller m = createMarshallerForPiaXML(PeptideXML.class);
 
         for (Long pepId : getAllPeptideIDs()) {
@@ -269,6 +269,6 @@ public class PIASimpleCompiler extends PIACompiler {
 
     @Override
     public void finish() {
-        // nothing to do here
+        deleteRetainedTempFiles();
     }
 }
@@ -0,0 +1,278 @@
+package de.mpc.pia.intermediate.compiler.parser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.log4j.Logger;
+
+import de.mpc.pia.tools.ReadAheadInputStream;
+
+
+/**
+ * Helper to handle compressed input files. The compression is detected by the
+ * magic bytes of the file, supported files are decompressed into a temporary
+ * file (which keeps the original file ending, without the compression suffix),
+ * so that the parsers can read them like any other input file.
+ *
+ * @author julian
+ *
+ */
+public class CompressedInputFiles {
+
+    /** logger for this class */
+    private static final Logger LOGGER = Logger.getLogger(CompressedInputFiles.class);
+
+    /** the size of the buffers used for decompression */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+
+    /**
+     * The known compression formats of input files.
+     */
+    public enum Compression {
+        NONE(null, new byte[0]),
+        GZIP("gz", new byte[]{0x1f, (byte) 0x8b}),
+        ZSTD("zst", new byte[]{0x28, (byte) 0xb5, 0x2f, (byte) 0xfd}),
+        BZIP2("bz2", new byte[]{'B', 'Z', 'h'}),
+        ;
+
+        /** the usual file suffix */
+        private final String suffix;
+
+        /** the magic bytes at the start of the file */
+        private final byte[] magicBytes;
+
+
+        Compression(String suffix, byte[] magicBytes) {
+            this.suffix = suffix;
+            this.magicBytes = magicBytes;
+        }
+
+
+        public String getSuffix() {
+            return suffix;
+        }
+
+
+        /**
+         * Whether files with this compression can be decompressed.
+         *
+         * @return
+         */
+        public boolean isSupported() {
+            return (this == NONE) || (this == GZIP);
+        }
+
+
+        /**
+         * Whether the given file header starts with the magic bytes of this
+         * compression.
+         */
+        private boolean matches(byte[] header, int length) {
+            if ((magicBytes.length == 0) || (length < magicBytes.length)) {
+                return false;
+            }
+            for (int i = 0; i < magicBytes.length; i++) {
+                if (header[i] != magicBytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+
+    /**
+     * We don't ever want to instantiate this class
+     */
+    private CompressedInputFiles() {
+        throw new AssertionError();
+    }
+
+
+    /**
+     * Detects the compression of the given file by its first bytes.
+     *
+     * @param fileName
+     * @return the compression, {@link Compression#NONE} if the file is not
+     * compressed or cannot be read
+     */
+    public static Compression getCompression(String fileName) {
+        byte[] header = new byte[4];
+        int length = 0;
+
+        try (InputStream in = new FileInputStream(fileName)) {
+            int read;
+            while ((length < header.length) && ((read = in.read(header, length, header.length - length)) > -1)) {
+                length += read;
+            }
+        } catch (IOException e) {
+            LOGGER.debug("could not read " + fileName, e);
+            return Compression.NONE;
+        }
+
+        for (Compression compression : Compression.values()) {
+            if (compression.matches(header, length)) {
+                return compression;
+            }
+        }
+        return Compression.NONE;
+    }
+
+
+    /**
+     * Whether the given file is compressed (with a known compression).
+     *
+     * @param fileName
+     * @return
+     */
+    public static boolean isCompressed(String fileName) {
+        return (fileName != null) && (getCompression(fileName) != Compression.NONE);
+    }
+
+
+    /**
+     * Opens a stream of the uncompressed content of the given file. The
+     * decompression runs in a background thread, which reads ahead while the
+     * returned stream is consumed.
+     *
+     * @param fileName
+     * @return
+     * @throws IOException if the compression is not supported or the file
+     * cannot be read
+     */
+    public static InputStream openInputStream(String fileName) throws IOException {
+        Compression compression = getCompression(fileName);
+        if (!compression.isSupported()) {
+            throw new IOException("The compression of '" + fileName + "' (" + compression.getSuffix()
+                    + ") is not supported, please decompress the file first.");
+        }
+
+        InputStream in = new FileInputStream(fileName);
+        if (compression == Compression.GZIP) {
+            in = new GZIPInputStream(in, BUFFER_SIZE);
+        }
+        return new ReadAheadInputStream(in);
+    }
+
+
+    /**
+     * Decompresses the given file into a temporary file. The temporary file
+     * keeps the file ending of the uncompressed file (e.g. "results.mzid.gz"
+     * becomes "results*.mzid") and is deleted on exit of the JVM, if not
+     * deleted before.
+     *
+     * @param fileName
+     * @return the temporary file
+     * @throws IOException
+     */
+    public static File decompressToTempFile(String fileName) throws IOException {
+        File tmpFile = createTempFile(fileName);
+
+        long startTime = System.currentTimeMillis();
+        long bytes = 0;
+        try (InputStream in = openInputStream(fileName);
+                OutputStream out = new FileOutputStream(tmpFile)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) > -1) {
+                out.write(buffer, 0, read);
+                bytes += read;
+            }
+        } catch (IOException e) {
+            deleteTempFile(tmpFile);
+            throw e;
+        }
+
+        LOGGER.info("decompressed " + fileName + " (" + bytes + " bytes) in "
+                + (System.currentTimeMillis() - startTime) + " ms");
+        return tmpFile;
+    }
+
+
+    /**
+     * Decompresses only the start of the given file into a temporary file
+     * (named like by {@link #decompressToTempFile(String)}), e.g. to check the
+     * type of the file. The start is cut after the last complete line within
+     * the given number of bytes.
+     *
+     * @param fileName
+     * @param maxBytes the maximal number of decompressed bytes
+     * @return the temporary file
+     * @throws IOException
+     */
+    public static File decompressStartToTempFile(String fileName, int maxBytes) throws IOException {
+        File tmpFile = createTempFile(fileName);
+
+        byte[] start = new byte[maxBytes];
+        int length = 0;
+        try (InputStream in = openInputStream(fileName);
+                OutputStream out = new FileOutputStream(tmpFile)) {
+            int read;
+            while ((length < maxBytes) && ((read = in.read(start, length, maxBytes - length)) > -1)) {
+                length += read;
+            }
+
+            if ((length == maxBytes) && (in.read() > -1)) {
+                // the file is longer, do not pass an incomplete line
+                int lineEnd = length - 1;
+                while ((lineEnd >= 0) && (start[lineEnd] != '\n')) {
+                    lineEnd--;
+                }
+                length = lineEnd + 1;
+            }
+            out.write(start, 0, length);
+        } catch (IOException e) {
+            deleteTempFile(tmpFile);
+            throw e;
+        }
+
+        return tmpFile;
+    }
+
+
+    /**
+     * Creates the (empty) temporary file for the decompressed content of the
+     * given file.
+     */
+    private static File createTempFile(String fileName) throws IOException {
+        String baseName = new File(fileName).getName();
+        Compression compression = getCompression(fileName);
+        if ((compression.getSuffix() != null)
+                && baseName.toLowerCase().endsWith('.' + compression.getSuffix())) {
+            baseName = baseName.substring(0, baseName.length() - compression.getSuffix().length() - 1);
+        }
+
+        String prefix = baseName;
+        String suffix = null;
+        int dotIdx = baseName.lastIndexOf('.');
+        if (dotIdx > 0) {
+            prefix = baseName.substring(0, dotIdx);
+            suffix = baseName.substring(dotIdx);
+        }
+        if (prefix.length() < 3) {
+            prefix = prefix + "___";
+        }
+
+        File tmpFile = File.createTempFile(prefix, suffix);
+        tmpFile.deleteOnExit();
+        return tmpFile;
+    }
+
+
+    /**
+     * Deletes the given temporary file, a failure is only logged.
+     *
+     * @param tmpFile
+     */
+    public static void deleteTempFile(File tmpFile) {
+        if (!tmpFile.delete()) {
+            LOGGER.warn("could not delete " + tmpFile.getAbsolutePath());
+        }
+    }
+}
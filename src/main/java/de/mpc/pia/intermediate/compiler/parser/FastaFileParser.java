@@ -3,11 +3,22 @@ package de.mpc.pia.intermediate.compiler.parser;
 import java.io.BufferedReader;
 import java.io.DataInputStream;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -22,6 +33,7 @@ import uk.ac.ebi.jmzidml.model.mzidml.SpectrumIdentificationProtocol;
 
 import de.mpc.pia.intermediate.Accession;
 import de.mpc.pia.intermediate.AccessionOccurrence;
+import de.mpc.pia.intermediate.FastaSequenceStore;
 import de.mpc.pia.intermediate.PIAInputFile;
 import de.mpc.pia.intermediate.Peptide;
 import de.mpc.pia.intermediate.PeptideSpectrumMatch;
@@ -35,6 +47,9 @@ public class FastaFileParser {
     /** logger for this class */
     private static final Logger LOGGER = Logger.getLogger(FastaFileParser.class);
 
+    /** the maximal number of proteins in the digestion, which are not yet inserted into the compiler */
+    private static final int DIGESTION_QUEUE_SIZE = 1000;
+
 
     /**
      * We don't ever want to instantiate this class
@@ -100,57 +115,22 @@ public class FastaFileParser {
             inputFile.addSpectrumIdentification(spectrumID);
 
 
-            String strLine;
-            int spectrumOffset = 0;
-            int accessions = 0;
-            FastaHeaderInfos headerInfos = null;
-            StringBuilder dbSequenceBuffer = new StringBuilder();
-
-            while ((strLine = br.readLine()) != null) {
-                if (strLine.startsWith(">")) {
-                    if ((headerInfos != null) && (dbSequenceBuffer.length() > 0)) {
-                        // a prior protein can be inserted and digested
-                        spectrumOffset += digestProtein(headerInfos,
-                                dbSequenceBuffer.toString(),
-                                compiler,
-                                inputFile,
-                                spectrumID,
-                                searchDatabase.getId(),
-                                enzymePattern,
-                                minPepLength,
-                                maxPepLength,
-                                missedCleavages,
-                                spectrumOffset);
-                        accessions++;
-
-                        if (accessions % 100000 == 0) {
-                            LOGGER.info(accessions + " accessions processed");
-                        }
-                    }
-
-                    // start of a new protein
-                    headerInfos = FastaHeaderInfos.parseHeaderInfos(strLine);
-                    dbSequenceBuffer = new StringBuilder();
-                } else {
-                    // just reading in the protein sequence
-                    dbSequenceBuffer.append(strLine.trim());
+            int nrThreads = (compiler.getNrThreads() > 0) ?
+                    compiler.getNrThreads() : Runtime.getRuntime().availableProcessors();
+            LOGGER.info("Digesting with " + nrThreads + " threads.");
+
+            FastaSequenceStore sequenceStore = null;
+            if (compiler.getUseSequenceStores()) {
+                try {
+                    sequenceStore = new FastaSequenceStore(fileName);
+                } catch (IOException e) {
+                    LOGGER.warn("Could not create the sequence store, keeping the sequences in memory", e);
                 }
             }
 
-            if ((headerInfos != null) && (dbSequenceBuffer.length() > 0)) {
-                // the last protein can be inserted and digested
-                spectrumOffset += digestProtein(headerInfos,
-                        dbSequenceBuffer.toString(),
-                        compiler,
-                        inputFile,
-                        spectrumID,
-                        searchDatabase.getId(),
-                        enzymePattern,
-                        minPepLength,
-                        maxPepLength,
-                        missedCleavages,
-                        spectrumOffset);
-            }
+            parseAndDigestProteins(br, compiler, inputFile, spectrumID, searchDatabase.getId(),
+                    Pattern.compile(enzymePattern), minPepLength, maxPepLength, missedCleavages,
+                    nrThreads, sequenceStore);
 
             in.close();
         } catch (Exception e) {
@@ -162,41 +142,140 @@ public class FastaFileParser {
 
 
     /**
-     * Inserts the peptides of the given protein into the compiler.
+     * Reads the proteins from the reader and inserts them with their peptides
+     * into the compiler. The proteins are read in an own thread and digested
+     * by a pool of threads, while the calling thread inserts the digested
+     * proteins in the order of the file into the compiler.
      *
-     * @param fastaHeader
-     * @param dbSequence
-     * @param compiler
+     * @param sequenceStore if not null, the sequences of the accessions are
+     * read from this store instead of being kept on the heap
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws ExecutionException
      */
-    private static int digestProtein(FastaHeaderInfos fastaHeader,
-            String dbSequence, PIACompiler compiler, PIAInputFile inputFile,
-            SpectrumIdentification spectrumID, String searchDBRef,
-            String enzymePattern, int minPepLength, int maxPepLength,
-            int maxMissedCleavages, int spectrumCountOffset) {
-        Accession accession;
+    private static void parseAndDigestProteins(BufferedReader br, PIACompiler compiler,
+            PIAInputFile inputFile, SpectrumIdentification spectrumID, String searchDBRef,
+            Pattern cleavagePattern, int minPepLength, int maxPepLength, int missedCleavages,
+            int nrThreads, FastaSequenceStore sequenceStore)
+            throws IOException, InterruptedException, ExecutionException {
+        ExecutorService digestionPool = Executors.newFixedThreadPool(nrThreads);
+        BlockingQueue<Future<DigestedProtein>> digestedProteins =
+                new ArrayBlockingQueue<>(DIGESTION_QUEUE_SIZE);
+        AtomicReference<IOException> readError = new AtomicReference<>();
+
+        Thread readerThread = new Thread(() -> {
+            try {
+                readProteins(br, digestionPool, digestedProteins, cleavagePattern,
+                        minPepLength, maxPepLength, missedCleavages);
+            } catch (IOException e) {
+                readError.set(e);
+            } catch (InterruptedException e) {
+                LOGGER.debug("reading of the FASTA file was interrupted");
+                Thread.currentThread().interrupt();
+            } finally {
+                // signals the end of the proteins, this must wait for space in the queue
+                try {
+                    digestedProteins.put(CompletableFuture.completedFuture(null));
+                } catch (InterruptedException e) {
+                    // the proteins are not processed any further
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "FASTA reader");
+        readerThread.setDaemon(true);
+        readerThread.start();
 
-        // first, look if the accession is already in the compilation (this should not be the case!)
-        accession = compiler.getAccession(fastaHeader.getAccession());
-        if (accession != null) {
-            LOGGER.warn("Protein with accession " + accession.getAccession() +
-                    " already in the compilation! Only keeping the sequence " +
-                    "of the first accession.");
-            return 0;
+        try {
+            int spectrumOffset = 0;
+            int accessions = 0;
+
+            DigestedProtein protein;
+            while ((protein = digestedProteins.take().get()) != null) {
+                spectrumOffset += insertProtein(protein, compiler, inputFile, spectrumID,
+                        searchDBRef, spectrumOffset, sequenceStore);
+                accessions++;
+
+                if (accessions % 100000 == 0) {
+                    LOGGER.info(accessions + " accessions processed");
+                }
+            }
+
+            if (readError.get() != null) {
+                throw readError.get();
+            }
+        } finally {
+            readerThread.interrupt();
+            digestionPool.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Reads the proteins and passes them to the digestion pool. The digestion
+     * results are put into the queue in the order of the file.
+     */
+    private static void readProteins(BufferedReader br, ExecutorService digestionPool,
+            BlockingQueue<Future<DigestedProtein>> digestedProteins, Pattern cleavagePattern,
+            int minPepLength, int maxPepLength, int missedCleavages)
+            throws IOException, InterruptedException {
+        String strLine;
+        String headerLine = null;
+        StringBuilder dbSequenceBuffer = new StringBuilder();
+
+        while ((strLine = br.readLine()) != null) {
+            if (strLine.startsWith(">")) {
+                if ((headerLine != null) && (dbSequenceBuffer.length() > 0)) {
+                    // a prior protein can be digested
+                    digestedProteins.put(submitDigestion(digestionPool, headerLine,
+                            dbSequenceBuffer.toString(), cleavagePattern,
+                            minPepLength, maxPepLength, missedCleavages));
+                }
+
+                // start of a new protein
+                headerLine = strLine;
+                dbSequenceBuffer = new StringBuilder();
+            } else {
+                // just reading in the protein sequence
+                dbSequenceBuffer.append(strLine.trim());
+            }
         }
 
-        // put the new accession into the compiler
-        accession = compiler.insertNewAccession(fastaHeader.getAccession(),
-                dbSequence);
+        if ((headerLine != null) && (dbSequenceBuffer.length() > 0)) {
+            // the last protein can be digested
+            digestedProteins.put(submitDigestion(digestionPool, headerLine,
+                    dbSequenceBuffer.toString(), cleavagePattern,
+                    minPepLength, maxPepLength, missedCleavages));
+        }
+    }
 
-        accession.addFile(inputFile.getID());
 
-        accession.addDescription(inputFile.getID(),
-                fastaHeader.getDescription());
+    /**
+     * Submits the digestion of the given protein to the pool.
+     */
+    private static Future<DigestedProtein> submitDigestion(ExecutorService digestionPool,
+            String headerLine, String dbSequence, Pattern cleavagePattern,
+            int minPepLength, int maxPepLength, int missedCleavages) {
+        return digestionPool.submit(() -> digestProtein(
+                FastaHeaderInfos.parseHeaderInfos(headerLine), dbSequence, cleavagePattern,
+                minPepLength, maxPepLength, missedCleavages));
+    }
 
-        accession.addSearchDatabaseRef(searchDBRef);
+
+    /**
+     * Digests the given protein into its peptides. This does not access the
+     * compiler and can be called by multiple threads concurrently.
+     *
+     * @param fastaHeader
+     * @param dbSequence
+     * @param cleavagePattern
+     */
+    private static DigestedProtein digestProtein(FastaHeaderInfos fastaHeader,
+            String dbSequence, Pattern cleavagePattern, int minPepLength, int maxPepLength,
+            int maxMissedCleavages) {
+        DigestedProtein protein = new DigestedProtein(fastaHeader, dbSequence);
 
         // digest the protein
-        String[] peptides = dbSequence.split(enzymePattern);
+        String[] peptides = cleavagePattern.split(dbSequence);
 
         // if the missedCleavages is below 0, allow for all possible missed cleavages
         int missedCleavages;
@@ -220,14 +299,8 @@ public class FastaFileParser {
 
                 if ((sequence.length() >= minPepLength) &&
                         (sequence.length() <= maxPepLength)) {
-                    addSequence(sequence.toString(),
-                            accession,
-                            start+1,
-                            missed,
-                            compiler,
-                            inputFile,
-                            spectrumID,
-                            spectrumCountOffset + spectraCount);
+                    protein.peptides.add(new DigestedPeptide(sequence.toString(),
+                            start + 1, missed, spectraCount));
                 }
 
                 start += peptides[i].length();
@@ -236,7 +309,57 @@ public class FastaFileParser {
 
         }
 
-        return spectraCount;
+        protein.spectraCount = spectraCount;
+        return protein;
+    }
+
+
+    /**
+     * Inserts the digested protein and its peptides into the compiler.
+     *
+     * @return the number of used spectrum indices
+     */
+    private static int insertProtein(DigestedProtein protein, PIACompiler compiler,
+            PIAInputFile inputFile, SpectrumIdentification spectrumID, String searchDBRef,
+            int spectrumCountOffset, FastaSequenceStore sequenceStore) {
+        FastaHeaderInfos fastaHeader = protein.fastaHeader;
+        Accession accession;
+
+        // first, look if the accession is already in the compilation (this should not be the case!)
+        accession = compiler.getAccession(fastaHeader.getAccession());
+        if (accession != null) {
+            LOGGER.warn("Protein with accession " + accession.getAccession() +
+                    " already in the compilation! Only keeping the sequence " +
+                    "of the first accession.");
+            return 0;
+        }
+
+        // put the new accession into the compiler
+        accession = compiler.insertNewAccession(fastaHeader.getAccession(),
+                protein.dbSequence);
+        if (sequenceStore != null) {
+            accession.setSequenceStore(sequenceStore);
+        }
+
+        accession.addFile(inputFile.getID());
+
+        accession.addDescription(inputFile.getID(),
+                fastaHeader.getDescription());
+
+        accession.addSearchDatabaseRef(searchDBRef);
+
+        for (DigestedPeptide peptide : protein.peptides) {
+            addSequence(peptide.sequence,
+                    accession,
+                    peptide.start,
+                    peptide.missed,
+                    compiler,
+                    inputFile,
+                    spectrumID,
+                    spectrumCountOffset + peptide.spectrumIndex);
+        }
+
+        return protein.spectraCount;
     }
 
 
@@ -368,4 +491,51 @@ public class FastaFileParser {
 
         return isFastaFile;
     }
+
+
+    /**
+     * A protein with the peptides of its digestion.
+     */
+    private static class DigestedProtein {
+
+        private final FastaHeaderInfos fastaHeader;
+
+        private final String dbSequence;
+
+        private final List<DigestedPeptide> peptides;
+
+        /** the number of used spectrum indices */
+        private int spectraCount;
+
+
+        private DigestedProtein(FastaHeaderInfos fastaHeader, String dbSequence) {
+            this.fastaHeader = fastaHeader;
+            this.dbSequence = dbSequence;
+            this.peptides = new ArrayList<>();
+        }
+    }
+
+
+    /**
+     * A peptide of a digested protein.
+     */
+    private static class DigestedPeptide {
+
+        private final String sequence;
+
+        private final int start;
+
+        private final int missed;
+
+        /** the index of the pseudo spectrum within the protein */
+        private final int spectrumIndex;
+
+
+        private DigestedPeptide(String sequence, int start, int missed, int spectrumIndex) {
+            this.sequence = sequence;
+            this.start = start;
+            this.missed = missed;
+            this.spectrumIndex = spectrumIndex;
+        }
+    }
 }
@@ -44,7 +44,7 @@ import de.mpc.pia.modeller.score.ScoreModelEnum;
 import de.mpc.pia.tools.CleavageAgent;
 import de.mpc.pia.tools.MzIdentMLTools;
 import de.mpc.pia.tools.OntologyConstants;
-import de.mpc.pia.tools.PIATools;
+import de.mpc.pia.tools.PeptideOccurrenceFinder;
 import de.mpc.pia.tools.openms.IdXMLParser;
 import de.mpc.pia.tools.openms.jaxb.DigestionEnzyme;
 import de.mpc.pia.tools.openms.jaxb.FixedModification;
@@ -117,164 +117,21 @@ public class IdXMLFileParser {
     public static boolean getDataFromIdXMLFile(String name, String fileName,
             PIACompiler compiler) {
 
-        IdXMLParser idXMLFile;
+        IdXMLParser idXMLFile = new IdXMLParser(fileName);
+        IdXMLRunInserter inserter;
 
         try {
-            idXMLFile = new IdXMLParser(fileName);
+            inserter = new IdXMLRunInserter(name, fileName, compiler, idXMLFile.countIdentificationRuns());
+            idXMLFile.parse(inserter);
         } catch (Exception e) {
             LOGGER.error("could not read '" + fileName + "'.", e);
             return false;
         }
 
-        int accNr = 0;
-        int pepNr = 0;
-        int specNr = 0;
-        int runCount = 0;
-        for (IdentificationRun idRun : idXMLFile.getIdentificationRuns()) {
-
-            runCount++;
-            PIAInputFile file;
-            if (idXMLFile.getIdentificationRuns().size() > 1) {
-                file = compiler.insertNewFile(
-                        name + "_run" + runCount,
-                        fileName,
-                        InputFileParserFactory.InputFileTypes.ID_XML_INPUT.getFileSuffix());
-            } else {
-                file = compiler.insertNewFile(
-                        name,
-                        fileName,
-                        InputFileParserFactory.InputFileTypes.ID_XML_INPUT.getFileSuffix());
-            }
-
-            if (idRun.getProteinIdentification() == null) {
-                LOGGER.error("This identification has no protein information, so PIA cannot use it.");
-                break;
-            }
-
-            // create the analysis software and add it to the compiler
-            AnalysisSoftware topp = new AnalysisSoftware();
-            topp.setId("topp");
-            topp.setName("TOPP software");
-            topp.setUri("http://open-ms.sourceforge.net/");
-
-            Param param = new Param();
-            param.setParam(MzIdentMLTools.createPSICvParam(OntologyConstants.TOPP_SOFTWARE, null));
-            topp.setSoftwareName(param);
-
-            topp = compiler.putIntoSoftwareMap(topp);
-
-            // define the spectrumIdentificationProtocol
-            SearchParameters searchParameters = (SearchParameters)idRun.getSearchParametersRef();
-
-            SpectrumIdentificationProtocol spectrumIDProtocol = new SpectrumIdentificationProtocol();
-            spectrumIDProtocol.setId("toppAnalysis");
-            spectrumIDProtocol.setAnalysisSoftware(topp);
-
-            // only supporting "ms-ms search" for now
-            param = new Param();
-            param.setParam(MzIdentMLTools.createPSICvParam(OntologyConstants.MS_MS_SEARCH, null));
-            spectrumIDProtocol.setSearchType(param);
-
-            spectrumIDProtocol.setAdditionalSearchParams(new ParamList());
-            if (searchParameters.getMassType().equals(MassType.MONOISOTOPIC)) {
-                spectrumIDProtocol.getAdditionalSearchParams().getCvParam().add(
-                        MzIdentMLTools.createPSICvParam(OntologyConstants.FRAGMENT_MASS_TYPE_MONO, null));
-                spectrumIDProtocol.getAdditionalSearchParams().getCvParam().add(
-                        MzIdentMLTools.createPSICvParam(OntologyConstants.PARENT_MASS_TYPE_MONO, null));
-            } else {
-                spectrumIDProtocol.getAdditionalSearchParams().getCvParam().add(
-                        MzIdentMLTools.createPSICvParam(OntologyConstants.FRAGMENT_MASS_TYPE_AVERAGE, null));
-                spectrumIDProtocol.getAdditionalSearchParams().getCvParam().add(
-                        MzIdentMLTools.createPSICvParam(OntologyConstants.PARENT_MASS_TYPE_AVERAGE, null));
-            }
-
-            // Modifications
-            ModificationParams modParams = processModifications(compiler,
-                    searchParameters.getVariableModification(),
-                    searchParameters.getFixedModification());
-            spectrumIDProtocol.setModificationParams(modParams);
-
-            // Enzymes
-            Enzyme enzyme = parseEnzyme(searchParameters.getEnzyme(), searchParameters.getMissedCleavages());
-            Enzymes enzymes = new Enzymes();
-            enzymes.getEnzyme().add(enzyme);
-            spectrumIDProtocol.setEnzymes(enzymes);
-
-
-            // fragment and peptide tolerances
-            Tolerance tolerance = new Tolerance();
-            tolerance.getCvParam().add(
-                    MzIdentMLTools.createPSICvParam(OntologyConstants.SEARCH_TOLERANCE_PLUS_VALUE,
-                            Float.toString(searchParameters.getPeakMassTolerance())));
-            tolerance.getCvParam().add(
-                    MzIdentMLTools.createPSICvParam(OntologyConstants.SEARCH_TOLERANCE_MINUS_VALUE,
-                            Float.toString(searchParameters.getPeakMassTolerance())));
-            spectrumIDProtocol.setFragmentTolerance(tolerance);
-
-            tolerance = new Tolerance();
-            tolerance.getCvParam().add(
-                    MzIdentMLTools.createPSICvParam(OntologyConstants.SEARCH_TOLERANCE_PLUS_VALUE,
-                            Float.toString(searchParameters.getPrecursorPeakTolerance())));
-            tolerance.getCvParam().add(
-                    MzIdentMLTools.createPSICvParam(OntologyConstants.SEARCH_TOLERANCE_MINUS_VALUE,
-                            Float.toString(searchParameters.getPrecursorPeakTolerance())));
-            spectrumIDProtocol.setParentTolerance(tolerance);
-
-            // add the protocol to the file
-            file.addSpectrumIdentificationProtocol(spectrumIDProtocol);
-
-            // create the SearchDatabase
-            SearchDatabase searchDatabase = new SearchDatabase();
-            searchDatabase.setId("toppDB");
-            searchDatabase.setLocation(searchParameters.getDbVersion());
-            if ((searchParameters.getDb() == null) || searchParameters.getDb().trim().isEmpty()) {
-                // sometimes the searchdatabase gets lost in idXMLs
-                searchParameters.setDb("unspecified database");
-            }
-            searchDatabase.setName(searchParameters.getDb());
-            // databaseName
-            param = new Param();
-            param.setParam(MzIdentMLTools.createUserParam(searchParameters.getDb(), null, "string"));
-            searchDatabase.setDatabaseName(param);
-            // TODO: add taxonomy information
-            // add searchDB to the compiler
-
-            searchDatabase = compiler.putIntoSearchDatabasesMap(searchDatabase);
-
-
-            // build the SpectrumIdentification
-            SpectrumIdentification spectrumID = new SpectrumIdentification();
-            spectrumID.setId("openmsIdentification");
-            spectrumID.setSpectrumIdentificationList(null);
-            spectrumID.setSpectrumIdentificationProtocol(spectrumIDProtocol);
-
-
-            InputSpectra inputSpectra = new InputSpectra();
-            inputSpectra.setSpectraData(createFilesSpectradata(compiler, fileName));
-            spectrumID.getInputSpectra().add(inputSpectra);
-
-
-            SearchDatabaseRef searchDBRef = new SearchDatabaseRef();
-            searchDBRef.setSearchDatabase(searchDatabase);
-            spectrumID.getSearchDatabaseRef().add(searchDBRef);
-
-            file.addSpectrumIdentification(spectrumID);
-
-            // go through the peptide identifications
-            for (PeptideIdentification pepID : idRun.getPeptideIdentification()) {
-                int[] adds = processPeptideIdentification(pepID, compiler,
-                        enzyme, file, spectrumID, idRun,
-                        searchDatabase.getId());
-                specNr += adds[0];
-                pepNr += adds[1];
-                accNr += adds[2];
-            }
-        }
-
         LOGGER.info("inserted new: \n\t" +
-                pepNr + " peptides\n\t" +
-                specNr + " peptide spectrum matches\n\t" +
-                accNr + " accessions");
+                inserter.pepNr + " peptides\n\t" +
+                inserter.specNr + " peptide spectrum matches\n\t" +
+                inserter.accNr + " accessions");
         return true;
     }
 
@@ -340,8 +197,8 @@ public class IdXMLFileParser {
             sourceID = pepID.getMZ() + "__" + pepID.getRT();
         }
 
-        // the distinct PSMs in this pepID
-        List<PeptideSpectrumMatch> hitsPSMs = new ArrayList<>();
+        // the distinct PSMs in this pepID, mapped by their hash codes
+        Map<Integer, List<PeptideSpectrumMatch>> hitsPSMs = new HashMap<>();
 
         for (PeptideHit pepHit : pepID.getPeptideHit()) {
             if (pepHit.getProteinRefs().isEmpty()) {
@@ -401,9 +258,8 @@ public class IdXMLFileParser {
             }
 
             // there is a bug in OpenMS which creates sometimes multiple peptideHits with identical values originating from the same spectra
-            if (!listContainsPSM(hitsPSMs, psm)) {
+            if (addIfNotContained(hitsPSMs, psm)) {
                 compiler.insertCompletePeptideSpectrumMatch(psm);
-                hitsPSMs.add(psm);
 
                 // add the spectrum to the peptide
                 peptide.addSpectrum(psm);
@@ -963,44 +819,14 @@ public class IdXMLFileParser {
      * @return
      */
     private static List<Integer> getStartSites(String peptide, String protein) {
-        List<Integer> startSites = new ArrayList<>();
-
-        String peptideSeq = peptide.toUpperCase();
-        String proteinSeq = protein.toUpperCase();
-
-        if (peptideSeq.contains("X")) {
-            // replace the X by "." for regular expression matching
-            peptideSeq = peptideSeq.replace("X", ".");
-        }
-
-        Matcher matcher;
-        matcher = Pattern.compile(peptideSeq).matcher(proteinSeq);
-        while (matcher.find()) {
-            startSites.add(matcher.start() + 1);
-        }
-
-        if (proteinSeq.contains("X")) {
-            // needs to match around the X
-            matcher = Pattern.compile("X").matcher(proteinSeq);
-            while (matcher.find()) {
-                int subStart = Math.max(0, matcher.start() - peptideSeq.length() + 1);
-                int subEnd = Math.min(proteinSeq.length(), matcher.end() + peptideSeq.length() - 1);
-
-                String subProteinSeq = proteinSeq.substring(subStart, subEnd);
-                Integer pos = PIATools.longestCommonPeptide(peptideSeq, subProteinSeq);
-
-                if (pos > -1) {
-                    pos = subStart + pos;
-                    startSites.add(pos);
-                }
-            }
-
-            // clean the startSites
-            startSites = startSites.stream().distinct().collect(Collectors.toList());
+        List<Integer> startSites = PeptideOccurrenceFinder.findStartSites(peptide, protein);
+        if (startSites.isEmpty()) {
+            // the search engine may not distinguish I and L
+            startSites = PeptideOccurrenceFinder.findStartSites(peptide, protein, true);
         }
 
         if (startSites.isEmpty()) {
-            LOGGER.warn("no occurrences for " + peptideSeq + "    dbSeq: " + proteinSeq);
+            LOGGER.warn("no occurrences for " + peptide + "    dbSeq: " + protein);
         }
 
         return startSites;
@@ -1008,18 +834,24 @@ public class IdXMLFileParser {
 
 
     /**
-     * Check whether the list of PSMs already contains the PSMs, without comparing the IDs
+     * Adds the PSM to the PSMs mapped by their hash codes (without the IDs),
+     * if no equal PSM (without comparing the IDs) is already contained.
      *
-     * @param psmList
+     * @param psmsByHash
      * @param psm
-     * @return
+     * @return true, if the PSM was added
      */
-    private static boolean listContainsPSM(List<PeptideSpectrumMatch> psmList, PeptideSpectrumMatch psm) {
-        int psmHash = psm.hashCodeWithoutID();
+    private static boolean addIfNotContained(Map<Integer, List<PeptideSpectrumMatch>> psmsByHash,
+            PeptideSpectrumMatch psm) {
+        List<PeptideSpectrumMatch> sameHashPSMs =
+                psmsByHash.computeIfAbsent(psm.hashCodeWithoutID(), hash -> new ArrayList<>(1));
 
-        // evaluate for same hashcodes and equality
-        return psmList.stream().
-                anyMatch(s -> (psmHash == s.hashCodeWithoutID()) && psm.equalsWithoutID(s));
+        if (sameHashPSMs.stream().anyMatch(psm::equalsWithoutID)) {
+            return false;
+        }
+
+        sameHashPSMs.add(psm);
+        return true;
     }
 
 
@@ -1112,4 +944,202 @@ public class IdXMLFileParser {
 
         return isIdXMLFile;
     }
+
+
+    /**
+     * Inserts the streamed IdentificationRuns and PeptideIdentifications of an
+     * idXML file into the compiler.
+     */
+    private static class IdXMLRunInserter implements IdXMLParser.IdXMLHandler {
+
+        private final String name;
+
+        private final String fileName;
+
+        private final PIACompiler compiler;
+
+        /** the number of IdentificationRuns in the file */
+        private final int nrRuns;
+
+        private int runCount;
+
+        private int accNr;
+
+        private int pepNr;
+
+        private int specNr;
+
+        /** the file of the current run */
+        private PIAInputFile file;
+
+        /** the current run */
+        private IdentificationRun idRun;
+
+        /** the enzyme of the current run */
+        private Enzyme enzyme;
+
+        /** the SpectrumIdentification of the current run */
+        private SpectrumIdentification spectrumID;
+
+        /** the ID of the searchDatabase of the current run */
+        private String searchDbId;
+
+
+        private IdXMLRunInserter(String name, String fileName, PIACompiler compiler, int nrRuns) {
+            this.name = name;
+            this.fileName = fileName;
+            this.compiler = compiler;
+            this.nrRuns = nrRuns;
+            this.runCount = 0;
+            this.accNr = 0;
+            this.pepNr = 0;
+            this.specNr = 0;
+        }
+
+
+        @Override
+        public boolean startIdentificationRun(IdentificationRun run) {
+            idRun = run;
+
+            runCount++;
+            if (nrRuns > 1) {
+                file = compiler.insertNewFile(
+                        name + "_run" + runCount,
+                        fileName,
+                        InputFileParserFactory.InputFileTypes.ID_XML_INPUT.getFileSuffix());
+            } else {
+                file = compiler.insertNewFile(
+                        name,
+                        fileName,
+                        InputFileParserFactory.InputFileTypes.ID_XML_INPUT.getFileSuffix());
+            }
+
+            if (idRun.getProteinIdentification() == null) {
+                LOGGER.error("This identification has no protein information, so PIA cannot use it.");
+                return false;
+            }
+
+            // create the analysis software and add it to the compiler
+            AnalysisSoftware topp = new AnalysisSoftware();
+            topp.setId("topp");
+            topp.setName("TOPP software");
+            topp.setUri("http://open-ms.sourceforge.net/");
+
+            Param param = new Param();
+            param.setParam(MzIdentMLTools.createPSICvParam(OntologyConstants.TOPP_SOFTWARE, null));
+            topp.setSoftwareName(param);
+
+            topp = compiler.putIntoSoftwareMap(topp);
+
+            // define the spectrumIdentificationProtocol
+            SearchParameters searchParameters = (SearchParameters)idRun.getSearchParametersRef();
+
+            SpectrumIdentificationProtocol spectrumIDProtocol = new SpectrumIdentificationProtocol();
+            spectrumIDProtocol.setId("toppAnalysis");
+            spectrumIDProtocol.setAnalysisSoftware(topp);
+
+            // only supporting "ms-ms search" for now
+            param = new Param();
+            param.setParam(MzIdentMLTools.createPSICvParam(OntologyConstants.MS_MS_SEARCH, null));
+            spectrumIDProtocol.setSearchType(param);
+
+            spectrumIDProtocol.setAdditionalSearchParams(new ParamList());
+            if (searchParameters.getMassType().equals(MassType.MONOISOTOPIC)) {
+                spectrumIDProtocol.getAdditionalSearchParams().getCvParam().add(
+                        MzIdentMLTools.createPSICvParam(OntologyConstants.FRAGMENT_MASS_TYPE_MONO, null));
+                spectrumIDProtocol.getAdditionalSearchParams().getCvParam().add(
+                        MzIdentMLTools.createPSICvParam(OntologyConstants.PARENT_MASS_TYPE_MONO, null));
+            } else {
+                spectrumIDProtocol.getAdditionalSearchParams().getCvParam().add(
+                        MzIdentMLTools.createPSICvParam(OntologyConstants.FRAGMENT_MASS_TYPE_AVERAGE, null));
+                spectrumIDProtocol.getAdditionalSearchParams().getCvParam().add(
+                        MzIdentMLTools.createPSICvParam(OntologyConstants.PARENT_MASS_TYPE_AVERAGE, null));
+            }
+
+            // Modifications
+            ModificationParams modParams = processModifications(compiler,
+                    searchParameters.getVariableModification(),
+                    searchParameters.getFixedModification());
+            spectrumIDProtocol.setModificationParams(modParams);
+
+            // Enzymes
+            enzyme = parseEnzyme(searchParameters.getEnzyme(), searchParameters.getMissedCleavages());
+            Enzymes enzymes = new Enzymes();
+            enzymes.getEnzyme().add(enzyme);
+            spectrumIDProtocol.setEnzymes(enzymes);
+
+
+            // fragment and peptide tolerances
+            Tolerance tolerance = new Tolerance();
+            tolerance.getCvParam().add(
+                    MzIdentMLTools.createPSICvParam(OntologyConstants.SEARCH_TOLERANCE_PLUS_VALUE,
+                            Float.toString(searchParameters.getPeakMassTolerance())));
+            tolerance.getCvParam().add(
+                    MzIdentMLTools.createPSICvParam(OntologyConstants.SEARCH_TOLERANCE_MINUS_VALUE,
+                            Float.toString(searchParameters.getPeakMassTolerance())));
+            spectrumIDProtocol.setFragmentTolerance(tolerance);
+
+            tolerance = new Tolerance();
+            tolerance.getCvParam().add(
+                    MzIdentMLTools.createPSICvParam(OntologyConstants.SEARCH_TOLERANCE_PLUS_VALUE,
+                            Float.toString(searchParameters.getPrecursorPeakTolerance())));
+            tolerance.getCvParam().add(
+                    MzIdentMLTools.createPSICvParam(OntologyConstants.SEARCH_TOLERANCE_MINUS_VALUE,
+                            Float.toString(searchParameters.getPrecursorPeakTolerance())));
+            spectrumIDProtocol.setParentTolerance(tolerance);
+
+            // add the protocol to the file
+            file.addSpectrumIdentificationProtocol(spectrumIDProtocol);
+
+            // create the SearchDatabase
+            SearchDatabase searchDatabase = new SearchDatabase();
+            searchDatabase.setId("toppDB");
+            searchDatabase.setLocation(searchParameters.getDbVersion());
+            if ((searchParameters.getDb() == null) || searchParameters.getDb().trim().isEmpty()) {
+                // sometimes the searchdatabase gets lost in idXMLs
+                searchParameters.setDb("unspecified database");
+            }
+            searchDatabase.setName(searchParameters.getDb());
+            // databaseName
+            param = new Param();
+            param.setParam(MzIdentMLTools.createUserParam(searchParameters.getDb(), null, "string"));
+            searchDatabase.setDatabaseName(param);
+            // TODO: add taxonomy information
+            // add searchDB to the compiler
+
+            searchDatabase = compiler.putIntoSearchDatabasesMap(searchDatabase);
+
+
+            // build the SpectrumIdentification
+            spectrumID = new SpectrumIdentification();
+            spectrumID.setId("openmsIdentification");
+            spectrumID.setSpectrumIdentificationList(null);
+            spectrumID.setSpectrumIdentificationProtocol(spectrumIDProtocol);
+
+
+            InputSpectra inputSpectra = new InputSpectra();
+            inputSpectra.setSpectraData(createFilesSpectradata(compiler, fileName));
+            spectrumID.getInputSpectra().add(inputSpectra);
+
+
+            SearchDatabaseRef searchDBRef = new SearchDatabaseRef();
+            searchDBRef.setSearchDatabase(searchDatabase);
+            spectrumID.getSearchDatabaseRef().add(searchDBRef);
+
+            file.addSpectrumIdentification(spectrumID);
+
+            searchDbId = searchDatabase.getId();
+            return true;
+        }
+
+
+        @Override
+        public void processPeptideIdentification(PeptideIdentification pepID) {
+            int[] adds = IdXMLFileParser.processPeptideIdentification(pepID, compiler,
+                    enzyme, file, spectrumID, idRun, searchDbId);
+            specNr += adds[0];
+            pepNr += adds[1];
+            accNr += adds[2];
+        }
+    }
 }
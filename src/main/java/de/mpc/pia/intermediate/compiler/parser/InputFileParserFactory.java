@@ -1,5 +1,7 @@
 package de.mpc.pia.intermediate.compiler.parser;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -16,6 +18,9 @@ public class InputFileParserFactory {
     /** logger for this class */
     private static final Logger LOGGER = Logger.getLogger(InputFileParserFactory.class);
 
+    /** the number of decompressed bytes, which are used to check the type of compressed files */
+    private static final int TYPE_CHECK_BYTES = 1 << 16;
+
     public enum InputFileTypes {
 
         /**
@@ -384,12 +389,24 @@ public class InputFileParserFactory {
 
 
     /**
-     * Checks the type of teh file by reading some of the contents
+     * Checks the type of teh file by reading some of the contents. For
+     * compressed files only the start is decompressed into a temporary file for
+     * the check. Only if this does not give a type (e.g. for types, which need
+     * the complete file for the check), the complete file is decompressed.
      *
      * @param fileName
      * @return
      */
     public static InputFileTypes getFileTypeByContent(String fileName) {
+        if (CompressedInputFiles.isCompressed(fileName)) {
+            InputFileTypes type = getFileTypeByDecompressedContent(fileName, true);
+            if (type == null) {
+                LOGGER.debug("no type found in the start of " + fileName + ", checking the complete file");
+                type = getFileTypeByDecompressedContent(fileName, false);
+            }
+            return type;
+        }
+
         InputFileTypes returnType = null;
         for (InputFileTypes type : InputFileTypes.values()) {
             if (type.checkFileType(fileName)) {
@@ -402,6 +419,28 @@ public class InputFileParserFactory {
     }
 
 
+    /**
+     * Checks the type of the given compressed file by its start or by the
+     * complete decompressed content.
+     */
+    private static InputFileTypes getFileTypeByDecompressedContent(String fileName, boolean onlyStart) {
+        File tmpFile = null;
+        try {
+            tmpFile = onlyStart ?
+                    CompressedInputFiles.decompressStartToTempFile(fileName, TYPE_CHECK_BYTES) :
+                    CompressedInputFiles.decompressToTempFile(fileName);
+            return getFileTypeByContent(tmpFile.getAbsolutePath());
+        } catch (IOException e) {
+            LOGGER.error("could not decompress " + fileName, e);
+            return null;
+        } finally {
+            if (tmpFile != null) {
+                CompressedInputFiles.deleteTempFile(tmpFile);
+            }
+        }
+    }
+
+
     /**
      * Returns the {@link InputFileTypes} specified by the given shortName or
      * null.
@@ -14,12 +14,21 @@ import de.mpc.pia.tools.pride.PRIDETools;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.log4j.Logger;
 import org.biojava.nbio.ontology.Term;
-import org.biojava.nbio.ontology.Triple;
 import uk.ac.ebi.jmzidml.model.mzidml.*;
+import uk.ac.ebi.jmzidml.MzIdentMLElement;
 import uk.ac.ebi.jmzidml.xml.io.MzIdentMLUnmarshaller;
 import uk.ac.ebi.pride.utilities.pridemod.ModReader;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
@@ -30,6 +39,14 @@ import java.util.stream.Stream;
 
 /**
  * This class parses the data from a mzIdentML file for a given {@link PIACompiler}.
+ * <p>
+ * The SequenceCollection and the SpectrumIdentificationResults are streamed
+ * one element at a time by the {@link MzIdentMLUnmarshaller} (which handles
+ * the namespaces of all mzIdentML versions). First compact records of the
+ * DBSequences, Peptides and PeptideEvidences are stored, then the
+ * SpectrumIdentificationResults are unmarshalled and inserted one at a time.
+ * As the results are streamed regardless of their SpectrumIdentificationList,
+ * a plain StAX pass counts the results of each list beforehand.
  *
  * @author julianu
  *
@@ -46,6 +63,9 @@ class MzIdentMLFileParser {
     /** the newly added PIAInputFile in the compiler */
     private PIAInputFile file;
 
+    /** the parsed mzIdentML file */
+    private File mzidFile;
+
     /** the used unmarshaller */
     private MzIdentMLUnmarshaller unmarshaller;
 
@@ -53,10 +73,13 @@ class MzIdentMLFileParser {
     private Map<String, uk.ac.ebi.jmzidml.model.mzidml.Peptide> peptides;
 
     /** maps from the ID to the PeptideEvidence */
-    private Map<String, PeptideEvidence> peptideEvidences;
+    private Map<String, PeptideEvidenceRecord> peptideEvidences;
 
     /** maps from the ID to the DBSequence */
-    private Map<String, DBSequence> dbSequences;
+    private Map<String, DBSequenceRecord> dbSequences;
+
+    /** the IDs of the SpectrumIdentificationLists in the file (in file order) with their number of results */
+    private Map<String, Integer> specIdListSizes;
 
     /** maps from the SpectrumIdentificationList IDs to the SpectrumIdentification IDs */
     private Map<String, String> specIdListIDtoSpecIdID;
@@ -69,6 +92,10 @@ class MzIdentMLFileParser {
     /** number of added spectra */
     private int specNr;
 
+    /** the element names, which are counted in the file */
+    private static final String XML_TAG_SPECTRUM_IDENTIFICATION_LIST = "SpectrumIdentificationList";
+    private static final String XML_TAG_SPECTRUM_IDENTIFICATION_RESULT = "SpectrumIdentificationResult";
+
     /** unit ontology accession for minutes */
     private static final String UNIT_ACCESSION_MINUTES = "UO:0000031";
 
@@ -132,16 +159,19 @@ class MzIdentMLFileParser {
         pepNr = 0;
         specNr = 0;
 
-        // maps from the ID to the SpectrumIdentificationList
-        Map<String, SpectrumIdentificationList> specIdLists = getSpectrumIdentificationLists();
-        LOGGER.error("File has " + specIdLists.size() + " specIdLists");
+        // first pass: get the SpectrumIdentificationLists and the SequenceCollection
+        if (!countSpectrumIdentificationResults()) {
+            return false;
+        }
+        LOGGER.info("File has " + specIdListSizes.size() + " specIdLists");
+        indexSequenceCollection();
 
         specIdListIDtoSpecIdID = new HashMap<>();
 
         // get the AnalysisCollection:SpectrumIdentification for the SpectrumIdentificationLists
         AnalysisCollection analysisCollection = unmarshaller.unmarshal(AnalysisCollection.class);
         for (SpectrumIdentification si : analysisCollection.getSpectrumIdentification()) {
-            if (specIdLists.keySet().contains(si.getSpectrumIdentificationListRef())) {
+            if (specIdListSizes.containsKey(si.getSpectrumIdentificationListRef())) {
                 // if the SpectrumIdentification's SpectrumIdentificationList is in the file, we need the SpectrumIdentification
                 String specIdListID = si.getSpectrumIdentificationListRef();
                 String id = file.addSpectrumIdentification(si);
@@ -194,36 +224,8 @@ class MzIdentMLFileParser {
         // update the PIAFile's references for SpectraData, SearchDBs and AnalysisSoftwares
         file.updateReferences(spectraDataRefs, searchDBRefs, analysisSoftwareRefs);
 
-        // get/hash the SequenceCollection:PeptideEvidences
-        SequenceCollection sc = unmarshaller.unmarshal(SequenceCollection.class);
-        peptideEvidences = new HashMap<>();
-        for (PeptideEvidence pepEvidence : sc.getPeptideEvidence()) {
-            peptideEvidences.put(pepEvidence.getId(), pepEvidence);
-        }
-
-        // get/hash the SequenceCollection:DBSequences
-        dbSequences = new HashMap<>();
-        for (DBSequence dbSeq : sc.getDBSequence()) {
-            dbSequences.put(dbSeq.getId(), dbSeq);
-        }
-
-        // get/hash the SequenceCollection:Peptides
-        peptides = new HashMap<>();
-        for (uk.ac.ebi.jmzidml.model.mzidml.Peptide peptide: sc.getPeptide()) {
-            peptides.put(peptide.getId(), peptide);
-        }
-
-
-        boolean ok = true;
-
-        // go through the SpectrumIdentificationList:SpectrumIdentificationResult:SpectrumIdentificationItem and build the PeptideSpectrumMatches, Accessions and Peptides
-        for (SpectrumIdentificationList specIDList : specIdLists.values()) {
-            ok = addSpectrumIdentificationList(specIDList);
-
-            if (!ok) {
-                break;
-            }
-        }
+        // second pass: go through the SpectrumIdentificationList:SpectrumIdentificationResult:SpectrumIdentificationItem and build the PeptideSpectrumMatches, Accessions and Peptides
+        boolean ok = parseSpectrumIdentificationResults();
 
         LOGGER.info("inserted new: \n\t" +
                 pepNr + " peptides\n\t" +
@@ -242,7 +244,7 @@ class MzIdentMLFileParser {
      */
     private boolean createUnmarshaller(String name, String fileName) {
         // Open the input mzIdentML file for parsing
-        File mzidFile = new File(fileName);
+        mzidFile = new File(fileName);
 
         if (!mzidFile.canRead()) {
             LOGGER.error("could not read '" + fileName + "'.");
@@ -259,17 +261,115 @@ class MzIdentMLFileParser {
 
 
     /**
-     * Parses the spectrumIdentificationLists
+     * Creates a StAX reader for the given stream.
+     */
+    private static XMLStreamReader createXMLStreamReader(InputStream in) throws XMLStreamException {
+        XMLInputFactory xmlif = XMLInputFactory.newInstance();
+        xmlif.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        return xmlif.createXMLStreamReader(in);
+    }
+
+
+    /**
+     * Streams over the file without unmarshalling anything and counts the
+     * SpectrumIdentificationResults of each SpectrumIdentificationList.
+     *
+     * @return
+     */
+    private boolean countSpectrumIdentificationResults() {
+        specIdListSizes = new LinkedHashMap<>();
+
+        try (InputStream in = new BufferedInputStream(new FileInputStream(mzidFile))) {
+            XMLStreamReader xmlr = createXMLStreamReader(in);
+            String specIdListID = null;
+
+            while (xmlr.hasNext()) {
+                if (xmlr.next() == XMLStreamConstants.START_ELEMENT) {
+                    String tag = xmlr.getLocalName();
+
+                    if (XML_TAG_SPECTRUM_IDENTIFICATION_LIST.equals(tag)) {
+                        specIdListID = xmlr.getAttributeValue(null, "id");
+                        specIdListSizes.put(specIdListID, 0);
+                    } else if (XML_TAG_SPECTRUM_IDENTIFICATION_RESULT.equals(tag) && (specIdListID != null)) {
+                        specIdListSizes.merge(specIdListID, 1, Integer::sum);
+                    }
+                }
+            }
+            xmlr.close();
+        } catch (IOException | XMLStreamException e) {
+            LOGGER.error("Error while reading the SpectrumIdentificationLists of " + mzidFile, e);
+            return false;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Streams the DBSequences, Peptides and PeptideEvidences of the
+     * SequenceCollection and stores compact records of them.
+     */
+    private void indexSequenceCollection() {
+        dbSequences = new HashMap<>();
+        Iterator<DBSequence> dbSeqIt = unmarshaller.unmarshalCollectionFromXpath(MzIdentMLElement.DBSequence);
+        while (dbSeqIt.hasNext()) {
+            DBSequence dbSeq = dbSeqIt.next();
+            dbSequences.put(dbSeq.getId(), new DBSequenceRecord(dbSeq));
+        }
+
+        peptides = new HashMap<>();
+        Iterator<uk.ac.ebi.jmzidml.model.mzidml.Peptide> peptideIt =
+                unmarshaller.unmarshalCollectionFromXpath(MzIdentMLElement.Peptide);
+        while (peptideIt.hasNext()) {
+            uk.ac.ebi.jmzidml.model.mzidml.Peptide peptide = peptideIt.next();
+            peptides.put(peptide.getId(), peptide);
+        }
+
+        peptideEvidences = new HashMap<>();
+        Iterator<PeptideEvidence> pepEvidenceIt =
+                unmarshaller.unmarshalCollectionFromXpath(MzIdentMLElement.PeptideEvidence);
+        while (pepEvidenceIt.hasNext()) {
+            PeptideEvidence pepEvidence = pepEvidenceIt.next();
+            peptideEvidences.put(pepEvidence.getId(), new PeptideEvidenceRecord(pepEvidence));
+        }
+
+        LOGGER.debug("SequenceCollection has " + dbSequences.size() + " DBSequences, "
+                + peptides.size() + " Peptides and " + peptideEvidences.size() + " PeptideEvidences");
+    }
+
+
+    /**
+     * Streams the SpectrumIdentificationResults one at a time and adds them to
+     * the compiler. They are streamed in file order, so the counted numbers of
+     * results give the SpectrumIdentificationList of each result.
+     *
      * @return
      */
-    private Map<String, SpectrumIdentificationList> getSpectrumIdentificationLists() {
-        Map<String, SpectrumIdentificationList> spectrumIdentificationLists = new HashMap<>();
+    private boolean parseSpectrumIdentificationResults() {
+        Iterator<SpectrumIdentificationResult> specIdResIt =
+                unmarshaller.unmarshalCollectionFromXpath(MzIdentMLElement.SpectrumIdentificationResult);
+
+        for (Map.Entry<String, Integer> specIdListIt : specIdListSizes.entrySet()) {
+            SpectrumIdentificationListSettings listSettings =
+                    getSpectrumIdentificationListSettings(specIdListIt.getKey());
+
+            for (int nrResults = 0; nrResults < specIdListIt.getValue(); nrResults++) {
+                if (!specIdResIt.hasNext()) {
+                    LOGGER.error("Fewer SpectrumIdentificationResults than counted in " + mzidFile);
+                    return false;
+                }
+
+                SpectrumIdentificationResult specIdRes = specIdResIt.next();
+                if (!addSpectrumIdentificationResult(specIdRes, listSettings.spectrumID,
+                        listSettings.dbRefs, listSettings.enzymes, listSettings.analysisSoftwareName)) {
+                    return false;
+                }
+            }
 
-        AnalysisData analysisData = unmarshaller.unmarshal(AnalysisData.class);
-        analysisData.getSpectrumIdentificationList()
-                .forEach(specIdList -> spectrumIdentificationLists.put(specIdList.getId(), specIdList));
+            LOGGER.debug("Processed " + specIdListIt.getValue() + " specIdResults");
+        }
 
-        return spectrumIdentificationLists;
+        return true;
     }
 
 
@@ -336,26 +436,17 @@ class MzIdentMLFileParser {
      * @param oboID
      */
     private void getAndSetEnzymeRegexFromOBO(String oboID, Enzyme enzyme) {
-        Term oboTerm = compiler.getOBOMapper().getTerm(oboID);
-        if (oboTerm != null) {
-            Set<Triple> tripleSet = compiler.getOBOMapper().getTriples(oboTerm, null, null);
-
-            // get the regexes
-            List<String> regexes = tripleSet.stream()
-                    .filter(triple -> triple.getPredicate().getName().equals(AbstractOBOMapper.OBO_RELATIONSHIP)
-                            && triple.getObject().getName().startsWith(OBOMapper.OBO_HAS_REGEXP))
-                    .map(triple -> {
-                        // put filtered regExes into the map
-                        String regExpID = triple.getObject().getName().substring(11).trim();
-                        Term regExpTerm = compiler.getOBOMapper().getTerm(regExpID);
-                        return StringEscapeUtils.unescapeJava(regExpTerm.getDescription());
-                    })
-                    .collect(Collectors.toList());
-
-            // set the regex
-            if (!regexes.isEmpty()) {
-                enzyme.setSiteRegexp(regexes.get(0));
-            }
+        // get the regexes
+        List<String> regexes = compiler.getOBOMapper().getRelatedAccessions(oboID, OBOMapper.OBO_HAS_REGEXP).stream()
+                .map(regExpID -> {
+                    Term regExpTerm = compiler.getOBOMapper().getTerm(regExpID);
+                    return StringEscapeUtils.unescapeJava(regExpTerm.getDescription());
+                })
+                .collect(Collectors.toList());
+
+        // set the regex
+        if (!regexes.isEmpty()) {
+            enzyme.setSiteRegexp(regexes.get(0));
         }
     }
 
@@ -377,50 +468,35 @@ class MzIdentMLFileParser {
 
 
     /**
-     * Add the SpectrumIdentificationList and all its contents to the compiler.
+     * Gets the information from the SpectrumIdentification of the
+     * SpectrumIdentificationList with the given ID.
      *
-     * @param specIDList
+     * @param specIDListID
      * @return
      */
-    private boolean addSpectrumIdentificationList(SpectrumIdentificationList specIDList) {
-        // get some information from the SpectrumIdentification
-        Set<String> specIDListsDBRefs = new HashSet<>();
-        SpectrumIdentification spectrumID = null;
-        Enzymes specIDListsEnzymes = null;
-
-        String analysisSoftwareName = null;
+    private SpectrumIdentificationListSettings getSpectrumIdentificationListSettings(String specIDListID) {
+        SpectrumIdentificationListSettings settings = new SpectrumIdentificationListSettings();
 
         for (SpectrumIdentification specID : file.getAnalysisCollection().getSpectrumIdentification()) {
-            if (specID.getId().equals(specIdListIDtoSpecIdID.get(specIDList.getId()))  ) {
+            if (specID.getId().equals(specIdListIDtoSpecIdID.get(specIDListID))  ) {
                 // this is the SpectrumIdentification for this list
-                specIDListsDBRefs.addAll(specID.getSearchDatabaseRef().stream().map(SearchDatabaseRef::getSearchDatabaseRef).collect(Collectors.toList()));
-                spectrumID = specID;
+                settings.dbRefs.addAll(specID.getSearchDatabaseRef().stream().map(SearchDatabaseRef::getSearchDatabaseRef).collect(Collectors.toList()));
+                settings.spectrumID = specID;
 
                 // get the enzymes
                 SpectrumIdentificationProtocol idProtocol = specID.getSpectrumIdentificationProtocol();
-                specIDListsEnzymes = idProtocol.getEnzymes();
+                settings.enzymes = idProtocol.getEnzymes();
 
                 // get the analysis software
                 AnalysisSoftware analysisSoftware = idProtocol.getAnalysisSoftware();
                 if (analysisSoftware != null) {
-                    analysisSoftwareName = analysisSoftware.getName();
+                    settings.analysisSoftwareName = analysisSoftware.getName();
                 }
                 break;
             }
         }
 
-        // go through all the SpectrumIdentificationResults and build the PSMs
-        LOGGER.debug("Processing " + specIDList.getSpectrumIdentificationResult().size() + " specIdResults");
-        boolean ok = true;
-        for (SpectrumIdentificationResult specIdRes : specIDList.getSpectrumIdentificationResult()) {
-            ok = addSpectrumIdentificationResult(specIdRes, spectrumID, specIDListsDBRefs, specIDListsEnzymes,
-                    analysisSoftwareName);
-            if (!ok) {
-                break;
-            }
-        }
-
-        return ok;
+        return settings;
     }
 
 
@@ -579,8 +655,9 @@ class MzIdentMLFileParser {
 
         boolean isDecoy = true;
         for(PeptideEvidenceRef peptideEvidenceRef: specIdItem.getPeptideEvidenceRef()){
-            if(peptideEvidenceRef != null && peptideEvidenceRef.getPeptideEvidence() != null &&
-                    !peptideEvidenceRef.getPeptideEvidence().isIsDecoy())
+            PeptideEvidenceRecord pepEvidence = (peptideEvidenceRef != null) ?
+                    peptideEvidences.get(peptideEvidenceRef.getPeptideEvidenceRef()) : null;
+            if(pepEvidence != null && !pepEvidence.isDecoy)
                 isDecoy = false;
 
         }
@@ -686,22 +763,22 @@ class MzIdentMLFileParser {
         Peptide pep = null;
         String sequence = null;
         for (PeptideEvidenceRef pepEvRef : peptideEvidenceRefs) {
-            PeptideEvidence pepEvidence = peptideEvidences.get(pepEvRef.getPeptideEvidenceRef());
+            PeptideEvidenceRecord pepEvidence = peptideEvidences.get(pepEvRef.getPeptideEvidenceRef());
 
             if (pepEvidence == null) {
                 LOGGER.error("PeptideEvidence " + pepEvRef.getPeptideEvidenceRef() + " not found!");
                 return null;
             }
 
-            DBSequence dbSeq = dbSequences.get(pepEvidence.getDBSequenceRef());
+            DBSequenceRecord dbSeq = dbSequences.get(pepEvidence.dbSequenceRef);
             if (dbSeq == null) {
-                LOGGER.error("DBSequence " + pepEvidence.getDBSequenceRef() + " not found!");
+                LOGGER.error("DBSequence " + pepEvidence.dbSequenceRef + " not found!");
                 return null;
             }
 
-            Integer start = pepEvidence.getStart();
-            Integer end = pepEvidence.getEnd();
-            String proteinSequence = dbSeq.getSeq();
+            Integer start = pepEvidence.start;
+            Integer end = pepEvidence.end;
+            String proteinSequence = dbSeq.sequence;
             String pepEvSequence = getPeptideEvidenceSequence(start, end, peptide, proteinSequence);
 
             if (sequence == null) {
@@ -771,10 +848,10 @@ class MzIdentMLFileParser {
      * @param specIDListsDBRefs
      * @return
      */
-    private Accession addAccessionInformationFromPeptideEvidence(DBSequence dbSeq, String proteinSequence,
+    private Accession addAccessionInformationFromPeptideEvidence(DBSequenceRecord dbSeq, String proteinSequence,
             Set<String> specIDListsDBRefs) {
         // add the Accession to the compiler (if it is not already there)
-        FastaHeaderInfos accHeader = FastaHeaderInfos.parseHeaderInfos(dbSeq);
+        FastaHeaderInfos accHeader = dbSeq.headerInfos;
 
         Accession acc = compiler.getAccession(accHeader.getAccession());
         if (acc == null) {
@@ -795,7 +872,7 @@ class MzIdentMLFileParser {
                     !proteinSequence.equals(acc.getDbSequence())) {
                 LOGGER.warn("Different DBSequences found for same Accession, this is not suported!\n" +
                         "\t Accession: " + acc.getAccession() +
-                        '\t' + dbSeq.getSeq() + '\n' +
+                        '\t' + dbSeq.sequence + '\n' +
                         '\t' + acc.getDbSequence());
             } else if (acc.getDbSequence() == null) {
                 // found a sequence now
@@ -878,20 +955,14 @@ class MzIdentMLFileParser {
     private ScoreModel parseOBOTermAsScore(Term oboTerm, String value) {
         ScoreModel score = null;
 
-        if (oboTerm != null) {
-            // the score is in the OBO file, get the relations etc.
-            Set<Triple> tripleSet = compiler.getOBOMapper().getTriples(oboTerm, null, null);
-
-            for (Triple triple : tripleSet) {
-                if (triple.getPredicate().getName().equals(AbstractOBOMapper.OBO_IS_A) &&
-                        triple.getObject().getName().equals(OntologyConstants.SEARCH_ENGINE_PSM_SCORE.getPsiAccession())) {
-                    // subject is a "search engine specific score for PSM"
-                    double doubleValue = Double.parseDouble(value);
-                    score = new ScoreModel(doubleValue,
-                            StringEscapeUtils.unescapeJava(oboTerm.getName()),
-                            StringEscapeUtils.unescapeJava(oboTerm.getDescription()));
-                }
-            }
+        if ((oboTerm != null)
+                && compiler.getOBOMapper().getRelatedAccessions(oboTerm.getName(), AbstractOBOMapper.OBO_IS_A)
+                        .contains(OntologyConstants.SEARCH_ENGINE_PSM_SCORE.getPsiAccession())) {
+            // subject is a "search engine specific score for PSM"
+            double doubleValue = Double.parseDouble(value);
+            score = new ScoreModel(doubleValue,
+                    StringEscapeUtils.unescapeJava(oboTerm.getName()),
+                    StringEscapeUtils.unescapeJava(oboTerm.getDescription()));
         }
 
         return score;
@@ -1132,4 +1203,59 @@ class MzIdentMLFileParser {
 
         return isMzIdentMLFile;
     }
+
+
+    /**
+     * The information of a SpectrumIdentificationList needed for its results.
+     */
+    private static class SpectrumIdentificationListSettings {
+
+        private SpectrumIdentification spectrumID = null;
+
+        private final Set<String> dbRefs = new HashSet<>();
+
+        private Enzymes enzymes = null;
+
+        private String analysisSoftwareName = null;
+    }
+
+
+    /**
+     * The needed information of a DBSequence.
+     */
+    private static class DBSequenceRecord {
+
+        private final FastaHeaderInfos headerInfos;
+
+        private final String sequence;
+
+
+        private DBSequenceRecord(DBSequence dbSeq) {
+            this.headerInfos = FastaHeaderInfos.parseHeaderInfos(dbSeq);
+            this.sequence = dbSeq.getSeq();
+        }
+    }
+
+
+    /**
+     * The needed information of a PeptideEvidence.
+     */
+    private static class PeptideEvidenceRecord {
+
+        private final String dbSequenceRef;
+
+        private final Integer start;
+
+        private final Integer end;
+
+        private final boolean isDecoy;
+
+
+        private PeptideEvidenceRecord(PeptideEvidence pepEvidence) {
+            this.dbSequenceRef = pepEvidence.getDBSequenceRef();
+            this.start = pepEvidence.getStart();
+            this.end = pepEvidence.getEnd();
+            this.isDecoy = pepEvidence.isIsDecoy();
+        }
+    }
 }
@@ -32,6 +32,7 @@ import uk.ac.ebi.jmzidml.model.mzidml.SpectrumIdentification;
 import uk.ac.ebi.jmzidml.model.mzidml.SpectrumIdentificationProtocol;
 import uk.ac.ebi.pride.jmztab.model.CVParam;
 import uk.ac.ebi.pride.jmztab.model.FixedMod;
+import uk.ac.ebi.pride.jmztab.model.MZTabColumnFactory;
 import uk.ac.ebi.pride.jmztab.model.Metadata;
 import uk.ac.ebi.pride.jmztab.model.Mod;
 import uk.ac.ebi.pride.jmztab.model.Modification;
@@ -45,13 +46,22 @@ import uk.ac.ebi.pride.jmztab.model.SpectraRef;
 import uk.ac.ebi.pride.jmztab.model.SplitList;
 import uk.ac.ebi.pride.jmztab.model.VariableMod;
 import uk.ac.ebi.pride.jmztab.utils.MZTabFileParser;
+import uk.ac.ebi.pride.jmztab.utils.errors.MZTabErrorList;
+import uk.ac.ebi.pride.jmztab.utils.errors.MZTabErrorType;
+import uk.ac.ebi.pride.jmztab.utils.errors.MZTabException;
+import uk.ac.ebi.pride.jmztab.utils.parser.MTDLineParser;
+import uk.ac.ebi.pride.jmztab.utils.parser.PSHLineParser;
+import uk.ac.ebi.pride.jmztab.utils.parser.PSMLineParser;
+import uk.ac.ebi.pride.jmztab.utils.parser.PositionMapping;
 import uk.ac.ebi.pride.utilities.pridemod.ModReader;
 import uk.ac.ebi.pride.utilities.pridemod.model.PTM;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
@@ -148,6 +158,17 @@ public class MzTabParser {
     /** optional column header for peptide decoy state */
     public static final String OPTIONAL_PEPTIDE_DECOY_COLUMN = "cv_MS:1002217_decoy_peptide";
 
+    /** the line prefixes of the mzTab sections, which are handled while streaming */
+    private static final String LINE_PREFIX_COMMENT = "COM";
+    private static final String LINE_PREFIX_METADATA = "MTD";
+    private static final String LINE_PREFIX_PROTEIN_HEADER = "PRH";
+    private static final String LINE_PREFIX_PROTEIN = "PRT";
+    private static final String LINE_PREFIX_PSM_HEADER = "PSH";
+    private static final String LINE_PREFIX_PSM = "PSM";
+
+    /** the maximal number of errors collected per line while streaming */
+    private static final int MAX_STREAMING_ERRORS = 100;
+
     /** Cv label for PSI-MOD */
     private static final String CV_LABEL_PSI_MOD = "MOD";
     private static final String CV_LABEL_UNIMOD = "UNIMOD";
@@ -205,10 +226,19 @@ public class MzTabParser {
 
         MzTabParser parser = new MzTabParser(compiler, fileName);
 
-        retOk = parser.initializeParser();
+        if (compiler.getStreamMzTabFiles()) {
+            retOk = new File(fileName).canRead();
+            if (retOk) {
+                retOk = parser.streamFile(name);
+            } else {
+                LOGGER.error("could not read '" + fileName + "'.");
+            }
+        } else {
+            retOk = parser.initializeParser();
 
-        if (retOk) {
-            retOk = parser.parseFile(name);
+            if (retOk) {
+                retOk = parser.parseFile(name);
+            }
         }
 
         return retOk;
@@ -264,6 +294,202 @@ public class MzTabParser {
 
         parsePSMs();
 
+        addSearchDatabaseRefs();
+        return true;
+    }
+
+
+    /**
+     * Streams through the mzTab file: the metadata section is parsed once and
+     * then each PSM line is parsed and inserted into the compiler directly,
+     * without loading the complete file. The lines are only checked by the
+     * line parsers (which need to check while parsing), not against the
+     * complete file. PSM lines with errors are reported and skipped. The
+     * protein descriptions and sequences are added in a second pass through
+     * the protein section.
+     *
+     * @param name the base name of the file
+     * @return
+     */
+    private boolean streamFile(String name) {
+        MZTabErrorList errorList = new MZTabErrorList(MZTabErrorType.Level.Error, MAX_STREAMING_ERRORS);
+
+        searchDatabaseMap = new HashMap<>();
+        runsToSearchDatabases = new HashMap<>();
+        proteinsCache = new HashMap<>();
+        psmMap = new HashMap<>();
+
+        accNr = 0;
+        pepNr = 0;
+        psmNr = 0;
+
+        MTDLineParser mtdParser = new MTDLineParser();
+        Metadata metadata = null;
+        PSMLineParser psmParser = null;
+        long nrErrors = 0;
+        long nrSkippedPSMs = 0;
+
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(fileName), StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty() || line.startsWith(LINE_PREFIX_COMMENT)) {
+                    continue;
+                }
+
+                if (line.startsWith(LINE_PREFIX_METADATA)) {
+                    mtdParser.parse(lineNumber, line, errorList);
+                } else {
+                    if (metadata == null) {
+                        // the metadata section is complete
+                        mtdParser.refineNormalMTDLine();
+                        metadata = mtdParser.getMetadata();
+                        parseMetadataInformation(metadata, name);
+                    }
+
+                    if (line.startsWith(LINE_PREFIX_PSM_HEADER)) {
+                        PSHLineParser pshParser = new PSHLineParser(metadata);
+                        pshParser.parse(lineNumber, line, errorList);
+                        MZTabColumnFactory psmFactory = pshParser.getFactory();
+
+                        setPSMDecoyStateLogicalPosition(psmFactory);
+                        psmParser = new PSMLineParser(psmFactory, new PositionMapping(psmFactory, line),
+                                metadata, errorList);
+                    } else if (line.startsWith(LINE_PREFIX_PSM)) {
+                        if (psmParser == null) {
+                            LOGGER.error("PSM line " + lineNumber + " before the PSM header in " + fileName);
+                            return false;
+                        }
+
+                        psmParser.parse(lineNumber, line, errorList);
+                        PSM mzTabPSM = psmParser.getRecord();
+                        if (errorList.isEmpty()) {
+                            parsePSMHandlingExceptions(mzTabPSM);
+                        } else {
+                            // the record may be incomplete
+                            LOGGER.warn("PSM in line " + lineNumber + " skipped");
+                            nrSkippedPSMs++;
+                        }
+                    }
+                }
+
+                if (!errorList.isEmpty()) {
+                    nrErrors += errorList.size();
+                    LOGGER.warn("line " + lineNumber + ": " + errorList);
+                    errorList.clear();
+                }
+            }
+
+            if (metadata == null) {
+                LOGGER.error("no PSM section in " + fileName);
+                return false;
+            }
+
+            addStreamedProteinInformation();
+        } catch (IOException | MZTabException e) {
+            LOGGER.error("Error while streaming the mzTab file " + fileName, e);
+            return false;
+        }
+
+        if (nrErrors > 0) {
+            LOGGER.warn(nrErrors + " errors found while streaming " + fileName + ", "
+                    + nrSkippedPSMs + " PSMs were skipped");
+        }
+
+        addSearchDatabaseRefs();
+        return true;
+    }
+
+
+    /**
+     * Adds the descriptions and sequences of the streamed mzTab file's
+     * proteins to the accessions, which were inserted by the PSMs. Only the
+     * protein section of the file is read and no proteins are cached.
+     *
+     * @throws IOException
+     */
+    private void addStreamedProteinInformation() throws IOException {
+        Set<Long> fileIDs = inputFileMap.values().stream()
+                .map(PIAInputFile::getID)
+                .collect(Collectors.toSet());
+
+        int accessionIdx = -1;
+        int descriptionIdx = -1;
+        int sequenceIdx = -1;
+
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(fileName), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(LINE_PREFIX_PROTEIN_HEADER)) {
+                    String[] headers = line.split("\t");
+                    for (int idx = 0; idx < headers.length; idx++) {
+                        String header = headers[idx].trim();
+                        if ("accession".equals(header)) {
+                            accessionIdx = idx;
+                        } else if ("description".equals(header)) {
+                            descriptionIdx = idx;
+                        } else if (header.endsWith(OPTIONAL_SEQUENCE_COLUMN)) {
+                            sequenceIdx = idx;
+                        }
+                    }
+                } else if (line.startsWith(LINE_PREFIX_PROTEIN) && (accessionIdx > -1)) {
+                    String[] columns = line.split("\t", -1);
+                    Accession acc = (columns.length > accessionIdx) ?
+                            compiler.getAccession(columns[accessionIdx].trim()) : null;
+                    if (acc != null) {
+                        addProteinInformation(acc, getStreamedValue(columns, descriptionIdx),
+                                getStreamedValue(columns, sequenceIdx), fileIDs);
+                    }
+                } else if (line.startsWith(LINE_PREFIX_PSM_HEADER)) {
+                    // the protein section is always before the PSMs
+                    break;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Returns the value of a column of a streamed line, or null, if the column
+     * does not exist or is "null".
+     */
+    private static String getStreamedValue(String[] columns, int idx) {
+        if ((idx < 0) || (idx >= columns.length)) {
+            return null;
+        }
+
+        String value = columns[idx].trim();
+        return (value.isEmpty() || "null".equals(value)) ? null : value;
+    }
+
+
+    /**
+     * Sets the sequence (if not yet set) and the description for the given
+     * files of the accession.
+     */
+    private static void addProteinInformation(Accession acc, String description, String sequence,
+            Set<Long> fileIDs) {
+        if ((acc.getDbSequence() == null) && (sequence != null)) {
+            acc.setDbSequence(sequence);
+        }
+
+        if (description != null) {
+            for (Long fileID : fileIDs) {
+                if (acc.getFiles().contains(fileID) && !acc.getDescriptions().containsKey(fileID)) {
+                    acc.addDescription(fileID, description);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Adds the searchDatabase references for each msRun and logs the
+     * inserted numbers.
+     */
+    private void addSearchDatabaseRefs() {
         // add the searchDatabase references for each msRun
         runsToSearchDatabases.forEach((id, searchDBs) -> {
             for (SearchDatabase searchDB : searchDBs) {
@@ -281,7 +507,6 @@ public class MzTabParser {
                 + "\n\t" + pepNr + " peptides"
                 + "\n\t" + psmNr + " peptide spectrum matches"
                 + "\n\t" + accNr + " accessions");
-        return true;
     }
 
 
@@ -556,19 +781,40 @@ public class MzTabParser {
     private void parsePSMs() {
         psmMap = new HashMap<>();
 
-        tabParser.getMZTabFile().getPsmColumnFactory().getColumnMapping().forEach((key, value) -> {
+        setPSMDecoyStateLogicalPosition(tabParser.getMZTabFile().getPsmColumnFactory());
+
+        for (PSM mzTabPSM : tabParser.getMZTabFile().getPSMs()) {
+            parsePSMHandlingExceptions(mzTabPSM);
+        }
+    }
+
+
+    /**
+     * Sets the logical position of the optional PSM decoy column, if it is
+     * given in the PSM columns.
+     *
+     * @param psmFactory
+     */
+    private void setPSMDecoyStateLogicalPosition(MZTabColumnFactory psmFactory) {
+        psmFactory.getColumnMapping().forEach((key, value) -> {
             if (value.getHeader().endsWith(OPTIONAL_PEPTIDE_DECOY_COLUMN)) {
                 psmDecoyStateLogicalPosition = value.getLogicPosition();
             }
         });
+    }
 
-        for (PSM mzTabPSM : tabParser.getMZTabFile().getPSMs()) {
-            try {
-                parsePSM(mzTabPSM);
-            } catch (PTMMappingException exception) {
-                // exception is not rethrown, as the text is too long
-                LOGGER.error("PSM skipped: " + mzTabPSM.getSequence());
-            }
+
+    /**
+     * Parses a single PSM, PSMs with unmappable modifications are skipped.
+     *
+     * @param mzTabPSM
+     */
+    private void parsePSMHandlingExceptions(PSM mzTabPSM) {
+        try {
+            parsePSM(mzTabPSM);
+        } catch (PTMMappingException exception) {
+            // exception is not rethrown, as the text is too long
+            LOGGER.error("PSM skipped: " + mzTabPSM.getSequence());
         }
     }
 
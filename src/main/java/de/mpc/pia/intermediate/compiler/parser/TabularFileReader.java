@@ -0,0 +1,439 @@
+package de.mpc.pia.intermediate.compiler.parser;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A fast reader for tab separated (or otherwise delimited) text files with a
+ * header line, like the result files of Tide/Crux or Percolator.
+ * <p>
+ * The file is read in large blocks of bytes and each row is only tokenized into
+ * the offsets of its columns, no Strings are created until a value is
+ * requested. The columns are bound by their header names via
+ * {@link #getColumn(String)}. Quoting is not supported, the separator must
+ * not occur inside a value.
+ *
+ * @author julian
+ *
+ */
+public class TabularFileReader implements Closeable {
+
+    /** the size of the read blocks */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /** the value of a column, which is not in the file */
+    public static final int MISSING_COLUMN = -1;
+
+    /** the read file */
+    private final InputStream in;
+
+    /** the separator of the columns */
+    private final byte separator;
+
+    /** the read bytes, the current row starts at rowStart */
+    private byte[] buffer;
+
+    /** the number of valid bytes in the buffer */
+    private int bufferEnd;
+
+    /** the start of the current row in the buffer */
+    private int rowStart;
+
+    /** the end of the current row (without line break) */
+    private int rowEnd;
+
+    /** the position after the line break of the current row */
+    private int nextRowStart;
+
+    /** whether the end of the file is reached */
+    private boolean endOfFile;
+
+    /** the start offsets of the columns in the current row */
+    private int[] columnStarts;
+
+    /** the end offsets of the columns in the current row */
+    private int[] columnEnds;
+
+    /** the number of columns in the current row */
+    private int nrColumns;
+
+    /** the names of the columns in the header */
+    private final List<String> headers;
+
+    /** mapping from the header name to the column index (the last one, if it is not unique) */
+    private final Map<String, Integer> headerIndices;
+
+    /** the number of the current line in the file (1-based) */
+    private long lineNumber;
+
+    /** the number of read rows (without the header) */
+    private long rowCount;
+
+    /** the time, the reader was opened */
+    private final long startTime;
+
+
+    /**
+     * Opens the file and reads the header line.
+     *
+     * @param fileName the path to the file
+     * @param separator the column separator, must be a single byte character
+     * @throws IOException
+     */
+    public TabularFileReader(String fileName, char separator) throws IOException {
+        this(new FileInputStream(fileName), separator);
+    }
+
+
+    /**
+     * Reads from the given stream, the first line must be the header.
+     *
+     * @param in the stream, which is closed by {@link #close()}
+     * @param separator the column separator, must be a single byte character
+     * @throws IOException
+     */
+    public TabularFileReader(InputStream in, char separator) throws IOException {
+        if (separator > 0x7f) {
+            throw new IllegalArgumentException("the separator must be an ASCII character");
+        }
+
+        this.in = in;
+        this.separator = (byte) separator;
+        this.buffer = new byte[BUFFER_SIZE];
+        this.bufferEnd = 0;
+        this.rowStart = 0;
+        this.rowEnd = 0;
+        this.nextRowStart = 0;
+        this.endOfFile = false;
+        this.columnStarts = new int[32];
+        this.columnEnds = new int[32];
+        this.nrColumns = 0;
+        this.lineNumber = 0;
+        this.rowCount = 0;
+        this.startTime = System.currentTimeMillis();
+
+        List<String> headerList = new ArrayList<>();
+        headerIndices = new HashMap<>();
+        if (readLine()) {
+            for (int idx = 0; idx < nrColumns; idx++) {
+                String header = getString(idx);
+                headerList.add(header);
+                headerIndices.put(header, idx);
+            }
+        }
+        headers = Collections.unmodifiableList(headerList);
+    }
+
+
+    /**
+     * Returns the names of the columns, given in the header.
+     *
+     * @return
+     */
+    public List<String> getHeaders() {
+        return headers;
+    }
+
+
+    /**
+     * Returns the index of the column with the given header.
+     *
+     * @param header
+     * @return the index or {@link #MISSING_COLUMN}
+     */
+    public int getColumn(String header) {
+        Integer idx = headerIndices.get(header);
+        return (idx != null) ? idx : MISSING_COLUMN;
+    }
+
+
+    /**
+     * Advances to the next row, empty lines are skipped.
+     *
+     * @return false, if there are no more rows
+     * @throws IOException
+     */
+    public boolean nextRow() throws IOException {
+        while (readLine()) {
+            if (rowEnd > rowStart) {
+                rowCount++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Returns the number of columns in the current row.
+     *
+     * @return
+     */
+    public int getNrColumns() {
+        return nrColumns;
+    }
+
+
+    /**
+     * Whether the current row has a value for the given column.
+     *
+     * @param column
+     * @return false, if the column is missing or empty
+     */
+    public boolean hasValue(int column) {
+        return (column > MISSING_COLUMN) && (column < nrColumns)
+                && (columnEnds[column] > columnStarts[column]);
+    }
+
+
+    /**
+     * Returns the value of the given column in the current row.
+     *
+     * @param column
+     * @return the value or null, if the column is missing in the row
+     */
+    public String getString(int column) {
+        if ((column <= MISSING_COLUMN) || (column >= nrColumns)) {
+            return null;
+        }
+        return new String(buffer, columnStarts[column], columnEnds[column] - columnStarts[column],
+                StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Parses the value of the given column as an integer, directly from the
+     * read bytes.
+     *
+     * @param column
+     * @return
+     * @throws NumberFormatException if the value is missing or not an integer
+     */
+    public int getInt(int column) {
+        if (!hasValue(column)) {
+            throw new NumberFormatException("no value in column " + column + " of line " + lineNumber);
+        }
+
+        int pos = columnStarts[column];
+        int end = columnEnds[column];
+        boolean negative = false;
+        if ((buffer[pos] == '-') || (buffer[pos] == '+')) {
+            negative = buffer[pos] == '-';
+            pos++;
+        }
+        if (pos == end) {
+            throw new NumberFormatException("no integer in column " + column + " of line " + lineNumber);
+        }
+
+        long value = 0;
+        for (; pos < end; pos++) {
+            int digit = buffer[pos] - '0';
+            if ((digit < 0) || (digit > 9)) {
+                throw new NumberFormatException("no integer in column " + column + " of line " + lineNumber
+                        + ": " + getString(column));
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw new NumberFormatException("integer too large in column " + column + " of line " + lineNumber);
+            }
+        }
+
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("integer too large in column " + column + " of line " + lineNumber);
+        }
+        return (int) value;
+    }
+
+
+    /**
+     * Parses the value of the given column as a double.
+     *
+     * @param column
+     * @return
+     * @throws NumberFormatException if the value is missing or not a number
+     */
+    public double getDouble(int column) {
+        if (!hasValue(column)) {
+            throw new NumberFormatException("no value in column " + column + " of line " + lineNumber);
+        }
+        return Double.parseDouble(getString(column));
+    }
+
+
+    /**
+     * Compares the value of the given column to the given ASCII string,
+     * without creating a String.
+     *
+     * @param column
+     * @param value
+     * @return
+     */
+    public boolean valueEquals(int column, String value) {
+        if ((column <= MISSING_COLUMN) || (column >= nrColumns)) {
+            return false;
+        }
+
+        int start = columnStarts[column];
+        if (columnEnds[column] - start != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (buffer[start + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Returns the number of the current line in the file (1-based, the header
+     * is line 1).
+     *
+     * @return
+     */
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+
+    /**
+     * Returns the number of rows read so far (without the header).
+     *
+     * @return
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+
+    /**
+     * Returns the rows read per second since opening the file.
+     *
+     * @return
+     */
+    public long getRowsPerSecond() {
+        long duration = Math.max(System.currentTimeMillis() - startTime, 1);
+        return rowCount * 1000 / duration;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+
+    /**
+     * Reads the next line into the buffer and tokenizes it.
+     *
+     * @return false, if the end of the file is reached
+     */
+    private boolean readLine() throws IOException {
+        int lineBreak = findLineBreak(nextRowStart);
+        while ((lineBreak < 0) && !endOfFile) {
+            int searched = bufferEnd - nextRowStart;
+            fillBuffer();
+            lineBreak = findLineBreak(nextRowStart + searched);
+        }
+
+        if ((lineBreak < 0) && (nextRowStart >= bufferEnd)) {
+            nrColumns = 0;
+            return false;
+        }
+
+        rowStart = nextRowStart;
+        if (lineBreak < 0) {
+            // last line without a line break
+            rowEnd = bufferEnd;
+            nextRowStart = bufferEnd;
+        } else {
+            rowEnd = lineBreak;
+            nextRowStart = lineBreak + 1;
+        }
+        if ((rowEnd > rowStart) && (buffer[rowEnd - 1] == '\r')) {
+            rowEnd--;
+        }
+
+        lineNumber++;
+        tokenize();
+        return true;
+    }
+
+
+    /**
+     * Returns the position of the next '\n' from the given position on, or -1.
+     */
+    private int findLineBreak(int from) {
+        for (int pos = from; pos < bufferEnd; pos++) {
+            if (buffer[pos] == '\n') {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Moves the not yet processed bytes to the start of the buffer (growing it,
+     * if a single line does not fit) and reads the next block.
+     */
+    private void fillBuffer() throws IOException {
+        int remaining = bufferEnd - nextRowStart;
+        if (remaining == buffer.length) {
+            byte[] larger = new byte[buffer.length * 2];
+            System.arraycopy(buffer, nextRowStart, larger, 0, remaining);
+            buffer = larger;
+        } else if (nextRowStart > 0) {
+            System.arraycopy(buffer, nextRowStart, buffer, 0, remaining);
+        }
+        nextRowStart = 0;
+        bufferEnd = remaining;
+
+        int read = in.read(buffer, bufferEnd, buffer.length - bufferEnd);
+        if (read < 0) {
+            endOfFile = true;
+        } else {
+            bufferEnd += read;
+        }
+    }
+
+
+    /**
+     * Sets the offsets of the columns of the current row.
+     */
+    private void tokenize() {
+        nrColumns = 0;
+        if (rowEnd == rowStart) {
+            return;
+        }
+
+        int start = rowStart;
+        for (int pos = rowStart; pos <= rowEnd; pos++) {
+            if ((pos == rowEnd) || (buffer[pos] == separator)) {
+                if (nrColumns == columnStarts.length) {
+                    int[] larger = new int[nrColumns * 2];
+                    System.arraycopy(columnStarts, 0, larger, 0, nrColumns);
+                    columnStarts = larger;
+                    larger = new int[nrColumns * 2];
+                    System.arraycopy(columnEnds, 0, larger, 0, nrColumns);
+                    columnEnds = larger;
+                }
+                columnStarts[nrColumns] = start;
+                columnEnds[nrColumns] = pos;
+                nrColumns++;
+                start = pos + 1;
+            }
+        }
+    }
+}
@@ -9,6 +9,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -19,7 +20,6 @@ import com.compomics.mascotdatfile.util.interfaces.QueryToPeptideMapInf;
 import com.compomics.mascotdatfile.util.mascot.FixedModification;
 import com.compomics.mascotdatfile.util.mascot.PeptideHit;
 import com.compomics.mascotdatfile.util.mascot.ProteinHit;
-import com.compomics.mascotdatfile.util.mascot.ProteinMap;
 import com.compomics.mascotdatfile.util.mascot.Query;
 import com.compomics.mascotdatfile.util.mascot.VariableModification;
 import com.compomics.mascotdatfile.util.mascot.enumeration.MascotDatfileType;
@@ -63,6 +63,9 @@ import de.mpc.pia.tools.unimod.jaxb.ModT;
 /**
  * This class parses the data from a Mascot DAT file for a given
  * {@link PIACompiler}.<br/>
+ * The queries are processed one at a time. The descriptions of the proteins
+ * are added afterwards, while streaming through the proteins sections of the
+ * file, so no map of all proteins is needed.
  *
  * @author julian
  *
@@ -72,6 +75,16 @@ public class MascotDatFileParser {
     /** logger for this class */
     private static final Logger LOGGER = Logger.getLogger(MascotDatFileParser.class);
 
+    /** the start of the lines, which start a section of the DAT file */
+    private static final String SECTION_START = "Content-Type:";
+
+    /** matches the start of the (target and decoy) proteins sections */
+    private static final Pattern PROTEINS_SECTION_PATTERN =
+            Pattern.compile("(?i)^Content-Type: application/x-Mascot; name=\"(decoy_)?proteins\"\\s*$");
+
+    /** matches a protein line with its accession and description */
+    private static final Pattern PROTEIN_LINE_PATTERN = Pattern.compile("^\"(.*?)\"=[^,]*,\"(.*)\"\\s*$");
+
     /**
      * We don't ever want to instantiate this class
      */
@@ -142,8 +155,12 @@ public class MascotDatFileParser {
         }
 
 
+        MascotDatfileType datfileType = compiler.getIndexMascotDatFiles() ?
+                MascotDatfileType.INDEX : MascotDatfileType.MEMORY;
+        LOGGER.debug("reading " + fileName + " with datfile type " + datfileType);
+
         MascotDatfileInf mascotFile =
-                MascotDatfileFactory.create(fileName, MascotDatfileType.MEMORY);
+                MascotDatfileFactory.create(fileName, datfileType);
 
         if (mascotFile == null) {
             LOGGER.error("could not read '" + fileName + "'.");
@@ -357,12 +374,10 @@ public class MascotDatFileParser {
         file.addSpectrumIdentification(spectrumID);
 
 
-        // get the mappings
+        // get the mappings to the peptide hits, these are only asked for the current query
         QueryEnumerator queryEnumerator = mascotFile.getQueryEnumerator();
         QueryToPeptideMapInf queryToPeptideMap = mascotFile.getQueryToPeptideMap();
         QueryToPeptideMapInf decoyQueryToPeptideMap = mascotFile.getDecoyQueryToPeptideMap(false);
-        ProteinMap proteinMap = mascotFile.getProteinMap();
-        ProteinMap decoyProteinMap = mascotFile.getDecoyProteinMap();
 
         // one query is one spectrum, so go through the queries
         int nrQueries = mascotFile.getNumberOfQueries();
@@ -402,7 +417,7 @@ public class MascotDatFileParser {
             if (queryToPeptideMap != null) {
                 List<PeptideHit> peptideHits =
                         queryToPeptideMap.getAllPeptideHits(currQuery.getQueryNumber());
-                insertPeptideHitsIntoCompiler(compiler, peptideHits, proteinMap,
+                insertPeptideHitsIntoCompiler(compiler, peptideHits,
                         searchDatabase, charge, precursorMZ, retentionTime,
                         index, spectrumTitle, file, spectrumID, false);
             }
@@ -412,7 +427,7 @@ public class MascotDatFileParser {
                 List<PeptideHit> peptideHits =
                         decoyQueryToPeptideMap.getAllPeptideHits(currQuery.getQueryNumber());
                 insertPeptideHitsIntoCompiler(compiler, peptideHits,
-                        decoyProteinMap, searchDatabase, charge, precursorMZ,
+                        searchDatabase, charge, precursorMZ,
                         retentionTime, index, spectrumTitle, file, spectrumID,
                         true);
             }
@@ -425,12 +440,80 @@ public class MascotDatFileParser {
         }
 
         mascotFile.finish();
+
+        try {
+            addProteinDescriptions(fileName, compiler, file);
+        } catch (IOException e) {
+            LOGGER.error("could not read the protein descriptions of '" + fileName + "'.", e);
+            return false;
+        }
+
         return true;
     }
 
 
+    /**
+     * Streams through the (target and decoy) proteins sections of the DAT file
+     * and adds the descriptions to the accessions of the given file.
+     *
+     * @throws IOException
+     */
+    private static void addProteinDescriptions(String fileName, PIACompiler compiler, PIAInputFile file)
+            throws IOException {
+        try (BufferedReader rd = new BufferedReader(new FileReader(fileName))) {
+            String line;
+            boolean inProteins = false;
+
+            while ((line = rd.readLine()) != null) {
+                if (line.startsWith(SECTION_START)) {
+                    inProteins = PROTEINS_SECTION_PATTERN.matcher(line).matches();
+                } else if (inProteins) {
+                    Matcher matcher = PROTEIN_LINE_PATTERN.matcher(line);
+                    if (matcher.matches()) {
+                        addProteinDescription(matcher.group(1), matcher.group(2), compiler, file);
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Adds the description of a protein in the DAT file to its accession, if
+     * the accession was found in the given file. A description given by Mascot
+     * is preferred to the one parsed from the accession.
+     */
+    private static void addProteinDescription(String mascotAccession, String mascotDescription,
+            PIACompiler compiler, PIAInputFile file) {
+        FastaHeaderInfos fastaInfo = getFastaHeaderInfos(mascotAccession);
+
+        String description = mascotDescription;
+        if ((description == null) || description.trim().isEmpty()) {
+            description = fastaInfo.getDescription();
+        }
+
+        Accession acc = compiler.getAccession(fastaInfo.getAccession());
+        if ((acc != null) && acc.foundInFile(file.getID()) && (description != null)) {
+            acc.addDescription(file.getID(), description);
+        }
+    }
+
+
+    /**
+     * Parses the header infos of the given accession. If the header can not
+     * be parsed, the raw accession is used without description.
+     */
+    private static FastaHeaderInfos getFastaHeaderInfos(String mascotAccession) {
+        FastaHeaderInfos fastaInfo = FastaHeaderInfos.parseHeaderInfos(mascotAccession);
+        if (fastaInfo == null) {
+            fastaInfo = new FastaHeaderInfos(null, mascotAccession, null);
+        }
+        return fastaInfo;
+    }
+
+
     private static int insertPeptideHitsIntoCompiler(PIACompiler compiler,
-            List<PeptideHit> peptideHits, ProteinMap proteinMap,
+            List<PeptideHit> peptideHits,
             SearchDatabase searchDatabase, int charge, Double precursorMZ,
             Double retentionTime, String sourceId, String spectrumTitle,
             PIAInputFile file, SpectrumIdentification spectrumID,
@@ -480,26 +563,8 @@ public class MascotDatFileParser {
             List<ProteinHit> proteins = peptideHit.getProteinHits();
             for (ProteinHit proteinHit : proteins) {
 
-                FastaHeaderInfos fastaInfo =
-                        FastaHeaderInfos.parseHeaderInfos(proteinHit.getAccession());
-
-                if (fastaInfo == null) {
-                    fastaInfo = new FastaHeaderInfos(null,
-                            proteinHit.getAccession(),
-                            proteinMap.getProteinID(proteinHit.getAccession()).getDescription());
-                } else {
-                    // if there was a protein description different to the now parsed one, take the original from mascot
-                    String proteinDescription = proteinMap.
-                            getProteinID(proteinHit.getAccession()).
-                            getDescription();
-                    if ((proteinDescription != null) &&
-                            (proteinDescription.trim().length() > 0) &&
-                            !proteinDescription.equals(fastaInfo.getDescription())) {
-                        fastaInfo = new FastaHeaderInfos(null,
-                                fastaInfo.getAccession(),
-                                proteinDescription);
-                    }
-                }
+                // the descriptions are added after all queries
+                FastaHeaderInfos fastaInfo = getFastaHeaderInfos(proteinHit.getAccession());
 
                 // add the Accession to the compiler (if it is not already there)
                 Accession acc = compiler.getAccession(fastaInfo.getAccession());
@@ -511,12 +576,6 @@ public class MascotDatFileParser {
 
                 acc.addFile(file.getID());
 
-                if ((fastaInfo.getDescription() != null) &&
-                        (fastaInfo.getDescription().length() > 0)) {
-                    acc.addDescription(file.getID(),
-                            fastaInfo.getDescription());
-                }
-
                 acc.addSearchDatabaseRef(searchDatabase.getId());
 
                 // add the accession occurrence to the peptide
@@ -1,5 +1,8 @@
 package de.mpc.pia.intermediate.compiler.parser.searchengines;
 
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
 import java.util.*;
 
 import org.apache.log4j.Logger;
@@ -23,31 +26,13 @@ import uk.ac.ebi.jmzidml.model.mzidml.SpectrumIdentification;
 import uk.ac.ebi.jmzidml.model.mzidml.SpectrumIdentificationProtocol;
 import uk.ac.ebi.jmzidml.model.mzidml.Tolerance;
 import de.mpc.PD.ABaseClass;
-import de.mpc.PD.APeptideScores;
-import de.mpc.PD.APeptides;
-import de.mpc.PD.APeptidesAminoAcidModifications;
-import de.mpc.PD.APeptidesTerminalModifications;
 import de.mpc.PD.AminoAcidModifications;
 import de.mpc.PD.AminoAcids;
 import de.mpc.PD.FastaFiles;
 import de.mpc.PD.FileInfos;
-import de.mpc.PD.MassPeaks;
-import de.mpc.PD.PeptideScores;
-import de.mpc.PD.PeptideScores_decoy;
-import de.mpc.PD.Peptides;
-import de.mpc.PD.PeptidesAminoAcidModifications;
-import de.mpc.PD.PeptidesAminoAcidModifications_decoy;
-import de.mpc.PD.PeptidesProteins;
-import de.mpc.PD.PeptidesProteins_decoy;
-import de.mpc.PD.PeptidesTerminalModifications;
-import de.mpc.PD.PeptidesTerminalModifications_decoy;
-import de.mpc.PD.Peptides_decoy;
 import de.mpc.PD.ProcessingNodeParameters;
 import de.mpc.PD.ProcessingNodeScores;
 import de.mpc.PD.ProcessingNodes;
-import de.mpc.PD.ProteinAnnotations;
-import de.mpc.PD.Proteins;
-import de.mpc.PD.SpectrumHeaders;
 import de.mpc.PD.DB.JDBCAccess;
 import de.mpc.PD.Params.SimpleProgramParameters;
 import de.mpc.pia.intermediate.Accession;
@@ -64,6 +49,7 @@ import de.mpc.pia.tools.MzIdentMLTools;
 import de.mpc.pia.tools.OntologyConstants;
 import de.mpc.pia.tools.PIAConstants;
 import de.mpc.pia.tools.PIATools;
+import de.mpc.pia.tools.PeptideOccurrenceFinder;
 
 
 /**
@@ -78,6 +64,12 @@ public class ThermoMSFFileParser {
     /** logger for this class */
     private static final Logger LOGGER = Logger.getLogger(ThermoMSFFileParser.class);
 
+    /** the JDBC URL prefix for the SQLite database of the MSF file */
+    private static final String JDBC_SQLITE_PREFIX = "jdbc:sqlite:";
+
+    /** the charge used for PSMs without spectrum header, i.e. without known charge */
+    private static final int UNKNOWN_CHARGE = 0;
+
 
     /**
      * We don't ever want to instantiate this class
@@ -364,14 +356,6 @@ public class ThermoMSFFileParser {
         Map<String, Set<String>> spectrumIdToSpectraData =
                 new HashMap<>();
 
-        LOGGER.info("get spectra info...");
-        Map<Object, Object> spectraMap = ABaseClass.getObjectMap(fileConnectionParams, SpectrumHeaders.class);
-        LOGGER.info("#spectra: " + spectraMap.size());
-
-        LOGGER.info("get peak info...");
-        Map<Object, Object> massPeakMap = ABaseClass.getObjectMap(fileConnectionParams, MassPeaks.class);
-        LOGGER.info("#peaks: " + massPeakMap.size());
-
         LOGGER.info("get file info...");
         Map<Object, Object> fileMap = ABaseClass.getObjectMap(fileConnectionParams, FileInfos.class);
         LOGGER.info("#files: " + fileMap.size());
@@ -380,22 +364,6 @@ public class ThermoMSFFileParser {
         Map<Object, Object> modificationsMap = ABaseClass.getObjectMap(fileConnectionParams, AminoAcidModifications.class);
         LOGGER.info("#amino acid modifications: " + modificationsMap.size());
 
-        LOGGER.info("get protein sequences...");
-        Map<Long, String> sequencesMap = new HashMap<>();
-        for (Object proteinObj : ABaseClass.getObjectMap(fileConnectionParams, Proteins.class).values()) {
-            Proteins protein = (Proteins)proteinObj;
-            sequencesMap.put(protein.getProteinID(), protein.getSequence());
-        }
-        LOGGER.info("#protein sequences: " + sequencesMap.size());
-
-        LOGGER.info("get protein annotations...");
-        Map<Long, String> annotationsMap = new HashMap<>();
-        for (Object annotationObj : ABaseClass.getObjectMap(fileConnectionParams, ProteinAnnotations.class).values()) {
-            ProteinAnnotations annotation = (ProteinAnnotations)annotationObj;
-            annotationsMap.put(annotation.getProteinID(), annotation.getDescription());
-        }
-        LOGGER.info("#protein annotations: " + annotationsMap.size());
-
         LOGGER.info("get scores...");
         // mapping from scoreID to scoreName
         Map<Long, String> scoresMap = new HashMap<>();
@@ -405,150 +373,90 @@ public class ThermoMSFFileParser {
         }
         LOGGER.info("#scores: " + scoresMap.size());
 
+        fileConnectionParams.closeDB();
 
-        // parse the peptides
-        LOGGER.info("get peptide info...");
-        Collection<Object> peptides = ABaseClass.getObjectMap(fileConnectionParams, Peptides.class).values();
-        LOGGER.info("#peptides: " + peptides.size());
-
-        LOGGER.info("get modifications info...");
-        // map from peptideID to modifications
-        Map<Long, List<APeptidesAminoAcidModifications>> peptidesModifications =
-                new HashMap<>();
-        for (Object modObj : ABaseClass.getObjectMap(fileConnectionParams, PeptidesAminoAcidModifications.class).values()) {
-            APeptidesAminoAcidModifications mod = (APeptidesAminoAcidModifications)modObj;
-
-            List<APeptidesAminoAcidModifications> modList = peptidesModifications.computeIfAbsent(mod.getPeptideID(), k -> new ArrayList<>());
-
-            modList.add(mod);
-        }
-        LOGGER.info("#modified peptides: " + peptidesModifications.size());
-
-        LOGGER.info("get terminal modifications info...");
-        // map from peptideID to terminal modifications
-        Map<Long, List<AminoAcidModifications>> terminalModifications =
-                new HashMap<>();
-        for (Object modObj : ABaseClass.getObjectMap(fileConnectionParams, PeptidesTerminalModifications.class).values()) {
-            APeptidesTerminalModifications termMod = (APeptidesTerminalModifications)modObj;
-
-            List<AminoAcidModifications> termModList = terminalModifications.computeIfAbsent(termMod.getPeptideID(), k -> new ArrayList<>());
-
-            termModList.add((AminoAcidModifications)modificationsMap.get(termMod.getTerminalModificationID()));
-        }
-        LOGGER.info("#terminal modified peptides: " + terminalModifications.size());
-
-        LOGGER.info("get peptides/proteins information...");
-        //map from peptideID to proteins
-        Map<Long, List<Long>> peptidesProteins = new HashMap<>();
-        for (Object pepProtObj : ABaseClass.getObjectMap(fileConnectionParams, PeptidesProteins.class).values()) {
-            PeptidesProteins pepProt = (PeptidesProteins)pepProtObj;
-
-            List<Long> proteinList = peptidesProteins.computeIfAbsent(pepProt.getPeptideID(), k -> new ArrayList<>());
-
-            proteinList.add(pepProt.getProteinID());
-        }
-        LOGGER.info("#peptides associated to proteins: " + peptidesProteins.size());
-
-        LOGGER.info("get peptides/scores information...");
-        // map from peptideID to scores
-        Map<Long, List<APeptideScores>> peptidesScores = new HashMap<>();
-        for (Object scoreObject : ABaseClass.getObjectMap(fileConnectionParams, PeptideScores.class).values()) {
-            PeptideScores score = (PeptideScores)scoreObject;
-
-            List<APeptideScores> scoreList = peptidesScores.computeIfAbsent(score.getPeptideID(), k -> new ArrayList<>());
-
-            scoreList.add(score);
-        }
-        LOGGER.info("#peptides associated to sores: " + peptidesScores.size());
-
+        // the peptides are streamed directly from the database, node by node and page by page
+        long nrPeptides = 0;
         long emptyPSMs = 0;
-        for (Object peptide : peptides) {
-            if (parsePSM(peptide, false, spectraMap, massPeakMap, fileMap,
-                    peptidesProteins, peptidesScores, peptidesModifications, terminalModifications,
-                    aminoAcidMap, sequencesMap, annotationsMap, scoresMap,
-                    compiler,
-                    nodeNumbersToIdentifications, nodeNumbersToInputFiles, spectraDataMap, spectrumIdToSpectraData) == null) {
-                emptyPSMs++;
+        long psmsWithoutCharge = 0;
+        long startTime = System.currentTimeMillis();
+        try (Connection connection = DriverManager.getConnection(JDBC_SQLITE_PREFIX + fileName)) {
+            boolean hasDecoys = ThermoMSFPeptideReader.decoyTablesExist(connection);
+            if (!hasDecoys) {
+                LOGGER.info("no decoy peptides, that's ok");
             }
-        }
-        LOGGER.info("target peptides processed");
-
 
-        // parse the decoy peptides
-        LOGGER.info("get decoy peptide info...");
-        peptides = ABaseClass.getObjectMap(fileConnectionParams, Peptides_decoy.class).values();
-        LOGGER.info("#decoy peptides: " + peptides.size());
+            warnAboutPeptidesOfOtherNodes(connection, hasDecoys, nodeNumbersToIdentifications.keySet());
 
-        if (!peptides.isEmpty()) {
-            LOGGER.info("get decoy modifications info...");
-            // map from peptideID to modifications
-            peptidesModifications = new HashMap<>();
-            for (Object modObj : ABaseClass.getObjectMap(fileConnectionParams, PeptidesAminoAcidModifications_decoy.class).values()) {
-                APeptidesAminoAcidModifications mod = (APeptidesAminoAcidModifications)modObj;
+            for (Long nodeNumber : nodeNumbersToIdentifications.keySet()) {
+                for (boolean isDecoy : new boolean[] {false, true}) {
+                    if (isDecoy && !hasDecoys) {
+                        continue;
+                    }
 
-                List<APeptidesAminoAcidModifications> modList = peptidesModifications.computeIfAbsent(mod.getPeptideID(), k -> new ArrayList<>());
-                modList.add(mod);
+                    LOGGER.info("get " + (isDecoy ? "decoy " : "") + "peptides of node " + nodeNumber + "...");
+                    try (ThermoMSFPeptideReader reader = new ThermoMSFPeptideReader(connection, nodeNumber, isDecoy)) {
+                        List<ThermoMSFPeptideReader.MSFPeptide> peptides = reader.nextPage();
+                        while (!peptides.isEmpty()) {
+                            for (ThermoMSFPeptideReader.MSFPeptide peptide : peptides) {
+                                if (peptide.charge == null) {
+                                    psmsWithoutCharge++;
+                                }
+                                if (parsePSM(peptide, isDecoy, reader, fileMap, modificationsMap,
+                                        aminoAcidMap, scoresMap, compiler,
+                                        nodeNumbersToIdentifications, nodeNumbersToInputFiles,
+                                        spectraDataMap, spectrumIdToSpectraData) == null) {
+                                    emptyPSMs++;
+                                }
+                            }
+                            nrPeptides += peptides.size();
+                            peptides = reader.nextPage();
+                        }
+                    }
+                }
             }
-            LOGGER.info("#modified decoy peptides: " + peptidesModifications.size());
-
-            LOGGER.info("get decoy terminal modifications info...");
-            // map from peptideID to terminal modifications
-            terminalModifications = new HashMap<>();
-            for (Object modObj : ABaseClass.getObjectMap(fileConnectionParams, PeptidesTerminalModifications_decoy.class).values()) {
-                APeptidesTerminalModifications termMod = (APeptidesTerminalModifications)modObj;
+        } catch (SQLException e) {
+            LOGGER.error("Could not read the peptides from " + fileName, e);
+            return false;
+        }
 
-                List<AminoAcidModifications> termModList = terminalModifications.computeIfAbsent(termMod.getPeptideID(), k -> new ArrayList<>());
+        long duration = Math.max(System.currentTimeMillis() - startTime, 1);
+        LOGGER.info("all " + nrPeptides + " peptides processed in " + duration + " ms ("
+                + (nrPeptides * 1000 / duration) + " peptides/s)");
 
-                termModList.add((AminoAcidModifications)modificationsMap.get(termMod.getTerminalModificationID()));
-            }
-            LOGGER.info("#terminal modified decoy peptides: " + terminalModifications.size());
+        if (emptyPSMs > 0) {
+            LOGGER.info("There were " + emptyPSMs + " PSMs without protein connection, these are rejected!");
+        }
+        if (psmsWithoutCharge > 0) {
+            LOGGER.warn("There were " + psmsWithoutCharge + " PSMs without spectrum header, their charge is set to "
+                    + UNKNOWN_CHARGE);
+        }
 
-            LOGGER.info("get decoy peptides/proteins information...");
-            // map from peptideID to proteins
-            peptidesProteins = new HashMap<>();
-            for (Object pepProtObj : ABaseClass.getObjectMap(fileConnectionParams, PeptidesProteins_decoy.class).values()) {
-                PeptidesProteins_decoy pepProt = (PeptidesProteins_decoy)pepProtObj;
+        return true;
+    }
 
-                List<Long> proteinList = peptidesProteins.computeIfAbsent(pepProt.getPeptideID(), k -> new ArrayList<>());
 
-                proteinList.add(pepProt.getProteinID());
+    /**
+     * Logs a warning for the peptides of processing nodes, which are no
+     * (parsed) searches. These peptides are not imported.
+     *
+     * @throws SQLException
+     */
+    private static void warnAboutPeptidesOfOtherNodes(Connection connection, boolean hasDecoys,
+            Set<Long> searchNodeNumbers) throws SQLException {
+        for (boolean isDecoy : new boolean[] {false, true}) {
+            if (isDecoy && !hasDecoys) {
+                continue;
             }
-            LOGGER.info("#decoy peptides associated to proteins: " + peptidesProteins.size());
-
-            LOGGER.info("get decoy peptides/scores information...");
-            // map from peptideID to scores
-            peptidesScores = new HashMap<>();
-            for (Object scoreObject : ABaseClass.getObjectMap(fileConnectionParams, PeptideScores_decoy.class).values()) {
-                PeptideScores_decoy score = (PeptideScores_decoy)scoreObject;
-
-                List<APeptideScores> scoreList = peptidesScores.computeIfAbsent(score.getPeptideID(), k -> new ArrayList<>());
 
-                scoreList.add(score);
-            }
-            LOGGER.info("#decoy peptides associated to sores: " + peptidesScores.size());
-
-            for (Object peptide : peptides) {
-                if (parsePSM(peptide, true, spectraMap, massPeakMap, fileMap,
-                        peptidesProteins, peptidesScores, peptidesModifications, terminalModifications,
-                        aminoAcidMap, sequencesMap, annotationsMap, scoresMap,
-                        compiler,
-                        nodeNumbersToIdentifications, nodeNumbersToInputFiles, spectraDataMap, spectrumIdToSpectraData) == null) {
-                    emptyPSMs++;
+            for (Map.Entry<Long, Long> nodeIt
+                    : ThermoMSFPeptideReader.countPeptidesPerNode(connection, isDecoy).entrySet()) {
+                if (!searchNodeNumbers.contains(nodeIt.getKey())) {
+                    LOGGER.warn(nodeIt.getValue() + (isDecoy ? " decoy" : "") + " peptides of the processing node "
+                            + nodeIt.getKey() + " are not imported, as the node is no known search");
                 }
             }
-            LOGGER.info("decoy peptides processed");
-        } else {
-            LOGGER.info("no decoy peptides, that's ok");
-        }
-
-        LOGGER.info("all peptides processed");
-
-        if (emptyPSMs > 0) {
-            LOGGER.info("There were " + emptyPSMs + " PSMs without protein connection, these are rejected!");
         }
-
-        fileConnectionParams.closeDB();
-        return true;
     }
 
 
@@ -759,18 +667,12 @@ public class ThermoMSFFileParser {
      * Creates and adds an {@link PeptideSpectrumMatch} from an peptide entry in
      * the MSF file.
      */
-    private static PeptideSpectrumMatch parsePSM(Object peptideObject,
+    private static PeptideSpectrumMatch parsePSM(ThermoMSFPeptideReader.MSFPeptide peptide,
             boolean isDecoy,
-            Map<Object, Object> spectraMap,
-            Map<Object, Object> massPeakMap,
+            ThermoMSFPeptideReader reader,
             Map<Object, Object> fileMap,
-            Map<Long, List<Long>> peptidesProteins,
-            Map<Long, List<APeptideScores>> peptidesScores,
-            Map<Long, List<APeptidesAminoAcidModifications>> peptidesModifications,
-            Map<Long, List<AminoAcidModifications>> terminalModifications,
+            Map<Object, Object> modificationsMap,
             Map<Character, AminoAcids> aminoAcidMap,
-            Map<Long, String> sequencesMap,
-            Map<Long, String> annotationsMap,
             Map<Long, String> scoresMap,
             PIACompiler compiler,
             Map<Long, SpectrumIdentification> nodeNumbersToIdentifications,
@@ -778,35 +680,30 @@ public class ThermoMSFFileParser {
             Map<Long, SpectraData> spectraDataMap,
             Map<String, Set<String>> spectrumIdToSpectraData
             ) {
-        APeptides peptide = (APeptides)peptideObject;
-
-        if (!peptidesProteins.containsKey(peptide.getPeptideID())) {
+        if (peptide.proteinIDs.isEmpty()) {
             // there is no protein information for the peptide! PD does these things...
             // for now: do not include these PSMs
             // TODO: find some better solution
             return null;
         }
 
-        // get some spectrum information
-        SpectrumHeaders spectrum = (SpectrumHeaders)spectraMap.get(peptide.getSpectrumID());
-        MassPeaks massPeak = (MassPeaks)massPeakMap.get(spectrum.getMassPeakID());
-
-        int charge = spectrum.getCharge();
-        double precursorMZ = PIATools.round(massPeak.getMass(), 6);
-        String sourceID = "index=" + (spectrum.getFirstScan()-1);
+        // get some spectrum information (which may be missing in the file)
+        int charge = (peptide.charge != null) ? peptide.charge : UNKNOWN_CHARGE;
+        double precursorMZ = (peptide.precursorMZ != null) ? PIATools.round(peptide.precursorMZ, 6) : Double.NaN;
+        String sourceID = (peptide.firstScan != null) ? "index=" + (peptide.firstScan-1) : null;
 
         // get the spectrumIdentification, which identified this peptide
         SpectrumIdentification spectrumID =
-                nodeNumbersToIdentifications.get(peptide.getProcessingNodeNumber());
+                nodeNumbersToIdentifications.get(peptide.processingNodeNumber);
 
         if (spectrumID == null) {
-            LOGGER.warn("PSM (" + sourceID + ", " + peptide.getSequence() +") does not originate from a search.");
+            LOGGER.warn("PSM (" + sourceID + ", " + peptide.sequence +") does not originate from a search.");
             return null;
-        } else {
-            String rawFileName = ((FileInfos)fileMap.get(massPeak.getFileID())).getFileName();
+        } else if (fileMap.get(peptide.fileID) != null) {
+            String rawFileName = ((FileInfos)fileMap.get(peptide.fileID)).getFileName();
 
             SpectraData spectraData =
-                    spectraDataMap.get(massPeak.getFileID());
+                    spectraDataMap.get(peptide.fileID);
 
             if (spectraData == null) {
 
@@ -837,7 +734,7 @@ public class ThermoMSFFileParser {
 
                 spectraData = compiler.putIntoSpectraDataMap(spectraData);
 
-                spectraDataMap.put(massPeak.getFileID(), spectraData);
+                spectraDataMap.put(peptide.fileID, spectraData);
             }
 
             // look, if spectrumID has the needed spectraData, if not, add it
@@ -853,28 +750,29 @@ public class ThermoMSFFileParser {
 
         }
 
-        String pepSequence = peptide.getSequence();
-        PIAInputFile file = nodeNumbersToInputFiles.get(peptide.getProcessingNodeNumber());
+        String pepSequence = peptide.sequence;
+        PIAInputFile file = nodeNumbersToInputFiles.get(peptide.processingNodeNumber);
 
         // get the modifications
         Map<Integer, Modification> modifications = new HashMap<>();
-        if (peptidesModifications.containsKey(peptide.getPeptideID())) {
-            for (APeptidesAminoAcidModifications aaMod : peptidesModifications.get(peptide.getPeptideID())) {
-                int loc = (int)aaMod.getPosition() + 1;
-
-                // TODO: get the unimod modification code
-                Modification modification = new Modification(
-                        pepSequence.charAt(loc-1),
-                        aaMod.getAminoAcidModification().getDeltaMass(),
-                        aaMod.getAminoAcidModification().getModificationName(),
-                        null);
-
-                modifications.put(loc, modification);
-            }
+        for (ThermoMSFPeptideReader.MSFModification aaMod : peptide.modifications) {
+            int loc = aaMod.position + 1;
+            AminoAcidModifications aminoAcidModification =
+                    (AminoAcidModifications)modificationsMap.get(aaMod.modificationID);
+
+            // TODO: get the unimod modification code
+            Modification modification = new Modification(
+                    pepSequence.charAt(loc-1),
+                    aminoAcidModification.getDeltaMass(),
+                    aminoAcidModification.getModificationName(),
+                    null);
+
+            modifications.put(loc, modification);
         }
 
-        if (terminalModifications.containsKey(peptide.getPeptideID())) {
-            for (AminoAcidModifications termMod : terminalModifications.get(peptide.getPeptideID())) {
+        if (!peptide.terminalModificationIDs.isEmpty()) {
+            for (Long termModID : peptide.terminalModificationIDs) {
+                AminoAcidModifications termMod = (AminoAcidModifications)modificationsMap.get(termModID);
                 int loc;
 
                 switch (termMod.getPositionType()) {
@@ -906,10 +804,12 @@ public class ThermoMSFFileParser {
         PeptideSpectrumMatch psm = compiler.createNewPeptideSpectrumMatch(
                 charge,
                 precursorMZ,
-                PIATools.round(spectrum.getMass() - getPeptideMassForCharge(1, pepSequence, aminoAcidMap, modifications), 6),
-                spectrum.getRetentionTime()*60.0,
+                (peptide.spectrumMass != null)
+                        ? PIATools.round(peptide.spectrumMass - getPeptideMassForCharge(1, pepSequence, aminoAcidMap, modifications), 6)
+                        : Double.NaN,
+                (peptide.retentionTime != null) ? peptide.retentionTime*60.0 : null,
                 pepSequence,
-                peptide.getMissedCleavages(),
+                peptide.missedCleavages,
                 sourceID,
                 null,
                 file,
@@ -927,23 +827,20 @@ public class ThermoMSFFileParser {
         piaPeptide.addSpectrum(psm);
 
         // add the scores
-        if (peptidesScores.containsKey(peptide.getPeptideID())) {
-            for (APeptideScores pepScore : peptidesScores.get(peptide.getPeptideID())) {
-
-                ScoreModelEnum scoreModel =
-                        ScoreModelEnum.getModelByDescription(
-                                scoresMap.get(pepScore.getScoreID()));
-
-                ScoreModel score;
-                if (!scoreModel.equals(ScoreModelEnum.UNKNOWN_SCORE)) {
-                    score = new ScoreModel(pepScore.getScoreValue(),
-                            scoreModel);
-                } else {
-                    score = new ScoreModel(pepScore.getScoreValue(),
-                            null, scoresMap.get(pepScore.getScoreID()));
-                }
-                psm.addScore(score);
+        for (ThermoMSFPeptideReader.MSFScore pepScore : peptide.scores) {
+            ScoreModelEnum scoreModel =
+                    ScoreModelEnum.getModelByDescription(
+                            scoresMap.get(pepScore.scoreID));
+
+            ScoreModel score;
+            if (!scoreModel.equals(ScoreModelEnum.UNKNOWN_SCORE)) {
+                score = new ScoreModel(pepScore.scoreValue,
+                        scoreModel);
+            } else {
+                score = new ScoreModel(pepScore.scoreValue,
+                        null, scoresMap.get(pepScore.scoreID));
             }
+            psm.addScore(score);
         }
 
         // add the modifications
@@ -952,16 +849,18 @@ public class ThermoMSFFileParser {
         }
 
         // add protein infos
-        for (Long proteinID : peptidesProteins.get(peptide.getPeptideID())) {
-            FastaHeaderInfos fastaInfo =
-                    FastaHeaderInfos.parseHeaderInfos(annotationsMap.get(proteinID));
+        for (Long proteinID : peptide.proteinIDs) {
+            ThermoMSFPeptideReader.MSFProtein protein = reader.getProtein(proteinID);
+            String annotation = (protein != null) ? protein.description : null;
+
+            FastaHeaderInfos fastaInfo = (annotation != null) ? FastaHeaderInfos.parseHeaderInfos(annotation) : null;
             if (fastaInfo == null) {
                 LOGGER.error("Could not parse protein annotation '" +
-                        annotationsMap.get(proteinID) + '\'');
+                        annotation + '\'');
                 continue;
             }
 
-            String proteinSequence = sequencesMap.get(proteinID);
+            String proteinSequence = protein.sequence;
 
             // add the Accession to the compiler (if it is not already there)
             Accession acc = compiler.getAccession(fastaInfo.getAccession());
@@ -995,20 +894,22 @@ public class ThermoMSFFileParser {
 
             // add the searchDB to the accession
             for (SearchDatabaseRef dbRef
-                    : nodeNumbersToIdentifications.get(peptide.getProcessingNodeNumber()).getSearchDatabaseRef()) {
+                    : nodeNumbersToIdentifications.get(peptide.processingNodeNumber).getSearchDatabaseRef()) {
                 acc.addSearchDatabaseRef(dbRef.getSearchDatabase().getId());
             }
 
             // add the accession occurrence to the peptide
             // have to recalculate the occurrence, because it is not saved in the MSF
             if (proteinSequence != null) {
-                int start = proteinSequence.indexOf(pepSequence);
-
-                while (start > -1) {
-                    piaPeptide.addAccessionOccurrence(acc, start + 1,
-                            start + pepSequence.length());
+                List<Integer> startSites = PeptideOccurrenceFinder.findStartSites(pepSequence, proteinSequence);
+                if (startSites.isEmpty()) {
+                    // the search engine may not distinguish I and L
+                    startSites = PeptideOccurrenceFinder.findStartSites(pepSequence, proteinSequence, true);
+                }
 
-                    start = proteinSequence.indexOf(pepSequence, start + 1);
+                for (int start : startSites) {
+                    piaPeptide.addAccessionOccurrence(acc, start,
+                            start + pepSequence.length() - 1);
                 }
             } else {
                 // without valid sequence, set a fake occurrence
@@ -0,0 +1,448 @@
+package de.mpc.pia.intermediate.compiler.parser.searchengines;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * Reads the (target or decoy) peptides of one processing node from the SQLite
+ * database of a Thermo MSF file in pages.
+ * <p>
+ * The peptides are joined with the needed columns of the spectrum headers and
+ * mass peaks and paged by their PeptideID, the scores, proteins and
+ * modifications are only fetched for the current page. So the tables are never
+ * completely loaded into memory. Peptides without spectrum header or mass peak
+ * are read as well, their spectrum information is null.
+ *
+ * @author julian
+ *
+ */
+class ThermoMSFPeptideReader implements AutoCloseable {
+
+    /** logger for this class */
+    private static final Logger LOGGER = Logger.getLogger(ThermoMSFPeptideReader.class);
+
+    /** the default number of peptides read per page */
+    public static final int PAGE_SIZE = 10000;
+
+    /** the suffix of the decoy tables */
+    private static final String DECOY_SUFFIX = "_decoy";
+
+    /** the ProcessingNodeNumber of the read peptides */
+    private final long processingNodeNumber;
+
+    /** the number of peptides read per page */
+    private final int pageSize;
+
+    /** selects the next page of peptides with their spectrum information */
+    private final PreparedStatement peptidesStatement;
+
+    /** selects the scores of a range of peptides */
+    private final PreparedStatement scoresStatement;
+
+    /** selects the protein IDs of a range of peptides */
+    private final PreparedStatement peptidesProteinsStatement;
+
+    /** selects the proteins (sequences and annotations) of a range of peptides */
+    private final PreparedStatement proteinsStatement;
+
+    /** selects the amino acid modifications of a range of peptides */
+    private final PreparedStatement modificationsStatement;
+
+    /** selects the terminal modifications of a range of peptides */
+    private final PreparedStatement terminalModificationsStatement;
+
+    /** the last read PeptideID */
+    private long lastPeptideID;
+
+    /** the proteins of the current page, mapped by the ProteinID */
+    private Map<Long, MSFProtein> pageProteins;
+
+
+    /**
+     * Prepares the paged reading of the peptides of the given processing node.
+     *
+     * @param connection the connection to the MSF file
+     * @param processingNodeNumber the node, which created the peptides
+     * @param isDecoy whether to read from the decoy tables
+     * @throws SQLException
+     */
+    ThermoMSFPeptideReader(Connection connection, long processingNodeNumber, boolean isDecoy)
+            throws SQLException {
+        this(connection, processingNodeNumber, isDecoy, PAGE_SIZE);
+    }
+
+
+    /**
+     * Prepares the paged reading of the peptides of the given processing node
+     * with the given number of peptides per page.
+     *
+     * @param connection the connection to the MSF file
+     * @param processingNodeNumber the node, which created the peptides
+     * @param isDecoy whether to read from the decoy tables
+     * @param pageSize the number of peptides read per page
+     * @throws SQLException
+     */
+    ThermoMSFPeptideReader(Connection connection, long processingNodeNumber, boolean isDecoy, int pageSize)
+            throws SQLException {
+        this.processingNodeNumber = processingNodeNumber;
+        this.pageSize = pageSize;
+        this.lastPeptideID = Long.MIN_VALUE;
+        this.pageProteins = new HashMap<>();
+
+        String suffix = isDecoy ? DECOY_SUFFIX : "";
+
+        peptidesStatement = connection.prepareStatement(
+                "SELECT pep.PeptideID, pep.Sequence, pep.MissedCleavages, "
+                        + "sh.Charge, sh.Mass, sh.FirstScan, sh.RetentionTime, mp.Mass, mp.FileID "
+                        + "FROM Peptides" + suffix + " pep "
+                        + "LEFT JOIN SpectrumHeaders sh ON sh.SpectrumID = pep.SpectrumID "
+                        + "LEFT JOIN MassPeaks mp ON mp.MassPeakID = sh.MassPeakID "
+                        + "WHERE pep.ProcessingNodeNumber = ? AND pep.PeptideID > ? "
+                        + "ORDER BY pep.PeptideID LIMIT " + pageSize);
+
+        scoresStatement = connection.prepareStatement(
+                "SELECT PeptideID, ScoreID, ScoreValue FROM PeptideScores" + suffix
+                        + " WHERE PeptideID BETWEEN ? AND ?");
+
+        peptidesProteinsStatement = connection.prepareStatement(
+                "SELECT PeptideID, ProteinID FROM PeptidesProteins" + suffix
+                        + " WHERE PeptideID BETWEEN ? AND ?");
+
+        proteinsStatement = connection.prepareStatement(
+                "SELECT prot.ProteinID, prot.Sequence, annot.Description FROM Proteins prot "
+                        + "LEFT JOIN ProteinAnnotations annot ON annot.ProteinID = prot.ProteinID "
+                        + "WHERE prot.ProteinID IN (SELECT ProteinID FROM PeptidesProteins" + suffix
+                        + " WHERE PeptideID BETWEEN ? AND ?)");
+
+        modificationsStatement = connection.prepareStatement(
+                "SELECT PeptideID, AminoAcidModificationID, Position FROM PeptidesAminoAcidModifications" + suffix
+                        + " WHERE PeptideID BETWEEN ? AND ?");
+
+        terminalModificationsStatement = connection.prepareStatement(
+                "SELECT PeptideID, TerminalModificationID FROM PeptidesTerminalModifications" + suffix
+                        + " WHERE PeptideID BETWEEN ? AND ?");
+    }
+
+
+    /**
+     * Checks, whether the given table exists in the MSF file. Older files
+     * may have no decoy tables.
+     *
+     * @param connection
+     * @param tableName
+     * @return
+     * @throws SQLException
+     */
+    static boolean tableExists(Connection connection, String tableName) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT name FROM sqlite_master WHERE type = 'table' AND name = ?")) {
+            statement.setString(1, tableName);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+
+    /**
+     * Checks, whether the decoy tables exist in the MSF file.
+     *
+     * @param connection
+     * @return
+     * @throws SQLException
+     */
+    static boolean decoyTablesExist(Connection connection) throws SQLException {
+        return tableExists(connection, "Peptides" + DECOY_SUFFIX)
+                && tableExists(connection, "PeptideScores" + DECOY_SUFFIX)
+                && tableExists(connection, "PeptidesProteins" + DECOY_SUFFIX)
+                && tableExists(connection, "PeptidesAminoAcidModifications" + DECOY_SUFFIX)
+                && tableExists(connection, "PeptidesTerminalModifications" + DECOY_SUFFIX);
+    }
+
+
+    /**
+     * Counts the (target or decoy) peptides of each processing node.
+     *
+     * @param connection
+     * @param isDecoy whether to count in the decoy tables
+     * @return the number of peptides by the ProcessingNodeNumber
+     * @throws SQLException
+     */
+    static Map<Long, Long> countPeptidesPerNode(Connection connection, boolean isDecoy) throws SQLException {
+        Map<Long, Long> nodeCounts = new HashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT ProcessingNodeNumber, COUNT(*) FROM Peptides" + (isDecoy ? DECOY_SUFFIX : "")
+                        + " GROUP BY ProcessingNodeNumber");
+                ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                nodeCounts.put(rs.getLong(1), rs.getLong(2));
+            }
+        }
+        return nodeCounts;
+    }
+
+
+    /**
+     * Reads the next page of peptides, including their scores, proteins and
+     * modifications. The proteins of the page are given by
+     * {@link #getProtein(Long)} until the next page is read.
+     *
+     * @return the peptides ordered by their PeptideID, an empty list, if all
+     * peptides were read
+     * @throws SQLException
+     */
+    List<MSFPeptide> nextPage() throws SQLException {
+        Map<Long, MSFPeptide> peptides = new LinkedHashMap<>();
+
+        peptidesStatement.setLong(1, processingNodeNumber);
+        peptidesStatement.setLong(2, lastPeptideID);
+        try (ResultSet rs = peptidesStatement.executeQuery()) {
+            while (rs.next()) {
+                MSFPeptide peptide = new MSFPeptide(rs.getLong(1), processingNodeNumber,
+                        rs.getString(2), rs.getInt(3), getInteger(rs, 4), getDouble(rs, 5),
+                        getLong(rs, 6), getDouble(rs, 7), getDouble(rs, 8), getLong(rs, 9));
+                peptides.put(peptide.peptideID, peptide);
+                lastPeptideID = peptide.peptideID;
+            }
+        }
+
+        pageProteins = new HashMap<>();
+        if (peptides.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        long firstPeptideID = peptides.keySet().iterator().next();
+
+        setRange(scoresStatement, firstPeptideID);
+        try (ResultSet rs = scoresStatement.executeQuery()) {
+            while (rs.next()) {
+                MSFPeptide peptide = peptides.get(rs.getLong(1));
+                if (peptide != null) {
+                    peptide.scores.add(new MSFScore(rs.getLong(2), rs.getDouble(3)));
+                }
+            }
+        }
+
+        setRange(peptidesProteinsStatement, firstPeptideID);
+        try (ResultSet rs = peptidesProteinsStatement.executeQuery()) {
+            while (rs.next()) {
+                MSFPeptide peptide = peptides.get(rs.getLong(1));
+                if (peptide != null) {
+                    peptide.proteinIDs.add(rs.getLong(2));
+                }
+            }
+        }
+
+        setRange(proteinsStatement, firstPeptideID);
+        try (ResultSet rs = proteinsStatement.executeQuery()) {
+            while (rs.next()) {
+                pageProteins.put(rs.getLong(1), new MSFProtein(rs.getString(2), rs.getString(3)));
+            }
+        }
+
+        setRange(modificationsStatement, firstPeptideID);
+        try (ResultSet rs = modificationsStatement.executeQuery()) {
+            while (rs.next()) {
+                MSFPeptide peptide = peptides.get(rs.getLong(1));
+                if (peptide != null) {
+                    peptide.modifications.add(new MSFModification(rs.getLong(2), rs.getInt(3)));
+                }
+            }
+        }
+
+        setRange(terminalModificationsStatement, firstPeptideID);
+        try (ResultSet rs = terminalModificationsStatement.executeQuery()) {
+            while (rs.next()) {
+                MSFPeptide peptide = peptides.get(rs.getLong(1));
+                if (peptide != null) {
+                    peptide.terminalModificationIDs.add(rs.getLong(2));
+                }
+            }
+        }
+
+        LOGGER.debug("read " + peptides.size() + " peptides of node " + processingNodeNumber
+                + " up to PeptideID " + lastPeptideID);
+        return new ArrayList<>(peptides.values());
+    }
+
+
+    /**
+     * Returns the integer in the given column or null, if it is NULL.
+     */
+    private static Integer getInteger(ResultSet rs, int column) throws SQLException {
+        int value = rs.getInt(column);
+        return rs.wasNull() ? null : value;
+    }
+
+
+    /**
+     * Returns the long in the given column or null, if it is NULL.
+     */
+    private static Long getLong(ResultSet rs, int column) throws SQLException {
+        long value = rs.getLong(column);
+        return rs.wasNull() ? null : value;
+    }
+
+
+    /**
+     * Returns the double in the given column or null, if it is NULL.
+     */
+    private static Double getDouble(ResultSet rs, int column) throws SQLException {
+        double value = rs.getDouble(column);
+        return rs.wasNull() ? null : value;
+    }
+
+
+    /**
+     * Sets the range of PeptideIDs from the given first to the last read ID.
+     */
+    private void setRange(PreparedStatement statement, long firstPeptideID) throws SQLException {
+        statement.setLong(1, firstPeptideID);
+        statement.setLong(2, lastPeptideID);
+    }
+
+
+    /**
+     * Returns the protein of the current page with the given ID.
+     *
+     * @param proteinID
+     * @return the protein or null, if it is not in the file
+     */
+    MSFProtein getProtein(Long proteinID) {
+        return pageProteins.get(proteinID);
+    }
+
+
+    @Override
+    public void close() throws SQLException {
+        peptidesStatement.close();
+        scoresStatement.close();
+        peptidesProteinsStatement.close();
+        proteinsStatement.close();
+        modificationsStatement.close();
+        terminalModificationsStatement.close();
+    }
+
+
+    /**
+     * A peptide of the MSF file with the information needed for a PSM.
+     */
+    static class MSFPeptide {
+
+        final long peptideID;
+
+        final long processingNodeNumber;
+
+        final String sequence;
+
+        final int missedCleavages;
+
+        /** the charge of the spectrum, null if there is no spectrum header */
+        final Integer charge;
+
+        /** the (singly charged) mass of the spectrum, null if there is no spectrum header */
+        final Double spectrumMass;
+
+        /** the first scan of the spectrum, null if there is no spectrum header */
+        final Long firstScan;
+
+        /** the retention time in minutes, null if there is no spectrum header */
+        final Double retentionTime;
+
+        /** the m/z of the precursor (mass peak), null if there is no mass peak */
+        final Double precursorMZ;
+
+        /** the FileID of the mass peak, null if there is no mass peak */
+        final Long fileID;
+
+        final List<MSFScore> scores;
+
+        final List<Long> proteinIDs;
+
+        final List<MSFModification> modifications;
+
+        final List<Long> terminalModificationIDs;
+
+
+        private MSFPeptide(long peptideID, long processingNodeNumber, String sequence,
+                int missedCleavages, Integer charge, Double spectrumMass, Long firstScan,
+                Double retentionTime, Double precursorMZ, Long fileID) {
+            this.peptideID = peptideID;
+            this.processingNodeNumber = processingNodeNumber;
+            this.sequence = sequence;
+            this.missedCleavages = missedCleavages;
+            this.charge = charge;
+            this.spectrumMass = spectrumMass;
+            this.firstScan = firstScan;
+            this.retentionTime = retentionTime;
+            this.precursorMZ = precursorMZ;
+            this.fileID = fileID;
+            this.scores = new ArrayList<>(2);
+            this.proteinIDs = new ArrayList<>(2);
+            this.modifications = new ArrayList<>(0);
+            this.terminalModificationIDs = new ArrayList<>(0);
+        }
+    }
+
+
+    /**
+     * A score of a peptide.
+     */
+    static class MSFScore {
+
+        final long scoreID;
+
+        final double scoreValue;
+
+
+        private MSFScore(long scoreID, double scoreValue) {
+            this.scoreID = scoreID;
+            this.scoreValue = scoreValue;
+        }
+    }
+
+
+    /**
+     * An amino acid modification of a peptide.
+     */
+    static class MSFModification {
+
+        final long modificationID;
+
+        /** the 0-based position in the sequence */
+        final int position;
+
+
+        private MSFModification(long modificationID, int position) {
+            this.modificationID = modificationID;
+            this.position = position;
+        }
+    }
+
+
+    /**
+     * The sequence and annotation (FASTA header) of a protein.
+     */
+    static class MSFProtein {
+
+        final String sequence;
+
+        final String description;
+
+
+        private MSFProtein(String sequence, String description) {
+            this.sequence = sequence;
+            this.description = description;
+        }
+    }
+}
@@ -1,7 +1,5 @@
 package de.mpc.pia.intermediate.compiler.parser.searchengines;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -27,6 +25,7 @@ import de.mpc.pia.intermediate.Peptide;
 import de.mpc.pia.intermediate.PeptideSpectrumMatch;
 import de.mpc.pia.intermediate.compiler.PIACompiler;
 import de.mpc.pia.intermediate.compiler.parser.InputFileParserFactory;
+import de.mpc.pia.intermediate.compiler.parser.TabularFileReader;
 import de.mpc.pia.modeller.score.ScoreModel;
 import de.mpc.pia.modeller.score.ScoreModelEnum;
 import de.mpc.pia.tools.CleavageAgent;
@@ -51,6 +50,9 @@ public class TideTXTFileParser {
     /** the separator in the TSV/CSV file */
     public static final String SEPARATOR_STRING = "\t";
 
+    /** the separator in the TSV/CSV file as char */
+    private static final char SEPARATOR_CHAR = '\t';
+
 
     public static final String HEADER_CHARGE = "charge";
     public static final String HEADER_PRECURSOR_MZ = "spectrum precursor m/z";
@@ -76,8 +78,11 @@ public class TideTXTFileParser {
 
     public static final String HEADER_PROTEINID = "protein id";
 
-    /** pattern to match and grep the accession */
-    private static final Pattern patternAccessions = Pattern.compile("([^(]+)\\(\\d+\\)");
+    /** the cleavage type of tryptic searches */
+    private static final String TRYPSIN_FULL_DIGEST = "trypsin-full-digest";
+
+    /** the compiled cleavage sites of trypsin, to count the missed cleavages */
+    private static final Pattern TRYPSIN_SITE_PATTERN = Pattern.compile(CleavageAgent.TRYPSIN.getSiteRegexp());
 
 
     /** the names of the columns */
@@ -118,31 +123,26 @@ public class TideTXTFileParser {
         int pepNr = 0;
         int specNr = 0;
 
-        String line;
-        int lineNr = 0;
-
-        Map<String, Integer> columnMap = new HashMap<>(colNames.size());
-
-        try (BufferedReader br = new BufferedReader(new FileReader(fileName))) {
-            if ((line = br.readLine()) != null) {
-                lineNr++;
-
-                // the first line contains the headers, create the mapping
-                String[] headers = line.split(SEPARATOR_STRING);
-
-                for (int idx = 0; idx < headers.length; idx++) {
-                    if (colNames.contains(headers[idx])) {
-                        columnMap.put(headers[idx], idx);
-                    }
-                }
-
-                if (columnMap.get(HEADER_SEQUENCE) == null) {
-                    LOGGER.error("the sequence header is missing");
-                    return false;
-                } else if (columnMap.get(HEADER_PROTEINID) == null) {
-                    LOGGER.error("the proteinid (accession) header is missing");
-                    return false;
-                }
+        try (TabularFileReader reader = new TabularFileReader(fileName, SEPARATOR_CHAR)) {
+            // the first line contains the headers, bind the columns
+            int chargeCol = reader.getColumn(HEADER_CHARGE);
+            int precursorMZCol = reader.getColumn(HEADER_PRECURSOR_MZ);
+            int sequenceCol = reader.getColumn(HEADER_SEQUENCE);
+            int cleavageTypeCol = reader.getColumn(HEADER_CLEAVAGE_TYPE);
+            int scanCol = reader.getColumn(HEADER_SCAN);
+            int xcorrCol = reader.getColumn(HEADER_XCORR);
+            int refactoredXcorrCol = reader.getColumn(HEADER_REFACTORED_XCORR);
+            int deltaCnCol = reader.getColumn(HEADER_DELTA_CN);
+            int spScoreCol = reader.getColumn(HEADER_SP_SCORE);
+            int spRankCol = reader.getColumn(HEADER_SP_RANK);
+            int proteinIDCol = reader.getColumn(HEADER_PROTEINID);
+
+            if (sequenceCol == TabularFileReader.MISSING_COLUMN) {
+                LOGGER.error("the sequence header is missing");
+                return false;
+            } else if (proteinIDCol == TabularFileReader.MISSING_COLUMN) {
+                LOGGER.error("the proteinid (accession) header is missing");
+                return false;
             }
 
             PIAInputFile file = compiler.insertNewFile(name, fileName, InputFileParserFactory.InputFileTypes.TIDE_TXT_INPUT.getFileSuffix());
@@ -180,16 +180,14 @@ public class TideTXTFileParser {
             file.addSpectrumIdentification(spectrumID);
 
 
-            // now parse the lines, each line is one PSM
-            while ((line = br.readLine()) != null) {
-                lineNr++;
-
-                String[] columns = line.split(SEPARATOR_STRING);
+            // now parse the rows, each row is one PSM
+            while (reader.nextRow()) {
+                long lineNr = reader.getLineNumber();
                 Peptide peptide;
 
                 Integer charge;
                 try {
-                    charge = Integer.parseInt(columns[columnMap.get(HEADER_CHARGE)]);
+                    charge = reader.getInt(chargeCol);
                 } catch (Exception ex) {
                     LOGGER.error("could not parse the chargestate in line " + lineNr, ex);
                     charge = 0;
@@ -197,7 +195,7 @@ public class TideTXTFileParser {
 
                 Double precursorMZ;
                 try {
-                    precursorMZ = Double.parseDouble(columns[columnMap.get(HEADER_PRECURSOR_MZ)]);
+                    precursorMZ = reader.getDouble(precursorMZCol);
                 } catch (Exception ex) {
                     LOGGER.error("could not parse the precursor m/z in line " + lineNr, ex);
                     precursorMZ = Double.NaN;
@@ -206,16 +204,20 @@ public class TideTXTFileParser {
                 // TODO: implement the delta mass, it is too imprecise to calculate from the given values
                 double deltaMass = Double.NaN;
 
-                String sequence = columns[columnMap.get(HEADER_SEQUENCE)];
+                if (!reader.hasValue(sequenceCol)) {
+                    LOGGER.error("no sequence in line " + lineNr);
+                    continue;
+                }
+                String sequence = reader.getString(sequenceCol);
 
                 Map<Integer, Modification> modifications = new HashMap<>();
-                if (sequence.contains("[")) {
+                if (sequence.indexOf('[') > -1) {
                     sequence = extractModifications(sequence, modifications, compiler);
                 }
 
-                int missedCleavages = calculateMissed(sequence, columns[columnMap.get(HEADER_CLEAVAGE_TYPE)]);
+                int missedCleavages = calculateMissed(sequence, reader.getString(cleavageTypeCol));
 
-                String sourceID = "index=" + columns[columnMap.get(HEADER_SCAN)];
+                String sourceID = "index=" + reader.getString(scanCol);
 
                 PeptideSpectrumMatch psm = compiler.createNewPeptideSpectrumMatch(
                         charge,
@@ -254,58 +256,61 @@ public class TideTXTFileParser {
                  * Todo: Create the proper CVTerm for it.
                  */
                 Double scoreValue;
-                if(columnMap.get(HEADER_XCORR) !=null ){
-                    scoreValue = Double.parseDouble(columns[columnMap.get(HEADER_XCORR)]);
+                if (xcorrCol != TabularFileReader.MISSING_COLUMN) {
+                    scoreValue = reader.getDouble(xcorrCol);
                     score = new ScoreModel(scoreValue,
                             ScoreModelEnum.SEQUEST_XCORR);
                     psm.addScore(score);
-                } else if(columnMap.get(HEADER_REFACTORED_XCORR) !=null){
-                    scoreValue = Double.parseDouble(columns[columnMap.get(HEADER_REFACTORED_XCORR)]);
+                } else if (refactoredXcorrCol != TabularFileReader.MISSING_COLUMN) {
+                    scoreValue = reader.getDouble(refactoredXcorrCol);
                     score = new ScoreModel(scoreValue,
                             ScoreModelEnum.SEQUEST_XCORR);
                     psm.addScore(score);
-                }else
+                } else
                     LOGGER.error("could not parse the xcorr in line " + lineNr);
 
                 /**
                  * Parse the other values or scores.
                  */
 
-                if(columnMap.get(HEADER_DELTA_CN) != null){
-                    scoreValue = Double.parseDouble(columns[columnMap.get(HEADER_DELTA_CN)]);
+                if (deltaCnCol != TabularFileReader.MISSING_COLUMN) {
+                    scoreValue = reader.getDouble(deltaCnCol);
                     score = new ScoreModel(scoreValue,
                             ScoreModelEnum.SEQUEST_DELTACN);
                     psm.addScore(score);
                 }
 
-                if(columnMap.get(HEADER_SP_SCORE) != null){
-                    scoreValue = Double.parseDouble(columns[columnMap.get(HEADER_SP_SCORE)]);
+                if (spScoreCol != TabularFileReader.MISSING_COLUMN) {
+                    scoreValue = reader.getDouble(spScoreCol);
                     score = new ScoreModel(scoreValue,
                             ScoreModelEnum.SEQUEST_SPSCORE);
                     psm.addScore(score);
                 }
 
-                if(columnMap.get(HEADER_SP_RANK) != null){
-                    scoreValue = Double.parseDouble(columns[columnMap.get(HEADER_SP_RANK)]);
+                if (spRankCol != TabularFileReader.MISSING_COLUMN) {
+                    scoreValue = reader.getDouble(spRankCol);
                     score = new ScoreModel(scoreValue,
                             ScoreModelEnum.SEQUEST_PEPTIDE_RANK_SP);
                     psm.addScore(score);
                 }
 
                 // add the protein/accession info
+                String proteinIDs = reader.hasValue(proteinIDCol) ? reader.getString(proteinIDCol) : "";
+                int accStart = 0;
+                while (accStart <= proteinIDs.length()) {
+                    int accEnd = proteinIDs.indexOf(',', accStart);
+                    if (accEnd < 0) {
+                        accEnd = proteinIDs.length();
+                    }
 
-                String[] accessions = columns[columnMap.get(HEADER_PROTEINID)].split(",");
-                for (String accession : accessions) {
-
-                    Matcher matcher = patternAccessions.matcher(accession);
-
-                    if (matcher.matches()) {
+                    String accession = parseAccession(proteinIDs, accStart, accEnd);
+                    if (accession != null) {
                         // add the Accession to the compiler (if it is not already there)
-                        Accession acc = compiler.getAccession(matcher.group(1));
+                        Accession acc = compiler.getAccession(accession);
                         if (acc == null) {
                             // no sequence information in the file
                             acc = compiler.insertNewAccession(
-                                    matcher.group(1), null);
+                                    accession, null);
                             accNr++;
                         }
 
@@ -316,12 +321,17 @@ public class TideTXTFileParser {
                     } else {
                         LOGGER.error("could not get the accession in line" + lineNr);
                     }
+
+                    accStart = accEnd + 1;
                 }
 
                 // teh PSM is completed now
                 compiler.insertCompletePeptideSpectrumMatch(psm);
                 specNr++;
             }
+
+            LOGGER.info("parsed " + reader.getRowCount() + " rows ("
+                    + reader.getRowsPerSecond() + " rows/s)");
         } catch (IOException e) {
             LOGGER.error("Error occurred while parsing the file " + fileName, e);
             return false;
@@ -335,6 +345,32 @@ public class TideTXTFileParser {
     }
 
 
+    /**
+     * Parses the accession from a protein id entry like "sp|P12345|NAME(12)",
+     * i.e. the accession followed by the position in parentheses.
+     *
+     * @param proteinIDs the protein id column
+     * @param start start of the entry
+     * @param end end of the entry (exclusive)
+     * @return the accession or null, if the entry has not the expected form
+     */
+    private static String parseAccession(String proteinIDs, int start, int end) {
+        int openBr = proteinIDs.lastIndexOf('(', end - 1);
+        if ((openBr <= start) || (end - openBr < 3) || (proteinIDs.charAt(end - 1) != ')')) {
+            return null;
+        }
+
+        for (int pos = openBr + 1; pos < end - 1; pos++) {
+            if (!Character.isDigit(proteinIDs.charAt(pos))) {
+                return null;
+            }
+        }
+
+        String accession = proteinIDs.substring(start, openBr);
+        return (accession.indexOf('(') < 0) ? accession : null;
+    }
+
+
     /**
      * extracts the modifications from the seqeunce string
      *
@@ -430,21 +466,33 @@ public class TideTXTFileParser {
      * @return
      */
     private static int calculateMissed(String sequence, String cleavageType) {
-        int missed = 0;
-        String type = cleavageType.trim();
-        CleavageAgent enzyme = null;
+        int missed = -1;
 
         // TODO: add further cleavage agents
-        if ("trypsin-full-digest".equals(type)) {
-            enzyme = CleavageAgent.TRYPSIN;
+        if ((cleavageType != null) && TRYPSIN_FULL_DIGEST.equals(cleavageType.trim())) {
+            missed = countMissedCleavages(sequence, TRYPSIN_SITE_PATTERN);
         }
 
-        if (enzyme != null) {
-            missed += sequence.split(enzyme.getSiteRegexp()).length - 1;
-        } else {
-            missed = -1;
-        }
+        return missed;
+    }
+
 
+    /**
+     * Counts the cleavage sites inside the sequence, which gives the same as
+     * splitting the sequence by the sites.
+     *
+     * @param sequence the peptide sequence
+     * @param sitePattern the compiled cleavage site regular expression
+     * @return
+     */
+    private static int countMissedCleavages(String sequence, Pattern sitePattern) {
+        int missed = 0;
+        Matcher matcher = sitePattern.matcher(sequence);
+        while (matcher.find()) {
+            if ((matcher.start() > 0) && (matcher.start() < sequence.length())) {
+                missed++;
+            }
+        }
         return missed;
     }
 
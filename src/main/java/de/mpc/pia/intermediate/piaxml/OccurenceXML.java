@@ -12,6 +12,10 @@ public class OccurenceXML {
 	
 	private Integer end;
 	
+	private String pre;
+	
+	private String post;
+	
 	
 	/**
 	 * Gets the value of the accessionRefID attribute.
@@ -65,4 +69,40 @@ public class OccurenceXML {
 	public void setEnd(int end) {
 		this.end = end;
 	}
+	
+	
+	/**
+	 * Gets the value of the pre attribute, the residue before the occurrence.
+	 * @return
+	 */
+	@XmlAttribute
+	public String getPre() {
+		return pre;
+	}
+	
+	
+	/**
+	 * Sets the value of the pre attribute.
+	 */
+	public void setPre(String pre) {
+		this.pre = pre;
+	}
+	
+	
+	/**
+	 * Gets the value of the post attribute, the residue after the occurrence.
+	 * @return
+	 */
+	@XmlAttribute
+	public String getPost() {
+		return post;
+	}
+	
+	
+	/**
+	 * Sets the value of the post attribute.
+	 */
+	public void setPost(String post) {
+		this.post = post;
+	}
 }
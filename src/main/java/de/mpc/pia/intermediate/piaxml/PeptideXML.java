@@ -5,8 +5,8 @@ import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 import javax.xml.bind.annotation.XmlType;
 
-import de.mpc.pia.intermediate.AccessionOccurrence;
 import de.mpc.pia.intermediate.Peptide;
+import de.mpc.pia.intermediate.PeptideOccurrenceTable;
 import de.mpc.pia.intermediate.PeptideSpectrumMatch;
 
 
@@ -49,11 +49,18 @@ public class PeptideXML {
 		}
 		
 		occurrences = new OccurrencesXML();
-		for(AccessionOccurrence occ : peptide.getAccessionOccurrences()) {
+		PeptideOccurrenceTable table = PeptideOccurrenceTable.getTable(peptide);
+		int rowsEnd = table.getRowsEnd(peptide.getID());
+		for (int row = table.getRowsStart(peptide.getID()); row < rowsEnd; row++) {
 			OccurenceXML occurrence = new OccurenceXML();
-			occurrence.setAccessionRefID(occ.getAccession().getID());
-			occurrence.setStart(occ.getStart());
-			occurrence.setEnd(occ.getEnd());
+			occurrence.setAccessionRefID(table.getAccessionID(row));
+			occurrence.setStart(table.getStart(row));
+			occurrence.setEnd(table.getEnd(row));
+			if ((table.getPre(row) != PeptideOccurrenceTable.UNKNOWN_RESIDUE)
+					&& (table.getPost(row) != PeptideOccurrenceTable.UNKNOWN_RESIDUE)) {
+				occurrence.setPre(String.valueOf(table.getPre(row)));
+				occurrence.setPost(String.valueOf(table.getPost(row)));
+			}
 			occurrences.getOccurrences().add(occurrence);
 		}
 	}
@@ -2,6 +2,7 @@ package de.mpc.pia.intermediate.xmlhandler;
 
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -34,6 +35,7 @@ import de.mpc.pia.intermediate.Group;
 import de.mpc.pia.intermediate.Modification;
 import de.mpc.pia.intermediate.PIAInputFile;
 import de.mpc.pia.intermediate.Peptide;
+import de.mpc.pia.intermediate.PeptideOccurrenceTable;
 import de.mpc.pia.intermediate.PeptideSpectrumMatch;
 import de.mpc.pia.intermediate.piaxml.AccessionRefXML;
 import de.mpc.pia.intermediate.piaxml.AccessionXML;
@@ -89,6 +91,9 @@ public class PIAIntermediateJAXBHandler implements Serializable {
     /** the peptides */
     private Map<Long, Peptide> peptides;
 
+    /** the occurrences of the peptides with their flanking residues */
+    private PeptideOccurrenceTable peptideOccurrenceTable;
+
     /** the accessions */
     private Map<Long, Accession> accessions;
 
@@ -121,6 +126,7 @@ public class PIAIntermediateJAXBHandler implements Serializable {
         software = new HashMap<>();
         psms = new HashMap<>();
         peptides = new HashMap<>();
+        peptideOccurrenceTable = null;
         accessions = new HashMap<>();
         groups = new HashMap<>();
         psmSetSettingsWarnings =
@@ -131,6 +137,18 @@ public class PIAIntermediateJAXBHandler implements Serializable {
     }
 
 
+    /**
+     * Reads the serialized handler and links the peptides to the occurrence
+     * table again, as this link is not serialized.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (peptideOccurrenceTable != null) {
+            peptideOccurrenceTable.linkPeptides(peptides.values());
+        }
+    }
+
+
     /**
      * Parses the file in chunks and thus having a low memory footprint.<br/>
      *
@@ -149,6 +167,7 @@ public class PIAIntermediateJAXBHandler implements Serializable {
         software = new HashMap<>();
         psms = new HashMap<>();
         peptides = new HashMap<>();
+        peptideOccurrenceTable = null;
         accessions = new HashMap<>();
         groups = new HashMap<>();
 
@@ -649,7 +668,7 @@ public class PIAIntermediateJAXBHandler implements Serializable {
 
                 if (acc != null) {
                     peptide.addAccessionOccurrence(acc, occXML.getStart(),
-                            occXML.getEnd());
+                            occXML.getEnd(), getResidue(occXML.getPre()), getResidue(occXML.getPost()));
                 } else {
                     LOGGER.warn("No accession found for occurrence '" +
                             occXML.getAccessionRefID() + '\'');
@@ -665,6 +684,16 @@ public class PIAIntermediateJAXBHandler implements Serializable {
         if (xmlr.hasNext()) {
             xmlr.nextTag();
         }
+
+        peptideOccurrenceTable = PeptideOccurrenceTable.build(peptides.values());
+    }
+
+
+    /**
+     * Returns the residue of a pre or post attribute, null if none is given.
+     */
+    private static Character getResidue(String residue) {
+        return ((residue != null) && (residue.length() == 1)) ? residue.charAt(0) : null;
     }
 
 
@@ -811,6 +840,15 @@ public class PIAIntermediateJAXBHandler implements Serializable {
     }
 
 
+    /**
+     * Returns the table of the occurrences of the peptides, which is built
+     * after the peptides are parsed.
+     */
+    public PeptideOccurrenceTable getPeptideOccurrenceTable() {
+        return peptideOccurrenceTable;
+    }
+
+
     public Map<Long, Accession> getAccessions() {
         return accessions;
     }
@@ -26,9 +26,12 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.log4j.Logger;
 
+import de.mpc.pia.intermediate.Accession;
+import de.mpc.pia.intermediate.FastaSequenceStore;
 import de.mpc.pia.intermediate.Group;
 import de.mpc.pia.intermediate.PIAInputFile;
 import de.mpc.pia.intermediate.Peptide;
+import de.mpc.pia.intermediate.PeptideOccurrenceTable;
 import de.mpc.pia.intermediate.PeptideSpectrumMatch;
 import de.mpc.pia.intermediate.xmlhandler.PIAIntermediateJAXBHandler;
 import de.mpc.pia.modeller.execute.xmlparams.CTDTool;
@@ -91,6 +94,9 @@ public class PIAModeller implements Serializable {
     /** logger for this class */
     private static final Logger LOGGER = Logger.getLogger(PIAModeller.class);
 
+    /** the default minimal total length of the sequences, for which a sequence store is used */
+    public static final long DEFAULT_MIN_STORED_SEQUENCE_LENGTH = 10000000L;
+
     /**
      * Very basic constructor.
      */
@@ -376,6 +382,21 @@ public class PIAModeller implements Serializable {
     }
 
 
+    /**
+     * Getter for the {@link PeptideOccurrenceTable} of the intermediate file.
+     * If no intermediate file is given, returns null.
+     *
+     * @return
+     */
+    public PeptideOccurrenceTable getPeptideOccurrenceTable() {
+        if (intermediateHandler != null) {
+            return intermediateHandler.getPeptideOccurrenceTable();
+        } else {
+            return null;
+        }
+    }
+
+
     /**
      * Getter for the {@link SearchDatabase}s of the intermediate file.<br/>
      * If no intermediate file is given, returns an empty map.
@@ -435,6 +456,66 @@ public class PIAModeller implements Serializable {
     }
 
 
+    /**
+     * Reads the sequences of the accessions from the given FASTA file via a
+     * memory-mapped {@link FastaSequenceStore}, so that the sequences found in
+     * the FASTA file are no longer kept on the heap. The store is only used,
+     * if the sequences of the accessions have at least
+     * {@link #DEFAULT_MIN_STORED_SEQUENCE_LENGTH} residues in total.
+     *
+     * @param fastaFileName
+     * @return the number of accessions, whose sequences are read from the store
+     * @throws IOException if the FASTA file cannot be read
+     */
+    public int useSequenceStore(String fastaFileName) throws IOException {
+        return useSequenceStore(fastaFileName, DEFAULT_MIN_STORED_SEQUENCE_LENGTH);
+    }
+
+
+    /**
+     * Reads the sequences of the accessions from the given FASTA file via a
+     * memory-mapped {@link FastaSequenceStore}, if the sequences of the
+     * accessions have at least the given number of residues in total. For
+     * less residues, the sequences stay on the heap, as they need less memory
+     * than the index of the FASTA file.
+     *
+     * @param fastaFileName
+     * @param minSequenceLength the minimal total length of the sequences
+     * @return the number of accessions, whose sequences are read from the store
+     * @throws IOException if the FASTA file cannot be read
+     */
+    public int useSequenceStore(String fastaFileName, long minSequenceLength) throws IOException {
+        if (intermediateHandler == null) {
+            return 0;
+        }
+
+        long totalLength = 0;
+        for (Accession accession : intermediateHandler.getAccessions().values()) {
+            String sequence = accession.getDbSequence();
+            if (sequence != null) {
+                totalLength += sequence.length();
+            }
+        }
+        if (totalLength < minSequenceLength) {
+            LOGGER.info("the sequences have only " + totalLength
+                    + " residues, keeping them in memory instead of using " + fastaFileName);
+            return 0;
+        }
+
+        FastaSequenceStore sequenceStore = new FastaSequenceStore(fastaFileName);
+        int nrStored = 0;
+        for (Accession accession : intermediateHandler.getAccessions().values()) {
+            accession.setSequenceStore(sequenceStore);
+            if (sequenceStore.contains(accession.getAccession())) {
+                nrStored++;
+            }
+        }
+
+        LOGGER.info(nrStored + " accession sequences are read from " + fastaFileName);
+        return nrStored;
+    }
+
+
     /**
      * Process a parameter pipeline file and executes the commands.<br/>
      * A parameter file is an XML file in the CTD schema (used also by OpenMS
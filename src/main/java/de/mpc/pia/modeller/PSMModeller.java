@@ -20,8 +20,6 @@ import java.util.stream.Collectors;
 
 import de.mpc.pia.modeller.score.*;
 import org.apache.log4j.Logger;
-import org.biojava.nbio.ontology.Term;
-import org.biojava.nbio.ontology.Triple;
 
 import de.mpc.pia.intermediate.Group;
 import de.mpc.pia.intermediate.PIAInputFile;
@@ -35,12 +33,15 @@ import de.mpc.pia.modeller.psm.ReportPSM;
 import de.mpc.pia.modeller.psm.ReportPSMSet;
 import de.mpc.pia.modeller.report.SortOrder;
 import de.mpc.pia.modeller.report.filter.AbstractFilter;
+import de.mpc.pia.modeller.report.filter.CompiledFilterList;
 import de.mpc.pia.modeller.report.filter.FilterComparator;
 import de.mpc.pia.modeller.report.filter.FilterFactory;
+import de.mpc.pia.modeller.report.filter.FilterResultCache;
 import de.mpc.pia.modeller.report.filter.impl.PSMTopIdentificationFilter;
 import de.mpc.pia.modeller.score.FDRData.DecoyStrategy;
 import de.mpc.pia.modeller.score.comparator.RankCalculator;
 import de.mpc.pia.modeller.score.comparator.ScoreComparator;
+import de.mpc.pia.tools.AtomicBitSet;
 import de.mpc.pia.tools.OntologyConstants;
 import de.mpc.pia.tools.PIAConstants;
 import de.mpc.pia.tools.PIATools;
@@ -116,6 +117,9 @@ public class PSMModeller implements Serializable {
     /** the OBO mapper, to get additional data */
     private transient OBOMapper oboMapper = null;
 
+    /** the cached filter results of the PSM, peptide and protein level */
+    private transient FilterResultCache filterResultCache = null;
+
     /** maps from the scoreShort to the scoreName */
     private Map<String, String> scoreShortToScoreName;
 
@@ -211,7 +215,8 @@ public class PSMModeller implements Serializable {
 
         // sort the PSMs in sets with their identificationKeys
         // put the PSM in the psmKey -> ReportPSM map
-        spectraPSMs.values().stream().filter(psm -> FilterFactory.satisfiesFilterList(psm, 0L, filters)).forEach(psm -> {
+        CompiledFilterList compiledFilters = FilterFactory.compileFilters(filters, 0L);
+        spectraPSMs.values().stream().filter(compiledFilters::satisfiesFilters).forEach(psm -> {
             String psmKey = psm.getIdentificationKey(this.psmSetSettings);
 
             // put the PSM in the psmKey -> ReportPSM map
@@ -459,31 +464,25 @@ public class PSMModeller implements Serializable {
                                     } else {
                                         Boolean higherscorebetter = null;
 
-                                        Term oboTerm = getOBOMapper().getTerm(score.getAccession());
-                                        if (oboTerm != null) {
-                                            // the score is in the OBO file, get the relations etc.
-                                            Set<Triple> tripleSet = getOBOMapper().getTriples(oboTerm, null, null);
-
-                                            for (Triple triple : tripleSet) {
-                                                if (triple.getPredicate().getName().equals(OBOMapper.OBO_IS_A)) {
-                                                    if (triple.getObject().getName().equals(OntologyConstants.PSM_LEVEL_PVALUE.getPsiAccession())
-                                                            || triple.getObject().getName().equals(OntologyConstants.PSM_LEVEL_EVALUE.getPsiAccession())
-                                                            || triple.getObject().getName().equals(OntologyConstants.PSM_LEVEL_QVALUE.getPsiAccession())
-                                                            || triple.getObject().getName().equals(OntologyConstants.PEPTIDE_LEVEL_QVALUE.getPsiAccession())
-                                                            || triple.getObject().getName().equals(OntologyConstants.PEPTIDE_LEVEL_PVALUE.getPsiAccession())
-                                                            || triple.getObject().getName().equals(OntologyConstants.PEPTIDE_LEVEL_EVALUE.getPsiAccession())) {
-                                                        higherscorebetter = false;
-                                                    }
-                                                } else if (triple.getPredicate().getName().equals(OBOMapper.OBO_RELATIONSHIP)) {
-                                                    if (triple.getObject().getName().equals(OBOMapper.OBO_HAS_ORDER_HIGHERSCOREBETTER)) {
-                                                        higherscorebetter = true;
-                                                    } else if (triple.getObject().getName().equals(OBOMapper.OBO_HAS_ORDER_LOWERSCOREBETTER)) {
-                                                        higherscorebetter = false;
-                                                    }
-                                                }
+                                        // the score is in the OBO file, get the relations etc.
+                                        for (String parent : getOBOMapper().getRelatedAccessions(score.getAccession(), OBOMapper.OBO_IS_A)) {
+                                            if (parent.equals(OntologyConstants.PSM_LEVEL_PVALUE.getPsiAccession())
+                                                    || parent.equals(OntologyConstants.PSM_LEVEL_EVALUE.getPsiAccession())
+                                                    || parent.equals(OntologyConstants.PSM_LEVEL_QVALUE.getPsiAccession())
+                                                    || parent.equals(OntologyConstants.PEPTIDE_LEVEL_QVALUE.getPsiAccession())
+                                                    || parent.equals(OntologyConstants.PEPTIDE_LEVEL_PVALUE.getPsiAccession())
+                                                    || parent.equals(OntologyConstants.PEPTIDE_LEVEL_EVALUE.getPsiAccession())) {
+                                                higherscorebetter = false;
                                             }
                                         }
 
+                                        List<String> orders = getOBOMapper().getRelatedAccessions(score.getAccession(), OBOMapper.OBO_HAS_ORDER);
+                                        if (orders.contains(OBOMapper.OBO_HIGHERSCOREBETTER)) {
+                                            higherscorebetter = true;
+                                        } else if (orders.contains(OBOMapper.OBO_LOWERSCOREBETTER)) {
+                                            higherscorebetter = false;
+                                        }
+
                                         if (higherscorebetter != null) {
                                             // the status of higherScoreBetter is not to be changed by the user
                                             scoreShortToHigherScoreBetterChangeable.put(
@@ -581,12 +580,25 @@ public class PSMModeller implements Serializable {
      */
     private OBOMapper getOBOMapper() {
         if (oboMapper == null) {
-            oboMapper = new OBOMapper();
+            oboMapper = OBOMapper.getInstance();
         }
         return oboMapper;
     }
 
 
+    /**
+     * Getter for the cache of the filter results. The cache is shared with the
+     * peptide and protein modeller, as their filter results depend on the PSMs.
+     * @return
+     */
+    synchronized FilterResultCache getFilterResultCache() {
+        if (filterResultCache == null) {
+            filterResultCache = new FilterResultCache();
+        }
+        return filterResultCache;
+    }
+
+
     /**
      * Creates the {@link ReportPSMSet}s, given the {@link ReportPSM}s in a
      * mapping from the PSM-identificationKeys
@@ -603,6 +615,7 @@ public class PSMModeller implements Serializable {
 
         reportPSMSets = new ArrayList<>(
                 reportPSMSetMap.values());
+        getFilterResultCache().invalidate();
 
         fileFDRData.put(0L,
                 new FDRData(fileFDRData.get(0L).getDecoyStrategy(),
@@ -727,8 +740,8 @@ public class PSMModeller implements Serializable {
     public List<ReportPSM> getFilteredReportPSMs(Long fileID,
             List<AbstractFilter> filters) {
         if (fileReportPSMs.containsKey(fileID)) {
-            return FilterFactory.applyFilters(fileReportPSMs.get(fileID),
-                    filters, fileID);
+            return getFilterResultCache().getFilteredList(ReportPSM.class, fileID,
+                    fileReportPSMs.get(fileID), filters, true);
         } else {
             LOGGER.error("There are no ReportPSMs for the fileID " + fileID);
             return new ArrayList<>(1);
@@ -748,15 +761,20 @@ public class PSMModeller implements Serializable {
         List<ReportPSMSet> filteredPSMSets = new ArrayList<>();
 
         // the PSM sets need a special filtering, some of the sets can become empty, due to filters on PSM level
-        reportPSMSets.stream().filter(psmSet -> FilterFactory.satisfiesFilterList(psmSet, 0L, filters)).forEach(psmSet -> {
-            List<ReportPSM> psms = FilterFactory.applyFilters(psmSet.getPSMs(), filters);
+        List<ReportPSMSet> psmSets = reportPSMSets;
+        AtomicBitSet passingSets = getFilterResultCache().getFilterResult(ReportPSMSet.class, 0L,
+                psmSets, filters, true);
+        CompiledFilterList compiledFilters = FilterFactory.compileFilters(filters, 0L);
+        for (int idx = passingSets.nextSetBit(0); idx >= 0; idx = passingSets.nextSetBit(idx + 1)) {
+            ReportPSMSet psmSet = psmSets.get(idx);
+            List<ReportPSM> psms = compiledFilters.applyFilters(psmSet.getPSMs());
 
             if (!psms.isEmpty()) {
                 ReportPSMSet set = new ReportPSMSet(psms, psmSetSettings);
                 set.copyInfo(psmSet);
                 filteredPSMSets.add(set);
             }
-        });
+        }
 
         return filteredPSMSets;
     }
@@ -808,6 +826,8 @@ public class PSMModeller implements Serializable {
                     new ScoreComparator<>(
                             scoreShort, higherScoreBetter));
 
+            getFilterResultCache().invalidate();
+
             LOGGER.debug("setHigherScoreBetter: " + scoreShortToComparator.get(scoreShort));
         } else {
             LOGGER.warn("The comparator for " + scoreShort + '(' +
@@ -1097,6 +1117,7 @@ public class PSMModeller implements Serializable {
      */
     public void updateDecoyStates(Long fileID) {
         FDRData fdrData = fileFDRData.get(fileID);
+        getFilterResultCache().invalidate();
 
         LOGGER.info("updateDecoyStates " + fileID);
 
@@ -1159,7 +1180,7 @@ public class PSMModeller implements Serializable {
             LOGGER.info("set the score for FDR calculation for fileID="
                     + fileID + ": " + fdrData.getScoreShortName());
 
-            // recalculate the decoy status (especially important, if decoy pattern was changed)
+            // recalculate the decoy status (especially important, if decoy pattern was changed), this also invalidates the filter results
             updateDecoyStates(fileID);
 
 
@@ -1474,6 +1495,9 @@ public class PSMModeller implements Serializable {
      */
     public void sortReport(Long fileID, List<String> sortOrders,
             Map<String, SortOrder> sortables) {
+        // the cached filter results are bound to the positions in the lists
+        getFilterResultCache().invalidate();
+
         List<Comparator<PSMReportItem>> compares =
                 new ArrayList<>();
 
@@ -1535,6 +1559,8 @@ public class PSMModeller implements Serializable {
             return;
         }
 
+        getFilterResultCache().invalidate();
+
         // first, dump all prior ranking
         List<?> reports;
         if (fileID > 0) {
@@ -11,6 +11,7 @@ import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.log4j.Logger;
 
@@ -73,6 +74,9 @@ public class PeptideModeller implements Serializable {
      */
     public static final boolean CONSIDER_MODIFICATIONS_DEFAULT = false;
 
+    /** PSM lists with at least this many entries are grouped into peptides in parallel */
+    private static final int PARALLEL_INFERENCE_THRESHOLD = 10000;
+
 
 
 
@@ -148,33 +152,73 @@ public class PeptideModeller implements Serializable {
     private void inferePeptides(Long fileID) {
         LOGGER.info("Inferring peptides for " + fileID  +
                 " considerModifications=" + considerModifications);
-        // first put the PSMs sorted by their stringID (this defines a peptide) into a Map
-        Map<String, ReportPeptide> peptides = new HashMap<>();
 
-        // take the (filtered) PSMs from the psmModeller
-        List<PSMReportItem> reportPSMs;
+        List<ReportPeptide> repList = groupPSMsToPeptides(getPSMsForInference(fileID), considerModifications);
+        setInferredPeptides(fileID, repList);
+    }
+
+
+    /**
+     * Returns the (filtered) PSMs from the psmModeller, which are used for the
+     * peptide inference of the given file.
+     *
+     * @param fileID
+     * @return
+     */
+    private List<PSMReportItem> getPSMsForInference(Long fileID) {
         if (!fileID.equals(0L)) {
-            reportPSMs = new ArrayList<>(
+            return new ArrayList<>(
                     psmModeller.getFilteredReportPSMs(fileID, getFilters(fileID)));
         } else {
-            reportPSMs = new ArrayList<>(
+            return new ArrayList<>(
                     psmModeller.getFilteredReportPSMSets(getFilters(fileID)));
         }
+    }
+
 
-        for (PSMReportItem psm : reportPSMs) {
-            String idString =
-                    ReportPeptide.createStringID(psm, considerModifications);
-            ReportPeptide repPeptide = peptides.computeIfAbsent(idString, k -> new ReportPeptide(psm.getSequence(), idString,
-                    psm.getPeptide()));
-            repPeptide.addPSM(psm);
+    /**
+     * Groups the PSMs by their stringID (this defines a peptide) into
+     * {@link ReportPeptide}s. Large lists are grouped in parallel, the order
+     * of the PSMs in each peptide is the same as in the given list.
+     *
+     * @param reportPSMs
+     * @param considerModifications
+     * @return
+     */
+    private static List<ReportPeptide> groupPSMsToPeptides(List<PSMReportItem> reportPSMs,
+            boolean considerModifications) {
+        Stream<PSMReportItem> psmStream = (reportPSMs.size() >= PARALLEL_INFERENCE_THRESHOLD)
+                ? reportPSMs.parallelStream() : reportPSMs.stream();
+
+        // the stringIDs are cached in the PSMs, without modifications it is only the sequence
+        Map<String, List<PSMReportItem>> peptidesPSMs = psmStream.collect(
+                Collectors.groupingBy(psm -> ReportPeptide.createStringID(psm, considerModifications),
+                        HashMap::new, Collectors.toList()));
+
+        List<ReportPeptide> repList = new ArrayList<>(peptidesPSMs.size());
+        for (Map.Entry<String, List<PSMReportItem>> peptideIt : peptidesPSMs.entrySet()) {
+            PSMReportItem firstPSM = peptideIt.getValue().get(0);
+            ReportPeptide repPeptide = new ReportPeptide(firstPSM.getSequence(), peptideIt.getKey(),
+                    firstPSM.getPeptide());
+            peptideIt.getValue().forEach(repPeptide::addPSM);
+            repList.add(repPeptide);
         }
 
-        // create a List of the Map
-        List<ReportPeptide> repList = new ArrayList<>(peptides.size());
-        repList.addAll(peptides.entrySet().stream().map(Map.Entry::getValue).collect(Collectors.toList()));
+        return repList;
+    }
+
 
+    /**
+     * Sets the newly inferred peptides for the given file and recalculates the
+     * FDR, if it was calculated before.
+     *
+     * @param fileID
+     * @param repList
+     */
+    private void setInferredPeptides(Long fileID, List<ReportPeptide> repList) {
         // put this new list into the peptides' list
         fileReportPeptides.put(fileID, repList);
+        psmModeller.getFilterResultCache().invalidate();
         // this file is set
         inferePeptides.put(fileID, false);
         LOGGER.info("Inferred " + repList.size() + " peptides for " + fileID);
@@ -299,8 +343,9 @@ public class PeptideModeller implements Serializable {
         }
 
         if (fileReportPeptides.containsKey(fileID)) {
-            return FilterFactory.applyFilters(fileReportPeptides.get(fileID),
-                    filters, fileID);
+            // the peptides' values are lazily calculated, so no parallel filtering
+            return psmModeller.getFilterResultCache().getFilteredList(ReportPeptide.class, fileID,
+                    fileReportPeptides.get(fileID), filters, false);
         } else {
             LOGGER.error("There are no ReportPeptides for the fileID " + fileID);
             return new ArrayList<>(0);
@@ -318,6 +363,9 @@ public class PeptideModeller implements Serializable {
                         sortKey,
                         sortables.get(sortKey))).collect(Collectors.toList());
 
+        // the cached filter results are bound to the positions in the lists
+        psmModeller.getFilterResultCache().invalidate();
+
         if (fileReportPeptides.get(fileID) != null) {
             (fileReportPeptides.get(fileID)).sort(ReportPeptideComparatorFactory.getComparator(compares));
         }
@@ -353,6 +401,8 @@ public class PeptideModeller implements Serializable {
             return;
         }
 
+        psmModeller.getFilterResultCache().invalidate();
+
         // first, dump all prior ranking
         List<ReportPeptide> reports = fileReportPeptides.get(fileID);
         if (reports != null) {
@@ -468,6 +518,7 @@ public class PeptideModeller implements Serializable {
 
         // and also calculate the FDR score
         FDRScore.calculateFDRScore(listForFDR, fdrData, higherScoreBetter);
+        psmModeller.getFilterResultCache().invalidate();
 
         // the FDR for this file is calculated now
         fileFDRCalculated.put(fileID, true);
@@ -555,6 +606,7 @@ public class PeptideModeller implements Serializable {
      */
     private void updateDecoyStates(Long fileID) {
         FDRData fdrData = fileFDRData.get(fileID);
+        psmModeller.getFilterResultCache().invalidate();
         LOGGER.debug("updateDecoyStates for peptides on file " + fileID);
 
         // select either the PSMs from the given file or all and calculate the fdr
@@ -175,7 +175,9 @@ public class ProteinModeller  implements Serializable {
     public List<ReportProtein> getFilteredReportProteins(
             List<AbstractFilter> filters) {
         if (reportProteins != null) {
-            return FilterFactory.applyFilters(reportProteins, filters);
+            // the proteins' values are lazily calculated, so no parallel filtering
+            return psmModeller.getFilterResultCache().getFilteredList(ReportProtein.class, 0L,
+                    reportProteins, filters, false);
         } else {
             return null;
         }
@@ -198,6 +200,7 @@ public class ProteinModeller  implements Serializable {
      */
     public void infereProteins(AbstractProteinInference proteinInference) {
         reportProteins = new ArrayList<>();
+        psmModeller.getFilterResultCache().invalidate();
 
         if (proteinInference != null) {
             appliedProteinInference = proteinInference;
@@ -283,6 +286,8 @@ public class ProteinModeller  implements Serializable {
             return;
         }
 
+        psmModeller.getFilterResultCache().invalidate();
+
         // first, dump all prior ranking
         for (ReportProtein protein : reportProteins) {
             protein.setRank(-1L);
@@ -303,6 +308,8 @@ public class ProteinModeller  implements Serializable {
      */
     public void sortReport(List<String> sortOrders,
             Map<String, SortOrder> sortables) {
+        // the cached filter results are bound to the positions in the lists
+        psmModeller.getFilterResultCache().invalidate();
 
         List<Comparator<ReportProtein>> compares =
                 new ArrayList<>();
@@ -331,6 +338,7 @@ public class ProteinModeller  implements Serializable {
         }
 
         LOGGER.info("applying scoring method: " + scoring.getName());
+        psmModeller.getFilterResultCache().invalidate();
         scoring.calculateProteinScores(reportProteins);
         LOGGER.info("scoring done");
         appliedScoringMethod = scoring;
@@ -393,6 +401,7 @@ public class ProteinModeller  implements Serializable {
     public void updateDecoyStates() {
         LOGGER.info("updateDecoyStates");
         Pattern p = Pattern.compile(fdrData.getDecoyPattern());
+        psmModeller.getFilterResultCache().invalidate();
 
         if (reportProteins != null) {
             for (ReportProtein protein : reportProteins) {
@@ -411,6 +420,8 @@ public class ProteinModeller  implements Serializable {
      *
      */
     public void calculateFDR() {
+        psmModeller.getFilterResultCache().invalidate();
+
         // calculate the FDR values
         fdrData.calculateFDR(reportProteins, true);
     }
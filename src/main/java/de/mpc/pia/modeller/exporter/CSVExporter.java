@@ -9,8 +9,12 @@ import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.log4j.Logger;
 
@@ -34,9 +38,15 @@ public class CSVExporter {
     /** the value separator for lists in one CSV value */
     public static final String MULTIVALUE_SEPARATOR = ";";
 
+    /** the value separator for TSV files */
+    public static final String TSV_SEPARATOR = "\t";
+
     /** the newline string */
     public static final String NEWLINE = "\n";
 
+    /** the size of the output buffers */
+    private static final int BUFFER_SIZE = 1 << 16;
+
 
     /** the modeller, that should be exported */
     private PIAModeller piaModeller;
@@ -68,6 +78,47 @@ public class CSVExporter {
     /** mapping from the schoreShorts to the score names */
     private Map<String, String> scoreShortsToNames;
 
+    /** the used value separator */
+    private String separator;
+
+    /** the names of the exported columns, null for all columns */
+    private Set<String> exportedColumns;
+
+    /** whether the duplicated PSM columns of the previous layout are left out */
+    private boolean uniqueColumns;
+
+    /** whether the duplicated PSM columns are written in the current export */
+    private boolean duplicatedColumns;
+
+    /** the number of threads used to render the rows */
+    private int numThreads;
+
+    /** whether the output streams are compressed with gzip */
+    private boolean compressOutput;
+
+    /** the cache shared with other exports, or null */
+    private ExportCache sharedExportCache;
+
+    /** the cache of the current export */
+    private ExportCache exportCache;
+
+    /** the selected columns of the protein rows */
+    private boolean[] proteinColumns;
+    /** the selected columns of the peptide rows */
+    private boolean[] peptideColumns;
+    /** the selected columns of the PSM set rows */
+    private boolean[] psmSetColumns;
+    /** the selected columns of the PSM rows */
+    private boolean[] psmColumns;
+
+    /** the score shorts of the peptides and PSMs, with the joined names and shorts for the rows */
+    private List<String> peptideScoreShorts;
+    private String peptideScoreNamesString;
+    private String peptideScoreShortsString;
+    private List<String> psmScoreShorts;
+    private String psmScoreNamesString;
+    private String psmScoreShortsString;
+
     // the column headers
     private static final String HEADER_COLS_PROTEIN = "\"COLS_PROTEIN\"";
     private static final String HEADER_COLS_PEPTIDE = "\"COLS_PEPTIDE\"";
@@ -102,6 +153,28 @@ public class CSVExporter {
     private static final String HEADER_SCORE_SHORTS = "\"score shorts\"";
 
 
+
+    /** the headers of the PSM set rows */
+    private static final String[] PSM_SET_HEADERS = {HEADER_SEQUENCE, HEADER_ACCESSIONS,
+            HEADER_MODIFICATIONS, HEADER_DECOY, HEADER_CHARGE, HEADER_MASS_TO_CHARGE,
+            HEADER_DELTA_MASS, HEADER_DELTA_PPM, HEADER_RETENTION_TIME, HEADER_MISSED_CLEAVAGES,
+            HEADER_NR_IDENTIFICATIONS, HEADER_SCORES, HEADER_SCORE_NAMES, HEADER_SCORE_SHORTS};
+
+    /** the headers of the PSM rows */
+    private static final String[] PSM_HEADERS = {HEADER_SEQUENCE, HEADER_ACCESSIONS,
+            HEADER_MODIFICATIONS, HEADER_DECOY, HEADER_CHARGE, HEADER_MASS_TO_CHARGE,
+            HEADER_DELTA_MASS, HEADER_DELTA_PPM, HEADER_RETENTION_TIME, HEADER_MISSED_CLEAVAGES,
+            HEADER_SOURCE_ID, HEADER_SPECTRUM_TITLE, HEADER_SCORES, HEADER_SCORE_NAMES,
+            HEADER_SCORE_SHORTS};
+
+    /** the headers of the PSM rows in the previous layout, which lists the sequence twice */
+    private static final String[] DUPLICATED_PSM_HEADERS = {HEADER_SEQUENCE, HEADER_SEQUENCE,
+            HEADER_ACCESSIONS, HEADER_MODIFICATIONS, HEADER_DECOY, HEADER_CHARGE,
+            HEADER_MASS_TO_CHARGE, HEADER_DELTA_MASS, HEADER_DELTA_PPM, HEADER_RETENTION_TIME,
+            HEADER_MISSED_CLEAVAGES, HEADER_SOURCE_ID, HEADER_SPECTRUM_TITLE, HEADER_SCORES,
+            HEADER_SCORE_NAMES, HEADER_SCORE_SHORTS};
+
+
     /**
      * Basic constructor
      *
@@ -109,6 +182,126 @@ public class CSVExporter {
      */
     public CSVExporter(PIAModeller modeller) {
         this.piaModeller = modeller;
+        this.separator = SEPARATOR;
+        this.exportedColumns = null;
+        this.uniqueColumns = false;
+        this.numThreads = 1;
+        this.compressOutput = false;
+        this.sharedExportCache = null;
+    }
+
+
+    /**
+     * Sets the separator of the values, e.g. {@link #SEPARATOR} for CSV or
+     * {@link #TSV_SEPARATOR} for TSV files.
+     *
+     * @param separator
+     */
+    public void setSeparator(String separator) {
+        this.separator = separator;
+    }
+
+
+    public String getSeparator() {
+        return separator;
+    }
+
+
+    /**
+     * Sets the names of the exported columns (as in the header, without
+     * quotes, e.g. "Sequence", "Accessions" or "scores"). The first column
+     * with the type of the row is always exported. If null or empty, all
+     * columns are exported. If columns are selected, the layout without
+     * duplicated columns is used (see {@link #setUniqueColumns(boolean)}).
+     *
+     * @param columnNames
+     */
+    public void setExportedColumns(Collection<String> columnNames) {
+        if ((columnNames == null) || columnNames.isEmpty()) {
+            exportedColumns = null;
+        } else {
+            exportedColumns = new HashSet<>(columnNames);
+        }
+    }
+
+
+    /**
+     * Gets the names of the exported columns or null, if all are exported
+     */
+    public Set<String> getExportedColumns() {
+        return exportedColumns;
+    }
+
+
+    /**
+     * Sets whether the duplicated columns of the PSM and PSM set rows are left
+     * out. By default, the PSM and PSM set rows contain the accessions twice
+     * and the PSM header lists the "Sequence" twice, as in the previous
+     * versions of the export. With unique columns, each column is written
+     * once and the headers match the values.
+     *
+     * @param unique
+     */
+    public void setUniqueColumns(boolean unique) {
+        uniqueColumns = unique;
+    }
+
+
+    public boolean getUniqueColumns() {
+        return uniqueColumns;
+    }
+
+
+    /**
+     * Sets the number of threads used to render the rows. The rows are
+     * written in the same order for any number of threads. If this is smaller
+     * than 1, all available threads (Runtime.getRuntime().availableProcessors())
+     * are used. Defaults to 1.
+     *
+     * @param threads
+     */
+    public void setNrThreads(int threads) {
+        numThreads = threads;
+    }
+
+
+    public int getNrThreads() {
+        return numThreads;
+    }
+
+
+    /**
+     * Sets whether the export into files and streams is compressed with gzip.
+     *
+     * @param compress
+     */
+    public void setCompressOutput(boolean compress) {
+        compressOutput = compress;
+    }
+
+
+    public boolean getCompressOutput() {
+        return compressOutput;
+    }
+
+
+    /**
+     * Sets a cache, which is shared with other exports of the same modeller
+     * state, e.g. by the {@link MultiFormatExporter}. If no cache is set, each
+     * export uses its own cache.
+     *
+     * @param cache
+     */
+    public void setExportCache(ExportCache cache) {
+        sharedExportCache = cache;
+    }
+
+
+    /**
+     * Gets the cache shared with other exports, null if none is set
+     */
+    public ExportCache getExportCache() {
+        return sharedExportCache;
     }
 
 
@@ -141,7 +334,9 @@ public class CSVExporter {
             boolean filterExport) {
         boolean exportOK;
 
-        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(exportStream))) {
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                compressOutput ? new GZIPOutputStream(exportStream, BUFFER_SIZE) : exportStream),
+                BUFFER_SIZE)) {
             exportOK = exportToCSV(fileID, writer, psmLevel, peptideLevel, proteinLevel, filterExport);
         } catch (IOException e) {
             LOGGER.error("Error while exporting to CSV", e);
@@ -186,9 +381,27 @@ public class CSVExporter {
 
         scoreShortsToNames = piaModeller.getPSMModeller().getScoreShortsToScoreNames();
 
+        proteinColumns = selectColumns(getProteinHeaders());
+        peptideColumns = selectColumns(getPeptideHeaders());
+        psmSetColumns = selectColumns(PSM_SET_HEADERS);
+        psmColumns = selectColumns(PSM_HEADERS);
+        duplicatedColumns = !uniqueColumns && (exportedColumns == null);
+
+        if (peptideLevel) {
+            peptideScoreShorts = piaModeller.getPeptideModeller().getScoreShortNames(exportFileID);
+            peptideScoreNamesString = createScoreNamesString(peptideScoreShorts);
+            peptideScoreShortsString = String.join(MULTIVALUE_SEPARATOR, peptideScoreShorts);
+        }
+        if (includePSMSets || psmLevel) {
+            psmScoreShorts = piaModeller.getPSMModeller().getScoreShortNames(exportFileID);
+            psmScoreNamesString = createScoreNamesString(psmScoreShorts);
+            psmScoreShortsString = String.join(MULTIVALUE_SEPARATOR, psmScoreShorts);
+        }
+
         LOGGER.info("start writing CSV file");
+        exportCache = (sharedExportCache != null) ? sharedExportCache : new ExportCache(piaModeller);
         try {
-            outWriter = new BufferedWriter(exportWriter);
+            outWriter = new BufferedWriter(exportWriter, BUFFER_SIZE);
 
             writeHeader(outWriter);
 
@@ -206,6 +419,7 @@ public class CSVExporter {
             LOGGER.error("Error writing the CSV file", e);
             error = true;
         } finally {
+            exportCache = null;
             try {
                 outWriter.close();
                 LOGGER.info("CSV export done.");
@@ -219,6 +433,66 @@ public class CSVExporter {
     }
 
 
+    /**
+     * Returns the headers of the protein rows
+     */
+    private String[] getProteinHeaders() {
+        List<String> headers = new ArrayList<>();
+        headers.add(HEADER_PROTEINS);
+        headers.add(HEADER_SCORE);
+        headers.add(HEADER_COVERAGES);
+        headers.add(HEADER_NR_PEPTIDES);
+        headers.add(HEADER_NR_PSMS);
+        headers.add(HEADER_NR_SPECTRA);
+        headers.add(HEADER_CLUSTER_ID);
+        headers.add(HEADER_DESCRIPTION);
+
+        if (proteinFDR) {
+            headers.add(HEADER_DECOY);
+            headers.add(HEADER_FDR_Q_VALUE);
+        }
+
+        return headers.toArray(new String[headers.size()]);
+    }
+
+
+    /**
+     * Returns the headers of the peptide rows
+     */
+    private String[] getPeptideHeaders() {
+        List<String> headers = new ArrayList<>();
+        headers.add(HEADER_SEQUENCE);
+        headers.add(HEADER_ACCESSIONS);
+
+        if (considerModifications) {
+            headers.add(HEADER_MODIFICATIONS);
+        }
+
+        headers.add(HEADER_NR_SPECTRA);
+        headers.add(HEADER_NR_PSM_SETS);
+        headers.add(HEADER_MISSED_CLEAVAGES);
+        headers.add(HEADER_BEST_SCORES);
+        headers.add(HEADER_SCORE_NAMES);
+        headers.add(HEADER_SCORE_SHORTS);
+
+        return headers.toArray(new String[headers.size()]);
+    }
+
+
+    /**
+     * Returns for each of the given (quoted) headers, whether the column is
+     * exported.
+     */
+    private boolean[] selectColumns(String[] headers) {
+        boolean[] selected = new boolean[headers.length];
+        for (int i = 0; i < headers.length; i++) {
+            selected[i] = (exportedColumns == null)
+                    || exportedColumns.contains(headers[i].substring(1, headers[i].length() - 1));
+        }
+        return selected;
+    }
+
+
     /**
      * Writes the CSV header
      *
@@ -226,141 +500,72 @@ public class CSVExporter {
      * @throws IOException
      */
     private void writeHeader(Writer writer) throws IOException {
-
         StringBuilder headerSB = new StringBuilder();
 
         if (proteinLevel) {
-            headerSB.append(HEADER_COLS_PROTEIN).append(SEPARATOR)
-                    .append(HEADER_PROTEINS).append(SEPARATOR)
-                    .append(HEADER_SCORE).append(SEPARATOR)
-                    .append(HEADER_COVERAGES).append(SEPARATOR)
-                    .append(HEADER_NR_PEPTIDES).append(SEPARATOR)
-                    .append(HEADER_NR_PSMS).append(SEPARATOR)
-                    .append(HEADER_NR_SPECTRA).append(SEPARATOR)
-                    .append(HEADER_CLUSTER_ID).append(SEPARATOR)
-                    .append(HEADER_DESCRIPTION);
-
-            if (proteinFDR) {
-                headerSB.append(SEPARATOR)
-                        .append(HEADER_DECOY).append(SEPARATOR)
-                        .append(HEADER_FDR_Q_VALUE);
-            }
-
-            headerSB.append(NEWLINE);
+            appendHeader(headerSB, HEADER_COLS_PROTEIN, getProteinHeaders(), proteinColumns);
         }
 
         if (peptideLevel) {
-            headerSB.append(HEADER_COLS_PEPTIDE).append(SEPARATOR)
-                    .append(HEADER_SEQUENCE).append(SEPARATOR)
-                    .append(HEADER_ACCESSIONS).append(SEPARATOR);
-
-            if (considerModifications) {
-                headerSB.append(HEADER_MODIFICATIONS).append(SEPARATOR);
-            }
-
-            headerSB.append(HEADER_NR_SPECTRA).append(SEPARATOR)
-                    .append(HEADER_NR_PSM_SETS).append(SEPARATOR)
-                    .append(HEADER_MISSED_CLEAVAGES).append(SEPARATOR)
-                    .append(HEADER_BEST_SCORES).append(SEPARATOR)
-                    .append(HEADER_SCORE_NAMES).append(SEPARATOR)
-                    .append(HEADER_SCORE_SHORTS);
-
-            headerSB.append(NEWLINE);
+            appendHeader(headerSB, HEADER_COLS_PEPTIDE, getPeptideHeaders(), peptideColumns);
         }
 
         if (includePSMSets) {
-            headerSB.append(HEADER_COLS_PSMSET).append(SEPARATOR)
-                    .append(HEADER_SEQUENCE).append(SEPARATOR)
-                    .append(HEADER_ACCESSIONS).append(SEPARATOR)
-                    .append(HEADER_MODIFICATIONS).append(SEPARATOR)
-                    .append(HEADER_DECOY).append(SEPARATOR)
-                    .append(HEADER_CHARGE).append(SEPARATOR)
-                    .append(HEADER_MASS_TO_CHARGE).append(SEPARATOR)
-                    .append(HEADER_DELTA_MASS).append(SEPARATOR)
-                    .append(HEADER_DELTA_PPM).append(SEPARATOR)
-                    .append(HEADER_RETENTION_TIME).append(SEPARATOR)
-                    .append(HEADER_MISSED_CLEAVAGES).append(SEPARATOR)
-                    .append(HEADER_NR_IDENTIFICATIONS).append(SEPARATOR)
-                    .append(HEADER_SCORES).append(SEPARATOR)
-                    .append(HEADER_SCORE_NAMES).append(SEPARATOR)
-                    .append(HEADER_SCORE_SHORTS);
-
-            headerSB.append(NEWLINE);
+            appendHeader(headerSB, HEADER_COLS_PSMSET, PSM_SET_HEADERS, psmSetColumns);
         }
 
         if (psmLevel) {
-            headerSB.append(HEADER_COLS_PSM).append(SEPARATOR)
-                    .append(HEADER_SEQUENCE).append(SEPARATOR)
-                    .append(HEADER_SEQUENCE).append(SEPARATOR)
-                    .append(HEADER_ACCESSIONS).append(SEPARATOR)
-                    .append(HEADER_MODIFICATIONS).append(SEPARATOR)
-                    .append(HEADER_DECOY).append(SEPARATOR)
-                    .append(HEADER_CHARGE).append(SEPARATOR)
-                    .append(HEADER_MASS_TO_CHARGE).append(SEPARATOR)
-                    .append(HEADER_DELTA_MASS).append(SEPARATOR)
-                    .append(HEADER_DELTA_PPM).append(SEPARATOR)
-                    .append(HEADER_RETENTION_TIME).append(SEPARATOR)
-                    .append(HEADER_MISSED_CLEAVAGES).append(SEPARATOR)
-                    .append(HEADER_SOURCE_ID).append(SEPARATOR)
-                    .append(HEADER_SPECTRUM_TITLE).append(SEPARATOR)
-                    .append(HEADER_SCORES).append(SEPARATOR)
-                    .append(HEADER_SCORE_NAMES).append(SEPARATOR)
-                    .append(HEADER_SCORE_SHORTS);
-
-            headerSB.append(NEWLINE);
+            if (duplicatedColumns) {
+                appendHeader(headerSB, HEADER_COLS_PSM, DUPLICATED_PSM_HEADERS,
+                        selectColumns(DUPLICATED_PSM_HEADERS));
+            } else {
+                appendHeader(headerSB, HEADER_COLS_PSM, PSM_HEADERS, psmColumns);
+            }
         }
 
         writer.append(headerSB);
     }
 
 
+    /**
+     * Appends the header line of one row type with the selected columns.
+     */
+    private void appendHeader(StringBuilder headerSB, String rowHeader, String[] headers,
+            boolean[] selected) {
+        headerSB.append(rowHeader);
+        for (int i = 0; i < headers.length; i++) {
+            if (selected[i]) {
+                headerSB.append(separator).append(headers[i]);
+            }
+        }
+        headerSB.append(NEWLINE);
+    }
+
+
+    /**
+     * Returns the given list as list with fast random access.
+     */
+    private static <T> List<T> asRandomAccessList(List<T> list) {
+        return (list instanceof RandomAccess) ? list : new ArrayList<>(list);
+    }
+
+
     /**
      * Writes out the data starting at the protein level
      * @throws IOException
      */
     private void writeStartAtProteinLevel() throws IOException {
         List<AbstractFilter> filters = filterExport ? piaModeller.getProteinModeller().getReportFilters() : null;
-        List<ReportProtein> reportList = piaModeller.getProteinModeller().getFilteredReportProteins(filters);
+        List<ReportProtein> reportList = exportCache.getFilteredReportProteins(filters);
 
         if (reportList == null) {
             LOGGER.warn("The report is empty, probably no inference run?");
             return;
         }
 
-        for (ReportProtein protein : reportList) {
-            outWriter.append("PROTEIN").append(SEPARATOR);
-
-            appendQuoted(outWriter, createAccessionsString(protein.getAccessions()));
-            outWriter.append(SEPARATOR);
-            appendQuoted(outWriter, protein.getScore().toString());
-            outWriter.append(SEPARATOR);
-            appendQuoted(outWriter, createCoveragesString(protein));
-            outWriter.append(SEPARATOR);
-            appendQuoted(outWriter, protein.getNrPeptides().toString());
-            outWriter.append(SEPARATOR);
-            appendQuoted(outWriter, protein.getNrPSMs().toString());
-            outWriter.append(SEPARATOR);
-            appendQuoted(outWriter, protein.getNrSpectra().toString());
-            outWriter.append(SEPARATOR);
-            appendQuoted(outWriter, String.valueOf(protein.getAccessions().get(0).getGroup().getTreeID()));
-            outWriter.append(SEPARATOR);
-            appendQuoted(outWriter, createDescriptionsString(protein.getAccessions()));
-
-            if (proteinFDR) {
-                outWriter.append(SEPARATOR);
-                appendQuoted(outWriter, String.valueOf(protein.getIsDecoy()));
-                outWriter.append(SEPARATOR);
-                appendQuoted(outWriter, String.valueOf(protein.getFDR()));
-            }
-
-            outWriter.append(NEWLINE);
-
-            if (peptideLevel || includePSMSets || psmLevel) {
-                for (ReportPeptide peptide : protein.getPeptides()) {
-                    writePeptide(peptide);
-                }
-            }
-        }
+        List<ReportProtein> proteins = asRandomAccessList(reportList);
+        ParallelRowWriter.writeRows(outWriter, proteins.size(),
+                (row, out) -> appendProtein(proteins.get(row), out), numThreads, "proteins");
     }
 
 
@@ -371,16 +576,16 @@ public class CSVExporter {
      */
     private void writeStartAtPeptideLevel() throws IOException {
         List<AbstractFilter> filters = filterExport ? piaModeller.getPeptideModeller().getFilters(exportFileID) : null;
-        List<ReportPeptide> reportList = piaModeller.getPeptideModeller().getFilteredReportPeptides(exportFileID, filters);
+        List<ReportPeptide> reportList = exportCache.getFilteredReportPeptides(exportFileID, filters);
 
         if (reportList == null) {
             LOGGER.warn("The report is empty, probably no peptides inferred?");
             return;
         }
 
-        for (ReportPeptide peptide : reportList) {
-            writePeptide(peptide);
-        }
+        List<ReportPeptide> peptides = asRandomAccessList(reportList);
+        ParallelRowWriter.writeRows(outWriter, peptides.size(),
+                (row, out) -> appendPeptide(peptides.get(row), out), numThreads, "peptides");
     }
 
 
@@ -391,16 +596,16 @@ public class CSVExporter {
      */
     private void writeStartAtPSMSetLevel() throws IOException {
         List<AbstractFilter> filters = filterExport ? piaModeller.getPSMModeller().getFilters(0L) : null;
-        List<ReportPSMSet> reportList = piaModeller.getPSMModeller().getFilteredReportPSMSets(filters);
+        List<ReportPSMSet> reportList = exportCache.getFilteredReportPSMSets(filters);
 
         if (reportList == null) {
             LOGGER.warn("The report is empty, too many filters or no PSM sets created?");
             return;
         }
 
-        for (ReportPSMSet psmSet : reportList) {
-            writePSMSet(psmSet);
-        }
+        List<ReportPSMSet> psmSets = asRandomAccessList(reportList);
+        ParallelRowWriter.writeRows(outWriter, psmSets.size(),
+                (row, out) -> appendPSMSet(psmSets.get(row), out), numThreads, "PSM sets");
     }
 
 
@@ -410,261 +615,389 @@ public class CSVExporter {
      */
     private void writeStartAtPSMLevel() throws IOException {
         List<AbstractFilter> filters = filterExport ? piaModeller.getPSMModeller().getFilters(exportFileID) : null;
-        List<ReportPSM> reportList = piaModeller.getPSMModeller().getFilteredReportPSMs(exportFileID, filters);
+        List<ReportPSM> reportList = exportCache.getFilteredReportPSMs(exportFileID, filters);
 
         if (reportList == null) {
             LOGGER.warn("The report is empty, too many filters?");
             return;
         }
 
-        for (ReportPSM psmSet : reportList) {
-            writePSM(psmSet);
+        List<ReportPSM> psms = asRandomAccessList(reportList);
+        ParallelRowWriter.writeRows(outWriter, psms.size(),
+                (row, out) -> appendPSM(psms.get(row), out), numThreads, "PSMs");
+    }
+
+
+    /**
+     * Appends the data of a single protein (and the levels below)
+     */
+    private void appendProtein(ReportProtein protein, StringBuilder out) {
+        CSVRow row = new CSVRow(out, "PROTEIN", proteinColumns);
+
+        if (row.nextColumn()) {
+            appendAccessions(out, protein.getAccessions());
+        }
+        if (row.nextColumn()) {
+            appendQuoted(out, protein.getScore());
+        }
+        if (row.nextColumn()) {
+            appendCoverages(out, protein);
+        }
+        if (row.nextColumn()) {
+            appendQuoted(out, protein.getNrPeptides());
+        }
+        if (row.nextColumn()) {
+            appendQuoted(out, protein.getNrPSMs());
+        }
+        if (row.nextColumn()) {
+            appendQuoted(out, protein.getNrSpectra());
+        }
+        if (row.nextColumn()) {
+            out.append('"').append(protein.getAccessions().get(0).getGroup().getTreeID()).append('"');
+        }
+        if (row.nextColumn()) {
+            appendDescriptions(out, protein.getAccessions());
+        }
+
+        if (proteinFDR) {
+            if (row.nextColumn()) {
+                out.append('"').append(protein.getIsDecoy()).append('"');
+            }
+            if (row.nextColumn()) {
+                out.append('"').append(protein.getFDR()).append('"');
+            }
+        }
+
+        out.append(NEWLINE);
+
+        if (peptideLevel || includePSMSets || psmLevel) {
+            for (ReportPeptide peptide : protein.getPeptides()) {
+                appendPeptide(peptide, out);
+            }
         }
     }
 
 
     /**
-     * Writes the data of a single peptide (and the levels below)
-     *
-     * @throws IOException
+     * Appends the data of a single peptide (and the levels below)
      */
-    private void writePeptide(ReportPeptide peptide) throws IOException {
+    private void appendPeptide(ReportPeptide peptide, StringBuilder out) {
         if (peptideLevel) {
             //the peptide level should be written
-            outWriter.append("PEPTIDE").append(SEPARATOR);
+            CSVRow row = new CSVRow(out, "PEPTIDE", peptideColumns);
 
-            appendQuoted(outWriter, peptide.getSequence());
-            outWriter.append(SEPARATOR);
-            appendQuoted(outWriter, createAccessionsString(peptide.getAccessions()));
-            outWriter.append(SEPARATOR);
+            if (row.nextColumn()) {
+                appendQuoted(out, peptide.getSequence());
+            }
+            if (row.nextColumn()) {
+                appendAccessions(out, peptide.getAccessions());
+            }
 
-            if (considerModifications) {
-                appendQuoted(outWriter, peptide.getPSMs().get(0).getModificationsString());
-                outWriter.append(SEPARATOR);
+            if (considerModifications && row.nextColumn()) {
+                appendQuoted(out, peptide.getPSMs().get(0).getModificationsString());
             }
 
-            appendQuoted(outWriter, peptide.getNrSpectra().toString());
-            outWriter.append(SEPARATOR);
-            appendQuoted(outWriter, peptide.getNrPSMs().toString());
-            outWriter.append(SEPARATOR);
-            appendQuoted(outWriter, String.valueOf(peptide.getMissedCleavages()));
-            outWriter.append(SEPARATOR);
-            writeScores(peptide, piaModeller.getPeptideModeller().getScoreShortNames(exportFileID));
+            if (row.nextColumn()) {
+                appendQuoted(out, peptide.getNrSpectra());
+            }
+            if (row.nextColumn()) {
+                appendQuoted(out, peptide.getNrPSMs());
+            }
+            if (row.nextColumn()) {
+                out.append('"').append(peptide.getMissedCleavages()).append('"');
+            }
+            appendScores(row, peptide, peptideScoreShorts, peptideScoreNamesString, peptideScoreShortsString);
 
-            outWriter.append(NEWLINE);
+            out.append(NEWLINE);
         }
 
-        writePeptidesPSMorSet(peptide);
+        appendPeptidesPSMorSet(peptide, out);
     }
 
 
     /**
-     * Writes the PSM sets or just the PSMs of the given peptide
-     *
-     * @param peptide
-     * @throws IOException
+     * Appends the PSM sets or just the PSMs of the given peptide
      */
-    private void writePeptidesPSMorSet(ReportPeptide peptide) throws IOException {
-
+    private void appendPeptidesPSMorSet(ReportPeptide peptide, StringBuilder out) {
         if (includePSMSets) {
             for (PSMReportItem psmSet : peptide.getPSMs()) {
                 if (psmSet instanceof ReportPSMSet) {
-                    writePSMSet((ReportPSMSet)psmSet);
+                    appendPSMSet((ReportPSMSet)psmSet, out);
                 }
             }
         } else if (psmLevel) {
-            List<ReportPSM> psmList = new ArrayList<>();
             for (PSMReportItem psm : peptide.getPSMs()) {
                 if (psm instanceof ReportPSMSet) {
-                    psmList.addAll(((ReportPSMSet) psm).getPSMs());
+                    for (ReportPSM setPSM : ((ReportPSMSet) psm).getPSMs()) {
+                        appendPSM(setPSM, out);
+                    }
                 } else if (psm instanceof ReportPSM) {
-                    psmList.add((ReportPSM) psm);
+                    appendPSM((ReportPSM) psm, out);
                 }
             }
-
-            for (ReportPSM psm : psmList) {
-                writePSM(psm);
-            }
         }
     }
 
 
     /**
-     * Writes the data of a single PSM set (and the levels below)
-     *
-     * @throws IOException
+     * Appends the data of a single PSM set (and the levels below)
      */
-    private void writePSMSet(ReportPSMSet psmSet) throws IOException {
+    private void appendPSMSet(ReportPSMSet psmSet, StringBuilder out) {
         if (includePSMSets) {
             //psmSets
-            writePSMorPSMSet(psmSet);
+            appendPSMorPSMSet(psmSet, out);
         }
 
         if (psmLevel) {
             for (ReportPSM psm : psmSet.getPSMs()) {
-                writePSM(psm);
+                appendPSM(psm, out);
             }
         }
     }
 
+
     /**
-     * Writes the data of a single PSM set (and the levels below)
-     *
-     * @throws IOException
+     * Appends the data of a single PSM
      */
-    private void writePSM(ReportPSM psm) throws IOException {
+    private void appendPSM(ReportPSM psm, StringBuilder out) {
         if (psmLevel) {
-            writePSMorPSMSet(psm);
+            appendPSMorPSMSet(psm, out);
         }
     }
 
 
     /**
-     * Writes the data of a single PSM or PSMset
-     *
-     * @throws IOException
+     * Appends the data of a single PSM or PSMset
      */
-    private void writePSMorPSMSet(PSMReportItem psm) throws IOException {
-        boolean isSet;
-        if (psm instanceof ReportPSMSet) {
-            isSet = true;
-            outWriter.append("PSMSET").append(SEPARATOR);
-        } else {
-            isSet = false;
-            outWriter.append("PSM").append(SEPARATOR);
-        }
-
-        appendQuoted(outWriter, psm.getSequence());
-        outWriter.append(SEPARATOR);
-        appendQuoted(outWriter, createAccessionsString(psm.getAccessions()));
-        outWriter.append(SEPARATOR);
-        appendQuoted(outWriter, createAccessionsString(psm.getAccessions()));
-        outWriter.append(SEPARATOR);
-        appendQuoted(outWriter, psm.getModificationsString());
-        outWriter.append(SEPARATOR);
-        appendQuoted(outWriter, String.valueOf(psm.getIsDecoy()));
-        outWriter.append(SEPARATOR);
-        appendQuoted(outWriter, String.valueOf(psm.getCharge()));
-        outWriter.append(SEPARATOR);
-        appendQuoted(outWriter, String.valueOf(psm.getMassToCharge()));
-        outWriter.append(SEPARATOR);
-        appendQuoted(outWriter, String.valueOf(psm.getDeltaMass()));
-        outWriter.append(SEPARATOR);
-        appendQuoted(outWriter, String.valueOf(psm.getDeltaPPM()));
-        outWriter.append(SEPARATOR);
-        appendQuoted(outWriter, String.valueOf(psm.getRetentionTime()));
-        outWriter.append(SEPARATOR);
-        appendQuoted(outWriter, String.valueOf(psm.getMissedCleavages()));
-        outWriter.append(SEPARATOR);
+    private void appendPSMorPSMSet(PSMReportItem psm, StringBuilder out) {
+        boolean isSet = psm instanceof ReportPSMSet;
+        CSVRow row = isSet ?
+                new CSVRow(out, "PSMSET", psmSetColumns) :
+                    new CSVRow(out, "PSM", psmColumns);
+
+        if (row.nextColumn()) {
+            appendQuoted(out, psm.getSequence());
+        }
+        if (row.nextColumn()) {
+            appendAccessions(out, psm.getAccessions());
+        }
+        if (duplicatedColumns) {
+            // all columns are selected in the previous layout
+            out.append(separator);
+            appendAccessions(out, psm.getAccessions());
+        }
+        if (row.nextColumn()) {
+            appendQuoted(out, psm.getModificationsString());
+        }
+        if (row.nextColumn()) {
+            out.append('"').append(psm.getIsDecoy()).append('"');
+        }
+        if (row.nextColumn()) {
+            out.append('"').append(psm.getCharge()).append('"');
+        }
+        if (row.nextColumn()) {
+            out.append('"').append(psm.getMassToCharge()).append('"');
+        }
+        if (row.nextColumn()) {
+            out.append('"').append(psm.getDeltaMass()).append('"');
+        }
+        if (row.nextColumn()) {
+            out.append('"').append(psm.getDeltaPPM()).append('"');
+        }
+        if (row.nextColumn()) {
+            appendQuoted(out, psm.getRetentionTime());
+        }
+        if (row.nextColumn()) {
+            out.append('"').append(psm.getMissedCleavages()).append('"');
+        }
 
         if (isSet) {
-            appendQuoted(outWriter, String.valueOf(((ReportPSMSet) psm).getPSMs().size()));
-            outWriter.append(SEPARATOR);
+            if (row.nextColumn()) {
+                out.append('"').append(((ReportPSMSet) psm).getPSMs().size()).append('"');
+            }
         } else {
-            appendQuoted(outWriter, psm.getSourceID());
-            outWriter.append(SEPARATOR);
-            appendQuoted(outWriter, psm.getSpectrumTitle());
-            outWriter.append(SEPARATOR);
+            if (row.nextColumn()) {
+                appendQuoted(out, psm.getSourceID());
+            }
+            if (row.nextColumn()) {
+                appendQuoted(out, psm.getSpectrumTitle());
+            }
         }
 
-        writeScores(psm, piaModeller.getPSMModeller().getScoreShortNames(exportFileID));
+        appendScores(row, psm, psmScoreShorts, psmScoreNamesString, psmScoreShortsString);
 
-        outWriter.append(NEWLINE);
+        out.append(NEWLINE);
     }
 
 
     /**
-     * Create a string representation of the given accessions
-     * @return
+     * Appends the quoted accessions, separated by the
+     * {@link #MULTIVALUE_SEPARATOR}.
      */
-    private static String createAccessionsString(Collection<Accession> accessions) {
-        StringBuilder accSB = new StringBuilder();
+    private static void appendAccessions(StringBuilder out, Collection<Accession> accessions) {
+        out.append('"');
+        boolean first = true;
         for (Accession accession : accessions) {
-            if (accSB.length() > 0) {
-                accSB.append(MULTIVALUE_SEPARATOR);
+            if (!first) {
+                out.append(MULTIVALUE_SEPARATOR);
             }
-            accSB.append(accession.getAccession());
+            out.append(accession.getAccession());
+            first = false;
         }
-
-        return accSB.toString();
+        out.append('"');
     }
 
 
     /**
-     * Create a string representation of the protein's accessions' coverages
-     *
-     * @return
+     * Appends the quoted coverages of the protein's accessions
      */
-    private static String createCoveragesString(ReportProtein protein) {
-        StringBuilder coverageSB = new StringBuilder();
-
+    private static void appendCoverages(StringBuilder out, ReportProtein protein) {
+        out.append('"');
+        boolean first = true;
         for (Accession accession : protein.getAccessions()) {
-            if (coverageSB.length() > 0) {
-                coverageSB.append(MULTIVALUE_SEPARATOR);
+            if (!first) {
+                out.append(MULTIVALUE_SEPARATOR);
             }
 
             Double coverage = protein.getCoverage(accession.getAccession());
             if (coverage.equals(Double.NaN)) {
-                coverageSB.append("NA");
+                out.append("NA");
             } else {
-                coverageSB.append(coverage);
+                out.append(coverage.doubleValue());
             }
+            first = false;
         }
-
-        return coverageSB.toString();
+        out.append('"');
     }
 
 
     /**
-     * Create a string representation of the protein's accessions' descriptions
-     *
-     * @return
+     * Appends the quoted descriptions of the accessions
      */
-    private String createDescriptionsString(Collection<Accession> accessions) {
-        StringBuilder accSB = new StringBuilder();
+    private void appendDescriptions(StringBuilder out, Collection<Accession> accessions) {
+        out.append('"');
+        boolean first = true;
         for (Accession accession : accessions) {
-            if (accSB.length() > 0) {
-                accSB.append(MULTIVALUE_SEPARATOR);
+            if (!first) {
+                out.append(MULTIVALUE_SEPARATOR);
             }
-            accSB.append(accession.getDescription(exportFileID));
+            out.append(accession.getDescription(exportFileID));
+            first = false;
         }
-
-        return accSB.toString();
+        out.append('"');
     }
 
+
     /**
-     * Appends the given String-value to the writer
-     *
-     * @param writer
-     * @param value
-     * @throws IOException
+     * Appends the score, score names and score shorts columns of the item,
+     * if selected.
      */
-    private static void appendQuoted(Writer writer, String value) throws IOException {
-        writer.append('"').append(value).append('"');
+    private void appendScores(CSVRow row, Rankable item, List<String> scoreShorts,
+            String scoreNamesString, String scoreShortsString) {
+        StringBuilder out = row.buffer;
+
+        if (row.nextColumn()) {
+            out.append('"');
+            boolean first = true;
+            for (String scoreShort : scoreShorts) {
+                if (!first) {
+                    out.append(MULTIVALUE_SEPARATOR);
+                }
+                appendNumber(out, item.getScore(scoreShort));
+                first = false;
+            }
+            out.append('"');
+        }
+        if (row.nextColumn()) {
+            appendQuoted(out, scoreNamesString);
+        }
+        if (row.nextColumn()) {
+            appendQuoted(out, scoreShortsString);
+        }
     }
 
-    private void writeScores(Rankable item, List<String> scoreShorts) throws IOException {
-        StringBuilder scoresSB = new StringBuilder();
-        StringBuilder scoreNamesSB = new StringBuilder();
-        StringBuilder scoreShortsSB = new StringBuilder();
 
+    /**
+     * Joins the score names of the given score shorts
+     */
+    private String createScoreNamesString(List<String> scoreShorts) {
+        StringBuilder scoreNamesSB = new StringBuilder();
         for (String scoreShort : scoreShorts) {
-            if (scoresSB.length() > 0) {
-                scoresSB.append(MULTIVALUE_SEPARATOR);
+            if (scoreNamesSB.length() > 0) {
                 scoreNamesSB.append(MULTIVALUE_SEPARATOR);
-                scoreShortsSB.append(MULTIVALUE_SEPARATOR);
             }
-
-            scoresSB.append(item.getScore(scoreShort));
             scoreNamesSB.append(scoreShortsToNames.get(scoreShort));
-            scoreShortsSB.append(scoreShort);
         }
+        return scoreNamesSB.toString();
+    }
+
+
+    /**
+     * Appends the given String-value quoted to the buffer
+     */
+    private static void appendQuoted(StringBuilder out, String value) {
+        out.append('"').append(value).append('"');
+    }
+
 
-        appendQuoted(outWriter, scoresSB.toString());
-        outWriter.append(SEPARATOR);
-        appendQuoted(outWriter, scoreNamesSB.toString());
-        outWriter.append(SEPARATOR);
-        appendQuoted(outWriter, scoreShortsSB.toString());
+    /**
+     * Appends the given number quoted to the buffer, without creating an
+     * intermediate String
+     */
+    private static void appendQuoted(StringBuilder out, Number value) {
+        out.append('"');
+        appendNumber(out, value);
+        out.append('"');
+    }
+
+
+    /**
+     * Appends the given number to the buffer, without creating an
+     * intermediate String for doubles and integers.
+     */
+    private static void appendNumber(StringBuilder out, Number value) {
+        if (value instanceof Double) {
+            out.append(value.doubleValue());
+        } else if (value instanceof Integer) {
+            out.append(value.intValue());
+        } else {
+            out.append(value);
+        }
     }
 
-}
\ No newline at end of file
+
+    /**
+     * A row in the export buffer, which keeps track of the current column and
+     * adds the separators of selected columns.
+     */
+    private final class CSVRow {
+        private final StringBuilder buffer;
+
+        private final boolean[] selected;
+
+        private int column;
+
+
+        private CSVRow(StringBuilder buffer, String rowType, boolean[] selected) {
+            this.buffer = buffer;
+            this.selected = selected;
+            this.column = 0;
+            buffer.append(rowType);
+        }
+
+
+        /**
+         * Moves to the next column and adds the separator, if it is selected.
+         *
+         * @return whether the column is selected and its value should be
+         * appended
+         */
+        private boolean nextColumn() {
+            if (selected[column++]) {
+                buffer.append(separator);
+                return true;
+            }
+            return false;
+        }
+    }
+}
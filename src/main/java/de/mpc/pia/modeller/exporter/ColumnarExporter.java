@@ -0,0 +1,553 @@
+package de.mpc.pia.modeller.exporter;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+
+import org.apache.log4j.Logger;
+
+import de.mpc.pia.intermediate.Accession;
+import de.mpc.pia.modeller.PIAModeller;
+import de.mpc.pia.modeller.peptide.ReportPeptide;
+import de.mpc.pia.modeller.protein.ReportProtein;
+import de.mpc.pia.modeller.psm.PSMReportItem;
+import de.mpc.pia.modeller.psm.ReportPSMSet;
+import de.mpc.pia.modeller.report.filter.AbstractFilter;
+import de.mpc.pia.modeller.score.FDRComputable;
+import de.mpc.pia.modeller.score.FDRScoreComputable;
+import de.mpc.pia.modeller.score.comparator.Rankable;
+
+
+/**
+ * Exports the PSM, peptide and protein levels into a binary columnar file,
+ * which can be loaded much faster into analytics tools than the text exports.
+ * <p>
+ * The file starts with {@link #MAGIC} and the {@link #FORMAT_VERSION}. Each
+ * level is written as a table with its name and the names and
+ * {@link ColumnType}s of its columns, followed by row groups of up to
+ * {@link #getRowGroupSize()} rows. Each row group stores its row count and
+ * then one chunk per column. A chunk is stored with a codec byte (none or
+ * deflate, whichever is smaller), the raw and the stored length. Strings are
+ * dictionary encoded per chunk. Missing values are stored as NaN (doubles),
+ * {@link Integer#MIN_VALUE}, {@link Long#MIN_VALUE}, -1 (booleans) or -1
+ * (dictionary indices). The tables are read by {@link ColumnarReader}.
+ *
+ * @author julian
+ *
+ */
+public class ColumnarExporter {
+
+    /** logger for this class */
+    private static final Logger LOGGER = Logger.getLogger(ColumnarExporter.class);
+
+    /** the magic bytes at the start of the file */
+    static final byte[] MAGIC = {'P', 'I', 'A', 'C', 'O', 'L'};
+
+    /** the version of the file format */
+    static final int FORMAT_VERSION = 1;
+
+    /** codec of a column chunk: not compressed */
+    static final byte CODEC_NONE = 0;
+
+    /** codec of a column chunk: deflate compressed */
+    static final byte CODEC_DEFLATE = 1;
+
+    /** the default number of rows in a row group */
+    public static final int DEFAULT_ROW_GROUP_SIZE = 1 << 16;
+
+    /** the name of the PSM table */
+    public static final String PSM_TABLE = "psms";
+
+    /** the name of the peptide table */
+    public static final String PEPTIDE_TABLE = "peptides";
+
+    /** the name of the protein table */
+    public static final String PROTEIN_TABLE = "proteins";
+
+    /** the prefix of the score columns, followed by the score's short name */
+    public static final String SCORE_COLUMN_PREFIX = "score:";
+
+
+    /**
+     * The types of the columns. The ordinal is stored in the file, so new
+     * types must only be added at the end.
+     */
+    public enum ColumnType {
+        STRING,
+        STRING_LIST,
+        DOUBLE,
+        INTEGER,
+        LONG,
+        BOOLEAN,
+    }
+
+
+    /** the modeller, that should be exported */
+    private PIAModeller piaModeller;
+
+    /** the maximal number of rows in a row group */
+    private int rowGroupSize;
+
+
+    /**
+     * A column of a table, which extracts its values from the exported items.
+     */
+    private static final class Column<T> {
+        private final String name;
+
+        private final ColumnType type;
+
+        private final Function<T, Object> extractor;
+
+
+        private Column(String name, ColumnType type, Function<T, Object> extractor) {
+            this.name = name;
+            this.type = type;
+            this.extractor = extractor;
+        }
+    }
+
+
+    /**
+     * Basic constructor
+     *
+     * @param modeller
+     */
+    public ColumnarExporter(PIAModeller modeller) {
+        this.piaModeller = modeller;
+        this.rowGroupSize = DEFAULT_ROW_GROUP_SIZE;
+    }
+
+
+    /**
+     * Sets the maximal number of rows in a row group, i.e. the number of rows
+     * held together in memory while writing.
+     *
+     * @param size
+     */
+    public void setRowGroupSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("the row group size must be positive");
+        }
+        rowGroupSize = size;
+    }
+
+
+    public int getRowGroupSize() {
+        return rowGroupSize;
+    }
+
+
+    public boolean exportToColumnar(Long fileID, File exportFile,
+            boolean psmLevel, boolean peptideLevel, boolean proteinLevel,
+            boolean filterExport) {
+        boolean exportOK;
+
+        try (FileOutputStream fos = new FileOutputStream(exportFile)) {
+            exportOK = exportToColumnar(fileID, fos, psmLevel, peptideLevel, proteinLevel, filterExport);
+        } catch (IOException ex) {
+            LOGGER.error("Error writing columnar export to " + exportFile.getAbsolutePath(), ex);
+            exportOK = false;
+        }
+
+        return exportOK;
+    }
+
+
+    public boolean exportToColumnar(Long fileID, String exportFileName,
+            boolean psmLevel, boolean peptideLevel, boolean proteinLevel,
+            boolean filterExport) {
+        return exportToColumnar(fileID, new File(exportFileName), psmLevel, peptideLevel, proteinLevel,
+                filterExport);
+    }
+
+
+    /**
+     * Exports the selected levels of the modeller. The PSM and peptide levels
+     * use the data of the fileID (for the overview with fileID 0 the PSM sets
+     * are exported), the protein level is always taken from the overview.
+     *
+     * @param fileID
+     * @param exportStream
+     * @param psmLevel
+     * @param peptideLevel
+     * @param proteinLevel
+     * @param filterExport whether the export should be filtered (on any level)
+     * @return
+     */
+    public boolean exportToColumnar(Long fileID, OutputStream exportStream,
+            boolean psmLevel, boolean peptideLevel, boolean proteinLevel,
+            boolean filterExport) {
+        boolean error = false;
+        LOGGER.info("start writing columnar export");
+
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(exportStream));
+            out.write(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+
+            if (psmLevel) {
+                writePSMTable(out, fileID, filterExport);
+            }
+            if (peptideLevel) {
+                writePeptideTable(out, fileID, filterExport);
+            }
+            if (proteinLevel) {
+                writeProteinTable(out, filterExport);
+            }
+
+            // no more tables
+            out.writeBoolean(false);
+            out.flush();
+        } catch (IOException e) {
+            LOGGER.error("Error writing the columnar export", e);
+            error = true;
+        }
+
+        LOGGER.info("columnar export done");
+        return !error;
+    }
+
+
+    /**
+     * Writes the PSMs (or PSM sets for the overview) of the given file.
+     */
+    private void writePSMTable(DataOutputStream out, Long fileID, boolean filterExport)
+            throws IOException {
+        List<AbstractFilter> filters = filterExport ? piaModeller.getPSMModeller().getFilters(fileID) : null;
+
+        List<PSMReportItem> psms = new ArrayList<>();
+        if (fileID > 0) {
+            psms.addAll(piaModeller.getPSMModeller().getFilteredReportPSMs(fileID, filters));
+        } else {
+            psms.addAll(piaModeller.getPSMModeller().getFilteredReportPSMSets(filters));
+        }
+
+        List<Column<PSMReportItem>> columns = new ArrayList<>();
+        columns.add(new Column<>("sequence", ColumnType.STRING, PSMReportItem::getSequence));
+        columns.add(new Column<>("accessions", ColumnType.STRING_LIST, psm -> getAccessions(psm.getAccessions())));
+        columns.add(new Column<>("modifications", ColumnType.STRING, PSMReportItem::getModificationsString));
+        columns.add(new Column<>("decoy", ColumnType.BOOLEAN, PSMReportItem::getIsDecoy));
+        columns.add(new Column<>("charge", ColumnType.INTEGER, PSMReportItem::getCharge));
+        columns.add(new Column<>("mz", ColumnType.DOUBLE, PSMReportItem::getMassToCharge));
+        columns.add(new Column<>("delta_mass", ColumnType.DOUBLE, PSMReportItem::getDeltaMass));
+        columns.add(new Column<>("delta_ppm", ColumnType.DOUBLE, PSMReportItem::getDeltaPPM));
+        columns.add(new Column<>("retention_time", ColumnType.DOUBLE, PSMReportItem::getRetentionTime));
+        columns.add(new Column<>("missed_cleavages", ColumnType.INTEGER, PSMReportItem::getMissedCleavages));
+        columns.add(new Column<>("source_id", ColumnType.STRING, PSMReportItem::getSourceID));
+        columns.add(new Column<>("spectrum_title", ColumnType.STRING, PSMReportItem::getSpectrumTitle));
+        columns.add(new Column<>("nr_identifications", ColumnType.INTEGER,
+                psm -> (psm instanceof ReportPSMSet) ? ((ReportPSMSet) psm).getPSMs().size() : 1));
+        addFDRColumns(columns);
+        addScoreColumns(columns, getPSMScoreShortNames(fileID));
+
+        writeTable(out, PSM_TABLE, columns, psms);
+    }
+
+
+    /**
+     * Writes the peptides of the given file.
+     */
+    private void writePeptideTable(DataOutputStream out, Long fileID, boolean filterExport)
+            throws IOException {
+        List<AbstractFilter> filters = filterExport ? piaModeller.getPeptideModeller().getFilters(fileID) : null;
+        List<ReportPeptide> peptides = piaModeller.getPeptideModeller().getFilteredReportPeptides(fileID, filters);
+        if (peptides == null) {
+            LOGGER.warn("The peptide report is empty, probably no peptides inferred?");
+            peptides = new ArrayList<>();
+        }
+
+        List<Column<ReportPeptide>> columns = new ArrayList<>();
+        columns.add(new Column<>("sequence", ColumnType.STRING, ReportPeptide::getSequence));
+        columns.add(new Column<>("accessions", ColumnType.STRING_LIST, pep -> getAccessions(pep.getAccessions())));
+        columns.add(new Column<>("modifications", ColumnType.STRING,
+                pep -> pep.getPSMs().isEmpty() ? null : pep.getPSMs().get(0).getModificationsString()));
+        columns.add(new Column<>("decoy", ColumnType.BOOLEAN, ReportPeptide::getIsDecoy));
+        columns.add(new Column<>("nr_spectra", ColumnType.INTEGER, ReportPeptide::getNrSpectra));
+        columns.add(new Column<>("nr_psms", ColumnType.INTEGER, ReportPeptide::getNrPSMs));
+        columns.add(new Column<>("missed_cleavages", ColumnType.INTEGER, ReportPeptide::getMissedCleavages));
+        addFDRColumns(columns);
+        addScoreColumns(columns, piaModeller.getPeptideModeller().getScoreShortNames(fileID));
+
+        writeTable(out, PEPTIDE_TABLE, columns, peptides);
+    }
+
+
+    /**
+     * Writes the proteins.
+     */
+    private void writeProteinTable(DataOutputStream out, boolean filterExport) throws IOException {
+        List<AbstractFilter> filters = filterExport ? piaModeller.getProteinModeller().getReportFilters() : null;
+        List<ReportProtein> proteins = piaModeller.getProteinModeller().getFilteredReportProteins(filters);
+        if (proteins == null) {
+            LOGGER.warn("The protein report is empty, probably no inference run?");
+            proteins = new ArrayList<>();
+        }
+
+        List<Column<ReportProtein>> columns = new ArrayList<>();
+        columns.add(new Column<>("accessions", ColumnType.STRING_LIST, prot -> getAccessions(prot.getAccessions())));
+        columns.add(new Column<>("descriptions", ColumnType.STRING_LIST,
+                prot -> prot.getAccessions().stream().map(acc -> acc.getDescription(0L)).collect(Collectors.toList())));
+        columns.add(new Column<>("score", ColumnType.DOUBLE, ReportProtein::getScore));
+        columns.add(new Column<>("coverage", ColumnType.DOUBLE,
+                prot -> prot.getCoverage(prot.getRepresentative().getAccession())));
+        columns.add(new Column<>("nr_peptides", ColumnType.INTEGER, ReportProtein::getNrPeptides));
+        columns.add(new Column<>("nr_psms", ColumnType.INTEGER, ReportProtein::getNrPSMs));
+        columns.add(new Column<>("nr_spectra", ColumnType.INTEGER, ReportProtein::getNrSpectra));
+        columns.add(new Column<>("cluster_id", ColumnType.LONG,
+                prot -> prot.getAccessions().get(0).getGroup().getTreeID()));
+        columns.add(new Column<>("decoy", ColumnType.BOOLEAN, ReportProtein::getIsDecoy));
+        columns.add(new Column<>("fdr", ColumnType.DOUBLE, ReportProtein::getFDR));
+        columns.add(new Column<>("q_value", ColumnType.DOUBLE, ReportProtein::getQValue));
+
+        writeTable(out, PROTEIN_TABLE, columns, proteins);
+    }
+
+
+    /**
+     * Returns the score short names of the PSMs of the given file, for the
+     * overview of all files.
+     */
+    private List<String> getPSMScoreShortNames(Long fileID) {
+        Set<String> scoreShorts = new LinkedHashSet<>(piaModeller.getPSMModeller().getScoreShortNames(fileID));
+        if (fileID == 0) {
+            for (Long file : piaModeller.getPSMModeller().getFiles().keySet()) {
+                scoreShorts.addAll(piaModeller.getPSMModeller().getScoreShortNames(file));
+            }
+        }
+        return new ArrayList<>(scoreShorts);
+    }
+
+
+    /**
+     * Adds the columns for FDR, q-value and FDR score.
+     */
+    private static <T extends FDRComputable & FDRScoreComputable> void addFDRColumns(List<Column<T>> columns) {
+        columns.add(new Column<>("fdr", ColumnType.DOUBLE, FDRComputable::getFDR));
+        columns.add(new Column<>("q_value", ColumnType.DOUBLE, FDRComputable::getQValue));
+        columns.add(new Column<>("fdr_score", ColumnType.DOUBLE,
+                item -> (item.getFDRScore() != null) ? item.getFDRScore().getValue() : null));
+    }
+
+
+    /**
+     * Adds a column for each of the given scores.
+     */
+    private static <T extends Rankable> void addScoreColumns(List<Column<T>> columns, List<String> scoreShorts) {
+        for (String scoreShort : scoreShorts) {
+            columns.add(new Column<>(SCORE_COLUMN_PREFIX + scoreShort, ColumnType.DOUBLE,
+                    item -> item.getScore(scoreShort)));
+        }
+    }
+
+
+    /**
+     * Returns the accession strings of the accessions.
+     */
+    private static List<String> getAccessions(List<Accession> accessions) {
+        List<String> accList = new ArrayList<>(accessions.size());
+        for (Accession acc : accessions) {
+            accList.add(acc.getAccession());
+        }
+        return accList;
+    }
+
+
+    /**
+     * Writes a table with the given columns for the given items.
+     */
+    private <T> void writeTable(DataOutputStream out, String name, List<Column<T>> columns, List<T> items)
+            throws IOException {
+        LOGGER.debug("writing table " + name + " with " + items.size() + " rows");
+
+        out.writeBoolean(true);
+        writeString(out, name);
+        out.writeInt(columns.size());
+        for (Column<T> column : columns) {
+            writeString(out, column.name);
+            out.writeByte(column.type.ordinal());
+        }
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            for (int start = 0; start < items.size(); start += rowGroupSize) {
+                List<T> rowGroup = items.subList(start, Math.min(start + rowGroupSize, items.size()));
+                out.writeInt(rowGroup.size());
+
+                for (Column<T> column : columns) {
+                    writeChunk(out, encodeColumn(column, rowGroup), deflater);
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+
+        // end of the row groups
+        out.writeInt(0);
+    }
+
+
+    /**
+     * Writes the encoded column chunk, compressed if this makes it smaller.
+     */
+    private static void writeChunk(DataOutputStream out, byte[] raw, Deflater deflater) throws IOException {
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 2 + 16);
+        byte[] buffer = new byte[1 << 16];
+        while (!deflater.finished() && (compressed.size() < raw.length)) {
+            int length = deflater.deflate(buffer);
+            compressed.write(buffer, 0, length);
+        }
+
+        if (deflater.finished() && (compressed.size() < raw.length)) {
+            out.writeByte(CODEC_DEFLATE);
+            out.writeInt(raw.length);
+            out.writeInt(compressed.size());
+            compressed.writeTo(out);
+        } else {
+            out.writeByte(CODEC_NONE);
+            out.writeInt(raw.length);
+            out.writeInt(raw.length);
+            out.write(raw);
+        }
+    }
+
+
+    /**
+     * Encodes the values of the column for the given rows.
+     */
+    private static <T> byte[] encodeColumn(Column<T> column, List<T> rows) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        switch (column.type) {
+        case STRING:
+        case STRING_LIST:
+            encodeStrings(out, column, rows);
+            break;
+
+        case DOUBLE:
+            for (T row : rows) {
+                Number value = (Number) column.extractor.apply(row);
+                out.writeDouble((value != null) ? value.doubleValue() : Double.NaN);
+            }
+            break;
+
+        case INTEGER:
+            for (T row : rows) {
+                Number value = (Number) column.extractor.apply(row);
+                out.writeInt((value != null) ? value.intValue() : Integer.MIN_VALUE);
+            }
+            break;
+
+        case LONG:
+            for (T row : rows) {
+                Number value = (Number) column.extractor.apply(row);
+                out.writeLong((value != null) ? value.longValue() : Long.MIN_VALUE);
+            }
+            break;
+
+        case BOOLEAN:
+            for (T row : rows) {
+                Boolean value = (Boolean) column.extractor.apply(row);
+                out.writeByte((value != null) ? (value ? 1 : 0) : -1);
+            }
+            break;
+
+        default:
+            throw new IOException("unknown column type " + column.type);
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+
+    /**
+     * Encodes a (list of) string column with a dictionary: first the
+     * dictionary, then the indices for each row (preceded by the number of
+     * values for lists).
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> void encodeStrings(DataOutputStream out, Column<T> column, List<T> rows)
+            throws IOException {
+        Map<String, Integer> dictionary = new HashMap<>();
+        List<String> dictionaryValues = new ArrayList<>();
+        int[][] indices = new int[rows.size()][];
+
+        for (int i = 0; i < rows.size(); i++) {
+            Object value = column.extractor.apply(rows.get(i));
+
+            List<String> values;
+            if (column.type == ColumnType.STRING) {
+                values = Arrays.asList((String) value);
+            } else {
+                values = (List<String>) value;
+            }
+
+            if (values == null) {
+                indices[i] = null;
+                continue;
+            }
+
+            indices[i] = new int[values.size()];
+            for (int j = 0; j < values.size(); j++) {
+                String str = values.get(j);
+                if (str == null) {
+                    indices[i][j] = -1;
+                } else {
+                    indices[i][j] = dictionary.computeIfAbsent(str, k -> {
+                        dictionaryValues.add(k);
+                        return dictionaryValues.size() - 1;
+                    });
+                }
+            }
+        }
+
+        out.writeInt(dictionaryValues.size());
+        for (String value : dictionaryValues) {
+            writeString(out, value);
+        }
+
+        for (int[] rowIndices : indices) {
+            if (column.type == ColumnType.STRING) {
+                out.writeInt(rowIndices[0]);
+            } else if (rowIndices == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(rowIndices.length);
+                for (int idx : rowIndices) {
+                    out.writeInt(idx);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Writes the string as length and UTF-8 bytes.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
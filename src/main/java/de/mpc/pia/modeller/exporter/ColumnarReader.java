@@ -0,0 +1,306 @@
+package de.mpc.pia.modeller.exporter;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import de.mpc.pia.modeller.exporter.ColumnarExporter.ColumnType;
+
+
+/**
+ * Reads the tables of a file written by the {@link ColumnarExporter} into
+ * memory.
+ *
+ * @author julian
+ *
+ */
+public class ColumnarReader {
+
+    /**
+     * A table read from the columnar file. Missing values are returned as
+     * null.
+     */
+    public static class Table {
+
+        private final String name;
+
+        private final Map<String, ColumnType> columnTypes;
+
+        private final Map<String, List<Object>> columns;
+
+        private int nrRows;
+
+
+        private Table(String name) {
+            this.name = name;
+            this.columnTypes = new LinkedHashMap<>();
+            this.columns = new LinkedHashMap<>();
+            this.nrRows = 0;
+        }
+
+
+        public String getName() {
+            return name;
+        }
+
+
+        public int getNrRows() {
+            return nrRows;
+        }
+
+
+        public List<String> getColumnNames() {
+            return new ArrayList<>(columnTypes.keySet());
+        }
+
+
+        public ColumnType getColumnType(String columnName) {
+            return columnTypes.get(columnName);
+        }
+
+
+        /**
+         * Returns the values of the given column, lists of strings for
+         * {@link ColumnType#STRING_LIST} columns.
+         *
+         * @param columnName
+         * @return the values or null, if the column does not exist
+         */
+        public List<Object> getColumn(String columnName) {
+            List<Object> values = columns.get(columnName);
+            return (values != null) ? Collections.unmodifiableList(values) : null;
+        }
+    }
+
+
+    /**
+     * We don't ever want to instantiate this class
+     */
+    private ColumnarReader() {
+        throw new AssertionError();
+    }
+
+
+    /**
+     * Reads all tables of the given file.
+     *
+     * @param file
+     * @return the tables by their names, in the order of the file
+     * @throws IOException
+     */
+    public static Map<String, Table> readTables(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return readTables(in);
+        }
+    }
+
+
+    /**
+     * Reads all tables of the given stream.
+     *
+     * @param inStream
+     * @return the tables by their names, in the order of the stream
+     * @throws IOException
+     */
+    public static Map<String, Table> readTables(InputStream inStream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(inStream));
+
+        byte[] magic = new byte[ColumnarExporter.MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, ColumnarExporter.MAGIC)) {
+            throw new IOException("not a PIA columnar file");
+        }
+        int version = in.readInt();
+        if (version != ColumnarExporter.FORMAT_VERSION) {
+            throw new IOException("unsupported version of the columnar file: " + version);
+        }
+
+        Map<String, Table> tables = new LinkedHashMap<>();
+        Inflater inflater = new Inflater();
+        try {
+            while (in.readBoolean()) {
+                Table table = readTable(in, inflater);
+                tables.put(table.getName(), table);
+            }
+        } finally {
+            inflater.end();
+        }
+
+        return tables;
+    }
+
+
+    /**
+     * Reads the header and row groups of a table.
+     */
+    private static Table readTable(DataInputStream in, Inflater inflater) throws IOException {
+        Table table = new Table(readString(in));
+
+        int nrColumns = in.readInt();
+        List<String> columnNames = new ArrayList<>(nrColumns);
+        List<ColumnType> types = new ArrayList<>(nrColumns);
+        for (int i = 0; i < nrColumns; i++) {
+            String columnName = readString(in);
+            int typeIdx = in.readByte();
+            if ((typeIdx < 0) || (typeIdx >= ColumnType.values().length)) {
+                throw new IOException("unknown type of column " + columnName + ": " + typeIdx);
+            }
+
+            columnNames.add(columnName);
+            types.add(ColumnType.values()[typeIdx]);
+            table.columnTypes.put(columnName, types.get(i));
+            table.columns.put(columnName, new ArrayList<>());
+        }
+
+        int groupRows;
+        while ((groupRows = in.readInt()) > 0) {
+            for (int i = 0; i < nrColumns; i++) {
+                DataInputStream chunk = readChunk(in, inflater);
+                decodeColumn(chunk, types.get(i), groupRows, table.columns.get(columnNames.get(i)));
+            }
+            table.nrRows += groupRows;
+        }
+
+        return table;
+    }
+
+
+    /**
+     * Reads a column chunk and returns a stream of its decompressed bytes.
+     */
+    private static DataInputStream readChunk(DataInputStream in, Inflater inflater) throws IOException {
+        byte codec = in.readByte();
+        int rawLength = in.readInt();
+        int storedLength = in.readInt();
+
+        byte[] stored = new byte[storedLength];
+        in.readFully(stored);
+
+        byte[] raw;
+        if (codec == ColumnarExporter.CODEC_NONE) {
+            raw = stored;
+        } else if (codec == ColumnarExporter.CODEC_DEFLATE) {
+            raw = new byte[rawLength];
+            inflater.reset();
+            inflater.setInput(stored);
+            try {
+                int length = 0;
+                while (length < rawLength) {
+                    int inflated = inflater.inflate(raw, length, rawLength - length);
+                    if ((inflated == 0) && (inflater.finished() || inflater.needsInput())) {
+                        throw new IOException("column chunk is truncated");
+                    }
+                    length += inflated;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("column chunk is corrupt", e);
+            }
+        } else {
+            throw new IOException("unknown codec of column chunk: " + codec);
+        }
+
+        return new DataInputStream(new ByteArrayInputStream(raw));
+    }
+
+
+    /**
+     * Decodes the values of a column chunk into the given list.
+     */
+    private static void decodeColumn(DataInputStream in, ColumnType type, int nrRows, List<Object> values)
+            throws IOException {
+        switch (type) {
+        case STRING:
+        case STRING_LIST:
+            String[] dictionary = new String[in.readInt()];
+            for (int i = 0; i < dictionary.length; i++) {
+                dictionary[i] = readString(in);
+            }
+
+            for (int row = 0; row < nrRows; row++) {
+                if (type == ColumnType.STRING) {
+                    values.add(lookUp(dictionary, in.readInt()));
+                } else {
+                    int nrValues = in.readInt();
+                    if (nrValues < 0) {
+                        values.add(null);
+                    } else {
+                        List<String> list = new ArrayList<>(nrValues);
+                        for (int i = 0; i < nrValues; i++) {
+                            list.add(lookUp(dictionary, in.readInt()));
+                        }
+                        values.add(list);
+                    }
+                }
+            }
+            break;
+
+        case DOUBLE:
+            for (int row = 0; row < nrRows; row++) {
+                double value = in.readDouble();
+                values.add(Double.isNaN(value) ? null : value);
+            }
+            break;
+
+        case INTEGER:
+            for (int row = 0; row < nrRows; row++) {
+                int value = in.readInt();
+                values.add((value == Integer.MIN_VALUE) ? null : value);
+            }
+            break;
+
+        case LONG:
+            for (int row = 0; row < nrRows; row++) {
+                long value = in.readLong();
+                values.add((value == Long.MIN_VALUE) ? null : value);
+            }
+            break;
+
+        case BOOLEAN:
+            for (int row = 0; row < nrRows; row++) {
+                byte value = in.readByte();
+                values.add((value < 0) ? null : (value == 1));
+            }
+            break;
+
+        default:
+            throw new IOException("unknown column type " + type);
+        }
+    }
+
+
+    /**
+     * Returns the dictionary entry or null for negative indices.
+     */
+    private static String lookUp(String[] dictionary, int idx) throws IOException {
+        if (idx < 0) {
+            return null;
+        }
+        if (idx >= dictionary.length) {
+            throw new IOException("invalid dictionary index " + idx);
+        }
+        return dictionary[idx];
+    }
+
+
+    /**
+     * Reads a string written as length and UTF-8 bytes.
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,181 @@
+package de.mpc.pia.modeller.exporter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import de.mpc.pia.intermediate.Modification;
+import de.mpc.pia.modeller.PIAModeller;
+import de.mpc.pia.modeller.peptide.ReportPeptide;
+import de.mpc.pia.modeller.protein.ReportProtein;
+import de.mpc.pia.modeller.psm.ReportPSM;
+import de.mpc.pia.modeller.psm.ReportPSMSet;
+import de.mpc.pia.modeller.report.filter.AbstractFilter;
+import de.mpc.pia.tools.unimod.UnimodParser;
+import de.mpc.pia.tools.unimod.jaxb.ModT;
+
+
+/**
+ * Caches the data, which is needed by several exports of the same state of a
+ * {@link PIAModeller}: the filtered report lists and the Unimod modifications
+ * of the PIA modifications. All methods are thread safe and each value is
+ * computed only once, also if several exports request it concurrently. The
+ * occurrences of the peptides are taken from the
+ * {@link de.mpc.pia.intermediate.PeptideOccurrenceTable}.
+ * <p>
+ * The cache is not updated, if the modeller changes (e.g. by new filters or
+ * a new protein inference), so a new cache must be used after such changes.
+ *
+ * @author julian
+ *
+ */
+public class ExportCache {
+
+    /** the modeller, whose data is cached */
+    private final PIAModeller piaModeller;
+
+    /** the filtered report lists by their level, file ID and filters */
+    private final Map<List<Object>, List<?>> filteredLists;
+
+    /** the Unimod modifications by the {@link #getModificationKey(Modification)} */
+    private final Map<String, Optional<ModT>> unimodModifications;
+
+
+    public ExportCache(PIAModeller modeller) {
+        this.piaModeller = modeller;
+
+        this.filteredLists = new ConcurrentHashMap<>();
+        this.unimodModifications = new ConcurrentHashMap<>();
+    }
+
+
+    /**
+     * Returns the modeller, whose data is cached.
+     *
+     * @return
+     */
+    public PIAModeller getModeller() {
+        return piaModeller;
+    }
+
+
+    /**
+     * Returns the filtered PSMs of the given file, in the order of the report.
+     *
+     * @param fileID
+     * @param filters the filters, may be null
+     * @return an unmodifiable list
+     */
+    public List<ReportPSM> getFilteredReportPSMs(Long fileID, List<AbstractFilter> filters) {
+        return getFilteredList(ReportPSM.class, fileID, filters, isUnfiltered(filters),
+                () -> piaModeller.getPSMModeller().getFilteredReportPSMs(fileID, filters));
+    }
+
+
+    /**
+     * Returns the filtered PSM sets, in the order of the report.
+     *
+     * @param filters the filters, may be null
+     * @return an unmodifiable list
+     */
+    public List<ReportPSMSet> getFilteredReportPSMSets(List<AbstractFilter> filters) {
+        return getFilteredList(ReportPSMSet.class, 0L, filters, false,
+                () -> piaModeller.getPSMModeller().getFilteredReportPSMSets(filters));
+    }
+
+
+    /**
+     * Returns the filtered peptides of the given file, in the order of the
+     * report.
+     *
+     * @param fileID
+     * @param filters the filters, may be null
+     * @return an unmodifiable list
+     */
+    public List<ReportPeptide> getFilteredReportPeptides(Long fileID, List<AbstractFilter> filters) {
+        return getFilteredList(ReportPeptide.class, fileID, filters, isUnfiltered(filters),
+                () -> piaModeller.getPeptideModeller().getFilteredReportPeptides(fileID, filters));
+    }
+
+
+    /**
+     * Returns the filtered proteins, in the order of the report.
+     *
+     * @param filters the filters, may be null
+     * @return an unmodifiable list or null, if no inference was run
+     */
+    public List<ReportProtein> getFilteredReportProteins(List<AbstractFilter> filters) {
+        return getFilteredList(ReportProtein.class, 0L, filters, isUnfiltered(filters),
+                () -> piaModeller.getProteinModeller().getFilteredReportProteins(filters));
+    }
+
+
+    /**
+     * Returns the cached list for the level, file and filters or creates it
+     * with the given supplier. If the supplier returns null (e.g. if no
+     * inference was run), nothing is cached and null is returned.
+     * <p>
+     * The filtered lists of the modellers are created for each call and
+     * stored directly. Only a shared list (i.e. the modeller's own report
+     * list, which is returned without filters) is copied.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> List<T> getFilteredList(Class<T> level, Long fileID, List<AbstractFilter> filters,
+            boolean sharedList, Supplier<List<T>> filteredList) {
+        List<Object> key = Arrays.asList(level, fileID,
+                (filters != null) ? new ArrayList<>(filters) : null);
+
+        return (List<T>) filteredLists.computeIfAbsent(key, k -> {
+            List<T> list = filteredList.get();
+            if (list == null) {
+                return null;
+            }
+            return Collections.unmodifiableList(sharedList ? new ArrayList<>(list) : list);
+        });
+    }
+
+
+    /**
+     * Whether no filters are given, in which case the modellers return their
+     * report lists instead of a new filtered list.
+     */
+    private static boolean isUnfiltered(List<AbstractFilter> filters) {
+        return (filters == null) || filters.isEmpty();
+    }
+
+
+    /**
+     * Returns the Unimod modification for the given modification, as found by
+     * {@link UnimodParser#getModification(String, String, Double, String)}.
+     *
+     * @param modification
+     * @return the Unimod modification or null, if none was found
+     */
+    public ModT getUnimodModification(Modification modification) {
+        return unimodModifications.computeIfAbsent(getModificationKey(modification),
+                k -> Optional.ofNullable(UnimodParser.getInstance().getModification(
+                        modification.getAccession(),
+                        modification.getDescription(),
+                        modification.getMass(),
+                        modification.getResidue().toString())))
+                .orElse(null);
+    }
+
+
+    /**
+     * Returns the key of the given modification, using all values relevant to
+     * find the Unimod modification.
+     *
+     * @param modification
+     * @return
+     */
+    static String getModificationKey(Modification modification) {
+        return modification.getAccession() + '\t' + modification.getDescription()
+                + '\t' + modification.getMass() + '\t' + modification.getResidue();
+    }
+}
@@ -1,5 +1,6 @@
 package de.mpc.pia.modeller.exporter;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -9,13 +10,20 @@ import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
@@ -58,10 +66,67 @@ public class IdXMLExporter {
     /** type for userParam "string" */
     private static final String STRING_TYPE = "string";
 
+    /** number of threads used for the export of several files */
+    private int numThreads;
+
+    /** the cache shared with other exports, or null */
+    private ExportCache sharedExportCache;
+
 
 
     public IdXMLExporter(PIAModeller modeller) {
         this.piaModeller = modeller;
+        this.numThreads = 1;
+        this.sharedExportCache = null;
+    }
+
+
+    /**
+     * Sets the number of threads used to export several files concurrently,
+     * each file is written by one thread. If this is smaller than 1, all
+     * available threads (Runtime.getRuntime().availableProcessors()) are used.
+     * Defaults to 1.
+     *
+     * @param threads
+     */
+    public void setNrThreads(int threads) {
+        numThreads = threads;
+    }
+
+
+    /**
+     * Gets the number of threads used to export several files concurrently
+     */
+    public int getNrThreads() {
+        return numThreads;
+    }
+
+
+    /**
+     * Sets a cache, which is shared with other exports of the same modeller
+     * state, e.g. by the {@link MultiFormatExporter}. If no cache is set, each
+     * export uses its own cache.
+     *
+     * @param cache
+     */
+    public void setExportCache(ExportCache cache) {
+        sharedExportCache = cache;
+    }
+
+
+    /**
+     * Gets the cache shared with other exports, null if none is set
+     */
+    public ExportCache getExportCache() {
+        return sharedExportCache;
+    }
+
+
+    /**
+     * Returns the shared cache or a new one, if none is set.
+     */
+    private ExportCache getUsedExportCache() {
+        return (sharedExportCache != null) ? sharedExportCache : new ExportCache(piaModeller);
     }
 
 
@@ -78,9 +143,101 @@ public class IdXMLExporter {
 
     public boolean exportToIdXML(Long fileID, File exportFile,
             boolean proteinLevel, boolean filterExport) {
+        return exportToIdXML(fileID, exportFile, proteinLevel, filterExport, getUsedExportCache());
+    }
+
+
+    private boolean exportToIdXML(Long fileID, File exportFile,
+            boolean proteinLevel, boolean filterExport, ExportCache cache) {
+        boolean exportOK;
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(exportFile, false))) {
+            exportOK = exportToIdXML(fileID, out, proteinLevel, filterExport, cache);
+        } catch (IOException e) {
+            LOGGER.error("Error while trying to write to " + exportFile.getAbsolutePath(), e);
+            exportOK = false;
+        }
+
+        return exportOK;
+    }
+
+
+    /**
+     * Exports the given files into separate idXML files. The files are
+     * exported concurrently by up to {@link #getNrThreads()} threads, which
+     * share the modeller and one {@link ExportCache}. The idXML export only
+     * reads the modeller, so it must not be changed meanwhile (e.g. by an
+     * mzIdentML export, which is not run by a {@link MultiFormatExporter}).
+     *
+     * @param exportFiles mapping from the file IDs to the files, they should
+     * be exported into
+     * @param proteinLevel
+     * @param filterExport
+     * @return true, if all files were exported successfully
+     */
+    public boolean exportToIdXML(Map<Long, File> exportFiles, boolean proteinLevel,
+            boolean filterExport) {
+        ExportCache cache = getUsedExportCache();
+        int nrThreads = Math.min(ParallelRowWriter.getUsedThreads(numThreads), exportFiles.size());
+        if (nrThreads < 2) {
+            boolean exportOK = true;
+            for (Map.Entry<Long, File> exportIt : exportFiles.entrySet()) {
+                exportOK &= exportToIdXML(exportIt.getKey(), exportIt.getValue(), proteinLevel, filterExport, cache);
+            }
+            return exportOK;
+        }
+
+        LOGGER.debug("exporting " + exportFiles.size() + " files to idXML with " + nrThreads + " threads");
+        ExecutorService exportPool = Executors.newFixedThreadPool(nrThreads);
+        List<Future<Boolean>> exports = new ArrayList<>(exportFiles.size());
+        for (Map.Entry<Long, File> exportIt : exportFiles.entrySet()) {
+            exports.add(exportPool.submit(
+                    () -> exportToIdXML(exportIt.getKey(), exportIt.getValue(), proteinLevel, filterExport, cache)));
+        }
+        exportPool.shutdown();
+
+        boolean exportOK = true;
+        try {
+            for (Future<Boolean> export : exports) {
+                exportOK &= export.get();
+            }
+        } catch (InterruptedException e) {
+            LOGGER.error("Interrupted while exporting to idXML", e);
+            Thread.currentThread().interrupt();
+            exportOK = false;
+        } catch (ExecutionException e) {
+            LOGGER.error("Error while exporting to idXML", e.getCause());
+            exportOK = false;
+        } finally {
+            exportPool.shutdownNow();
+        }
+
+        return exportOK;
+    }
+
+
+    /**
+     * Exports the given file into the stream. The PeptideIdentifications are
+     * written while iterating the report, only the IDs of the ProteinHits are
+     * kept in memory. The stream is not closed.
+     *
+     * @param fileID
+     * @param out
+     * @param proteinLevel
+     * @param filterExport
+     * @return
+     */
+    public boolean exportToIdXML(Long fileID, OutputStream out,
+            boolean proteinLevel, boolean filterExport) {
+        return exportToIdXML(fileID, out, proteinLevel, filterExport, getUsedExportCache());
+    }
+
+
+    private boolean exportToIdXML(Long fileID, OutputStream out,
+            boolean proteinLevel, boolean filterExport, ExportCache cache) {
         boolean error = false;
 
-        try (OutputStream out = new FileOutputStream(exportFile, false)) {
+        try {
             // create an XMLOutputFactory
             String encoding = StandardCharsets.UTF_8.name();
             XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
@@ -123,7 +280,7 @@ public class IdXMLExporter {
             }
 
             writeIdentificationRun(streamWriter, fileID, inputFileIDToSearchParameter.get(fileID),
-                    proteinLevel, filterExport);
+                    proteinLevel, filterExport, cache);
 
             // close the idXML and the XML
             streamWriter.writeEndElement();
@@ -131,11 +288,12 @@ public class IdXMLExporter {
 
             streamWriter.flush();
             streamWriter.close();
+            out.flush();
         } catch (IOException e) {
-            LOGGER.error("Error while trying to write to " + exportFile.getAbsolutePath(), e);
+            LOGGER.error("Error while trying to write the idXML of file " + fileID, e);
             error = true;
         } catch (XMLStreamException e) {
-            LOGGER.error("Error while writing XML to " + exportFile.getAbsolutePath(), e);
+            LOGGER.error("Error while writing XML of file " + fileID, e);
             error = true;
         }
 
@@ -197,10 +355,11 @@ public class IdXMLExporter {
      * @param fileID
      * @param spId
      * @param proteinLevel
+     * @param cache
      * @throws XMLStreamException
      */
     private void writeIdentificationRun(XMLStreamWriter streamWriter, Long fileID,
-            String spId, boolean proteinLevel, boolean filterExport)
+            String spId, boolean proteinLevel, boolean filterExport, ExportCache cache)
             throws XMLStreamException {
         streamWriter.writeStartElement("IdentificationRun");
 
@@ -250,9 +409,10 @@ public class IdXMLExporter {
             filters = null;
         }
 
-        // mapping from the spectra to the identifications / PSMs
-        Map<String, List<PSMReportItem>> peptideIdentifications =
-                getPSMsForPeptideIdentifications(proteinLevel, fileID, filters);
+        // the exported PSMs, linked by their spectra
+        List<PSMReportItem> psms = getExportedPSMs(proteinLevel, fileID, filters, cache);
+        BitSet spectrumFirstPSMs = new BitSet(psms.size());
+        int[] nextPSMOfSpectrum = linkPSMsBySpectrum(psms, spectrumFirstPSMs);
 
 
         // ---- Protein Identifications ----
@@ -271,7 +431,7 @@ public class IdXMLExporter {
         List<Object[]> indistinguishableList = new ArrayList<>();
 
         if (proteinLevel) {
-            for (ReportProtein protein : piaModeller.getProteinModeller().getFilteredReportProteins(filters)) {
+            for (ReportProtein protein : cache.getFilteredReportProteins(filters)) {
                 Double qvalue = null;
                 
                 Map<String, Boolean> isDecoyMap = new HashMap<>();
@@ -295,9 +455,10 @@ public class IdXMLExporter {
             }
         }
         
-        Iterator<List<PSMReportItem>> peptideHitIter = peptideIdentifications.values().iterator();
-        while (peptideHitIter.hasNext()) {
-            for (PSMReportItem psmReportItem : peptideHitIter.next()) {
+        // the ProteinHits of all PSMs, in the order of the PeptideIdentifications
+        for (int first = spectrumFirstPSMs.nextSetBit(0); first >= 0; first = spectrumFirstPSMs.nextSetBit(first + 1)) {
+            for (int idx = first; idx >= 0; idx = nextPSMOfSpectrum[idx]) {
+                PSMReportItem psmReportItem = psms.get(idx);
                 Map<String, Boolean> isDecoyMap = new HashMap<>();
             	if (isFDRCalculated) {
 	                for (Accession acc : psmReportItem.getAccessions()) {
@@ -378,10 +539,29 @@ public class IdXMLExporter {
             }
         }
 
-        peptideHitIter = peptideIdentifications.values().iterator();
-        while (peptideHitIter.hasNext()) {
-            List<PSMReportItem> peptideHits = peptideHitIter.next();
+        // if there is decoy information, write it out
+        boolean writeDecoyInfo = false;
+        if (fileID > 0) {
+            if (piaModeller.getPSMModeller().getFileHasInternalDecoy(fileID).booleanValue() ||	// file has internal decoy info
+            		isFDRCalculated) {     														// FDR is calculated for the file
+                writeDecoyInfo = true;
+            }
+        } else {
+            if (piaModeller.getPSMModeller().isCombinedFDRScoreCalculated()) {
+                writeDecoyInfo = true;
+            }
+        }
 
+        // the additional scores and their names
+        Map<String, String> additionalScoreNames = new LinkedHashMap<>();
+        for (String scoreShort : scoreShortList) {
+            if (!scoreShort.equals(mainScoreShort)) {
+                additionalScoreNames.put(scoreShort, piaModeller.getPSMModeller().getScoreName(scoreShort));
+            }
+        }
+
+        int nrPeptideIdentifications = 0;
+        for (int first = spectrumFirstPSMs.nextSetBit(0); first >= 0; first = spectrumFirstPSMs.nextSetBit(first + 1)) {
             streamWriter.writeStartElement("PeptideIdentification");
 
             streamWriter.writeAttribute("score_type", mainScore);
@@ -390,12 +570,10 @@ public class IdXMLExporter {
             streamWriter.writeAttribute("significance_threshold", "0");
 
 
-            ListIterator<PSMReportItem> psmIter = peptideHits.listIterator();
-
-            while (psmIter.hasNext()) {
-                PSMReportItem psm = psmIter.next();
+            for (int idx = first; idx >= 0; idx = nextPSMOfSpectrum[idx]) {
+                PSMReportItem psm = psms.get(idx);
 
-                if (psmIter.previousIndex() == 0) {
+                if (idx == first) {
                     // this is the first, add RT and MZ to PeptideIdentification
                     streamWriter.writeAttribute("MZ", Double.toString(psm.getMassToCharge()));
                     
@@ -430,41 +608,25 @@ public class IdXMLExporter {
                     streamWriter.writeAttribute("protein_refs", sbProteinRefs.toString().trim());
                 }
 
-                // if there is decoy information, write it out
-                boolean writeDecoyInfo = false;
-                if (fileID > 0) {
-                    if (piaModeller.getPSMModeller().getFileHasInternalDecoy(fileID).booleanValue() ||	// file has internal decoy info
-                    		isFDRCalculated) {     														// FDR is calculated for the file
-                        writeDecoyInfo = true;
-                    }
-                } else {
-                    if (piaModeller.getPSMModeller().isCombinedFDRScoreCalculated()) {
-                        writeDecoyInfo = true;
-                    }
-                }
                 if (writeDecoyInfo) {
                 	writeTargetDecoyUserParam(streamWriter, psm.getIsDecoy());
                 }
 
                 // write additional scores
-                for (String scoreShort : scoreShortList) {
-                    if (scoreShort.equals(mainScoreShort)) {
-                        continue;
-                    }
-
-                    String scoreName = piaModeller.getPSMModeller().getScoreName(scoreShort);
-                    writeUserParam(streamWriter, scoreName, "float", psm.getScore(scoreShort).toString(),
-                            null, null, null);
+                for (Map.Entry<String, String> scoreIt : additionalScoreNames.entrySet()) {
+                    writeUserParam(streamWriter, scoreIt.getValue(), "float",
+                            psm.getScore(scoreIt.getKey()).toString(), null, null, null);
                 }
 
                 streamWriter.writeEndElement();
             }
 
             streamWriter.writeEndElement(); // PeptideIdentification
+            nrPeptideIdentifications++;
         }
 
 
-        LOGGER.debug("peptides: " + peptideIdentifications.size());
+        LOGGER.debug("peptides: " + nrPeptideIdentifications);
 
         streamWriter.writeEndElement(); // IdentificationRun
     }
@@ -549,29 +711,51 @@ public class IdXMLExporter {
 
 
     /**
-     * sorts the PSMs by their spectra to use them for the export to idXML'x
-     * PeptideIdentifications.
+     * Returns the PSMs or PSM sets, which are exported, as a list with random
+     * access.
      *
      * @param proteinLevel
      * @param fileID
      * @param filters
+     * @param cache
      * @return
      */
-    private Map<String, List<PSMReportItem>> getPSMsForPeptideIdentifications(
-            boolean proteinLevel, Long fileID, List<AbstractFilter> filters) {
-        Map<String, List<PSMReportItem>> peptideIdentifications = new HashMap<>();
-
-        Map<String, Boolean> psmSetSettings = piaModeller.getPSMModeller().getPSMSetSettings();
-
-        ListIterator<?> psmIter;
+    private static List<PSMReportItem> getExportedPSMs(boolean proteinLevel, Long fileID,
+            List<AbstractFilter> filters, ExportCache cache) {
+        List<? extends PSMReportItem> psms;
         if (proteinLevel || (fileID < 1)) {
-            psmIter = piaModeller.getPSMModeller().getFilteredReportPSMSets(filters).listIterator();
+            psms = cache.getFilteredReportPSMSets(filters);
         } else {
-            psmIter = piaModeller.getPSMModeller().getFilteredReportPSMs(fileID, filters).listIterator();
+            psms = cache.getFilteredReportPSMs(fileID, filters);
         }
 
-        while (psmIter.hasNext()) {
-            PSMReportItem psm = (PSMReportItem)psmIter.next();
+        if (psms instanceof RandomAccess) {
+            return Collections.unmodifiableList(psms);
+        }
+        return new ArrayList<>(psms);
+    }
+
+
+    /**
+     * Links the PSMs by their spectra to use them for the export to idXML's
+     * PeptideIdentifications. Instead of collecting the PSMs of each spectrum
+     * in separate lists, only the index of the next PSM of the same spectrum
+     * is stored for each PSM (or -1 for the last PSM of a spectrum). The
+     * indices of the first PSMs of the spectra are set in spectrumFirstPSMs,
+     * so the spectra are exported in the order of the report.
+     *
+     * @param psms
+     * @param spectrumFirstPSMs will be filled with the first PSM of each spectrum
+     * @return the index of the next PSM of the same spectrum for each PSM
+     */
+    private int[] linkPSMsBySpectrum(List<PSMReportItem> psms, BitSet spectrumFirstPSMs) {
+        Map<String, Boolean> psmSetSettings = piaModeller.getPSMModeller().getPSMSetSettings();
+
+        int[] nextPSMOfSpectrum = new int[psms.size()];
+        Map<String, Integer> lastPSMOfSpectrum = new HashMap<>();
+
+        for (int idx = 0; idx < psms.size(); idx++) {
+            PSMReportItem psm = psms.get(idx);
 
             // get the identifier of the spectrum (NOT the PSM)
             String spectrumIdKey = null;
@@ -581,14 +765,16 @@ public class IdXMLExporter {
                 spectrumIdKey = ((ReportPSMSet) psm).getPSMs().get(0).getSpectrum().getSpectrumIdentificationKey(psmSetSettings);
             }
 
-            if (!peptideIdentifications.containsKey(spectrumIdKey)) {
-                peptideIdentifications.put(spectrumIdKey, new ArrayList<>());
+            nextPSMOfSpectrum[idx] = -1;
+            Integer lastIdx = lastPSMOfSpectrum.put(spectrumIdKey, idx);
+            if (lastIdx == null) {
+                spectrumFirstPSMs.set(idx);
+            } else {
+                nextPSMOfSpectrum[lastIdx] = idx;
             }
-
-            peptideIdentifications.get(spectrumIdKey).add(psm);
         }
 
-        return peptideIdentifications;
+        return nextPSMOfSpectrum;
     }
 
 
@@ -0,0 +1,241 @@
+package de.mpc.pia.modeller.exporter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import org.apache.log4j.Logger;
+
+import de.mpc.pia.modeller.PIAModeller;
+
+
+/**
+ * Exports the same state of a {@link PIAModeller} into several formats at
+ * once. The exports are collected first and run concurrently by
+ * {@link #export()}, each writing into its own stream. All exports share one
+ * {@link ExportCache}, so the filtered report lists and the Unimod
+ * modifications are computed only once. The streams are closed after the
+ * exports.
+ * <p>
+ * The exports only read the modeller: the mzIdentML export completes copies
+ * of the inputs and protocols, and the refinement of the shared enzymes and
+ * modifications is done once before the exports start. The modeller must not
+ * be changed while the exports run.
+ *
+ * @author julian
+ *
+ */
+public class MultiFormatExporter {
+
+    /** logger for this class */
+    private static final Logger LOGGER = Logger.getLogger(MultiFormatExporter.class);
+
+
+    /** the modeller, that should be exported */
+    private PIAModeller piaModeller;
+
+    /** the collected exports */
+    private List<Export> exports;
+
+    /** the number of threads running the exports */
+    private int numThreads;
+
+    /** whether an mzIdentML export is collected, which needs the refined protocols */
+    private boolean hasMzIdentMLExport;
+
+
+    /**
+     * A collected export, which runs with the shared cache.
+     */
+    private static class Export {
+        private final String description;
+
+        private final Function<ExportCache, Boolean> exportCall;
+
+        private Export(String description, Function<ExportCache, Boolean> exportCall) {
+            this.description = description;
+            this.exportCall = exportCall;
+        }
+    }
+
+
+    public MultiFormatExporter(PIAModeller modeller) {
+        this.piaModeller = modeller;
+        this.exports = new ArrayList<>();
+        this.numThreads = 0;
+        this.hasMzIdentMLExport = false;
+    }
+
+
+    /**
+     * Sets the number of threads running the exports, each export is run by
+     * one thread. If this is smaller than 1, all available threads
+     * (Runtime.getRuntime().availableProcessors()) are used. Defaults to 0.
+     *
+     * @param threads
+     */
+    public void setNrThreads(int threads) {
+        numThreads = threads;
+    }
+
+
+    /**
+     * Gets the number of threads running the exports
+     */
+    public int getNrThreads() {
+        return numThreads;
+    }
+
+
+    /**
+     * Returns the number of collected exports, which are not yet run.
+     *
+     * @return
+     */
+    public int getNrExports() {
+        return exports.size();
+    }
+
+
+    /**
+     * Adds an export to CSV into the given stream. The returned exporter may
+     * be used for further settings (e.g. the separator) before calling
+     * {@link #export()}.
+     *
+     * @return the exporter used for this export
+     */
+    public CSVExporter addCSVExport(Long fileID, OutputStream exportStream,
+            boolean psmLevel, boolean peptideLevel, boolean proteinLevel,
+            boolean filterExport) {
+        CSVExporter exporter = new CSVExporter(piaModeller);
+        exports.add(new Export("CSV of file " + fileID, cache -> {
+            exporter.setExportCache(cache);
+            return exporter.exportToCSV(fileID, exportStream, psmLevel, peptideLevel, proteinLevel, filterExport);
+        }));
+        return exporter;
+    }
+
+
+    /**
+     * Adds an export to mzTab into the given stream. The returned exporter may
+     * be used for further settings before calling {@link #export()}.
+     *
+     * @return the exporter used for this export
+     */
+    public MzTabExporter addMzTabExport(Long fileID, OutputStream exportStream,
+            boolean proteinLevel, boolean peptideLevelStatistics, boolean filterExport) {
+        MzTabExporter exporter = new MzTabExporter(piaModeller);
+        exports.add(new Export("mzTab of file " + fileID, cache -> {
+            exporter.setExportCache(cache);
+            return exporter.exportToMzTab(fileID, exportStream, proteinLevel, peptideLevelStatistics, filterExport);
+        }));
+        return exporter;
+    }
+
+
+    /**
+     * Adds an export to mzIdentML into the given stream. The returned exporter
+     * may be used for further settings (e.g. the streamed export) before
+     * calling {@link #export()}.
+     *
+     * @return the exporter used for this export
+     */
+    public MzIdentMLExporter addMzIdentMLExport(Long fileID, OutputStream exportStream,
+            boolean proteinLevel, boolean filterExport) {
+        MzIdentMLExporter exporter = new MzIdentMLExporter(piaModeller);
+        hasMzIdentMLExport = true;
+        exports.add(new Export("mzIdentML of file " + fileID, cache -> {
+            exporter.setExportCache(cache);
+            return exporter.exportToMzIdentML(fileID, exportStream, proteinLevel, filterExport);
+        }));
+        return exporter;
+    }
+
+
+    /**
+     * Adds an export to idXML into the given stream.
+     *
+     * @return the exporter used for this export
+     */
+    public IdXMLExporter addIdXMLExport(Long fileID, OutputStream exportStream,
+            boolean proteinLevel, boolean filterExport) {
+        IdXMLExporter exporter = new IdXMLExporter(piaModeller);
+        exports.add(new Export("idXML of file " + fileID, cache -> {
+            exporter.setExportCache(cache);
+            boolean exportOK = exporter.exportToIdXML(fileID, exportStream, proteinLevel, filterExport);
+            try {
+                exportStream.close();
+            } catch (IOException e) {
+                LOGGER.error("Could not close the stream of the idXML export", e);
+                exportOK = false;
+            }
+            return exportOK;
+        }));
+        return exporter;
+    }
+
+
+    /**
+     * Runs all collected exports concurrently with one shared
+     * {@link ExportCache}. Afterwards, the collected exports are cleared.
+     *
+     * @return true, if all exports were successful
+     */
+    public boolean export() {
+        if (exports.isEmpty()) {
+            return true;
+        }
+
+        ExportCache cache = new ExportCache(piaModeller);
+        List<Export> runExports = exports;
+        exports = new ArrayList<>();
+
+        if (hasMzIdentMLExport) {
+            // refine the shared elements before, so the concurrent exports only read them
+            new MzIdentMLExporter(piaModeller).refineSharedProtocols();
+            hasMzIdentMLExport = false;
+        }
+
+        int nrThreads = Math.min(ParallelRowWriter.getUsedThreads(numThreads), runExports.size());
+        LOGGER.info("running " + runExports.size() + " exports with " + nrThreads + " threads");
+
+        ExecutorService exportPool = Executors.newFixedThreadPool(nrThreads);
+        List<Future<Boolean>> results = new ArrayList<>(runExports.size());
+        for (Export export : runExports) {
+            results.add(exportPool.submit(() -> export.exportCall.apply(cache)));
+        }
+        exportPool.shutdown();
+
+        boolean exportOK = true;
+        try {
+            for (int idx = 0; idx < results.size(); idx++) {
+                boolean resultOK;
+                try {
+                    resultOK = results.get(idx).get();
+                } catch (ExecutionException e) {
+                    LOGGER.error("Error while exporting " + runExports.get(idx).description, e.getCause());
+                    resultOK = false;
+                }
+
+                if (!resultOK) {
+                    LOGGER.error("Export of " + runExports.get(idx).description + " failed");
+                    exportOK = false;
+                }
+            }
+        } catch (InterruptedException e) {
+            LOGGER.error("Interrupted while running the exports", e);
+            Thread.currentThread().interrupt();
+            exportOK = false;
+        } finally {
+            exportPool.shutdownNow();
+        }
+
+        return exportOK;
+    }
+}
@@ -8,6 +8,8 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -19,9 +21,9 @@ import java.util.stream.Collectors;
 import org.apache.log4j.Logger;
 
 import de.mpc.pia.intermediate.Accession;
-import de.mpc.pia.intermediate.AccessionOccurrence;
 import de.mpc.pia.intermediate.Modification;
 import de.mpc.pia.intermediate.PIAInputFile;
+import de.mpc.pia.intermediate.PeptideOccurrenceTable;
 import de.mpc.pia.intermediate.PeptideSpectrumMatch;
 import de.mpc.pia.modeller.IdentificationKeySettings;
 import de.mpc.pia.modeller.PIAModeller;
@@ -52,10 +54,12 @@ import uk.ac.ebi.jmzidml.model.mzidml.AnalysisSoftwareList;
 import uk.ac.ebi.jmzidml.model.mzidml.CvList;
 import uk.ac.ebi.jmzidml.model.mzidml.CvParam;
 import uk.ac.ebi.jmzidml.model.mzidml.DBSequence;
+import uk.ac.ebi.jmzidml.model.mzidml.Enzymes;
 import uk.ac.ebi.jmzidml.model.mzidml.FileFormat;
 import uk.ac.ebi.jmzidml.model.mzidml.InputSpectra;
 import uk.ac.ebi.jmzidml.model.mzidml.InputSpectrumIdentifications;
 import uk.ac.ebi.jmzidml.model.mzidml.Inputs;
+import uk.ac.ebi.jmzidml.model.mzidml.ModificationParams;
 import uk.ac.ebi.jmzidml.model.mzidml.Param;
 import uk.ac.ebi.jmzidml.model.mzidml.ParamList;
 import uk.ac.ebi.jmzidml.model.mzidml.Peptide;
@@ -131,6 +135,30 @@ public class MzIdentMLExporter {
     /** the exported {@link SpectrumIdentificationResult}s */
     private Map<String, SpectrumIdentificationResult> sirMap;
 
+    /** whether the sequence collection and spectrum identification results are streamed into the file */
+    private boolean streamExport;
+
+    /** the cache shared with other exports, or null */
+    private ExportCache sharedExportCache;
+
+    /** the cache of the current export */
+    private ExportCache exportCache;
+
+    /** the IDs (accessions) of the already streamed {@link DBSequence}s */
+    private Set<String> streamedSequenceIDs;
+
+    /** the IDs of the already streamed {@link Peptide}s */
+    private Set<String> streamedPeptideIDs;
+
+    /** the IDs of the already streamed {@link PeptideEvidence}s */
+    private Set<String> streamedPeptideEvidenceIDs;
+
+    /** the PSMs, which are streamed into the {@link SpectrumIdentificationList} */
+    private List<PSMReportItem> streamedPSMItems;
+
+    /** whether the streamed PSMs are filtered */
+    private boolean streamedFilterPSMs;
+
 
     /** prefix for a protein group in the mzIdentML */
     private static final String PROTEIN_AMBIGUITY_GROUP_PREFIX = "PAG_";
@@ -147,6 +175,9 @@ public class MzIdentMLExporter {
     /** prefix for a DBSequence in the mzIdentML */
     private static final String DBSEQUENCE_PREFIX = "DBSeq_";
 
+    /** the ID of the exported {@link SpectrumIdentificationList} */
+    private static final String SPECTRUM_IDENTIFICATION_LIST_ID = "spectrum_identification_list";
+
     /** the PSMSetSettings for the {@link SpectrumIdentificationResult}s in mzIdentML export */
     private static final Map<String, Boolean> SPECTRUM_IDENTIFICATION_RESULT_PSM_SET_SETTINGS;
 
@@ -169,6 +200,52 @@ public class MzIdentMLExporter {
     public MzIdentMLExporter(PIAModeller modeller) {
         this.piaModeller = modeller;
         this.unimodParser = null;
+        this.streamExport = false;
+        this.sharedExportCache = null;
+    }
+
+
+    /**
+     * Sets whether the export is streamed. In the streamed export, the
+     * {@link DBSequence}s, {@link Peptide}s and {@link PeptideEvidence}s are
+     * written in a first pass over the PSMs and the
+     * {@link SpectrumIdentificationResult}s one by one in a second pass. Only
+     * the IDs of the written elements are kept, instead of the complete
+     * object graph of the file. The order of the elements in the file may
+     * differ from the not streamed export.
+     *
+     * @param stream
+     */
+    public void setStreamExport(boolean stream) {
+        this.streamExport = stream;
+    }
+
+
+    /**
+     * Gets whether the export is streamed.
+     */
+    public boolean getStreamExport() {
+        return streamExport;
+    }
+
+
+    /**
+     * Sets a cache, which is shared with other exports of the same modeller
+     * state, e.g. by the {@link MultiFormatExporter}. If no cache is set, each
+     * export uses its own cache.
+     *
+     * @param cache
+     */
+    public void setExportCache(ExportCache cache) {
+        sharedExportCache = cache;
+    }
+
+
+    /**
+     * Gets the cache shared with other exports, null if none is set
+     */
+    public ExportCache getExportCache() {
+        return sharedExportCache;
     }
 
 
@@ -225,7 +302,8 @@ public class MzIdentMLExporter {
         LOGGER.info("start writing mzIdentML file");
 
         outWriter = new BufferedWriter(exportWriter);
-        unimodParser = new UnimodParser();
+        unimodParser = UnimodParser.getInstance();
+        exportCache = (sharedExportCache != null) ? sharedExportCache : new ExportCache(piaModeller);
         mzidMarshaller = new MzIdentMLMarshaller(); // the reading of 1.2 is broken right now... MzIdentMLVersion.Version_1_2);
 
         piaAnalysisSoftware = MzIdentMLTools.getPIAAnalysisSoftware();
@@ -243,6 +321,10 @@ public class MzIdentMLExporter {
             peptideMap = new HashMap<>();
             pepEvidenceMap = new HashMap<>();
 
+            streamedSequenceIDs = new HashSet<>();
+            streamedPeptideIDs = new HashSet<>();
+            streamedPeptideEvidenceIDs = new HashSet<>();
+
             if (exportProteinLevel
                     && (piaModeller.getProteinModeller().getAppliedProteinInference() == null)) {
                 exportProteinLevel = false;
@@ -284,8 +366,12 @@ public class MzIdentMLExporter {
             outWriter.write(mzidMarshaller.createAnalysisDataStartTag() + '\n');
 
             // write out the spectrum identification lists
-            mzidMarshaller.marshal(siList, outWriter);
-            outWriter.write("\n");
+            if (streamExport) {
+                writeStreamedSpectrumIdentificationList();
+            } else {
+                mzidMarshaller.marshal(siList, outWriter);
+                outWriter.write("\n");
+            }
 
             // write out the protein detection list
             if (exportProteinLevel) {
@@ -306,6 +392,12 @@ public class MzIdentMLExporter {
         } catch (IOException e) {
             LOGGER.error("Error writing mzIdentML file", e);
         } finally {
+            streamedPSMItems = null;
+            streamedSequenceIDs = null;
+            streamedPeptideIDs = null;
+            streamedPeptideEvidenceIDs = null;
+            exportCache = null;
+
             try {
                 outWriter.close();
             } catch (IOException e) {
@@ -366,6 +458,18 @@ public class MzIdentMLExporter {
         // get the PSMReportItems for the file, but do not filter for protein export
         List<PSMReportItem> psmItems = getExportFilesPSMItems(filterPSMs && !forProteinExport);
 
+        if (streamExport) {
+            // only the reference of the SpectrumIdentificationList is needed before the SIRs are streamed
+            siList = new SpectrumIdentificationList();
+            siList.setId(SPECTRUM_IDENTIFICATION_LIST_ID);
+
+            streamedPSMItems = psmItems;
+            streamedFilterPSMs = filterPSMs && !forProteinExport;
+
+            writeStreamedSequenceCollection(psmItems, dbsInFiles);
+            return;
+        }
+
         // TODO: get the "representative score" for score ranking (in SIR)
         String rankScoreShort = null;
 
@@ -396,7 +500,10 @@ public class MzIdentMLExporter {
 
 
     /**
-     * Creates and populates the {@link Inputs} element for the exported file
+     * Creates and populates the {@link Inputs} element for the exported file.
+     * The {@link SpectraData} and {@link SearchDatabase}s are copies of the
+     * modeller's elements, as they are refined for the export, while other
+     * exports may read the modeller's elements concurrently.
      */
     private void createInputs() {
         inputs = new Inputs();
@@ -424,8 +531,12 @@ public class MzIdentMLExporter {
             databases.addAll(piaModeller.getSearchDatabases().values());
         }
 
-        inputs.getSpectraData().addAll(spectraData);
-        inputs.getSearchDatabase().addAll(databases);
+        inputs.getSpectraData().addAll(spectraData.stream()
+                .map(MzIdentMLExporter::copySpectraData)
+                .collect(Collectors.toList()));
+        inputs.getSearchDatabase().addAll(databases.stream()
+                .map(MzIdentMLExporter::copySearchDatabase)
+                .collect(Collectors.toList()));
 
         // add the PIA XML file as additional SourceFile
         SourceFile sourceFile = new SourceFile();
@@ -440,6 +551,51 @@ public class MzIdentMLExporter {
     }
 
 
+    /**
+     * Creates a shallow copy of the given {@link SpectraData}, which may be
+     * refined without changing the original.
+     */
+    private static SpectraData copySpectraData(SpectraData original) {
+        if (original == null) {
+            return null;
+        }
+
+        SpectraData copy = new SpectraData();
+        copy.setId(original.getId());
+        copy.setName(original.getName());
+        copy.setLocation(original.getLocation());
+        copy.setExternalFormatDocumentation(original.getExternalFormatDocumentation());
+        copy.setFileFormat(original.getFileFormat());
+        copy.setSpectrumIDFormat(original.getSpectrumIDFormat());
+        return copy;
+    }
+
+
+    /**
+     * Creates a shallow copy of the given {@link SearchDatabase} with its own
+     * list of cvParams, which may be refined without changing the original.
+     */
+    private static SearchDatabase copySearchDatabase(SearchDatabase original) {
+        if (original == null) {
+            return null;
+        }
+
+        SearchDatabase copy = new SearchDatabase();
+        copy.setId(original.getId());
+        copy.setName(original.getName());
+        copy.setLocation(original.getLocation());
+        copy.setExternalFormatDocumentation(original.getExternalFormatDocumentation());
+        copy.setFileFormat(original.getFileFormat());
+        copy.setDatabaseName(original.getDatabaseName());
+        copy.setNumDatabaseSequences(original.getNumDatabaseSequences());
+        copy.setNumResidues(original.getNumResidues());
+        copy.setReleaseDate(original.getReleaseDate());
+        copy.setVersion(original.getVersion());
+        copy.getCvParam().addAll(original.getCvParam());
+        return copy;
+    }
+
+
     /**
      * Getter for the {@link PIAInputFile}s, that are
      * @return
@@ -492,11 +648,12 @@ public class MzIdentMLExporter {
 
                 if ((exportFileID > 0)
                         || (piaModeller.getFiles().size() == 1)) {
-                    // export for one single input protocol only
-                    analysisCollection.getSpectrumIdentification().add(specID);
+                    // export for one single input protocol only, use copies as these are completed for the export
+                    SpectrumIdentification exportedSpecID = copySpectrumIdentification(specID);
+                    analysisCollection.getSpectrumIdentification().add(exportedSpecID);
 
                     analysisProtocolCollection.getSpectrumIdentificationProtocol().add(
-                            specID.getSpectrumIdentificationProtocol());
+                            exportedSpecID.getSpectrumIdentificationProtocol());
                 }
             }
         }
@@ -505,22 +662,86 @@ public class MzIdentMLExporter {
     }
 
 
+    /**
+     * Creates a shallow copy of the given {@link SpectrumIdentification} with
+     * a copy of its protocol, which may be completed for the export without
+     * changing the modeller's elements.
+     */
+    private static SpectrumIdentification copySpectrumIdentification(SpectrumIdentification original) {
+        SpectrumIdentification copy = new SpectrumIdentification();
+        copy.setId(original.getId());
+        copy.setName(original.getName());
+        copy.setActivityDate(original.getActivityDate());
+        copy.setSpectrumIdentificationList(original.getSpectrumIdentificationList());
+        copy.getInputSpectra().addAll(original.getInputSpectra());
+        copy.getSearchDatabaseRef().addAll(original.getSearchDatabaseRef());
+
+        SpectrumIdentificationProtocol protocol = original.getSpectrumIdentificationProtocol();
+        if (protocol != null) {
+            copy.setSpectrumIdentificationProtocol(copySpectrumIdentificationProtocol(protocol));
+        }
+        return copy;
+    }
+
+
+    /**
+     * Creates a shallow copy of the given {@link SpectrumIdentificationProtocol}
+     * with own lists for the additional search params and the threshold, as
+     * these are extended for the export.
+     */
+    private static SpectrumIdentificationProtocol copySpectrumIdentificationProtocol(
+            SpectrumIdentificationProtocol original) {
+        SpectrumIdentificationProtocol copy = new SpectrumIdentificationProtocol();
+        copy.setId(original.getId());
+        copy.setName(original.getName());
+        copy.setAnalysisSoftware(original.getAnalysisSoftware());
+        copy.setSearchType(original.getSearchType());
+        copy.setAdditionalSearchParams(copyParamList(original.getAdditionalSearchParams()));
+        copy.setModificationParams(original.getModificationParams());
+        copy.setEnzymes(original.getEnzymes());
+        copy.getMassTable().addAll(original.getMassTable());
+        copy.setFragmentTolerance(original.getFragmentTolerance());
+        copy.setParentTolerance(original.getParentTolerance());
+        copy.setThreshold(copyParamList(original.getThreshold()));
+        copy.setDatabaseFilters(original.getDatabaseFilters());
+        copy.setDatabaseTranslation(original.getDatabaseTranslation());
+        return copy;
+    }
+
+
+    /**
+     * Copies the params of the given {@link ParamList} into a new list, null
+     * if null is given.
+     */
+    private static ParamList copyParamList(ParamList original) {
+        if (original == null) {
+            return null;
+        }
+
+        ParamList copy = new ParamList();
+        copy.getCvParam().addAll(original.getCvParam());
+        copy.getUserParam().addAll(original.getUserParam());
+        return copy;
+    }
+
+
     /**
      * Create the {@link SpectrumIdentificationList} for the export.
      *
      * @param psmItems
      * @param dbsInFiles
      * @param filterPSMs
+     * @throws IOException
      */
     private void createSpectrumIdentificationList(
             List<PSMReportItem> psmItems,
             Map<String, Set<Long>> dbsInFiles,
             String rankScoreShort,
-            Boolean filterPSMs) {
+            Boolean filterPSMs) throws IOException {
 
         siList = new SpectrumIdentificationList();
 
-        siList.setId("spectrum_identification_list");
+        siList.setId(SPECTRUM_IDENTIFICATION_LIST_ID);
 
         sirMap = new HashMap<>();
 
@@ -533,8 +754,7 @@ public class MzIdentMLExporter {
 
             // then build the peptide evidences
             for (Accession accession : psm.getAccessions()) {
-                putIntoPeptideEvidenceMap(accession, peptide, pepId, psm.getIsDecoy(),
-                        psm.getPeptide().getAccessionOccurrences(), dbsInFiles);
+                putIntoPeptideEvidenceMap(accession, peptide, pepId, psm, dbsInFiles);
             }
 
 
@@ -545,6 +765,111 @@ public class MzIdentMLExporter {
     }
 
 
+    /**
+     * Writes the {@link SequenceCollection} of the streamed export. The
+     * {@link DBSequence}s, {@link Peptide}s and {@link PeptideEvidence}s are
+     * written in separate iterations over the PSMs (as the schema requires this
+     * order), only their IDs are kept.
+     *
+     * @param psmItems
+     * @param dbsInFiles
+     * @throws IOException
+     */
+    private void writeStreamedSequenceCollection(List<PSMReportItem> psmItems,
+            Map<String, Set<Long>> dbsInFiles) throws IOException {
+        outWriter.write(mzidMarshaller.createSequenceCollectionStartTag() + '\n');
+
+        for (PSMReportItem psm : psmItems) {
+            for (Accession accession : psm.getAccessions()) {
+                if (streamedSequenceIDs.add(accession.getAccession())) {
+                    mzidMarshaller.marshal(createDBSequence(accession, dbsInFiles), outWriter);
+                    outWriter.write("\n");
+                }
+            }
+        }
+
+        for (PSMReportItem psm : psmItems) {
+            String pepId = psm.getPeptideStringID(true);
+            if (streamedPeptideIDs.add(pepId)) {
+                mzidMarshaller.marshal(createPeptide(psm, PEPTIDE_PREFIX + pepId), outWriter);
+                outWriter.write("\n");
+            }
+        }
+
+        for (PSMReportItem psm : psmItems) {
+            String pepId = psm.getPeptideStringID(true);
+            Peptide peptide = getPeptideReference(pepId);
+
+            for (Accession accession : psm.getAccessions()) {
+                putIntoPeptideEvidenceMap(accession, peptide, pepId, psm, dbsInFiles);
+            }
+        }
+
+        outWriter.write(mzidMarshaller.createSequenceCollectionClosingTag() + '\n');
+
+        LOGGER.info("streamed " + streamedSequenceIDs.size() + " DBSequences, "
+                + streamedPeptideIDs.size() + " peptides and "
+                + streamedPeptideEvidenceIDs.size() + " peptide evidences");
+    }
+
+
+    /**
+     * Writes the {@link SpectrumIdentificationList} of the streamed export.
+     * The PSMs are visited sorted by the key of their
+     * {@link SpectrumIdentificationResult} (and in report order within a
+     * result), so each result is created and written on its own, as soon as
+     * the key changes.
+     *
+     * @throws IOException
+     */
+    private void writeStreamedSpectrumIdentificationList() throws IOException {
+        // TODO: get the "representative score" for score ranking (in SIR)
+        String rankScoreShort = null;
+
+        String[] sirKeys = new String[streamedPSMItems.size()];
+        Integer[] psmOrder = new Integer[sirKeys.length];
+        for (int idx = 0; idx < sirKeys.length; idx++) {
+            sirKeys[idx] = getSIRKey(streamedPSMItems.get(idx));
+            psmOrder[idx] = idx;
+        }
+        Arrays.sort(psmOrder, Comparator.comparing(idx -> sirKeys[idx]));
+
+        outWriter.write(mzidMarshaller.createSpectrumIdentificationListStartTag(
+                SPECTRUM_IDENTIFICATION_LIST_ID, null, null) + '\n');
+
+        sirMap = new HashMap<>();
+        String lastKey = null;
+        for (int idx : psmOrder) {
+            if ((lastKey != null) && !lastKey.equals(sirKeys[idx])) {
+                writeStreamedSpectrumIdentificationResults();
+            }
+            lastKey = sirKeys[idx];
+
+            PSMReportItem psm = streamedPSMItems.get(idx);
+            putPsmInSpectrumIdentificationResultMap(psm, psm.getPeptideStringID(true),
+                    rankScoreShort, streamedFilterPSMs);
+        }
+        writeStreamedSpectrumIdentificationResults();
+
+        outWriter.write(mzidMarshaller.createSpectrumIdentificationListClosingTag() + '\n');
+    }
+
+
+    /**
+     * Writes the currently created {@link SpectrumIdentificationResult}s of
+     * the streamed export and clears them.
+     *
+     * @throws IOException
+     */
+    private void writeStreamedSpectrumIdentificationResults() throws IOException {
+        for (SpectrumIdentificationResult sir : sirMap.values()) {
+            mzidMarshaller.marshal(sir, outWriter);
+            outWriter.write("\n");
+        }
+        sirMap.clear();
+    }
+
+
     /**
      * Getter for the {@link PSMReportItem}s of the exported file. If filterPSMs
      * is true, the PSMs are filtered by the filters given for the file.
@@ -563,11 +888,11 @@ public class MzIdentMLExporter {
 
         if (exportFileID == 0) {
             psmItems = new ArrayList<>(
-                    piaModeller.getPSMModeller().getFilteredReportPSMSets(filters));
+                    exportCache.getFilteredReportPSMSets(filters));
         } else {
 
             psmItems = new ArrayList<>(
-                    piaModeller.getPSMModeller().getFilteredReportPSMs(exportFileID, filters));
+                    exportCache.getFilteredReportPSMs(exportFileID, filters));
         }
 
         return psmItems;
@@ -591,11 +916,7 @@ public class MzIdentMLExporter {
                 : psm.getModifications().entrySet()) {
             uk.ac.ebi.jmzidml.model.mzidml.Modification mod;
 
-            ModT uniMod = unimodParser.getModification(
-                    modIt.getValue().getAccession(),
-                    modIt.getValue().getDescription(),
-                    modIt.getValue().getMass(),
-                    modIt.getValue().getResidue().toString());
+            ModT uniMod = exportCache.getUnimodModification(modIt.getValue());
 
             if (uniMod != null) {
                 mod = unimodParser.createModification(uniMod,
@@ -627,62 +948,93 @@ public class MzIdentMLExporter {
 
 
     /**
-     * Creates a {@link PeptideEvidence} for the given accession and PSM.
+     * Creates a {@link PeptideEvidence} for the given accession and PSM, if it
+     * was not yet created. In the streamed export, it is written directly.
      *
      * @param accession
      * @param peptide
      * @param peptideId
-     * @param isDecoy
-     * @param accessionOccurrences
+     * @param psm
      * @param dbsInFiles
+     * @throws IOException
      */
     private void putIntoPeptideEvidenceMap(Accession accession, Peptide peptide,
-            String peptideId, Boolean isDecoy, Set<AccessionOccurrence> accessionOccurrences,
-            Map<String, Set<Long>> dbsInFiles) {
-        boolean foundOccurrence = false;
-
-        for (AccessionOccurrence occurrence : accessionOccurrences) {
-            // look if occurrences are given in the compilation
-            if (accession.getAccession().equals(occurrence.getAccession().getAccession())) {
-                String evidenceID = createPeptideEvidenceID(
-                        peptideId,
-                        occurrence.getStart(),
-                        occurrence.getEnd(),
-                        accession);
-
-                if (!pepEvidenceMap.containsKey(evidenceID)) {
-                    PeptideEvidence pepEvi = createPeptideEvidence(evidenceID,
-                            occurrence.getStart(),
-                            occurrence.getEnd(),
-                            isDecoy,
-                            peptide,
-                            accession,
-                            dbsInFiles);
-
-                    pepEvidenceMap.put(evidenceID, pepEvi);
-                }
-                foundOccurrence = true;
+            String peptideId, PSMReportItem psm,
+            Map<String, Set<Long>> dbsInFiles) throws IOException {
+        PeptideOccurrenceTable occurrences = getOccurrenceTable(psm.getPeptide());
+        long piaPeptideID = psm.getPeptide().getID();
+        int rowsStart = occurrences.getRowsStart(piaPeptideID, accession.getID());
+        int rowsEnd = occurrences.getRowsEnd(piaPeptideID, accession.getID());
+
+        for (int row = rowsStart; row < rowsEnd; row++) {
+            // occurrences are given in the compilation
+            String evidenceID = createPeptideEvidenceID(
+                    peptideId,
+                    occurrences.getStart(row),
+                    occurrences.getEnd(row),
+                    accession);
+
+            if (!isPeptideEvidenceCreated(evidenceID)) {
+                PeptideEvidence pepEvi = createPeptideEvidence(evidenceID,
+                        occurrences.getStart(row),
+                        occurrences.getEnd(row),
+                        occurrences.getPre(row),
+                        occurrences.getPost(row),
+                        psm.getIsDecoy(),
+                        peptide,
+                        accession,
+                        dbsInFiles);
+
+                storePeptideEvidence(pepEvi);
             }
         }
 
-        if (!foundOccurrence) {
+        if (rowsStart == rowsEnd) {
             // no occurrence given for this accessione, so create peptideEvidence without position
             String evidenceID = createPeptideEvidenceID(peptideId, null, null, accession);
 
-            if (!pepEvidenceMap.containsKey(evidenceID)) {
+            if (!isPeptideEvidenceCreated(evidenceID)) {
                 PeptideEvidence pepEvi = createPeptideEvidence(evidenceID,
                         null, null,
-                        isDecoy,
+                        PeptideOccurrenceTable.UNKNOWN_RESIDUE,
+                        PeptideOccurrenceTable.UNKNOWN_RESIDUE,
+                        psm.getIsDecoy(),
                         peptide,
                         accession,
                         dbsInFiles);
 
-                pepEvidenceMap.put(evidenceID, pepEvi);
+                storePeptideEvidence(pepEvi);
             }
         }
     }
 
 
+    /**
+     * Whether the {@link PeptideEvidence} with the given ID was already created
+     * (or written in the streamed export).
+     */
+    private boolean isPeptideEvidenceCreated(String evidenceID) {
+        return streamExport ? streamedPeptideEvidenceIDs.contains(evidenceID) : pepEvidenceMap.containsKey(evidenceID);
+    }
+
+
+    /**
+     * Puts the {@link PeptideEvidence} into the map or, in the streamed export,
+     * writes it and keeps only its ID.
+     *
+     * @throws IOException
+     */
+    private void storePeptideEvidence(PeptideEvidence pepEvi) throws IOException {
+        if (streamExport) {
+            mzidMarshaller.marshal(pepEvi, outWriter);
+            outWriter.write("\n");
+            streamedPeptideEvidenceIDs.add(pepEvi.getId());
+        } else {
+            pepEvidenceMap.put(pepEvi.getId(), pepEvi);
+        }
+    }
+
+
     /**
      * Creates a String containing the ID of a {@link PeptideEvidence} with the
      * given information.
@@ -717,6 +1069,8 @@ public class MzIdentMLExporter {
      * @param evidenceID
      * @param start
      * @param end
+     * @param pre the residue before the peptide, as in the {@link PeptideOccurrenceTable}
+     * @param post the residue after the peptide, as in the {@link PeptideOccurrenceTable}
      * @param isDecoy
      * @param peptide
      * @param accession
@@ -724,14 +1078,15 @@ public class MzIdentMLExporter {
      * @return
      */
     private PeptideEvidence createPeptideEvidence(String evidenceID,
-            Integer start, Integer end, Boolean isDecoy, Peptide peptide,
+            Integer start, Integer end, char pre, char post, Boolean isDecoy, Peptide peptide,
             Accession accession, Map<String, Set<Long>> dbsInFiles) {
         PeptideEvidence pepEvi = new PeptideEvidence();
 
-        DBSequence dbSequence = sequenceMap.get(accession.getAccession());
+        DBSequence dbSequence = getDBSequenceReference(accession.getAccession());
         if (dbSequence == null) {
             // create the dbSequence entry, if it is not yet created
             dbSequence = createDBSequence(accession, dbsInFiles);
+            sequenceMap.put(accession.getAccession(), dbSequence);
         }
         pepEvi.setDBSequence(dbSequence);
 
@@ -745,14 +1100,19 @@ public class MzIdentMLExporter {
         if (end != null) {
             pepEvi.setEnd(end);
         }
+        if (pre != PeptideOccurrenceTable.UNKNOWN_RESIDUE) {
+            pepEvi.setPre(String.valueOf(pre));
+        }
+        if (post != PeptideOccurrenceTable.UNKNOWN_RESIDUE) {
+            pepEvi.setPost(String.valueOf(post));
+        }
 
         return pepEvi;
     }
 
 
     /**
-     * Create the DBSEquence for the given Accession and put it into the
-     * DBSequences Map.
+     * Create the DBSEquence for the given Accession.
      *
      * @param accession
      * @param dbsInFiles
@@ -788,8 +1148,6 @@ public class MzIdentMLExporter {
 
         dbSequence.setSearchDatabase(piaModeller.getSearchDatabases().get(dbRef));
 
-        sequenceMap.put(accession.getAccession(), dbSequence);
-
         return dbSequence;
     }
 
@@ -870,7 +1228,7 @@ public class MzIdentMLExporter {
             sii.setPassThreshold(true);
         }
 
-        sii.setPeptide(peptideMap.get(peptideId));
+        sii.setPeptide(getPeptideReference(peptideId));
         if ((rankScoreShort == null) || (psm instanceof ReportPSMSet)) {
             sii.setRank(0);
         } else {
@@ -884,7 +1242,7 @@ public class MzIdentMLExporter {
 
         // add the peptideEvidences to the SII
         for (Accession accession : psm.getAccessions()) {
-            addPeptideEvidenceToSII(sii, accession, psm.getPeptide().getAccessionOccurrences(), peptideId);
+            addPeptideEvidenceToSII(sii, accession, psm, peptideId);
         }
 
         addScoresToSII(sii, psm);
@@ -904,12 +1262,7 @@ public class MzIdentMLExporter {
      */
     private SpectrumIdentificationResult createOrGetSIR(PSMReportItem psm) {
         // build the SpectrumIdentificationItem into its result
-        String psmIdentificationKey = PeptideSpectrumMatch.getIdentificationKey(
-                SPECTRUM_IDENTIFICATION_RESULT_PSM_SET_SETTINGS,
-                psm.getSequence(), psm.getModificationsString(),
-                psm.getCharge(), psm.getMassToCharge(),
-                psm.getRetentionTime(), psm.getSourceID(),
-                psm.getSpectrumTitle(), exportFileID);
+        String psmIdentificationKey = getSIRKey(psm);
 
         SpectrumIdentificationResult specIdRes = sirMap.get(psmIdentificationKey);
         if (specIdRes == null) {
@@ -958,6 +1311,84 @@ public class MzIdentMLExporter {
     }
 
 
+    /**
+     * Returns the key (and ID) of the {@link SpectrumIdentificationResult} of
+     * the given PSM.
+     *
+     * @param psm
+     * @return
+     */
+    private String getSIRKey(PSMReportItem psm) {
+        return PeptideSpectrumMatch.getIdentificationKey(
+                SPECTRUM_IDENTIFICATION_RESULT_PSM_SET_SETTINGS,
+                psm.getSequence(), psm.getModificationsString(),
+                psm.getCharge(), psm.getMassToCharge(),
+                psm.getRetentionTime(), psm.getSourceID(),
+                psm.getSpectrumTitle(), exportFileID);
+    }
+
+
+    /**
+     * Returns the {@link Peptide} with the given peptide ID (without prefix)
+     * for references. In the streamed export, this is only a reference object
+     * with the ID, if the peptide was written.
+     *
+     * @param peptideId
+     * @return
+     */
+    private Peptide getPeptideReference(String peptideId) {
+        if (!streamExport) {
+            return peptideMap.get(peptideId);
+        } else if (streamedPeptideIDs.contains(peptideId)) {
+            Peptide peptide = new Peptide();
+            peptide.setId(PEPTIDE_PREFIX + peptideId);
+            return peptide;
+        }
+        return null;
+    }
+
+
+    /**
+     * Returns the {@link PeptideEvidence} with the given ID for references. In
+     * the streamed export, this is only a reference object with the ID, if the
+     * evidence was written.
+     *
+     * @param evidenceID
+     * @return
+     */
+    private PeptideEvidence getPeptideEvidenceReference(String evidenceID) {
+        if (!streamExport) {
+            return pepEvidenceMap.get(evidenceID);
+        } else if (streamedPeptideEvidenceIDs.contains(evidenceID)) {
+            PeptideEvidence pepEvi = new PeptideEvidence();
+            pepEvi.setId(evidenceID);
+            return pepEvi;
+        }
+        return null;
+    }
+
+
+    /**
+     * Returns the {@link DBSequence} of the given accession for references. In
+     * the streamed export, this is only a reference object with the ID, if the
+     * sequence was written.
+     *
+     * @param accession
+     * @return
+     */
+    private DBSequence getDBSequenceReference(String accession) {
+        if (!streamExport) {
+            return sequenceMap.get(accession);
+        } else if (streamedSequenceIDs.contains(accession)) {
+            DBSequence dbSequence = new DBSequence();
+            dbSequence.setId(DBSEQUENCE_PREFIX + accession);
+            dbSequence.setAccession(accession);
+            return dbSequence;
+        }
+        return null;
+    }
+
+
     /**
      * Checks whether the given {@link SpectrumIdentificationResult} contains
      * a {@link SpectrumIdentificationItem} with the given Id and returns it, if
@@ -1021,35 +1452,14 @@ public class MzIdentMLExporter {
      *
      * @param sii
      * @param accession
-     * @param accessionOccurrences
+     * @param psm
      * @param peptideId
      */
     private void addPeptideEvidenceToSII(SpectrumIdentificationItem sii, Accession accession,
-            Set<AccessionOccurrence> accessionOccurrences, String peptideId) {
-        boolean foundOccurrence = false;
-
-        for (AccessionOccurrence occurrence : accessionOccurrences) {
-            // look if occurrences are given in the compilation
-            if (accession.getAccession().equals(occurrence.getAccession().getAccession())) {
-                String evidenceID = createPeptideEvidenceID(
-                        peptideId,
-                        occurrence.getStart(), occurrence.getEnd(),
-                        accession);
-
-                PeptideEvidenceRef pepEvidenceRef = new PeptideEvidenceRef();
-                pepEvidenceRef.setPeptideEvidence(pepEvidenceMap.get(evidenceID));
-
-                sii.getPeptideEvidenceRef().add(pepEvidenceRef);
-                foundOccurrence = true;
-            }
-        }
-
-        if (!foundOccurrence) {
-            // no occurrence given, so use peptideEvidence without position
-            String evidenceID = createPeptideEvidenceID(peptideId, null, null, accession);
-
+            PSMReportItem psm, String peptideId) {
+        for (String evidenceID : getPeptideEvidenceIdsForAccession(psm, accession, peptideId)) {
             PeptideEvidenceRef pepEvidenceRef = new PeptideEvidenceRef();
-            pepEvidenceRef.setPeptideEvidence(pepEvidenceMap.get(evidenceID));
+            pepEvidenceRef.setPeptideEvidence(getPeptideEvidenceReference(evidenceID));
 
             sii.getPeptideEvidenceRef().add(pepEvidenceRef);
         }
@@ -1290,8 +1700,18 @@ public class MzIdentMLExporter {
             return;
         }
 
+        nameEnzymes(specIdProt.getEnzymes());
+    }
+
+
+    /**
+     * Gives the enzymes names, if only their regexp is given.
+     *
+     * @param enzymes
+     */
+    private static void nameEnzymes(Enzymes enzymes) {
         // if there are enzymes, check whether they can be given names by their regexp
-        specIdProt.getEnzymes().getEnzyme().stream().filter(enzyme -> (enzyme.getEnzymeName() == null) && (enzyme.getSiteRegexp() != null)).forEach(enzyme -> {
+        enzymes.getEnzyme().stream().filter(enzyme -> (enzyme.getEnzymeName() == null) && (enzyme.getSiteRegexp() != null)).forEach(enzyme -> {
             CleavageAgent agent = CleavageAgent.getBySiteRegexp(enzyme.getSiteRegexp());
             if (agent != null) {
                 ParamList enzymeNameList = new ParamList();
@@ -1322,8 +1742,19 @@ public class MzIdentMLExporter {
             return;
         }
 
+        refineSearchModifications(specIdProt.getModificationParams());
+    }
+
+
+    /**
+     * Sets the {@link CvParam}s of the search modifications, if they can be
+     * found.
+     *
+     * @param modificationParams
+     */
+    private void refineSearchModifications(ModificationParams modificationParams) {
         // the cvParam of the modification is not set, try to do so
-        specIdProt.getModificationParams().getSearchModification().stream().filter(mod -> mod.getCvParam().isEmpty()).forEach(mod -> {
+        modificationParams.getSearchModification().stream().filter(mod -> mod.getCvParam().isEmpty()).forEach(mod -> {
             // the cvParam of the modification is not set, try to do so
             ModT unimod = unimodParser.getModificationByMass(
                     Double.valueOf(mod.getMassDelta()),
@@ -1498,7 +1929,7 @@ public class MzIdentMLExporter {
         }
 
         Integer thresholdPassingPAGcount = 0;
-        for (ReportProtein protein : piaModeller.getProteinModeller().getFilteredReportProteins(null)) {
+        for (ReportProtein protein : exportCache.getFilteredReportProteins(null)) {
             if (putProteinIntoDetectionList(protein, filterExport, proteinFilters)) {
                 thresholdPassingPAGcount++;
             }
@@ -1733,7 +2164,7 @@ public class MzIdentMLExporter {
 
         pdh.setId(PROTEIN_DETECTION_HYPOTHESIS_PREFIX + acc.getAccession() + '_' + pagId);
 
-        DBSequence dbSequence = sequenceMap.get(acc.getAccession());
+        DBSequence dbSequence = getDBSequenceReference(acc.getAccession());
         if (dbSequence != null) {
             pdh.setDBSequence(dbSequence);
         }
@@ -1746,7 +2177,8 @@ public class MzIdentMLExporter {
         for (ReportPeptide pep : protein.getPeptides()) {
             for (PSMReportItem psmItem : pep.getPSMs()) {
                 // sort the PSMs' SpectrumIdentificationItems into the PeptideHypotheses
-                List<String> peptideEvidenceIDs = getPeptideEvidenceIdsForAccession(psmItem, acc);
+                List<String> peptideEvidenceIDs = getPeptideEvidenceIdsForAccession(psmItem, acc,
+                        psmItem.getPeptideStringID(true));
 
                 for (String evidenceID : peptideEvidenceIDs) {
                     allOk &= addPSMToPeptideDetectionHypothesis(evidenceID, pdh, peptideHypotheses, psmItem);
@@ -1767,33 +2199,46 @@ public class MzIdentMLExporter {
     }
 
 
+    /**
+     * Returns the occurrence table of the given peptide, i.e. the shared
+     * table of the modeller's intermediate file, if available.
+     *
+     * @param peptide
+     * @return
+     */
+    private PeptideOccurrenceTable getOccurrenceTable(de.mpc.pia.intermediate.Peptide peptide) {
+        PeptideOccurrenceTable table = piaModeller.getPeptideOccurrenceTable();
+        return (table != null) ? table : PeptideOccurrenceTable.getTable(peptide);
+    }
+
+
     /**
      * This method creates a list of the peptideEvidenceIDs for the PSM and the
      * accession.
      *
      * @param psm
      * @param acc
+     * @param peptideId the peptideStringID of the PSM
      * @return
      */
-    private static List<String> getPeptideEvidenceIdsForAccession(PSMReportItem psm, Accession acc) {
-        List<String> peptideEvidenceIDs = new ArrayList<>();
-        String peptideId = psm.getPeptideStringID(true);
-        boolean foundOccurrence = false;
-
-        for (AccessionOccurrence occurrence : psm.getPeptide().getAccessionOccurrences()) {
-            if (acc.getAccession().equals( occurrence.getAccession().getAccession())) {
-                peptideEvidenceIDs.add(createPeptideEvidenceID(
-                        peptideId,
-                        occurrence.getStart(),
-                        occurrence.getEnd(),
-                        acc));
-
-                foundOccurrence = true;
-                // there might be multiple occurrences per accession, therefore no loop-break here
-            }
-        }
-
-        if (!foundOccurrence) {
+    private List<String> getPeptideEvidenceIdsForAccession(PSMReportItem psm, Accession acc,
+            String peptideId) {
+        PeptideOccurrenceTable occurrences = getOccurrenceTable(psm.getPeptide());
+        long piaPeptideID = psm.getPeptide().getID();
+        int rowsStart = occurrences.getRowsStart(piaPeptideID, acc.getID());
+        int rowsEnd = occurrences.getRowsEnd(piaPeptideID, acc.getID());
+
+        List<String> peptideEvidenceIDs = new ArrayList<>(Math.max(rowsEnd - rowsStart, 1));
+        // there might be multiple occurrences per accession
+        for (int row = rowsStart; row < rowsEnd; row++) {
+            peptideEvidenceIDs.add(createPeptideEvidenceID(
+                    peptideId,
+                    occurrences.getStart(row),
+                    occurrences.getEnd(row),
+                    acc));
+        }
+
+        if (peptideEvidenceIDs.isEmpty()) {
             // add generic peptide evidence id
             peptideEvidenceIDs.add(
                     createPeptideEvidenceID(peptideId, null, null, acc));
@@ -1819,7 +2264,7 @@ public class MzIdentMLExporter {
 
         if (ph == null) {
             ph = new PeptideHypothesis();
-            ph.setPeptideEvidence(pepEvidenceMap.get(pepEvidenceId));
+            ph.setPeptideEvidence(getPeptideEvidenceReference(pepEvidenceId));
 
             if (ph.getPeptideEvidence() == null) {
                 LOGGER.error("could not find peptideEvidence for '" + pepEvidenceId + "'! "
@@ -1842,6 +2287,31 @@ public class MzIdentMLExporter {
     }
 
 
+    /**
+     * Refines the enzymes and modifications of the modeller's protocols in
+     * place, as they would be refined by the export. As the refinement is only
+     * done once for each element, concurrent exports (see
+     * {@link MultiFormatExporter}) only read these elements afterwards.
+     */
+    void refineSharedProtocols() {
+        for (PIAInputFile file : piaModeller.getFiles().values()) {
+            if (file.getAnalysisProtocolCollection() == null) {
+                continue;
+            }
+
+            for (SpectrumIdentificationProtocol protocol
+                    : file.getAnalysisProtocolCollection().getSpectrumIdentificationProtocol()) {
+                if (protocol.getEnzymes() != null) {
+                    nameEnzymes(protocol.getEnzymes());
+                }
+                if (protocol.getModificationParams() != null) {
+                    refineSearchModifications(protocol.getModificationParams());
+                }
+            }
+        }
+    }
+
+
     /**
      * Refine some elements before writing out the mzIdentML file. The URIs will
      * be checked.
@@ -1874,7 +2344,11 @@ public class MzIdentMLExporter {
                 CvParam formatCvParam = fileFormat.getCvParam();
                 if ((formatCvParam != null)
                         && (OntologyConstants.MASCOT_MGF_FORMAT.getPsiAccession().equals(formatCvParam.getAccession()))) {
-                    formatCvParam.setName(OntologyConstants.MASCOT_MGF_FORMAT.getPsiName());
+                    // the file format is shared with the modeller, so set a new one
+                    FileFormat refinedFormat = new FileFormat();
+                    refinedFormat.setCvParam(MzIdentMLTools.createPSICvParam(
+                            OntologyConstants.MASCOT_MGF_FORMAT, formatCvParam.getValue()));
+                    spectraData.setFileFormat(refinedFormat);
                 }
             }
 
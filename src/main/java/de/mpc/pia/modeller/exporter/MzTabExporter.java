@@ -15,16 +15,18 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.RandomAccess;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import org.apache.log4j.Logger;
 
 import de.mpc.pia.intermediate.Accession;
-import de.mpc.pia.intermediate.AccessionOccurrence;
 import de.mpc.pia.intermediate.Modification;
 import de.mpc.pia.intermediate.PIAInputFile;
 import de.mpc.pia.intermediate.Peptide;
+import de.mpc.pia.intermediate.PeptideOccurrenceTable;
 import de.mpc.pia.modeller.PIAModeller;
 import de.mpc.pia.modeller.peptide.ReportPeptide;
 import de.mpc.pia.modeller.protein.ReportProtein;
@@ -86,6 +88,9 @@ public class MzTabExporter {
     /** logger for this class */
     private static final Logger LOGGER = Logger.getLogger(MzTabExporter.class);
 
+    /** marks a resolved modification, which is not in the Unimod */
+    private static final Long NO_UNIMOD_RECORD = -1L;
+
 
     /** the modeller, that should be exported */
     private PIAModeller piaModeller;
@@ -121,8 +126,17 @@ public class MzTabExporter {
     /** caching the modifications by their residues and masses */
     private Map<String, Map<Double, Set<ModT>>> resAndMassToModifications;
 
-    /** mapping from the peptide sequence to the accessions and occurrences [pre, post, start, stop]*/
-    private Map<String, Map<String, String[]>> peptideOccurrences;
+    /** the Unimod record IDs of the already resolved modifications, by their {@link ExportCache#getModificationKey(Modification)} */
+    private Map<String, Long> resolvedModifications;
+
+    /** the cache shared with other exports, or null */
+    private ExportCache sharedExportCache;
+
+    /** the cache of the current export, holds also the peptide occurrences */
+    private ExportCache exportCache;
+
+    /** the number of threads used to render the PSM and protein rows */
+    private int numThreads;
 
     /** column parameter for FDR column */
     private CVParam fdrColumnParam;
@@ -147,7 +161,51 @@ public class MzTabExporter {
 
         accessionsToModifications = new HashMap<>();
         resAndMassToModifications = new HashMap<>();
-        peptideOccurrences = new HashMap<>();
+        resolvedModifications = new ConcurrentHashMap<>();
+        sharedExportCache = null;
+        numThreads = 1;
+    }
+
+
+    /**
+     * Sets a cache, which is shared with other exports of the same modeller
+     * state, e.g. by the {@link MultiFormatExporter}. If no cache is set, each
+     * export uses its own cache.
+     *
+     * @param cache
+     */
+    public void setExportCache(ExportCache cache) {
+        sharedExportCache = cache;
+    }
+
+
+    /**
+     * Gets the cache shared with other exports, null if none is set
+     */
+    public ExportCache getExportCache() {
+        return sharedExportCache;
+    }
+
+
+    /**
+     * Sets the number of threads used to render the PSM and protein rows. The
+     * rows are rendered in chunks and written in their original order, so the
+     * export is the same for any number of threads. If this is smaller than 1,
+     * all available threads (Runtime.getRuntime().availableProcessors()) are
+     * used. Defaults to 1.
+     *
+     * @param threads
+     */
+    public void setNrThreads(int threads) {
+        numThreads = threads;
+    }
+
+
+    /**
+     * Gets the number of threads used to render the PSM and protein rows
+     */
+    public int getNrThreads() {
+        return numThreads;
     }
 
 
@@ -231,6 +289,7 @@ public class MzTabExporter {
             boolean exportProteinSequences) {
         boolean error = false;
         exportFileID = fileID;
+        exportCache = (sharedExportCache != null) ? sharedExportCache : new ExportCache(piaModeller);
 
         LOGGER.info("Start writing mzTab export"
                 + "\n\tproteinLevel " + proteinLevel
@@ -242,7 +301,7 @@ public class MzTabExporter {
         try (BufferedWriter writer = new BufferedWriter(exportWriter)) {
             outWriter = writer;
 
-            unimodParser = new UnimodParser();
+            unimodParser = UnimodParser.getInstance();
 
             piaParam = new CVParam(OntologyConstants.CV_PSI_MS_LABEL,
                     OntologyConstants.PIA.getPsiAccession(),
@@ -285,7 +344,7 @@ public class MzTabExporter {
 
             if (proteinLevel) {
                 // write the report proteins
-                proteinList = piaModeller.getProteinModeller().getFilteredReportProteins(
+                proteinList = exportCache.getFilteredReportProteins(
                         filterExport ? piaModeller.getProteinModeller().getReportFilters() : null);
 
                 if (proteinList == null) {
@@ -299,10 +358,10 @@ public class MzTabExporter {
                         filterExport ? piaModeller.getPSMModeller().getFilters(exportFileID) : null;
 
                 if (exportFileID > 0) {
-                    reportPSMs.addAll(piaModeller.getPSMModeller().getFilteredReportPSMs(exportFileID, filters));
+                    reportPSMs.addAll(exportCache.getFilteredReportPSMs(exportFileID, filters));
                     exportReliabilitycolumn = piaModeller.getPSMModeller().isFDRCalculated(exportFileID);
                 } else {
-                    reportPSMs.addAll(piaModeller.getPSMModeller().getFilteredReportPSMSets(filters));
+                    reportPSMs.addAll(exportCache.getFilteredReportPSMSets(filters));
                     exportReliabilitycolumn = piaModeller.getPSMModeller().isCombinedFDRScoreCalculated();
                 }
             }
@@ -329,6 +388,7 @@ public class MzTabExporter {
         }
 
         outWriter = null;
+        exportCache = null;
         LOGGER.info("finished mzTab export " + (error ? "with" : "without") + " errors");
         return !error;
     }
@@ -1022,7 +1082,7 @@ public class MzTabExporter {
             if (filterExport) {
                 peptideFilters = piaModeller.getPeptideModeller().getFilters(exportFileID);
             }
-            List<ReportPeptide> repPeplist = piaModeller.getPeptideModeller().getFilteredReportPeptides(
+            List<ReportPeptide> repPeplist = exportCache.getFilteredReportPeptides(
                     exportFileID, peptideFilters);
 
             reportPeptides = new HashMap<>(repPeplist.size());
@@ -1041,22 +1101,100 @@ public class MzTabExporter {
         outWriter.append(MZTabConstants.NEW_LINE);
 
         // cache the databaseRefs to an array with name and version
-        Map<String, String[]> dbRefToDbNameAndVersion =
-                new HashMap<>();
+        Map<String, String[]> dbRefToDbNameAndVersion = new ConcurrentHashMap<>();
 
         // cache the softwareRefs to the Params
-        Map<String, uk.ac.ebi.pride.jmztab.model.Param> softwareParams =
-                new HashMap<>();
+        Map<String, uk.ac.ebi.pride.jmztab.model.Param> softwareParams = new ConcurrentHashMap<>();
 
-        // the ID of the currently processed PSM
+        List<PSMReportItem> psmItems = (report instanceof RandomAccess) ? report : new ArrayList<>(report);
+
+        // the IDs of the PSMs, in PSM sets the ID does NOT represent the ID
+        // from the PIA file but is an incremental value
+        int[] mzTabPSMids = new int[psmItems.size()];
         int mzTabPSMid = 0;
+        for (int i = 0; i < mzTabPSMids.length; i++) {
+            PSMReportItem psmItem = psmItems.get(i);
+            if (psmItem instanceof ReportPSM) {
+                mzTabPSMid = ((ReportPSM) psmItem).getId().intValue();
+            } else if (psmItem instanceof ReportPSMSet) {
+                mzTabPSMid++;
+            }
+            mzTabPSMids[i] = mzTabPSMid;
+        }
+
+        if (ParallelRowWriter.getUsedThreads(numThreads) > 1) {
+            // resolve the modifications in the order of the sequential export
+            report.forEach(psmItem ->
+                    psmItem.getModifications().values().forEach(this::resolveModification));
+        }
+
+        PSMRowRenderer rowRenderer = new PSMRowRenderer(columnFactory, reliabilityCol, decoyColumnParam,
+                dbRefToDbNameAndVersion, softwareParams, peptideLevelStatistics, reportPeptides,
+                peptideIdColumnName, peptideQValueColumn, peptideFDRScoreColumn);
 
         LOGGER.info("going to write " + report.size() + " PSMs");
 
         // now write the PSMs
-        int nrPSMsExport = report.size();
-        int count = 0;
-        for (PSMReportItem psmItem : report) {
+        ParallelRowWriter.writeRows(outWriter, psmItems.size(),
+                (row, out) -> rowRenderer.render(psmItems.get(row), mzTabPSMids[row], out),
+                numThreads, "PSMs");
+    }
+
+
+    /**
+     * Renders the rows of single PSMs (i.e. one row per accession of the PSM)
+     * of the PSM section. The rendering can be called by several threads
+     * concurrently, all used caches are thread safe.
+     */
+    private class PSMRowRenderer {
+
+        private final MZTabColumnFactory columnFactory;
+
+        private final boolean reliabilityCol;
+
+        private final CVParam decoyColumnParam;
+
+        private final Map<String, String[]> dbRefToDbNameAndVersion;
+
+        private final Map<String, uk.ac.ebi.pride.jmztab.model.Param> softwareParams;
+
+        private final boolean peptideLevelStatistics;
+
+        private final Map<String, ReportPeptide> reportPeptides;
+
+        private final String peptideIdColumnName;
+
+        private final CVParam peptideQValueColumn;
+
+        private final CVParam peptideFDRScoreColumn;
+
+
+        private PSMRowRenderer(MZTabColumnFactory columnFactory, boolean reliabilityCol,
+                CVParam decoyColumnParam, Map<String, String[]> dbRefToDbNameAndVersion,
+                Map<String, uk.ac.ebi.pride.jmztab.model.Param> softwareParams,
+                boolean peptideLevelStatistics, Map<String, ReportPeptide> reportPeptides,
+                String peptideIdColumnName, CVParam peptideQValueColumn, CVParam peptideFDRScoreColumn) {
+            this.columnFactory = columnFactory;
+            this.reliabilityCol = reliabilityCol;
+            this.decoyColumnParam = decoyColumnParam;
+            this.dbRefToDbNameAndVersion = dbRefToDbNameAndVersion;
+            this.softwareParams = softwareParams;
+            this.peptideLevelStatistics = peptideLevelStatistics;
+            this.reportPeptides = reportPeptides;
+            this.peptideIdColumnName = peptideIdColumnName;
+            this.peptideQValueColumn = peptideQValueColumn;
+            this.peptideFDRScoreColumn = peptideFDRScoreColumn;
+        }
+
+
+        /**
+         * Appends the rows of the given PSM to the output.
+         *
+         * @param psmItem
+         * @param mzTabPSMid the ID of the PSM in the mzTab file
+         * @param out
+         */
+        private void render(PSMReportItem psmItem, int mzTabPSMid, StringBuilder out) {
             PSM mztabPsm = new PSM(columnFactory, metadata);
 
             mztabPsm.setSequence(psmItem.getSequence());
@@ -1065,14 +1203,8 @@ public class MzTabExporter {
 
             if (psmItem instanceof ReportPSM) {
                 reportPSMs.add((ReportPSM) psmItem);
-
-                mzTabPSMid = ((ReportPSM) psmItem).getId().intValue();
             } else if (psmItem instanceof ReportPSMSet) {
                 reportPSMs.addAll(((ReportPSMSet) psmItem).getPSMs());
-
-                // in PSM sets, the ID does NOT represent the ID from the PIA
-                // file but is an incremental value
-                mzTabPSMid++;
             }
 
             mztabPsm.setPSM_ID(mzTabPSMid);
@@ -1155,33 +1287,8 @@ public class MzTabExporter {
 
             // add the search engines (i.e. analysisSoftwares)
             for (String softwareRef : softwareRefs) {
-                uk.ac.ebi.pride.jmztab.model.Param softwareParam =
-                        softwareParams.get(softwareRef);
-
-                if (softwareParam == null) {
-                    AnalysisSoftware software = piaModeller.getAnalysisSoftwares().get(softwareRef);
-
-                    Param softwareName = software.getSoftwareName();
-                    if (softwareName != null) {
-                        if (softwareName.getCvParam() != null) {
-                            CvParam param = softwareName.getCvParam();
-
-                            softwareParam = new CVParam(param.getCvRef(),
-                                    param.getAccession(), param.getName(),
-                                    software.getVersion());
-                        } else if (softwareName.getUserParam() != null) {
-                            UserParam param = softwareName.getUserParam();
-
-                            softwareParam =
-                                    new uk.ac.ebi.pride.jmztab.model.UserParam(
-                                            param.getName(), software.getVersion());
-                        }
-                    }
-
-                    softwareParams.put(softwareRef, softwareParam);
-                }
-
-                mztabPsm.addSearchEngineParam(softwareParam);
+                mztabPsm.addSearchEngineParam(
+                        softwareParams.computeIfAbsent(softwareRef, MzTabExporter.this::createSoftwareParam));
             }
 
             // if the (combined) FDRScore is calculated, give the reliability
@@ -1206,34 +1313,7 @@ public class MzTabExporter {
 
                 // set the first available dbName and dbVersion
                 for (String dbRef : accession.getSearchDatabaseRefs()) {
-                    String[] nameAndVersion =
-                            dbRefToDbNameAndVersion.get(dbRef);
-                    // cache the name and version of databases
-                    if (nameAndVersion == null) {
-                        SearchDatabase sDB = piaModeller.getSearchDatabases().get(dbRef);
-
-                        if (sDB.getDatabaseName() != null) {
-                            nameAndVersion = new String[2];
-                            if (sDB.getDatabaseName().getCvParam() != null) {
-                                nameAndVersion[0] =
-                                        sDB.getDatabaseName().getCvParam().getName();
-                            } else if (sDB.getDatabaseName().getUserParam() != null) {
-                                nameAndVersion[0] =
-                                        sDB.getDatabaseName().getUserParam().getName();
-                            }
-                            nameAndVersion[1] = sDB.getVersion();
-
-                        } else if (sDB.getName() != null) {
-                            nameAndVersion = new String[2];
-                            nameAndVersion[0] = sDB.getName();
-                            nameAndVersion[1] = sDB.getVersion();
-                        } else {
-                            nameAndVersion = new String[1];
-                            nameAndVersion[0] = null;
-                        }
-
-                        dbRefToDbNameAndVersion.put(dbRef, nameAndVersion);
-                    }
+                    String[] nameAndVersion = getDatabaseNameAndVersion(dbRef, dbRefToDbNameAndVersion);
 
                     if (nameAndVersion[0] != null) {
                         mztabPsm.setDatabase(nameAndVersion[0]);
@@ -1241,7 +1321,7 @@ public class MzTabExporter {
                     }
                 }
 
-                String[] occData = getPeptideOccurrences(psmItem.getPeptide(), accession.getAccession());
+                String[] occData = getPeptideOccurrence(psmItem.getPeptide(), accession);
                 if (occData != null) {
                     mztabPsm.setPre(occData[0]);
                     mztabPsm.setPost(occData[1]);
@@ -1254,19 +1334,82 @@ public class MzTabExporter {
                             peptideIdColumnName, peptideQValueColumn, peptideFDRScoreColumn);
                 }
 
-                outWriter.append(mztabPsm.toString());
-                outWriter.append(MZTabConstants.NEW_LINE);
+                out.append(mztabPsm.toString());
+                out.append(MZTabConstants.NEW_LINE);
             }
+        }
+    }
 
-            count++;
-            if (count % 10000 == 0) {
-                LOGGER.debug("exported " + count + " / " + nrPSMsExport + " PSMs "
-                        + '(' + (100.0 * count / nrPSMsExport) + "%)");
+
+    /**
+     * Creates the mzTab param for the analysis software with the given ID.
+     *
+     * @param softwareRef
+     * @return the param or null, if the software has no name
+     */
+    private uk.ac.ebi.pride.jmztab.model.Param createSoftwareParam(String softwareRef) {
+        uk.ac.ebi.pride.jmztab.model.Param softwareParam = null;
+        AnalysisSoftware software = piaModeller.getAnalysisSoftwares().get(softwareRef);
+
+        Param softwareName = software.getSoftwareName();
+        if (softwareName != null) {
+            if (softwareName.getCvParam() != null) {
+                CvParam param = softwareName.getCvParam();
+
+                softwareParam = new CVParam(param.getCvRef(),
+                        param.getAccession(), param.getName(),
+                        software.getVersion());
+            } else if (softwareName.getUserParam() != null) {
+                UserParam param = softwareName.getUserParam();
+
+                softwareParam =
+                        new uk.ac.ebi.pride.jmztab.model.UserParam(
+                                param.getName(), software.getVersion());
             }
         }
+
+        return softwareParam;
     }
 
 
+    /**
+     * Gets the name and version of the search database with the given ID and
+     * caches it in the given map.
+     *
+     * @param dbRef
+     * @param dbRefToDbNameAndVersion
+     * @return an array with name and version, the name is null, if the
+     * database has no name
+     */
+    private String[] getDatabaseNameAndVersion(String dbRef, Map<String, String[]> dbRefToDbNameAndVersion) {
+        return dbRefToDbNameAndVersion.computeIfAbsent(dbRef, ref -> {
+            SearchDatabase sDB = piaModeller.getSearchDatabases().get(ref);
+            String[] nameAndVersion;
+
+            if (sDB.getDatabaseName() != null) {
+                nameAndVersion = new String[2];
+                if (sDB.getDatabaseName().getCvParam() != null) {
+                    nameAndVersion[0] =
+                            sDB.getDatabaseName().getCvParam().getName();
+                } else if (sDB.getDatabaseName().getUserParam() != null) {
+                    nameAndVersion[0] =
+                            sDB.getDatabaseName().getUserParam().getName();
+                }
+                nameAndVersion[1] = sDB.getVersion();
+
+            } else if (sDB.getName() != null) {
+                nameAndVersion = new String[2];
+                nameAndVersion[0] = sDB.getName();
+                nameAndVersion[1] = sDB.getVersion();
+            } else {
+                nameAndVersion = new String[1];
+                nameAndVersion[0] = null;
+            }
+
+            return nameAndVersion;
+        });
+    }
+
     /**
      * Creates a column for "peptide level q-value" in the given
      * {@link MZTabColumnFactory}, if for the exported file the FDR was
@@ -1429,32 +1572,63 @@ public class MzTabExporter {
         outWriter.append(MZTabConstants.NEW_LINE);
 
         // cache the databaseRefs to an array with name and version
-        Map<String, String[]> dbRefToDbNameAndVersion = new HashMap<>();
+        Map<String, String[]> dbRefToDbNameAndVersion = new ConcurrentHashMap<>();
 
+        // the PSMs are collected in the order of the proteins, independent of the rendering
         for (ReportProtein reportProtein : report) {
-            Protein mzTabProtein = createMzTabProtein(reportProtein, columnFactory, dbRefToDbNameAndVersion,
-                    reportPSMs, psmSetSettings, msRunMap);
+            collectProteinPSMs(reportProtein, reportPSMs, psmSetSettings);
+        }
 
-            outWriter.append(mzTabProtein.toString());
-            outWriter.append(MZTabConstants.NEW_LINE);
+        List<ReportProtein> proteins = (report instanceof RandomAccess) ? report : new ArrayList<>(report);
+        ParallelRowWriter.writeRows(outWriter, proteins.size(),
+                (row, out) -> {
+                    Protein mzTabProtein = createMzTabProtein(proteins.get(row), columnFactory,
+                            dbRefToDbNameAndVersion, msRunMap);
+                    out.append(mzTabProtein.toString());
+                    out.append(MZTabConstants.NEW_LINE);
+                },
+                numThreads, "proteins");
+    }
+
+
+    /**
+     * Puts the PSMs of the given protein into the map of exported PSMs, if
+     * they are not yet in it.
+     *
+     * @param reportProtein
+     * @param reportPSMs
+     * @param psmSetSettings
+     */
+    private static void collectProteinPSMs(ReportProtein reportProtein,
+            Map<String, PSMReportItem> reportPSMs, Map<String, Boolean> psmSetSettings) {
+        for (ReportPeptide reportPeptide : reportProtein.getPeptides()) {
+            for (PSMReportItem reportItem : reportPeptide.getPSMs()) {
+                if (reportItem instanceof ReportPSMSet) {
+                    String psmKey = reportItem.getIdentificationKey(psmSetSettings);
+                    if (!reportPSMs.containsKey(psmKey)) {
+                        reportPSMs.put(psmKey, reportItem);
+                    }
+                } else {
+                    LOGGER.error(
+                            "item in ReportPeptide should NOT be ReportPSM");
+                }
+            }
         }
     }
 
 
     /**
-     * Create a mzTab protein for the report
+     * Create a mzTab protein for the report. This can be called by several
+     * threads concurrently.
      *
      * @param reportProtein
      * @param proteinColumnFactory
      * @param dbRefToDbNameAndVersion
-     * @param reportPSMs
-     * @param psmSetSettings
      * @param msRunMap
      * @return
      */
     private Protein createMzTabProtein(ReportProtein reportProtein, MZTabColumnFactory proteinColumnFactory,
-            Map<String, String[]> dbRefToDbNameAndVersion, Map<String, PSMReportItem> reportPSMs,
-            Map<String, Boolean> psmSetSettings, Map<Integer, MsRun> msRunMap) {
+            Map<String, String[]> dbRefToDbNameAndVersion, Map<Integer, MsRun> msRunMap) {
         Protein mzTabProtein = new Protein(proteinColumnFactory);
 
         // TODO: better choice of representative
@@ -1471,33 +1645,7 @@ public class MzTabExporter {
 
         // set the first available dbName and dbVersion of the representative
         for (String dbRef : representative.getSearchDatabaseRefs()) {
-            String[] nameAndVersion = dbRefToDbNameAndVersion.get(dbRef);
-            // cache the name and version of databases
-            if (nameAndVersion == null) {
-                SearchDatabase sDB = piaModeller.getSearchDatabases().get(dbRef);
-
-                if (sDB.getDatabaseName() != null) {
-                    nameAndVersion = new String[2];
-                    if (sDB.getDatabaseName().getCvParam() != null) {
-                        nameAndVersion[0] =
-                                sDB.getDatabaseName().getCvParam().getName();
-                    } else if (sDB.getDatabaseName().getUserParam() != null) {
-                        nameAndVersion[0] =
-                                sDB.getDatabaseName().getUserParam().getName();
-                    }
-                    nameAndVersion[1] = sDB.getVersion();
-
-                } else if (sDB.getName() != null) {
-                    nameAndVersion = new String[2];
-                    nameAndVersion[0] = sDB.getName();
-                    nameAndVersion[1] = sDB.getVersion();
-                } else {
-                    nameAndVersion = new String[1];
-                    nameAndVersion[0] = null;
-                }
-
-                dbRefToDbNameAndVersion.put(dbRef, nameAndVersion);
-            }
+            String[] nameAndVersion = getDatabaseNameAndVersion(dbRef, dbRefToDbNameAndVersion);
 
             if (nameAndVersion[0] != null) {
                 mzTabProtein.setDatabase(nameAndVersion[0]);
@@ -1543,15 +1691,6 @@ public class MzTabExporter {
                             }
                         }
                     }
-
-                    // add the PSM set to the PSM map
-                    String psmKey = reportItem.getIdentificationKey(psmSetSettings);
-                    if (!reportPSMs.containsKey(psmKey)) {
-                        reportPSMs.put(psmKey, reportItem);
-                    }
-                } else {
-                    LOGGER.error(
-                            "item in ReportPeptide should NOT be ReportPSM");
                 }
             }
         }
@@ -1634,18 +1773,16 @@ public class MzTabExporter {
     private uk.ac.ebi.pride.jmztab.model.Modification getUnimodModification(Modification modification) {
         uk.ac.ebi.pride.jmztab.model.Modification mod;
 
-        ModT uniMod = getCachedModification(modification);
-
-        if (uniMod == null) {
-            // modification was not yet cached
-            uniMod = createNewCachedModification(modification);
+        Long recordId = resolvedModifications.get(ExportCache.getModificationKey(modification));
+        if (recordId == null) {
+            recordId = resolveModification(modification);
         }
 
-        if (uniMod != null) {
+        if (!NO_UNIMOD_RECORD.equals(recordId)) {
             mod = new uk.ac.ebi.pride.jmztab.model.Modification(
                     Section.PSM,
                     uk.ac.ebi.pride.jmztab.model.Modification.Type.UNIMOD,
-                    uniMod.getRecordId().toString());
+                    recordId.toString());
         } else {
             // not found in UNIMOD, create a CHEMMOD mass-shift
             mod = new uk.ac.ebi.pride.jmztab.model.Modification(
@@ -1658,6 +1795,35 @@ public class MzTabExporter {
     }
 
 
+    /**
+     * Resolves the Unimod record ID of the given modification using the caches
+     * and stores it in the resolved modifications. Modifications, which are
+     * equal by their {@link ExportCache#getModificationKey(Modification)},
+     * are resolved only once, so the result depends only on the order of the
+     * first resolutions.
+     *
+     * @param modification
+     * @return the record ID or {@link #NO_UNIMOD_RECORD}
+     */
+    private synchronized Long resolveModification(Modification modification) {
+        String key = ExportCache.getModificationKey(modification);
+        Long recordId = resolvedModifications.get(key);
+
+        if (recordId == null) {
+            ModT uniMod = getCachedModification(modification);
+            if (uniMod == null) {
+                // modification was not yet cached
+                uniMod = createNewCachedModification(modification);
+            }
+
+            recordId = (uniMod != null) ? uniMod.getRecordId() : NO_UNIMOD_RECORD;
+            resolvedModifications.put(key, recordId);
+        }
+
+        return recordId;
+    }
+
+
     /**
      * Check in the caches for a ModT type modification of the given
      * Modification and return it, if it was found.
@@ -1729,11 +1895,7 @@ public class MzTabExporter {
      * @return
      */
     private ModT createNewCachedModification(Modification modification) {
-        ModT uniMod  = unimodParser.getModification(
-                modification.getAccession(),
-                modification.getDescription(),
-                modification.getMass(),
-                modification.getResidue().toString());
+        ModT uniMod = exportCache.getUnimodModification(modification);
 
         // it can still be null, if the modification was not found in unimod
         if (uniMod != null) {
@@ -1771,61 +1933,49 @@ public class MzTabExporter {
 
 
     /**
-     * Get the peptide occurrences for the given peptide and the accessions.
-     * This method uses a map as cache and fills it accordingly.
+     * Returns the occurrence table of the given peptide, i.e. the shared
+     * table of the modeller's intermediate file, if available.
      *
-     * @param accession
+     * @param peptide
      * @return
      */
-    private String[] getPeptideOccurrences(Peptide peptide, String accession) {
-        String sequence = peptide.getSequence();
-        Map<String, String[]> occurrences =
-                peptideOccurrences.computeIfAbsent(sequence, k -> new HashMap<>(calculatePeptideOccurrances(peptide)));
-
-        return occurrences.get(accession);
+    private PeptideOccurrenceTable getOccurrenceTable(Peptide peptide) {
+        PeptideOccurrenceTable table = piaModeller.getPeptideOccurrenceTable();
+        return (table != null) ? table : PeptideOccurrenceTable.getTable(peptide);
     }
 
 
     /**
-     * Returns a Map for the occurrences of the given peptide
+     * Get the occurrence data (pre, post, start and end) of the given peptide
+     * in the given accession from the {@link PeptideOccurrenceTable}. If the
+     * peptide occurs several times in the accession, the first occurrence is
+     * returned.
      *
      * @param peptide
-     * @return
+     * @param accession
+     * @return the occurrence data or null, if the peptide does not occur in the accession
      */
-    private Map<String, String[]> calculatePeptideOccurrances(Peptide peptide) {
-        Map<String, String[]> occurrences = new HashMap<>();
-
-        for (AccessionOccurrence occ : peptide.getAccessionOccurrences()) {
-            String[] occData = new String[4];
-
-            String dbSequence = occ.getAccession().getDbSequence();
-            if (dbSequence != null) {
-                if (occ.getStart() > 1) {
-                    occData[0] = dbSequence.substring(occ.getStart()-2, occ.getStart()-1);
-                } else {
-                    occData[0] = "-";
-                }
-
-                if (occ.getEnd() < dbSequence.length()) {
-                    occData[1] = dbSequence.substring(occ.getEnd(), occ.getEnd()+1);
-                } else {
-                    occData[1] = "-";
-                }
-            }
-
-            occData[2] = occ.getStart().toString();
-            occData[3] = occ.getEnd().toString();
+    private String[] getPeptideOccurrence(Peptide peptide, Accession accession) {
+        PeptideOccurrenceTable table = getOccurrenceTable(peptide);
+        int row = table.getRowsStart(peptide.getID(), accession.getID());
+        if (row >= table.getRowsEnd(peptide.getID(), accession.getID())) {
+            return null;
+        }
 
-            occurrences.put(occ.getAccession().getAccession(), occData);
-            // TODO: multiple occurrences in the the same protein?
+        String[] occData = new String[4];
+        if (table.getPre(row) != PeptideOccurrenceTable.UNKNOWN_RESIDUE) {
+            occData[0] = String.valueOf(table.getPre(row));
+        }
+        if (table.getPost(row) != PeptideOccurrenceTable.UNKNOWN_RESIDUE) {
+            occData[1] = String.valueOf(table.getPost(row));
         }
+        occData[2] = Integer.toString(table.getStart(row));
+        occData[3] = Integer.toString(table.getEnd(row));
 
-        return occurrences;
+        return occData;
     }
 
 
-
-
     /**
      * This function checks the given PSMs for modifications, which are not yet recorded for the header (i.e. not
      * in the SpectrumIdetificationProtocol.
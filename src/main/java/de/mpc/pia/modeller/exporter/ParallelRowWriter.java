@@ -0,0 +1,147 @@
+package de.mpc.pia.modeller.exporter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * Writes the rows of an export section, which are rendered either by the
+ * calling thread or by a pool of threads. Parallel rendering is done in
+ * chunks of rows, which are written in the order of the rows, so the output
+ * is the same for any number of threads.
+ *
+ * @author julian
+ *
+ */
+final class ParallelRowWriter {
+
+    /** logger for this class */
+    private static final Logger LOGGER = Logger.getLogger(ParallelRowWriter.class);
+
+    /** the number of rows, which are rendered together by one thread */
+    static final int RENDER_CHUNK_SIZE = 1000;
+
+
+    /**
+     * Renders a single row (or several rows, which belong together) of a
+     * section. When rendering in parallel, this is called by several threads
+     * concurrently.
+     */
+    @FunctionalInterface
+    interface RowRenderer {
+        void render(int row, StringBuilder out);
+    }
+
+
+    /**
+     * We don't ever want to instantiate this class
+     */
+    private ParallelRowWriter() {
+        throw new AssertionError();
+    }
+
+
+    /**
+     * Returns the number of threads actually used for the given setting, i.e.
+     * all available processors for values smaller than 1.
+     *
+     * @param numThreads
+     * @return
+     */
+    static int getUsedThreads(int numThreads) {
+        return (numThreads > 0) ? numThreads : Runtime.getRuntime().availableProcessors();
+    }
+
+
+    /**
+     * Renders the given number of rows with the renderer and writes them to
+     * the writer. If more than one thread is used, chunks of rows are rendered
+     * by a pool of threads, while the calling thread writes the finished
+     * chunks in the order of the rows. The sequential rendering reuses one
+     * buffer for all rows.
+     *
+     * @param writer
+     * @param nrRows
+     * @param renderer
+     * @param numThreads the number of threads, all available processors for
+     * values smaller than 1
+     * @param rowsName the name of the rows, used for logging
+     * @throws IOException
+     */
+    static void writeRows(Writer writer, int nrRows, RowRenderer renderer, int numThreads,
+            String rowsName) throws IOException {
+        int nrThreads = getUsedThreads(numThreads);
+
+        if ((nrThreads < 2) || (nrRows <= RENDER_CHUNK_SIZE)) {
+            StringBuilder rowBuffer = new StringBuilder();
+            for (int row = 0; row < nrRows; row++) {
+                rowBuffer.setLength(0);
+                renderer.render(row, rowBuffer);
+                writer.append(rowBuffer);
+                logWrittenRows(row + 1, nrRows, rowsName);
+            }
+            return;
+        }
+
+        LOGGER.debug("rendering " + rowsName + " with " + nrThreads + " threads");
+        ExecutorService renderPool = Executors.newFixedThreadPool(nrThreads);
+        Deque<Future<StringBuilder>> renderedChunks = new ArrayDeque<>();
+        int writtenRows = 0;
+
+        try {
+            for (int start = 0; start < nrRows; start += RENDER_CHUNK_SIZE) {
+                int chunkStart = start;
+                int chunkEnd = Math.min(start + RENDER_CHUNK_SIZE, nrRows);
+                renderedChunks.add(renderPool.submit(() -> {
+                    StringBuilder chunk = new StringBuilder();
+                    for (int row = chunkStart; row < chunkEnd; row++) {
+                        renderer.render(row, chunk);
+                    }
+                    return chunk;
+                }));
+
+                // keep only a limited number of rendered chunks in memory
+                if (renderedChunks.size() >= 2 * nrThreads) {
+                    writer.append(renderedChunks.poll().get());
+                    writtenRows = Math.min(writtenRows + RENDER_CHUNK_SIZE, nrRows);
+                    logWrittenRows(writtenRows, nrRows, rowsName);
+                }
+            }
+
+            while (!renderedChunks.isEmpty()) {
+                writer.append(renderedChunks.poll().get());
+                writtenRows = Math.min(writtenRows + RENDER_CHUNK_SIZE, nrRows);
+                logWrittenRows(writtenRows, nrRows, rowsName);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while rendering the " + rowsName, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("error while rendering the " + rowsName, e.getCause());
+        } finally {
+            renderPool.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Logs the progress of the written rows every 10000 rows.
+     */
+    private static void logWrittenRows(int count, int nrRows, String rowsName) {
+        if (count % 10000 == 0) {
+            LOGGER.debug("exported " + count + " / " + nrRows + " " + rowsName + " "
+                    + '(' + (100.0 * count / nrRows) + "%)");
+        }
+    }
+}
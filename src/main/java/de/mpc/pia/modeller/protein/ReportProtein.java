@@ -13,7 +13,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import de.mpc.pia.intermediate.Accession;
-import de.mpc.pia.intermediate.AccessionOccurrence;
+import de.mpc.pia.intermediate.PeptideOccurrenceTable;
 import de.mpc.pia.modeller.IdentificationKeySettings;
 import de.mpc.pia.modeller.peptide.ReportPeptide;
 import de.mpc.pia.modeller.psm.PSMReportItem;
@@ -210,47 +210,48 @@ public class ReportProtein implements Rankable, Filterable, FDRComputable, Seria
         }
 
         // the start and stop of this peptide
-        for (AccessionOccurrence occurrence
-                : pep.getPeptide().getAccessionOccurrences()) {
+        PeptideOccurrenceTable occurrences = PeptideOccurrenceTable.getTable(pep.getPeptide());
+        long peptideID = pep.getPeptide().getID();
+        long accessionID = accMap.get(accession).getID();
+        int rowsEnd = occurrences.getRowsEnd(peptideID, accessionID);
 
-            if (accession.equals(occurrence.getAccession().getAccession())) {
-                int start = occurrence.getStart();
-                int end = occurrence.getEnd();
+        for (int row = occurrences.getRowsStart(peptideID, accessionID); row < rowsEnd; row++) {
+            int start = occurrences.getStart(row);
+            int end = occurrences.getEnd(row);
 
 
-                // get the closest start before this start
-                Integer startKey = coverageMap.floorKey(start);
-                // get the closest start before this end
-                Integer endKey = coverageMap.floorKey(end);
+            // get the closest start before this start
+            Integer startKey = coverageMap.floorKey(start);
+            // get the closest start before this end
+            Integer endKey = coverageMap.floorKey(end);
 
 
-                if ((startKey != null) && (start <= coverageMap.get(startKey) + 1)) {
-                    // the start is in a coverage or directly adjacent to it, so take this as start
-                    start = startKey;
-                }
-
-                if ((endKey != null) && (end < coverageMap.get(endKey))) {
-                    // the end is in a coverage, take the bigger end
-                    end = coverageMap.get(endKey);
-                } else {
-                    Integer nextKey = coverageMap.floorKey(end+1);
-                    if ((nextKey != null) &&
-                            ((endKey == null) || (nextKey > endKey))) {
-                        end = coverageMap.get(nextKey);
-                    }
-                }
+            if ((startKey != null) && (start <= coverageMap.get(startKey) + 1)) {
+                // the start is in a coverage or directly adjacent to it, so take this as start
+                start = startKey;
+            }
 
-                // remove all coverages between start and end
-                Set<Integer> remKeys =
-                        new HashSet<>(
-                                coverageMap.subMap(start, true, end, true).keySet());
-                for (Integer key : remKeys) {
-                    coverageMap.remove(key);
+            if ((endKey != null) && (end < coverageMap.get(endKey))) {
+                // the end is in a coverage, take the bigger end
+                end = coverageMap.get(endKey);
+            } else {
+                Integer nextKey = coverageMap.floorKey(end+1);
+                if ((nextKey != null) &&
+                        ((endKey == null) || (nextKey > endKey))) {
+                    end = coverageMap.get(nextKey);
                 }
+            }
 
-                // and finally add the start and end position
-                coverageMap.put(start, end);
+            // remove all coverages between start and end
+            Set<Integer> remKeys =
+                    new HashSet<>(
+                            coverageMap.subMap(start, true, end, true).keySet());
+            for (Integer key : remKeys) {
+                coverageMap.remove(key);
             }
+
+            // and finally add the start and end position
+            coverageMap.put(start, end);
         }
 
         // the coverage must be recalculated at the next call
@@ -16,6 +16,7 @@ import de.mpc.pia.modeller.psm.PSMReportItem;
 import de.mpc.pia.modeller.psm.ReportPSM;
 import de.mpc.pia.modeller.psm.ReportPSMSet;
 import de.mpc.pia.modeller.report.filter.AbstractFilter;
+import de.mpc.pia.modeller.report.filter.CompiledFilterList;
 import de.mpc.pia.modeller.report.filter.FilterFactory;
 import de.mpc.pia.modeller.report.filter.RegisteredFilters;
 import de.mpc.pia.modeller.report.filter.impl.PSMScoreFilter;
@@ -296,6 +297,7 @@ public abstract class AbstractProteinInference implements Serializable {
             Map<String, ReportPSMSet> reportPSMSetMap, boolean considerModifications,
             Map<String, Boolean> psmSetSettings, Map<String, ReportPeptide> reportPeptideMap) {
         Map<Long, List<ReportPeptide>> peptidesMap = new HashMap<>(groupMap.size() / 2);
+        CompiledFilterList compiledFilters = FilterFactory.compileFilters(filters, 0L);
 
         for (Map.Entry<Long, Group> gIt : groupMap.entrySet()) {
             Map<String, ReportPeptide> gPepsMap = new HashMap<>();
@@ -335,7 +337,7 @@ public abstract class AbstractProteinInference implements Serializable {
                         continue;
                     }
 
-                    if (FilterFactory.satisfiesFilterList(reportPSM, 0L, filters)) {
+                    if (compiledFilters.satisfiesFilters(reportPSM)) {
                         // all filters on PSM level are satisfied -> use this PSM
                         String pepStringID = ReportPeptide.createStringID(reportPSM, considerModifications);
 
@@ -427,7 +429,7 @@ public abstract class AbstractProteinInference implements Serializable {
                                 }
                             }
 
-                            if (!FilterFactory.satisfiesFilterList(psm, 0L, filters)) {
+                            if (!compiledFilters.satisfiesFilters(psm)) {
                                 // if the ReportPSMSet does not satisfy the filters, remove it
                                 pepIt.removeReportPSMSet((ReportPSMSet) psm,
                                         psmSetSettings);
@@ -443,7 +445,7 @@ public abstract class AbstractProteinInference implements Serializable {
                 if (pepIt.getNrPSMs() > 0) {
                     ReportPeptide repPeptide = checkAndGetPeptideFromMap(pepIt, reportPeptideMap);
 
-                    if (FilterFactory.satisfiesFilterList(repPeptide, 0L, filters)) {
+                    if (compiledFilters.satisfiesFilters(repPeptide)) {
                         // the peptide has PSMs and satisfies the filters
                         keepPeptides.add(repPeptide);
                     }
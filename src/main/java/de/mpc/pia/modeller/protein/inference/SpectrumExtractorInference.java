@@ -11,6 +11,7 @@ import java.util.ListIterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import org.apache.log4j.Logger;
@@ -24,8 +25,10 @@ import de.mpc.pia.modeller.protein.ReportProteinComparatorFactory;
 import de.mpc.pia.modeller.psm.PSMReportItem;
 import de.mpc.pia.modeller.psm.ReportPSM;
 import de.mpc.pia.modeller.psm.ReportPSMSet;
+import de.mpc.pia.modeller.report.filter.CompiledFilterList;
 import de.mpc.pia.modeller.report.filter.FilterFactory;
 import de.mpc.pia.modeller.report.filter.RegisteredFilters;
+import de.mpc.pia.tools.AtomicBitSet;
 
 
 /**
@@ -94,6 +97,12 @@ import de.mpc.pia.modeller.report.filter.RegisteredFilters;
  *   </li>
  * </ol>
  *
+ * The spectrumIdentificationKeys get dense int IDs (see
+ * {@link SpectrumIdentificationKeyIndex}) and the used spectra are tracked in
+ * an {@link AtomicBitSet}, so the proteins of one round can be rebuild in
+ * parallel. The selection of the reported proteins is done single threaded on
+ * the sorted protein list and thus does not depend on the number of threads.
+ *
  *
  * TODO: show, which PSMs are scoring and link a not scoring to it's reason
  * somehow...
@@ -113,8 +122,11 @@ public class SpectrumExtractorInference extends AbstractProteinInference {
     /** the machine readable name of the filter */
     protected static final String SHORT_NAME = "inference_spectrum_extractor";
 
-    /** the list iterator used to give the reportProteins to the working threads */
-    private transient ListIterator<ReportProtein> proteinListIt = null;
+    /** the proteins, which need to be rebuild in the current round */
+    private transient List<ReportProtein> rebuildProteins = null;
+
+    /** index of the next protein in rebuildProteins, which is given to a working thread */
+    private transient AtomicInteger rebuildProteinIdx = null;
 
     /** the number of all spectra */
     private int nrSpectra;
@@ -128,10 +140,6 @@ public class SpectrumExtractorInference extends AbstractProteinInference {
     /** the number of finished splits */
     private int nrFinishedSplits;
 
-
-    /** the accessions' IDs, which may have changed by the spectra used during the last iteration */
-    private Set<Long> changedAccessions;
-
     /** to return 101, when everything is done */
     private boolean inferenceDone;
 
@@ -218,30 +226,29 @@ public class SpectrumExtractorInference extends AbstractProteinInference {
                 "\n\treportPSMSetMap: " + reportPSMSetMap.size()
                 );
 
-        // map from the spectra to the associated accessions' IDs
-        Map<String, Set<Long>> spectraAccessions = new HashMap<>(reportPSMSetMap.size() / 2);
+        // dense IDs for the spectrumIdentificationKeys of all PSMs
+        SpectrumIdentificationKeyIndex spectrumIndex =
+                new SpectrumIdentificationKeyIndex(reportPSMSetMap.values(), psmSetSettings);
+
+        // map from the spectra (dense IDs) to the associated accessions' IDs
+        Map<Integer, Set<Long>> spectraAccessions = new HashMap<>(reportPSMSetMap.size() / 2);
 
         // the reportPSMs are needed frequently, map them from the spectrum ID
         Map<Long, ReportPSM> reportPSMMap = new HashMap<>(reportPSMSetMap.size() / 2);
 
-        // list of the spectrumIdentificationKeys of the already used spectra (this set gets filled while reporting proteins)
-        Set<String> usedSpectra = new HashSet<>();
-
         LOGGER.info("building reportPSMMap...");
 
+        CompiledFilterList compiledFilters = FilterFactory.compileFilters(getFilters(), 0L);
         for (ReportPSMSet psmSet : reportPSMSetMap.values()) {
             for (ReportPSM reportPSM : psmSet.getPSMs()) {
                 // if this PSM satisfies the filters, cache it
-                if (FilterFactory.
-                        satisfiesFilterList(reportPSM, 0L, getFilters())) {
-                    String psmIdKey = reportPSM.getSpectrum().
-                            getSpectrumIdentificationKey(psmSetSettings);
+                if (compiledFilters.satisfiesFilters(reportPSM)) {
+                    Integer psmIdx = spectrumIndex.getIndex(reportPSM.getSpectrum());
 
                     reportPSMMap.put(reportPSM.getSpectrum().getID(), reportPSM);
-                    usedSpectra.add(psmIdKey);
 
                     // populate the spectraAccessions map
-                    Set<Long> accessions = spectraAccessions.computeIfAbsent(psmIdKey, k -> new HashSet<>());
+                    Set<Long> accessions = spectraAccessions.computeIfAbsent(psmIdx, k -> new HashSet<>());
                     for (Accession acc : reportPSM.getAccessions()) {
                         accessions.add(acc.getID());
                     }
@@ -250,7 +257,7 @@ public class SpectrumExtractorInference extends AbstractProteinInference {
         }
         LOGGER.info("reportPSMMap build");
 
-        nrSpectra = usedSpectra.size();
+        nrSpectra = spectraAccessions.size();
 
         LOGGER.info("creating disjoint splits");
 
@@ -258,11 +265,11 @@ public class SpectrumExtractorInference extends AbstractProteinInference {
         Map<Long, Set<Long>> splitIdReportPSMid = new HashMap<>();
         Map<Long, Set<Long>> splitIdAccessions = new HashMap<>();
 
-        Map<String, Long> psmIDsplitID = new HashMap<>();
-        Map<Long, Set<String>> splitIdSpectraID = new HashMap<>();
+        Map<Integer, Long> psmIDsplitID = new HashMap<>();
+        Map<Long, Set<Integer>> splitIdSpectraID = new HashMap<>();
 
         for (Map.Entry<Long, ReportPSM> reportPSMIt : reportPSMMap.entrySet()) {
-            String psmIdKey = reportPSMIt.getValue().getSpectrum().getSpectrumIdentificationKey(psmSetSettings);
+            Integer psmIdKey = spectrumIndex.getIndex(reportPSMIt.getValue().getSpectrum());
             Long splitID = psmIDsplitID.get(psmIdKey);
 
             if (splitID != null) {
@@ -271,7 +278,7 @@ public class SpectrumExtractorInference extends AbstractProteinInference {
                 // find split with any accessions
                 Set<Long> mergeToReportPSMs = null;
                 Set<Long> mergeToAccessions = null;
-                Set<String> mergeToSplitIDs = null;
+                Set<Integer> mergeToSplitIDs = null;
 
                 Iterator<Entry<Long, Set<Long>>> it = splitIdAccessions.entrySet().iterator();
                 while (it.hasNext()) {
@@ -295,8 +302,8 @@ public class SpectrumExtractorInference extends AbstractProteinInference {
                             it.remove();
 
                             // the psmIDs need to be re-linked
-                            Set<String> psmIDs = splitIdSpectraID.get(splitIt.getKey());
-                            for (String psmID : psmIDs) {
+                            Set<Integer> psmIDs = splitIdSpectraID.get(splitIt.getKey());
+                            for (Integer psmID : psmIDs) {
                                 psmIDsplitID.put(psmID, splitID);
                             }
 
@@ -343,6 +350,15 @@ public class SpectrumExtractorInference extends AbstractProteinInference {
 
         List<SpectrumExtractorWorkerThread> threads = new ArrayList<>(nrThreads);
 
+        // the already used spectra (this set gets filled while reporting proteins)
+        AtomicBitSet usedSpectra = new AtomicBitSet(spectrumIndex.size());
+
+        // the spectra used in the current split, only these bits are cleared for the next split
+        List<Integer> splitUsedSpectra = new ArrayList<>();
+
+        // the accessions' IDs, which may have changed by the spectra used during the last iteration
+        Set<Long> changedAccessions = new HashSet<>();
+
         // the proteins of all splits
         List<ReportProtein> completeReportProteinList = new ArrayList<>(groupMap.size());
 
@@ -412,40 +428,51 @@ public class SpectrumExtractorInference extends AbstractProteinInference {
             List<ReportProtein> reportProteinList =
                     new ArrayList<>(proteinList.size());
 
-            // reset the used spectra
-            usedSpectra = new HashSet<>();
+            // reset the spectra used by the last split
+            splitUsedSpectra.forEach(usedSpectra::clear);
+            splitUsedSpectra.clear();
+            nrUsedSpectra = 0;
 
-            changedAccessions = new HashSet<>();
+            changedAccessions.clear();
             boolean iterate = true;
             while (iterate) {
                 // now the (remaining) proteins get rebuild (with usable spectra) and scored
-                proteinListIt = proteinList.listIterator();
+                rebuildProteins = getProteinsForRebuild(proteinList, changedAccessions);
+                rebuildProteinIdx = new AtomicInteger(0);
 
-                // initialize and start  the worker threads
+                // initialize and start the worker threads (not more than proteins to rebuild)
+                int roundThreads = Math.min(nrThreads, rebuildProteins.size());
                 threads.clear();
-                for (int i=0; i < nrThreads; i++) {
+                for (int i=0; i < roundThreads; i++) {
                     SpectrumExtractorWorkerThread workerThread =
                             new SpectrumExtractorWorkerThread(i+1, this,
                                     getScoring(), getFilters(), groupsPeptides,
                                     reportPSMSetMap, splitReportPSMMap, peptidesSpectra,
-                                    usedSpectra, scoreShort, considerModifications,
+                                    spectrumIndex, usedSpectra, scoreShort, considerModifications,
                                     psmSetSettings);
                     threads.add(workerThread);
-                    workerThread.start();
                 }
 
-                // wait for the threads to finish
-                for (SpectrumExtractorWorkerThread workerThread : threads) {
-                    try {
-                        workerThread.join();
-                    } catch (InterruptedException e) {
-                        LOGGER.error("thread got interrupted!", e);
-                        Thread.currentThread().interrupt();
+                if (threads.size() == 1) {
+                    // no need for an additional thread
+                    threads.get(0).run();
+                } else {
+                    threads.forEach(Thread::start);
+
+                    // wait for the threads to finish
+                    for (SpectrumExtractorWorkerThread workerThread : threads) {
+                        try {
+                            workerThread.join();
+                        } catch (InterruptedException e) {
+                            LOGGER.error("thread got interrupted!", e);
+                            Thread.currentThread().interrupt();
+                        }
                     }
                 }
+                rebuildProteins = null;
 
                 // remove "empty" proteins
-                proteinListIt = proteinList.listIterator();
+                ListIterator<ReportProtein> proteinListIt = proteinList.listIterator();
                 while (proteinListIt.hasNext()) {
                     if (proteinListIt.next().getNrPeptides() < 1) {
                         proteinListIt.remove();
@@ -458,8 +485,6 @@ public class SpectrumExtractorInference extends AbstractProteinInference {
                 proteinList.sort(comparator);
 
                 // take the next protein from the list, that can be reported
-                proteinListIt = null;
-
                 Double reportScore = null;
                 changedAccessions.clear();
                 iterate = false;
@@ -528,7 +553,7 @@ public class SpectrumExtractorInference extends AbstractProteinInference {
                     proteinList.remove(0);
 
 
-                    if (FilterFactory.satisfiesFilterList(protein, 0L, getFilters())) {
+                    if (compiledFilters.satisfiesFilters(protein)) {
                         // TODO: insert something like "needs X new spectra/PSMs/Peptides per protein". for now it is set to 1 new peptide
 
                         // check for subprotein
@@ -560,14 +585,16 @@ public class SpectrumExtractorInference extends AbstractProteinInference {
 
                                             // add the used spectra to the set
                                             for (ReportPSM psm : ((ReportPSMSet) psmSet).getPSMs()) {
-                                                String specIdKey = psm.getSpectrum().
-                                                        getSpectrumIdentificationKey(psmSetSettings);
+                                                int specIdx = spectrumIndex.getIndex(psm.getSpectrum());
 
                                                 // it is not relevant to check, whether the spectrum is scoring,
                                                 // because the spectrum is scoring in any of the used peptides
-                                                usedSpectra.add(specIdKey);
+                                                if ((specIdx >= 0) && usedSpectra.set(specIdx)) {
+                                                    nrUsedSpectra++;
+                                                    splitUsedSpectra.add(specIdx);
+                                                }
 
-                                                Set<Long> accIDs = spectraAccessions.get(specIdKey);
+                                                Set<Long> accIDs = spectraAccessions.get(specIdx);
                                                 if (accIDs != null) {
                                                     changedAccessions.addAll(accIDs);
                                                 }
@@ -592,7 +619,6 @@ public class SpectrumExtractorInference extends AbstractProteinInference {
                                         }
                                     }
 
-                                    nrUsedSpectra = usedSpectra.size();
                                     peptidesSpectra.put(peptideKey, psms);
                                 }
                             }
@@ -686,8 +712,8 @@ public class SpectrumExtractorInference extends AbstractProteinInference {
             }
         }
 
-        proteinListIt = null;
-        changedAccessions = null;
+        rebuildProteins = null;
+        rebuildProteinIdx = null;
         threads.clear();
 
         LOGGER.info(NAME + " calculateInference done, " + completeReportProteinList.size() + " groups inferred");
@@ -697,41 +723,58 @@ public class SpectrumExtractorInference extends AbstractProteinInference {
 
 
     /**
-     * Returns the next protein in the protein list.
+     * Collects the proteins of the protein list, which need to be (re)build:
+     * either they are not yet build or they contain any of the changed
+     * accessions.
      *
+     * @param proteinList the (remaining) proteins
+     * @param changedAccessions the accessions' IDs, which may have changed by
+     * the spectra used during the last iteration
      * @return
      */
-    public synchronized ReportProtein getNextProteinForRebuild() {
-        synchronized (proteinListIt) {
-            if (proteinListIt != null) {
-
-                while (proteinListIt.hasNext()) {
-                    ReportProtein prot = proteinListIt.next();
-
-                    if (prot.getNrPeptides() > 0) {
-                        // protein is already build, check for possible changes in last iteration
-
-                        for (Accession acc : prot.getAccessions()) {
-                            if (changedAccessions.contains(acc.getID())) {
-                                // protein might have been changed, rebuild it
-                                return prot;
-                            }
-                        }
-                    } else {
-                        // protein is not yet build, build it
-                        return prot;
+    private static List<ReportProtein> getProteinsForRebuild(List<ReportProtein> proteinList,
+            Set<Long> changedAccessions) {
+        List<ReportProtein> proteins = new ArrayList<>(proteinList.size());
+
+        for (ReportProtein prot : proteinList) {
+            if (prot.getNrPeptides() > 0) {
+                // protein is already build, check for possible changes in last iteration
+                for (Accession acc : prot.getAccessions()) {
+                    if (changedAccessions.contains(acc.getID())) {
+                        // protein might have been changed, rebuild it
+                        proteins.add(prot);
+                        break;
                     }
-
-                    // the protein is not changed but build, no rebuild necessary
                 }
-
-                return null;
             } else {
-                // TODO: throw exception or something
-                LOGGER.error("The protein iterator is not yet initialized!");
-                return null;
+                // protein is not yet build, build it
+                proteins.add(prot);
             }
         }
+
+        return proteins;
+    }
+
+
+    /**
+     * Returns the next protein, which needs to be rebuild in the current
+     * round. This may be called concurrently by the worker threads.
+     *
+     * @return the next protein or null, if all proteins are given out
+     */
+    public ReportProtein getNextProteinForRebuild() {
+        List<ReportProtein> proteins = rebuildProteins;
+        if (proteins == null) {
+            // TODO: throw exception or something
+            LOGGER.error("The proteins for rebuild are not yet initialized!");
+            return null;
+        }
+
+        int idx = rebuildProteinIdx.getAndIncrement();
+        if (idx < proteins.size()) {
+            return proteins.get(idx);
+        }
+        return null;
     }
 
 
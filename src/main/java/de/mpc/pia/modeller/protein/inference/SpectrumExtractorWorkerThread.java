@@ -22,9 +22,11 @@ import de.mpc.pia.modeller.psm.PSMReportItem;
 import de.mpc.pia.modeller.psm.ReportPSM;
 import de.mpc.pia.modeller.psm.ReportPSMSet;
 import de.mpc.pia.modeller.report.filter.AbstractFilter;
+import de.mpc.pia.modeller.report.filter.CompiledFilterList;
 import de.mpc.pia.modeller.report.filter.FilterFactory;
 import de.mpc.pia.modeller.score.ScoreModel;
 import de.mpc.pia.modeller.score.ScoreModelEnum;
+import de.mpc.pia.tools.AtomicBitSet;
 
 
 
@@ -40,7 +42,7 @@ public class SpectrumExtractorWorkerThread extends Thread {
     private AbstractScoring scoring;
 
     /** the applied inference filters */
-    private List<AbstractFilter> filters;
+    private CompiledFilterList filters;
 
     /** maps from groupID/proteinID to the peptides */
     private Map<Long, Set<Peptide>> groupsPeptides;
@@ -54,8 +56,11 @@ public class SpectrumExtractorWorkerThread extends Thread {
     /** maps from the peptideKey to the reportPSMSets used by the reportPeptide */
     private Map<String, Set<ReportPSMSet>> peptidesSpectra;
 
-    /** list of the spectrumIdentificationKeys of the already used spectra (this map gets filled while reporting proteins) */
-    private Set<String> usedSpectra;
+    /** dense IDs of the spectrumIdentificationKeys */
+    private SpectrumIdentificationKeyIndex spectrumIndex;
+
+    /** the IDs of the already used spectra (this set gets filled while reporting proteins) */
+    private AtomicBitSet usedSpectra;
 
     /** shortName of the used protein scoring */
     private String scoreShort;
@@ -82,8 +87,9 @@ public class SpectrumExtractorWorkerThread extends Thread {
      * @param reportPSMMap map them from the PSM ID to the reportPSMs
      * @param peptidesSpectra maps from the peptideKey to the reportPSMSets used
      * by the reportPeptide
-     * @param usedSpectra list of the spectrumIdentificationKeys of the already
-     * used spectra (this map gets filled while reporting proteins)
+     * @param spectrumIndex dense IDs of the spectrumIdentificationKeys
+     * @param usedSpectra the IDs of the already used spectra (this set gets
+     * filled while reporting proteins)
      * @param scoreShort shortName of the used protein scoring
      * @param considerModifications whether modifications are considered while
      * inferring the peptides
@@ -97,18 +103,20 @@ public class SpectrumExtractorWorkerThread extends Thread {
             Map<String, ReportPSMSet> reportPSMSetMap,
             Map<Long, ReportPSM> reportPSMMap,
             Map<String, Set<ReportPSMSet>> peptidesSpectra,
-            Set<String> usedSpectra,
+            SpectrumIdentificationKeyIndex spectrumIndex,
+            AtomicBitSet usedSpectra,
             String scoreShort,
             boolean considerModifications,
             Map<String, Boolean> psmSetSettings) {
         this.id = id;
         this.parent = parent;
         this.scoring = scoring;
-        this.filters = filters;
+        this.filters = FilterFactory.compileFilters(filters, 0L);
         this.groupsPeptides = groupsPeptides;
         this.reportPSMSetMap = reportPSMSetMap;
         this.reportPSMMap = reportPSMMap;
         this.peptidesSpectra = peptidesSpectra;
+        this.spectrumIndex = spectrumIndex;
         this.usedSpectra = usedSpectra;
         this.scoreShort = scoreShort;
         this.considerModifications = considerModifications;
@@ -250,8 +258,7 @@ public class SpectrumExtractorWorkerThread extends Thread {
                                     }
                                 }
 
-                                if (!FilterFactory.satisfiesFilterList(
-                                        psmSet, 0L, filters)) {
+                                if (!filters.satisfiesFilters(psmSet)) {
                                     // remove the PSMSet from the peptide
                                     peptide.removeReportPSMSet((ReportPSMSet) psmSet,
                                             psmSetSettings);
@@ -578,8 +585,7 @@ public class SpectrumExtractorWorkerThread extends Thread {
                     iterate = false;
                     // check, if a peptide is not valid after filtering
                     for (ReportPeptide peptide : peptideMap.values()) {
-                        if (!FilterFactory.
-                                satisfiesFilterList(peptide, 0L, filters)) {
+                        if (!filters.satisfiesFilters(peptide)) {
                             peptideBlacklist.add(peptide.getStringID());
                             iterate = true;
                         }
@@ -588,8 +594,7 @@ public class SpectrumExtractorWorkerThread extends Thread {
 
         if (peptideMap.size() > 0) {
             // now add the (remaining) peptides from peptideMap to the protein, if they satisfy the filters
-            peptideMap.values().stream().filter(peptide -> FilterFactory.
-                    satisfiesFilterList(peptide, 0L, filters)).forEach(protein::addPeptide);
+            peptideMap.values().stream().filter(filters::satisfiesFilters).forEach(protein::addPeptide);
 
             // and finally score the protein
             protein.setScore(scoring.calculateProteinScore(protein));
@@ -618,10 +623,7 @@ public class SpectrumExtractorWorkerThread extends Thread {
 
         if (reportPSM != null) {
             // this PSM satisfied the filters, because it is still in the map
-            String specIDKey =
-                    psm.getSpectrumIdentificationKey(psmSetSettings);
-
-            if (!usedSpectra.contains(specIDKey)) {
+            if (!isSpectrumUsed(psm)) {
                 // this spectrum can still be used for this peptide
                 ReportPeptide reportPeptide =
                         peptideMap.computeIfAbsent(peptideKey, k -> new ReportPeptide(psm.getSequence(),
@@ -685,18 +687,16 @@ public class SpectrumExtractorWorkerThread extends Thread {
                 psm.getIdentificationKey(psmSetSettings));
 
         if ((reportPSMSet != null) &&
-                (FilterFactory.satisfiesFilterList(
-                        reportPSMSet, 0L, filters))) {
+                filters.satisfiesFilters(reportPSMSet)) {
             // the reportPSMSet passes the filters
-            String specIDKey =
-                    psm.getSpectrumIdentificationKey(psmSetSettings);
-
-            if (!usedSpectra.contains(specIDKey)) {
+            if (!isSpectrumUsed(psm)) {
                 // this spectrum can still be used for this peptide
                 ReportPeptide reportPeptide =
                         peptideMap.computeIfAbsent(peptideKey, k -> new ReportPeptide(psm.getSequence(),
                                 peptideKey, psm.getPeptide()));
 
+                String specIDKey =
+                        psm.getSpectrumIdentificationKey(psmSetSettings);
                 if (!reportPeptide.getSpectraIdentificationKeys().contains(
                         specIDKey)) {
                     // the needed PSMSet is not yet in the peptide
@@ -708,6 +708,24 @@ public class SpectrumExtractorWorkerThread extends Thread {
     }
 
 
+    /**
+     * Checks, whether the spectrum of the given PSM is already used by a
+     * reported protein.
+     *
+     * @param psm
+     * @return
+     */
+    private boolean isSpectrumUsed(PeptideSpectrumMatch psm) {
+        int specIdx = spectrumIndex.getIndex(psm);
+        if (specIdx < 0) {
+            // the PSM itself is not indexed, but maybe its spectrum
+            specIdx = spectrumIndex.getIndex(psm.getSpectrumIdentificationKey(psmSetSettings));
+        }
+
+        return (specIdx >= 0) && usedSpectra.get(specIdx);
+    }
+
+
     /**
      * Sorts the given spectrumIdentificationKey and the corresponding peptide
      * keys into the tuple in the spectraAndPeptides.
@@ -0,0 +1,93 @@
+package de.mpc.pia.modeller.protein.inference;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import de.mpc.pia.intermediate.PeptideSpectrumMatch;
+import de.mpc.pia.modeller.psm.ReportPSM;
+import de.mpc.pia.modeller.psm.ReportPSMSet;
+
+
+/**
+ * Assigns dense int IDs to the spectrumIdentificationKeys of all PSMs in the
+ * given PSM sets. The IDs of the PSMs are cached, so the (rather expensive)
+ * creation of the spectrumIdentificationKey is done only once per PSM.
+ * <p>
+ * The index is filled completely in the constructor and not changed
+ * afterwards, so it can be read by multiple threads.
+ *
+ * @author julian
+ *
+ */
+public class SpectrumIdentificationKeyIndex {
+
+    /** maps from the spectrumIdentificationKey to the dense ID */
+    private final Map<String, Integer> keyIndices;
+
+    /** maps from the ID of the PSM (i.e. the spectrum) to the dense ID of its spectrumIdentificationKey */
+    private final Map<Long, Integer> psmIndices;
+
+
+    /**
+     * Creates the index for all PSMs in the given PSM sets.
+     *
+     * @param psmSets the PSM sets, which contain all PSMs of interest
+     * @param psmSetSettings the settings used for the spectrumIdentificationKey
+     */
+    public SpectrumIdentificationKeyIndex(Collection<ReportPSMSet> psmSets,
+            Map<String, Boolean> psmSetSettings) {
+        keyIndices = new HashMap<>(psmSets.size());
+        psmIndices = new HashMap<>(psmSets.size());
+
+        for (ReportPSMSet psmSet : psmSets) {
+            for (ReportPSM reportPSM : psmSet.getPSMs()) {
+                PeptideSpectrumMatch psm = reportPSM.getSpectrum();
+                if (!psmIndices.containsKey(psm.getID())) {
+                    String specIdKey = psm.getSpectrumIdentificationKey(psmSetSettings);
+                    Integer index = keyIndices.get(specIdKey);
+                    if (index == null) {
+                        index = keyIndices.size();
+                        keyIndices.put(specIdKey, index);
+                    }
+                    psmIndices.put(psm.getID(), index);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Returns the number of distinct spectrumIdentificationKeys, i.e. all IDs
+     * are smaller than this value.
+     *
+     * @return
+     */
+    public int size() {
+        return keyIndices.size();
+    }
+
+
+    /**
+     * Returns the dense ID of the given PSM's spectrumIdentificationKey.
+     *
+     * @param psm
+     * @return the ID or -1, if the PSM is not indexed
+     */
+    public int getIndex(PeptideSpectrumMatch psm) {
+        Integer index = psmIndices.get(psm.getID());
+        return (index != null) ? index : -1;
+    }
+
+
+    /**
+     * Returns the dense ID of the given spectrumIdentificationKey.
+     *
+     * @param specIdKey
+     * @return the ID or -1, if the key is not indexed
+     */
+    public int getIndex(String specIdKey) {
+        Integer index = keyIndices.get(specIdKey);
+        return (index != null) ? index : -1;
+    }
+}
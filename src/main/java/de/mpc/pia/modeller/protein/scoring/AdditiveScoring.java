@@ -1,7 +1,7 @@
 package de.mpc.pia.modeller.protein.scoring;
 
-import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import de.mpc.pia.modeller.protein.ReportProtein;
 import de.mpc.pia.modeller.protein.scoring.settings.PSMForScoring;
@@ -42,27 +42,50 @@ public class AdditiveScoring extends AbstractScoring {
      */
     @Override
     public Double calculateProteinScore(ReportProtein protein) {
-        List<ScoreModel> scores = PSMForScoring.getProteinsScores(
-                getPSMForScoringSetting().getValue(), protein,
-                getScoreSetting().getValue());
+        ScoreSum sum = new ScoreSum();
 
-        if (scores.isEmpty()) {
-            // no scores found -> no scoring possible
-            return Double.NaN;
-        }
+        PSMForScoring.forEachProteinsScore(getPSMForScoringSetting().getValue(),
+                protein, getScoreSetting().getValue(), sum);
+
+        // NaN, if no scores were found -> no scoring possible
+        return sum.getSum();
+    }
+
+
+    /**
+     * Sums up the scores with a Kahan summation, to keep the rounding errors
+     * small for many scores.
+     */
+    private static class ScoreSum implements Consumer<ScoreModel> {
+
+        private double sum = 0.0;
+
+        /** the compensation for lost low-order bits */
+        private double compensation = 0.0;
 
-        Double proteinScore = Double.NaN;
+        private boolean hasValue = false;
 
-        for (ScoreModel score : scores) {
-            if ((score != null) && !score.getValue().equals(Double.NaN)) {
-                if (!proteinScore.equals(Double.NaN)) {
-                    proteinScore += score.getValue();
-                } else {
-                    proteinScore = score.getValue();
-                }
+        @Override
+        public void accept(ScoreModel score) {
+            if ((score == null) || (score.getValue() == null) || score.getValue().isNaN()) {
+                return;
             }
+
+            double value = score.getValue();
+            if (Double.isInfinite(value) || Double.isInfinite(sum)) {
+                // no compensation possible
+                sum += value;
+            } else {
+                double y = value - compensation;
+                double t = sum + y;
+                compensation = (t - sum) - y;
+                sum = t;
+            }
+            hasValue = true;
         }
 
-        return proteinScore;
+        private double getSum() {
+            return hasValue ? sum : Double.NaN;
+        }
     }
 }
@@ -1,7 +1,7 @@
 package de.mpc.pia.modeller.protein.scoring;
 
-import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import de.mpc.pia.modeller.protein.ReportProtein;
 import de.mpc.pia.modeller.protein.scoring.settings.PSMForScoring;
@@ -35,55 +35,125 @@ public class GeometricMeanScoring extends AbstractScoring {
 	
 	@Override
 	public Double calculateProteinScore(ReportProtein protein) {
-		List<ScoreModel> scores = PSMForScoring.getProteinsScores(
-				getPSMForScoringSetting().getValue(), protein,
-				getScoreSetting().getValue());
+		LogScoreSum logSum = new LogScoreSum();
 		
-		if (scores.size() < 1) {
-			// no scores found -> no scoring possible
-			return Double.NaN;
-		}
+		PSMForScoring.forEachProteinsScore(getPSMForScoringSetting().getValue(),
+				protein, getScoreSetting().getValue(), logSum);
 		
-		Double proteinScore = Double.NaN;
-		int nrScore = 0;
+		return logSum.getGeometricMeanScore();
+	}
+	
+	
+	/**
+	 * Calculates the geometric mean score of the given scores, as it is done
+	 * for the scores of a protein.
+	 * 
+	 * @param scores
+	 * @return
+	 */
+	static Double calculateGeometricMeanScore(Iterable<ScoreModel> scores) {
+		LogScoreSum logSum = new LogScoreSum();
+		scores.forEach(logSum);
+		return logSum.getGeometricMeanScore();
+	}
+	
+	
+	/**
+	 * Sums up the logarithms of the scores, separated by whether the score
+	 * goes into the product or is used as negative logarithm.
+	 */
+	private static class LogScoreSum implements Consumer<ScoreModel> {
 		
-		// count the scores
-		for (ScoreModel score : scores) {
-			if ((score != null) && !score.getValue().equals(Double.NaN)) {
-				nrScore++;
-			}
-		}
+		private int nrScores = 0;
 		
-		if (nrScore > 0) {
-			double exp = 1.0 / (double)nrScore;
+		private int nrProductScores = 0;
+		
+		private double productLogSum = 0.0;
+		
+		private double negativeLogSum = 0.0;
+		
+		/** the value of the first score, used if there is only one */
+		private double singleScore = Double.NaN;
+		
+		/** whether any score is negative, the logarithm is not defined then */
+		private boolean hasNegativeScore = false;
+		
+		/** whether any score of the product is zero */
+		private boolean hasZeroProductScore = false;
+		
+		/** whether any lower-better score is zero */
+		private boolean hasZeroNegativeLogScore = false;
+		
+		@Override
+		public void accept(ScoreModel score) {
+			if ((score == null) || (score.getValue() == null) || score.getValue().isNaN()) {
+				return;
+			}
 			
-			// calculate the product(scores)^(1/nrScores) respectively -log() of it for higherScoreBetter
-			for (ScoreModel score : scores) {
-				Double signum = 1.0;
-				if ((score.getType().higherScoreBetter() != null) &&
-						!score.getType().higherScoreBetter()) {
-					signum = -1.0;
+			double value = score.getValue();
+			if (nrScores == 0) {
+				singleScore = value;
+			}
+			nrScores++;
+			
+			if (value < 0) {
+				hasNegativeScore = true;
+			}
+			
+			if ((score.getType().higherScoreBetter() != null) &&
+					!score.getType().higherScoreBetter()) {
+				if (value == 0) {
+					hasZeroNegativeLogScore = true;
+				} else if (value > 0) {
+					negativeLogSum += Math.log10(value);
 				}
-				
-				if (!score.getValue().equals(Double.NaN)) {
-					if (!proteinScore.equals(Double.NaN)) {
-						if (signum < 0) {
-							proteinScore -= Math.log10(Math.pow(score.getValue(), exp));
-						} else {
-							proteinScore *= Math.pow(score.getValue(), exp);
-						}
-						
-					} else {
-						if (signum < 0) {
-							proteinScore = -Math.log10(Math.pow(score.getValue(), exp));
-						} else {
-							proteinScore = Math.pow(score.getValue(), exp);
-						}
-					}
+			} else {
+				if (value == 0) {
+					hasZeroProductScore = true;
+				} else if (value > 0) {
+					productLogSum += Math.log10(value);
 				}
+				nrProductScores++;
 			}
 		}
 		
-		return proteinScore;
+		/**
+		 * Returns the product(scores)^(1/nrScores) respectively the -log() of it
+		 * for the lower-better scores, NaN if no scores were given.
+		 */
+		private Double getGeometricMeanScore() {
+			if (nrScores < 1) {
+				// no scores found -> no scoring possible
+				return Double.NaN;
+			}
+			
+			if (nrScores == 1) {
+				// a single score is returned as it is (respectively its -log())
+				return (nrProductScores == 1) ? singleScore : -Math.log10(singleScore);
+			}
+			
+			if (hasNegativeScore) {
+				// the geometric mean is not defined for negative scores
+				return Double.NaN;
+			}
+			
+			// calculate the product(scores)^(1/nrScores) respectively -log() of it for higherScoreBetter
+			double exp = 1.0 / (double)nrScores;
+			double proteinScore;
+			if (nrProductScores > 0) {
+				// a zero score makes the whole product zero
+				proteinScore = hasZeroProductScore ? 0.0 : Math.pow(10, productLogSum * exp);
+			} else {
+				proteinScore = 0.0;
+			}
+			
+			if (hasZeroNegativeLogScore) {
+				// -log(0) of a lower-better score
+				return Double.POSITIVE_INFINITY;
+			}
+			proteinScore -= negativeLogSum * exp;
+			
+			return proteinScore;
+		}
 	}
 }
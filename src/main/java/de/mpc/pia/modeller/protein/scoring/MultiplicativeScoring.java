@@ -1,7 +1,7 @@
 package de.mpc.pia.modeller.protein.scoring;
 
-import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import de.mpc.pia.modeller.protein.ReportProtein;
 import de.mpc.pia.modeller.protein.scoring.settings.PSMForScoring;
@@ -39,48 +39,52 @@ public class MultiplicativeScoring extends AbstractScoring {
 
     @Override
     public Double calculateProteinScore(ReportProtein protein) {
-        List<ScoreModel> scores = PSMForScoring.getProteinsScores(
-                getPSMForScoringSetting().getValue(), protein,
-                getScoreSetting().getValue());
+        ScoreProduct product = new ScoreProduct();
 
-        if (scores.isEmpty()) {
-            // no scores found -> no scoring possible
-            return Double.NaN;
-        }
+        PSMForScoring.forEachProteinsScore(getPSMForScoringSetting().getValue(),
+                protein, getScoreSetting().getValue(), product);
 
-        Double proteinScore = Double.NaN;
+        // NaN, if no scores were found -> no scoring possible
+        return product.proteinScore;
+    }
 
-        for (ScoreModel score : scores) {
-            Double signum = 1.0;
-            if ((score.getType().higherScoreBetter() != null) &&
-                    !score.getType().higherScoreBetter()) {
-                signum = -1.0;
-            }
 
-            if (!score.getValue().equals(Double.NaN)) {
-                if (!proteinScore.equals(Double.NaN)) {
-                    proteinScore = addToScore(proteinScore, signum, score.getValue());
+    /**
+     * Accumulates the scores into the product, respectively the sum of the
+     * negative logarithms for scores, where lower is better.
+     */
+    private static class ScoreProduct implements Consumer<ScoreModel> {
+
+        private double proteinScore = Double.NaN;
+
+        @Override
+        public void accept(ScoreModel score) {
+            boolean negativeLog = (score.getType().higherScoreBetter() != null) &&
+                    !score.getType().higherScoreBetter();
+
+            Double value = score.getValue();
+            if ((value != null) && !value.isNaN()) {
+                if (!Double.isNaN(proteinScore)) {
+                    proteinScore = addToScore(proteinScore, negativeLog, value);
                 } else {
-                    proteinScore = initializeScore(signum, score.getValue());
+                    proteinScore = initializeScore(negativeLog, value);
                 }
             }
         }
-
-        return proteinScore;
     }
 
 
     /**
      * Initializes the protein score with the given valuescore
      *
-     * @param signum
+     * @param negativeLog
      * @param value
      * @return
      */
-    private static Double initializeScore(Double signum, Double value) {
-        Double ret = value;
+    private static double initializeScore(boolean negativeLog, double value) {
+        double ret = value;
 
-        if (signum < 0) {
+        if (negativeLog) {
             ret = -Math.log10(value);
         }
 
@@ -92,14 +96,14 @@ public class MultiplicativeScoring extends AbstractScoring {
      * Adds the given value to the protein score
      *
      * @param score
-     * @param signum
+     * @param negativeLog
      * @param value
      * @return
      */
-    private static Double addToScore(Double score, Double signum, Double value) {
-        Double ret = score;
+    private static double addToScore(double score, boolean negativeLog, double value) {
+        double ret = score;
 
-        if (signum < 0) {
+        if (negativeLog) {
             ret -= Math.log10(value);
         } else {
             ret *= value;
@@ -108,5 +112,3 @@ public class MultiplicativeScoring extends AbstractScoring {
         return ret;
     }
 }
-
-
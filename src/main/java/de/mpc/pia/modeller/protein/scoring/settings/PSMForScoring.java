@@ -2,9 +2,12 @@ package de.mpc.pia.modeller.protein.scoring.settings;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 import de.mpc.pia.modeller.peptide.ReportPeptide;
 import de.mpc.pia.modeller.protein.ReportProtein;
+import de.mpc.pia.modeller.psm.PSMReportItem;
+import de.mpc.pia.modeller.psm.ReportPSM;
 import de.mpc.pia.modeller.psm.ReportPSMSet;
 import de.mpc.pia.modeller.score.ScoreModel;
 import de.mpc.pia.modeller.score.ScoreModelEnum;
@@ -31,21 +34,17 @@ public enum PSMForScoring {
 		}
 
 		@Override
-		public List<ScoreModel> getProteinsScores(ReportProtein protein,
-				String scoreShortName) {
-			List<ScoreModel> scores = new ArrayList<>(protein.getNrPeptides());
-			
+		public void forEachProteinsScore(ReportProtein protein,
+				String scoreShortName, Consumer<ScoreModel> scoreConsumer) {
 			// get the best score of each peptide
 			for (ReportPeptide peptide : protein.getPeptides()) {
 				
 				ScoreModel pepScore = peptide.getBestScoreModel(scoreShortName);
 				
 				if (pepScore != null) {
-					scores.add(pepScore);
+					scoreConsumer.accept(pepScore);
 				}
 			}
-			
-			return scores;
 		}
 	},
 	/**
@@ -63,39 +62,36 @@ public enum PSMForScoring {
 		}
 
 		@Override
-		public List<ScoreModel> getProteinsScores(ReportProtein protein,
-				String scoreShortName) {
-			// TODO: implement
-			List<ScoreModel> scores = new ArrayList<>(protein.getNrPeptides());
-			
+		public void forEachProteinsScore(ReportProtein protein,
+				String scoreShortName, Consumer<ScoreModel> scoreConsumer) {
 			// go through all peptides...
 			for (ReportPeptide peptide : protein.getPeptides()) {
 				// ...go through all PSM sets...
-				// the repPSM has to be a ReportPSMSet, we have only the overview here
-// ... the COMBINED_FDR_SCORE is in the PSM set
-// ... go through all PSMs and take all their (scoring) scores
-				peptide.getPSMs().stream().filter(repPSM -> repPSM instanceof ReportPSMSet).forEach(repPSM -> {
-					// the repPSM has to be a ReportPSMSet, we have only the overview here
+				for (PSMReportItem repPSM : peptide.getPSMs()) {
+					if (!(repPSM instanceof ReportPSMSet)) {
+						// the repPSM has to be a ReportPSMSet, we have only the overview here
+						continue;
+					}
+					
 					if (ScoreModelEnum.PSM_LEVEL_COMBINED_FDR_SCORE.isValidDescriptor(scoreShortName)) {
 						// ... the COMBINED_FDR_SCORE is in the PSM set
 						ScoreModel psmScore = repPSM.getCompareScore(scoreShortName);
 						if (psmScore != null) {
-							scores.add(psmScore);
+							scoreConsumer.accept(psmScore);
 						}
 					} else {
 						// ... go through all PSMs and take all their (scoring) scores
-						((ReportPSMSet) repPSM).getPSMs().stream().filter(psm -> !peptide.getNonScoringPSMIDs().contains(psm.getId())).forEach(psm -> {
-							ScoreModel psmScore = psm.getCompareScore(scoreShortName);
-							if (psmScore != null) {
-								scores.add(psmScore);
+						for (ReportPSM psm : ((ReportPSMSet) repPSM).getPSMs()) {
+							if (!peptide.getNonScoringPSMIDs().contains(psm.getId())) {
+								ScoreModel psmScore = psm.getCompareScore(scoreShortName);
+								if (psmScore != null) {
+									scoreConsumer.accept(psmScore);
+								}
 							}
-						});
-
+						}
 					}
-				});
+				}
 			}
-			
-			return scores;
 		}
 	},
 	;
@@ -114,12 +110,28 @@ public enum PSMForScoring {
 	public abstract String getShortName();
 	
 	
+	/**
+	 * Passes all the scores, this method needs for its calculation, to the
+	 * given consumer. No intermediate list of the scores is created.
+	 * 
+	 * @param protein
+	 * @param scoreShortName
+	 * @param scoreConsumer
+	 */
+	public abstract void forEachProteinsScore(ReportProtein protein, String scoreShortName,
+			Consumer<ScoreModel> scoreConsumer);
+	
+	
 	/**
 	 * Gets all the scores, this method needs for its calculation.
 	 * 
 	 * @return
 	 */
-	public abstract List<ScoreModel> getProteinsScores(ReportProtein protein, String scoreShortName);
+	public List<ScoreModel> getProteinsScores(ReportProtein protein, String scoreShortName) {
+		List<ScoreModel> scores = new ArrayList<>(protein.getNrPeptides());
+		forEachProteinsScore(protein, scoreShortName, scores::add);
+		return scores;
+	}
 	
 	
 	/**
@@ -138,4 +150,24 @@ public enum PSMForScoring {
 		
 		return new ArrayList<>(0);
 	}
+	
+	
+	/**
+	 * Passes all the scores, the method given by the methodName needs for its
+	 * calculation, to the given consumer.
+	 * 
+	 * @param methodName
+	 * @param protein
+	 * @param scoreShortName
+	 * @param scoreConsumer
+	 */
+	public static void forEachProteinsScore(String methodName,
+			ReportProtein protein, String scoreShortName, Consumer<ScoreModel> scoreConsumer) {
+		for (PSMForScoring method : values()) {
+			if (method.getShortName().equals(methodName)) {
+				method.forEachProteinsScore(protein, scoreShortName, scoreConsumer);
+				return;
+			}
+		}
+	}
 }
\ No newline at end of file
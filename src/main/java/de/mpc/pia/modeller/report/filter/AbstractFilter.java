@@ -32,6 +32,9 @@ public abstract class AbstractFilter implements Serializable {
     /** the represented filter */
     private RegisteredFilters filter;
 
+    /** the compiled pattern of the filter value, if a regex comparator is used (created on first use) */
+    private transient volatile Pattern regexPattern;
+
 
     public AbstractFilter(FilterComparator arg, RegisteredFilters filter, boolean negate) {
         this.comparator = arg;
@@ -269,6 +272,20 @@ public abstract class AbstractFilter implements Serializable {
     }
 
 
+    /**
+     * Returns the compiled pattern of the filter value. The pattern is compiled
+     * only once per filter.
+     */
+    private Pattern getRegexPattern() {
+        Pattern pattern = regexPattern;
+        if (pattern == null) {
+            pattern = Pattern.compile((String)getFilterValue());
+            regexPattern = pattern;
+        }
+        return pattern;
+    }
+
+
     /**
      * checks whether the given String satisfies a literal filter
      *
@@ -284,7 +301,7 @@ public abstract class AbstractFilter implements Serializable {
             return getFilterNegate() ^ (o.contains((String)getFilterValue()));
 
         case regex:
-            Matcher m = Pattern.compile((String)getFilterValue()).matcher(o);
+            Matcher m = getRegexPattern().matcher(o);
             return getFilterNegate() ^ m.matches();
 
         default:
@@ -335,7 +352,7 @@ public abstract class AbstractFilter implements Serializable {
         case regex:
             // check, if the list contains the given regex
             boolean contains_regex = false;
-            Pattern regexP = Pattern.compile((String)getFilterValue());
+            Pattern regexP = getRegexPattern();
 
             if (o != null) {
                 for (String objStr : o) {
@@ -350,7 +367,7 @@ public abstract class AbstractFilter implements Serializable {
         case regex_only:
             // check, if the list contains only the given regex (maybe multiple times)
             boolean contains_only_regex = false;
-            Pattern regexOnlyP = Pattern.compile((String)getFilterValue());
+            Pattern regexOnlyP = getRegexPattern();
 
             if ((o != null) && (!o.isEmpty())
                     && regexOnlyP.matcher(o.get(0)).matches()) {
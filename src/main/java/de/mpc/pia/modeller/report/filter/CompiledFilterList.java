@@ -0,0 +1,237 @@
+package de.mpc.pia.modeller.report.filter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.mpc.pia.modeller.report.filter.impl.PSMScoreFilter;
+import de.mpc.pia.modeller.report.filter.impl.PSMTopIdentificationFilter;
+import de.mpc.pia.modeller.report.filter.impl.PeptideScoreFilter;
+
+
+/**
+ * A list of {@link AbstractFilter}s prepared for the filtering of many items.
+ * <p>
+ * The filters are ordered by their (estimated) evaluation costs, so cheap
+ * filters are evaluated first and the evaluation stops at the first
+ * unsatisfied filter. Which filters support a class of items is resolved only
+ * once per class and numerical comparisons are done on primitive values. As
+ * all filters must be satisfied and the evaluation has no side effects, the
+ * result is the same as for
+ * {@link FilterFactory#satisfiesFilterList(Filterable, Long, List)}.
+ * <p>
+ * An instance can be used by multiple threads concurrently.
+ *
+ * @author julian
+ *
+ */
+public class CompiledFilterList {
+
+    /** the compiled filters, ordered by their costs */
+    private final List<CompiledFilter> compiledFilters;
+
+    /** the file ID used for the filtering */
+    private final Long fileID;
+
+    /** the filters supporting a given class of items */
+    private final Map<Class<?>, CompiledFilter[]> classFilters;
+
+
+    /**
+     * Compiles the given filters for filtering items of the given file.
+     *
+     * @param filters the filters, may be null or empty
+     * @param fileID the file ID used for the filtering
+     */
+    public CompiledFilterList(List<AbstractFilter> filters, Long fileID) {
+        this.fileID = fileID;
+        this.classFilters = new ConcurrentHashMap<>();
+
+        compiledFilters = new ArrayList<>();
+        if (filters != null) {
+            for (AbstractFilter filter : filters) {
+                compiledFilters.add(new CompiledFilter(filter));
+            }
+        }
+        // the sorting is stable, same costs keep the given order
+        compiledFilters.sort(Comparator.comparingInt(f -> f.cost));
+    }
+
+
+    /**
+     * Returns, whether any filters are set.
+     */
+    public boolean isEmpty() {
+        return compiledFilters.isEmpty();
+    }
+
+
+    /**
+     * Checks whether all the filters supporting the class of the item are
+     * satisfied by the item.
+     *
+     * @param item
+     * @return
+     */
+    public boolean satisfiesFilters(Filterable item) {
+        if (compiledFilters.isEmpty()) {
+            return true;
+        }
+
+        CompiledFilter[] filters = classFilters.get(item.getClass());
+        if (filters == null) {
+            filters = compiledFilters.stream()
+                    .filter(filter -> filter.filter.supportsClass(item))
+                    .toArray(CompiledFilter[]::new);
+            classFilters.putIfAbsent(item.getClass(), filters);
+        }
+
+        for (CompiledFilter filter : filters) {
+            if (!filter.satisfiesFilter(item, fileID)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Applies the filters to the given List of Filterables and returns the
+     * filtered list.
+     *
+     * @param reportItems
+     * @return
+     */
+    public <T extends Filterable> List<T> applyFilters(List<T> reportItems) {
+        List<T> filteredReportItems = new ArrayList<>();
+
+        if (reportItems != null) {
+            for (T item : reportItems) {
+                if (satisfiesFilters(item)) {
+                    filteredReportItems.add(item);
+                }
+            }
+        }
+
+        return filteredReportItems;
+    }
+
+
+    /**
+     * A single filter with the precomputed values needed for the filtering.
+     */
+    private static class CompiledFilter {
+
+        /** the actual filter */
+        private final AbstractFilter filter;
+
+        /** the estimated costs of the evaluation (smaller is cheaper) */
+        private final int cost;
+
+        /** whether a numerical value can be compared directly on the double value */
+        private final boolean primitiveComparison;
+
+        /** the filter value as double for primitive comparisons */
+        private final double threshold;
+
+
+        private CompiledFilter(AbstractFilter filter) {
+            this.filter = filter;
+            this.cost = estimateCost(filter);
+
+            this.primitiveComparison = FilterType.numerical.equals(filter.getFilterType())
+                    && !filter.getRegisteredFilter().valueNeedsFileRefinement()
+                    && !FilterComparator.equal.equals(filter.getFilterComparator())
+                    && (filter.getFilterValue() instanceof Number);
+            this.threshold = primitiveComparison ? ((Number) filter.getFilterValue()).doubleValue() : Double.NaN;
+        }
+
+
+        /**
+         * Checks whether the item satisfies the filter.
+         */
+        private boolean satisfiesFilter(Object item, Long fileID) {
+            if (primitiveComparison) {
+                Object objValue = filter.getObjectsValue(item);
+                if (objValue instanceof Number) {
+                    return filter.getFilterNegate() ^ compare(((Number) objValue).doubleValue());
+                } else if (objValue == null) {
+                    return false;
+                }
+            }
+
+            return filter.satisfiesFilter(item, fileID);
+        }
+
+
+        /**
+         * Compares the value against the threshold with the filter's comparator.
+         */
+        private boolean compare(double value) {
+            switch (filter.getFilterComparator()) {
+            case less:
+                return value < threshold;
+
+            case less_equal:
+                return value <= threshold;
+
+            case greater_equal:
+                return value >= threshold;
+
+            case greater:
+                return value > threshold;
+
+            default:
+                return false;
+            }
+        }
+
+
+        /**
+         * Estimates the costs of the evaluation for the given filter.
+         */
+        private static int estimateCost(AbstractFilter filter) {
+            int cost;
+
+            switch (filter.getFilterType()) {
+            case bool:
+                cost = 0;
+                break;
+
+            case numerical:
+                if ((filter instanceof PSMScoreFilter)
+                        || (filter instanceof PeptideScoreFilter)
+                        || (filter instanceof PSMTopIdentificationFilter)) {
+                    // scores are looked up in maps
+                    cost = 2;
+                } else {
+                    cost = 1;
+                }
+                break;
+
+            case literal:
+                cost = FilterComparator.regex.equals(filter.getFilterComparator()) ? 4 : 3;
+                break;
+
+            case modification:
+                cost = 4;
+                break;
+
+            case literal_list:
+            default:
+                cost = 5;
+                break;
+            }
+
+            if (filter.getRegisteredFilter().valueNeedsFileRefinement()) {
+                // a new list is built for the refinement
+                cost++;
+            }
+
+            return cost;
+        }
+    }
+}
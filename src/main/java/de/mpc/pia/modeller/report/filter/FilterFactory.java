@@ -2,7 +2,6 @@ package de.mpc.pia.modeller.report.filter;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
 import de.mpc.pia.modeller.report.filter.impl.PSMScoreFilter;
 import de.mpc.pia.modeller.report.filter.impl.PSMTopIdentificationFilter;
@@ -243,13 +242,7 @@ public class FilterFactory {
             return reportItems;
         }
 
-        List<T> filteredReportItems = new ArrayList<>();
-
-        if (reportItems != null) {
-            filteredReportItems.addAll(reportItems.stream().filter(item -> satisfiesFilterList(item, fileID, filters)).collect(Collectors.toList()));
-        }
-
-        return filteredReportItems;
+        return compileFilters(filters, fileID).applyFilters(reportItems);
     }
 
 
@@ -268,6 +261,20 @@ public class FilterFactory {
     }
 
 
+    /**
+     * Compiles the given filters for the filtering of many items, see
+     * {@link CompiledFilterList}.
+     *
+     * @param filters
+     * @param fileID
+     * @return
+     */
+    public static CompiledFilterList compileFilters(List<AbstractFilter> filters,
+            Long fileID) {
+        return new CompiledFilterList(filters, fileID);
+    }
+
+
     /**
      * Checks whether all the inference filters in the given List are satisfied
      * for the filterable object.
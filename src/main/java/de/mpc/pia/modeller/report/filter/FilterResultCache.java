@@ -0,0 +1,241 @@
+package de.mpc.pia.modeller.report.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import org.apache.log4j.Logger;
+
+import de.mpc.pia.modeller.report.filter.impl.PSMScoreFilter;
+import de.mpc.pia.modeller.report.filter.impl.PSMTopIdentificationFilter;
+import de.mpc.pia.modeller.report.filter.impl.PeptideScoreFilter;
+import de.mpc.pia.tools.AtomicBitSet;
+
+
+/**
+ * Caches the results of the filtering of report lists.
+ * <p>
+ * The result for a list of filters on a report list is stored as a bitset
+ * over the positions of the list, identified by the level (i.e. the class of
+ * the report items), the file ID and the content of the filters. Large lists
+ * can be evaluated in parallel. Repeated calls with the same filters share one
+ * result, the filtered lists are returned as new lists, which may be changed
+ * by the caller.
+ * <p>
+ * A result is only reused for the same (identical) report list with unchanged
+ * size. Anything else changing the outcome of the filters (FDR, ranks, decoy
+ * states, the order of the lists...) must call {@link #invalidate()}.
+ *
+ * @author julian
+ *
+ */
+public class FilterResultCache {
+
+    /** logger for this class */
+    private static final Logger LOGGER = Logger.getLogger(FilterResultCache.class);
+
+    /** lists with at least this many items are evaluated in parallel (if allowed) */
+    public static final int PARALLEL_THRESHOLD = 10000;
+
+    /** the maximal number of cached results, the least recently used are dropped first */
+    private static final int MAX_ENTRIES = 64;
+
+    /** the cached results */
+    private final Map<String, CachedResult> results;
+
+    /** increased by every invalidation, results of older generations are not stored */
+    private long generation;
+
+
+    public FilterResultCache() {
+        this.results = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+        this.generation = 0;
+    }
+
+
+    /**
+     * Returns the filtered report list as a new list. If no filters are given,
+     * the report list itself is returned.
+     *
+     * @param level the level of the report items, usually their class
+     * @param fileID the file ID used for the filtering
+     * @param reportItems the unfiltered report list
+     * @param filters the filters
+     * @param parallel whether large lists may be evaluated in parallel, this
+     * should only be allowed, if the evaluation of the filters has no side
+     * effects on other items
+     * @return
+     */
+    public <T extends Filterable> List<T> getFilteredList(Class<?> level, Long fileID,
+            List<T> reportItems, List<AbstractFilter> filters, boolean parallel) {
+        if ((filters == null) || filters.isEmpty()) {
+            return reportItems;
+        }
+
+        return getResult(level, fileID, reportItems, filters, parallel).getFilteredItems();
+    }
+
+
+    /**
+     * Returns the bitset with the positions of the report items satisfying
+     * the filters. The returned bitset must not be changed.
+     *
+     * @param level the level of the report items, usually their class
+     * @param fileID the file ID used for the filtering
+     * @param reportItems the unfiltered report list
+     * @param filters the filters
+     * @param parallel whether large lists may be evaluated in parallel
+     * @return
+     */
+    public <T extends Filterable> AtomicBitSet getFilterResult(Class<?> level, Long fileID,
+            List<T> reportItems, List<AbstractFilter> filters, boolean parallel) {
+        return getResult(level, fileID, reportItems, filters, parallel).bits;
+    }
+
+
+    /**
+     * Drops all cached results.
+     */
+    public synchronized void invalidate() {
+        results.clear();
+        generation++;
+    }
+
+
+    /**
+     * Gets the cached result or evaluates the filters on the list.
+     */
+    private <T extends Filterable> CachedResult getResult(Class<?> level, Long fileID,
+            List<T> reportItems, List<AbstractFilter> filters, boolean parallel) {
+        String key = createKey(level, fileID, filters);
+        long startGeneration;
+
+        synchronized (this) {
+            CachedResult result = results.get(key);
+            if ((result != null) && result.isResultFor(reportItems)) {
+                return result;
+            }
+            startGeneration = generation;
+        }
+
+        CachedResult result = evaluate(reportItems, FilterFactory.compileFilters(filters, fileID), parallel);
+
+        synchronized (this) {
+            if (startGeneration == generation) {
+                results.put(key, result);
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Evaluates the filters for each item of the list.
+     */
+    private static <T extends Filterable> CachedResult evaluate(List<T> reportItems,
+            CompiledFilterList compiledFilters, boolean parallel) {
+        Object[] items = (reportItems != null) ? reportItems.toArray() : new Object[0];
+        AtomicBitSet bits = new AtomicBitSet(items.length);
+
+        IntStream positions = IntStream.range(0, items.length);
+        if (parallel && (items.length >= PARALLEL_THRESHOLD)) {
+            LOGGER.debug("filtering " + items.length + " items in parallel");
+            positions = positions.parallel();
+        }
+        positions.forEach(idx -> {
+            if (compiledFilters.satisfiesFilters((Filterable) items[idx])) {
+                bits.set(idx);
+            }
+        });
+
+        return new CachedResult(reportItems, items, bits);
+    }
+
+
+    /**
+     * Creates the key for the given level, file and the content of the filters.
+     */
+    private static String createKey(Class<?> level, Long fileID, List<AbstractFilter> filters) {
+        StringBuilder key = new StringBuilder(level.getName());
+        key.append('\t').append(fileID);
+
+        for (AbstractFilter filter : filters) {
+            key.append('\t').append(filter.getClass().getName());
+
+            // the score names in toString are not necessarily unique
+            if (filter instanceof PSMScoreFilter) {
+                key.append(':').append(((PSMScoreFilter) filter).getScoreShortName());
+            } else if (filter instanceof PeptideScoreFilter) {
+                key.append(':').append(((PeptideScoreFilter) filter).getScoreShortName());
+            } else if (filter instanceof PSMTopIdentificationFilter) {
+                key.append(':').append(((PSMTopIdentificationFilter) filter).getScoreShortName());
+            }
+
+            key.append(':').append(filter.toString());
+        }
+
+        return key.toString();
+    }
+
+
+    /**
+     * The result of the filtering of one report list.
+     */
+    private static class CachedResult {
+
+        /** the filtered report list */
+        private final List<?> source;
+
+        /** the size of the report list at the evaluation */
+        private final int sourceSize;
+
+        /** the positions of the items satisfying the filters */
+        private final AtomicBitSet bits;
+
+        /** the items satisfying the filters, in the order of the report list */
+        private final Object[] filteredItems;
+
+
+        private CachedResult(List<?> source, Object[] items, AtomicBitSet bits) {
+            this.source = source;
+            this.sourceSize = items.length;
+            this.bits = bits;
+
+            this.filteredItems = new Object[bits.cardinality()];
+            int idx = 0;
+            for (int pos = bits.nextSetBit(0); pos >= 0; pos = bits.nextSetBit(pos + 1)) {
+                filteredItems[idx++] = items[pos];
+            }
+        }
+
+
+        /**
+         * Whether this result was evaluated on the given list.
+         */
+        private boolean isResultFor(List<?> reportItems) {
+            return (source == reportItems)
+                    && ((reportItems == null) || (reportItems.size() == sourceSize));
+        }
+
+
+        /**
+         * Returns a new list with the filtered items, so the caller may
+         * change it without affecting the cached result.
+         */
+        @SuppressWarnings("unchecked")
+        private <T> List<T> getFilteredItems() {
+            return new ArrayList<>((List<T>) Arrays.asList(filteredItems));
+        }
+    }
+}
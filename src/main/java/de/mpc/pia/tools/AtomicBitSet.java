@@ -0,0 +1,170 @@
+package de.mpc.pia.tools;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * A fixed size bit set, which can be read and written by multiple threads
+ * without locking. Bits are set by compare-and-set on the backing words, so
+ * concurrent setters never lose an update.
+ *
+ * @author julian
+ *
+ */
+public class AtomicBitSet {
+
+    /** the words holding the bits */
+    private final AtomicLongArray words;
+
+    /** the number of addressable bits */
+    private final int size;
+
+
+    /**
+     * Creates a bit set, which can hold the given number of bits. All bits are
+     * initially cleared.
+     *
+     * @param size the number of bits
+     */
+    public AtomicBitSet(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must not be negative: " + size);
+        }
+        this.size = size;
+        this.words = new AtomicLongArray((size + 63) >>> 6);
+    }
+
+
+    /**
+     * Returns the number of bits in this set.
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Sets the bit at the given index.
+     *
+     * @param index
+     * @return true, if the bit was not set before (i.e. this call changed the
+     * set), false otherwise
+     */
+    public boolean set(int index) {
+        int wordIdx = wordIndex(index);
+        long mask = 1L << index;
+
+        long oldWord;
+        do {
+            oldWord = words.get(wordIdx);
+            if ((oldWord & mask) != 0) {
+                return false;
+            }
+        } while (!words.compareAndSet(wordIdx, oldWord, oldWord | mask));
+
+        return true;
+    }
+
+
+    /**
+     * Returns whether the bit at the given index is set.
+     *
+     * @param index
+     * @return
+     */
+    public boolean get(int index) {
+        return (words.get(wordIndex(index)) & (1L << index)) != 0;
+    }
+
+
+    /**
+     * Clears the bit at the given index.
+     *
+     * @param index
+     * @return true, if the bit was set before (i.e. this call changed the
+     * set), false otherwise
+     */
+    public boolean clear(int index) {
+        int wordIdx = wordIndex(index);
+        long mask = 1L << index;
+
+        long oldWord;
+        do {
+            oldWord = words.get(wordIdx);
+            if ((oldWord & mask) == 0) {
+                return false;
+            }
+        } while (!words.compareAndSet(wordIdx, oldWord, oldWord & ~mask));
+
+        return true;
+    }
+
+
+    /**
+     * Clears all bits. This should only be called, while no other thread
+     * writes into the set.
+     */
+    public void clear() {
+        for (int i = 0; i < words.length(); i++) {
+            words.set(i, 0L);
+        }
+    }
+
+
+    /**
+     * Returns the number of set bits.
+     *
+     * @return
+     */
+    public int cardinality() {
+        int count = 0;
+        for (int i = 0; i < words.length(); i++) {
+            count += Long.bitCount(words.get(i));
+        }
+        return count;
+    }
+
+
+    /**
+     * Returns the index of the first set bit at or after the given index, or
+     * -1 if there is no such bit.
+     *
+     * @param fromIndex
+     * @return
+     */
+    public int nextSetBit(int fromIndex) {
+        if (fromIndex < 0) {
+            throw new IndexOutOfBoundsException("fromIndex < 0: " + fromIndex);
+        }
+        if (fromIndex >= size) {
+            return -1;
+        }
+
+        int wordIdx = fromIndex >>> 6;
+        long word = words.get(wordIdx) & (-1L << fromIndex);
+
+        while (true) {
+            if (word != 0) {
+                int index = (wordIdx << 6) + Long.numberOfTrailingZeros(word);
+                return (index < size) ? index : -1;
+            }
+            if (++wordIdx == words.length()) {
+                return -1;
+            }
+            word = words.get(wordIdx);
+        }
+    }
+
+
+    /**
+     * Checks the index and returns the index of the word holding the bit.
+     */
+    private int wordIndex(int index) {
+        if ((index < 0) || (index >= size)) {
+            throw new IndexOutOfBoundsException("index " + index + " not in [0, " + size + ")");
+        }
+        return index >>> 6;
+    }
+}
@@ -2,12 +2,10 @@ package de.mpc.pia.tools;
 
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.biojava.nbio.ontology.Term;
-import org.biojava.nbio.ontology.Triple;
 
 import de.mpc.pia.tools.obo.OBOMapper;
 import uk.ac.ebi.jmzidml.model.mzidml.AbstractParam;
@@ -553,20 +551,11 @@ public class MzIdentMLTools {
 
                             if (regExp == null) {
                                 // try to get the regular expression for this enzyme and put it into the map
-                                Term oboTerm = oboMapper.getTerm(oboID);
-                                if (oboTerm != null) {
-                                    Set<Triple> tripleSet = oboMapper.getTriples(oboTerm, null, null);
-
-                                    for (Triple triple : tripleSet) {
-                                        if (triple.getPredicate().getName().equals(OBOMapper.OBO_RELATIONSHIP) &&
-                                                triple.getObject().getName().startsWith(OBOMapper.OBO_HAS_REGEXP)) {
-                                            String regExpID = triple.getObject().getName().substring(11).trim();
-                                            Term regExpTerm = oboMapper.getTerm(regExpID);
-                                            if (regExpTerm != null) {
-                                                regExp = StringEscapeUtils.unescapeJava(regExpTerm.getDescription());
-                                                enzymesToRegexes.put(oboID, regExp);
-                                            }
-                                        }
+                                for (String regExpID : oboMapper.getRelatedAccessions(oboID, OBOMapper.OBO_HAS_REGEXP)) {
+                                    Term regExpTerm = oboMapper.getTerm(regExpID);
+                                    if (regExpTerm != null) {
+                                        regExp = StringEscapeUtils.unescapeJava(regExpTerm.getDescription());
+                                        enzymesToRegexes.put(oboID, regExp);
                                     }
                                 }
                             }
@@ -0,0 +1,115 @@
+package de.mpc.pia.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Finds the occurrences of peptides in protein sequences, which is needed by
+ * the parsers for formats without stored occurrences.
+ * <p>
+ * The sequences are scanned directly, without building regular expressions.
+ * The amino acid X matches any residue, in the peptide as well as in the
+ * protein. The comparison is case insensitive and overlapping occurrences are
+ * all reported. Optionally, isoleucine and leucine are treated as equal, as
+ * they can not be distinguished by their mass.
+ *
+ * @author julian
+ *
+ */
+public class PeptideOccurrenceFinder {
+
+    /** the wildcard amino acid */
+    private static final char WILDCARD = 'X';
+
+
+    /**
+     * We don't ever want to instantiate this class
+     */
+    private PeptideOccurrenceFinder() {
+        throw new AssertionError();
+    }
+
+
+    /**
+     * Returns the start sites (1-based) of the given peptide in the given
+     * protein sequence.
+     *
+     * @param peptide
+     * @param protein
+     * @return the start sites in ascending order, an empty list if there is
+     * no occurrence
+     */
+    public static List<Integer> findStartSites(String peptide, String protein) {
+        return findStartSites(peptide, protein, false);
+    }
+
+
+    /**
+     * Returns the start sites (1-based) of the given peptide in the given
+     * protein sequence.
+     *
+     * @param peptide
+     * @param protein
+     * @param leucineIsoleucineEqual whether I and L are treated as the same
+     * amino acid
+     * @return the start sites in ascending order, an empty list if there is
+     * no occurrence
+     */
+    public static List<Integer> findStartSites(String peptide, String protein,
+            boolean leucineIsoleucineEqual) {
+        List<Integer> startSites = new ArrayList<>();
+        if ((peptide == null) || (protein == null) || peptide.isEmpty()
+                || (peptide.length() > protein.length())) {
+            return startSites;
+        }
+
+        String peptideSeq = normalizeSequence(peptide, leucineIsoleucineEqual);
+        String proteinSeq = normalizeSequence(protein, leucineIsoleucineEqual);
+
+        if ((peptideSeq.indexOf(WILDCARD) < 0) && (proteinSeq.indexOf(WILDCARD) < 0)) {
+            int start = proteinSeq.indexOf(peptideSeq);
+            while (start > -1) {
+                startSites.add(start + 1);
+                start = proteinSeq.indexOf(peptideSeq, start + 1);
+            }
+        } else {
+            int lastStart = proteinSeq.length() - peptideSeq.length();
+            for (int start = 0; start <= lastStart; start++) {
+                if (matchesAt(peptideSeq, proteinSeq, start)) {
+                    startSites.add(start + 1);
+                }
+            }
+        }
+
+        return startSites;
+    }
+
+
+    /**
+     * Returns the sequence in upper case and, if I and L are equal, with all
+     * I replaced by L.
+     */
+    private static String normalizeSequence(String sequence, boolean leucineIsoleucineEqual) {
+        String normalized = sequence.toUpperCase();
+        return leucineIsoleucineEqual ? normalized.replace('I', 'L') : normalized;
+    }
+
+
+    /**
+     * Checks whether the (normalized) peptide matches the (normalized)
+     * protein at the given (0-based) position, the wildcard matches any
+     * residue.
+     */
+    private static boolean matchesAt(String peptideSeq, String proteinSeq, int start) {
+        for (int i = 0; i < peptideSeq.length(); i++) {
+            char pepAA = peptideSeq.charAt(i);
+            char protAA = proteinSeq.charAt(start + i);
+
+            if ((pepAA != protAA) && (pepAA != WILDCARD) && (protAA != WILDCARD)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
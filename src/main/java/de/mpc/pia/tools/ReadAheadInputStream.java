@@ -0,0 +1,202 @@
+package de.mpc.pia.tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * An {@link InputStream}, which reads its source on a background thread into
+ * blocks, while the already read blocks are consumed. Two blocks are read
+ * ahead (double buffering), so e.g. a decompressing source stream can work in
+ * parallel to the consumer.
+ * <p>
+ * The stream is not thread safe, it should be read by only one thread.
+ *
+ * @author julian
+ *
+ */
+public class ReadAheadInputStream extends InputStream {
+
+    /** logger for this class */
+    private static final Logger LOGGER = Logger.getLogger(ReadAheadInputStream.class);
+
+    /** the default size of the read blocks */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    /** the number of blocks, which are read ahead */
+    private static final int READ_AHEAD_BLOCKS = 2;
+
+    /** marks the end of the source */
+    private static final byte[] END_OF_STREAM = new byte[0];
+
+    /** the read stream */
+    private final InputStream source;
+
+    /** the blocks, which are read but not yet consumed */
+    private final BlockingQueue<byte[]> blocks;
+
+    /** the thread reading the source */
+    private final Thread readerThread;
+
+    /** an exception (or error), which occurred while reading the source */
+    private volatile Throwable readException;
+
+    /** the currently consumed block */
+    private byte[] currentBlock;
+
+    /** the position in the current block */
+    private int position;
+
+
+    /**
+     * Starts reading the source in blocks of the default size.
+     *
+     * @param source
+     */
+    public ReadAheadInputStream(InputStream source) {
+        this(source, DEFAULT_BLOCK_SIZE);
+    }
+
+
+    /**
+     * Starts reading the source in blocks of the given size.
+     *
+     * @param source
+     * @param blockSize
+     */
+    public ReadAheadInputStream(InputStream source, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("the block size must be positive");
+        }
+
+        this.source = source;
+        this.blocks = new ArrayBlockingQueue<>(READ_AHEAD_BLOCKS);
+        this.readException = null;
+        this.currentBlock = null;
+        this.position = 0;
+
+        this.readerThread = new Thread(() -> readSource(blockSize), "read-ahead");
+        this.readerThread.setDaemon(true);
+        this.readerThread.start();
+    }
+
+
+    /**
+     * Reads the source into blocks, until the end is reached or the stream is
+     * closed. The end is always marked, so the consumer never waits forever,
+     * even if reading fails unexpectedly.
+     */
+    private void readSource(int blockSize) {
+        try {
+            boolean endOfSource = false;
+            while (!endOfSource) {
+                byte[] block = new byte[blockSize];
+                int length = 0;
+                int read = 0;
+                while ((length < blockSize) && ((read = source.read(block, length, blockSize - length)) > -1)) {
+                    length += read;
+                }
+
+                endOfSource = read < 0;
+                if (length > 0) {
+                    blocks.put((length < blockSize) ? Arrays.copyOf(block, length) : block);
+                }
+            }
+        } catch (InterruptedException e) {
+            LOGGER.debug("reading ahead was interrupted");
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException | Error e) {
+            readException = e;
+        } finally {
+            try {
+                blocks.put(END_OF_STREAM);
+            } catch (InterruptedException e) {
+                // the stream is closed, nobody waits for the end
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+
+    /**
+     * Makes sure, that there is a block with unread bytes.
+     *
+     * @return false, if the end of the stream is reached
+     */
+    private boolean nextBlock() throws IOException {
+        if (currentBlock == END_OF_STREAM) {
+            return false;
+        }
+
+        if ((currentBlock == null) || (position >= currentBlock.length)) {
+            try {
+                currentBlock = blocks.take();
+                position = 0;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while waiting for the next block", e);
+            }
+        }
+
+        if (currentBlock == END_OF_STREAM) {
+            if (readException instanceof IOException) {
+                throw (IOException) readException;
+            } else if (readException != null) {
+                throw new IOException("error while reading ahead", readException);
+            }
+            return false;
+        }
+        return true;
+    }
+
+
+    @Override
+    public int read() throws IOException {
+        if (!nextBlock()) {
+            return -1;
+        }
+        return currentBlock[position++] & 0xff;
+    }
+
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextBlock()) {
+            return -1;
+        }
+
+        int length = Math.min(len, currentBlock.length - position);
+        System.arraycopy(currentBlock, position, b, off, length);
+        position += length;
+        return length;
+    }
+
+
+    @Override
+    public int available() {
+        return ((currentBlock == null) || (currentBlock == END_OF_STREAM)) ?
+                0 : currentBlock.length - position;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        readerThread.interrupt();
+        try {
+            readerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        blocks.clear();
+        currentBlock = END_OF_STREAM;
+        source.close();
+    }
+}
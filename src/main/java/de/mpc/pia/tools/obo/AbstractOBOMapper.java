@@ -1,11 +1,16 @@
 package de.mpc.pia.tools.obo;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
 import org.biojava.nbio.ontology.Ontology;
+import org.biojava.nbio.ontology.Synonym;
 import org.biojava.nbio.ontology.Term;
 import org.biojava.nbio.ontology.Triple;
 
@@ -25,6 +30,16 @@ public abstract class AbstractOBOMapper {
     public static final String OBO_IS_A = "is_a";
 
 
+    /** mapping from the names (descriptions) of the terms to the terms, built on first use */
+    private volatile Map<String, Term> nameIndex;
+
+    /** mapping from the synonyms of the terms to the terms, built on first use */
+    private volatile Map<String, Term> synonymIndex;
+
+    /** mapping from the accession of a term to its relationships (type to related accessions), built on first use */
+    private volatile Map<String, Map<String, List<String>>> relationshipTable;
+
+
     /**
      * Returns the currently used ontology. Usual either a shipped file or online version.
      *
@@ -80,20 +95,116 @@ public abstract class AbstractOBOMapper {
 
 
     /**
-     * Gets the entry in the OBO with the given name. If none is found, returns
-     * null.
+     * Gets the entry in the OBO with the given name. If none is found, the
+     * synonyms are searched. If still none is found, returns null.
      *
      * @param name
      * @return
      */
     public Term getTermByName(String name) {
-        Set<Term> keys = getTerms();
-        for (Term term : keys) {
-            if (name.equals(term.getDescription())) {
-                return term;
+        if (nameIndex == null) {
+            buildNameIndexes();
+        }
+
+        Term term = nameIndex.get(name);
+        if (term == null) {
+            term = synonymIndex.get(name);
+        }
+        return term;
+    }
+
+
+    /**
+     * Returns the accessions related to the term with the given accession by
+     * the given relationship type, e.g. {@link #OBO_IS_A} or "has_regexp".
+     *
+     * @param accession
+     * @param relationshipType
+     * @return the related accessions, an empty list if there are none
+     */
+    public List<String> getRelatedAccessions(String accession, String relationshipType) {
+        if (relationshipTable == null) {
+            buildRelationshipTable();
+        }
+
+        Map<String, List<String>> relationships = relationshipTable.get(accession);
+        if (relationships == null) {
+            return Collections.emptyList();
+        }
+        return relationships.getOrDefault(relationshipType, Collections.emptyList());
+    }
+
+
+    /**
+     * Builds the indexes of the names and synonyms. If a name occurs multiple
+     * times, the first term is used.
+     */
+    private synchronized void buildNameIndexes() {
+        if (nameIndex != null) {
+            return;
+        }
+
+        Set<Term> terms = getTerms();
+        Map<String, Term> names = new HashMap<>(terms.size() * 2);
+        Map<String, Term> synonyms = new HashMap<>(terms.size() * 2);
+        for (Term term : terms) {
+            if (term.getDescription() != null) {
+                names.putIfAbsent(term.getDescription(), term);
+            }
+
+            for (Object synonym : term.getSynonyms()) {
+                String synonymName = (synonym instanceof Synonym) ? ((Synonym) synonym).getName() : synonym.toString();
+                if (synonymName != null) {
+                    synonyms.putIfAbsent(synonymName, term);
+                }
+            }
+        }
+
+        synonymIndex = synonyms;
+        nameIndex = names;
+    }
+
+
+    /**
+     * Builds the table of the relationships of all terms. The "is_a" triples
+     * are stored with the type {@link #OBO_IS_A}, the other relationships
+     * (which have objects like "has_regexp MS:1001186") with the first part of
+     * the object as type.
+     */
+    private synchronized void buildRelationshipTable() {
+        if (relationshipTable != null) {
+            return;
+        }
+
+        Map<String, Map<String, List<String>>> table = new HashMap<>();
+        for (Triple triple : getCurrentOntology().getTriples(null, null, null)) {
+            if ((triple.getSubject() == null) || (triple.getObject() == null) || (triple.getPredicate() == null)) {
+                continue;
+            }
+
+            String predicate = triple.getPredicate().getName();
+            String object = triple.getObject().getName();
+            String type = null;
+            String target = null;
+
+            if (OBO_IS_A.equals(predicate)) {
+                type = OBO_IS_A;
+                target = object;
+            } else if (OBO_RELATIONSHIP.equals(predicate)) {
+                int spaceIdx = object.indexOf(' ');
+                if (spaceIdx > 0) {
+                    type = object.substring(0, spaceIdx);
+                    target = object.substring(spaceIdx + 1).trim();
+                }
+            }
+
+            if (type != null) {
+                table.computeIfAbsent(triple.getSubject().getName(), k -> new HashMap<>())
+                        .computeIfAbsent(type, k -> new ArrayList<>())
+                        .add(target);
             }
         }
 
-        return null;
+        relationshipTable = table;
     }
 }
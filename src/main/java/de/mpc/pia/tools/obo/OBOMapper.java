@@ -32,53 +32,78 @@ public class OBOMapper extends AbstractOBOMapper {
 
     // some statics
     public static final String OBO_HAS_REGEXP = "has_regexp";
-    public static final String OBO_HAS_ORDER_HIGHERSCOREBETTER = "has_order MS:1002108";
-    public static final String OBO_HAS_ORDER_LOWERSCOREBETTER = "has_order MS:1002109";
+    public static final String OBO_HAS_ORDER = "has_order";
+    public static final String OBO_HIGHERSCOREBETTER = "MS:1002108";
+    public static final String OBO_LOWERSCOREBETTER = "MS:1002109";
+    public static final String OBO_HAS_ORDER_HIGHERSCOREBETTER = OBO_HAS_ORDER + ' ' + OBO_HIGHERSCOREBETTER;
+    public static final String OBO_HAS_ORDER_LOWERSCOREBETTER = OBO_HAS_ORDER + ' ' + OBO_LOWERSCOREBETTER;
 
 
     /**
-     * Constructor for the OBOMapper. Uses the online OBO file (if accessible)
-     * or a locally shipped file.
+     * Constructor for the OBOMapper. Uses only the locally shipped OBO file,
+     * without any network access.
      *
      */
     public OBOMapper() {
-        this(true);
+        this(false);
     }
 
 
     /**
-     * Creates a new OBOMapper, using the online OBO or the shipped only.
+     * Creates a new OBOMapper, using the online OBO or the shipped only. The
+     * shipped OBO is only parsed, if the online OBO is not used or not
+     * accessible.
      *
      * @param useOnline whether to use the online OBO
      */
     public OBOMapper(boolean useOnline) {
-        try (InputStream inStreamOffline = OBOMapper.class.getResourceAsStream("/de/mpc/pia/psi-ms.obo")) {
-            // get the shipped ontology
-            OboParser parser = new OboParser();
-            BufferedReader oboFile = new BufferedReader(new InputStreamReader(inStreamOffline));
-
-            shippedOntology = parser.parseOBO(oboFile, "PSI-MS", "MS ontology of the HUPO-PSI");
-
-            // get the online ontology
-            if (useOnline) {
-                try (InputStream inStreamOnline = new URL(OntologyConstants.PSI_MS_OBO_URL).openStream()) {
-                    parser = new OboParser();
-                    oboFile = new BufferedReader(new InputStreamReader(inStreamOnline));
-
-                    onlineOntology = parser.parseOBO(oboFile, "PSI-MS", "MS ontology of the HUPO-PSI");
-                }
-            } else {
-                onlineOntology = null;
-            }
-        } catch (IOException e) {
-            onlineOntology = null;
-            if (useOnline) {
+        onlineOntology = null;
+        shippedOntology = null;
+
+        if (useOnline) {
+            try (InputStream inStreamOnline = new URL(OntologyConstants.PSI_MS_OBO_URL).openStream()) {
+                OboParser parser = new OboParser();
+                BufferedReader oboFile = new BufferedReader(new InputStreamReader(inStreamOnline));
+
+                onlineOntology = parser.parseOBO(oboFile, "PSI-MS", "MS ontology of the HUPO-PSI");
+            } catch (IOException e) {
                 LOGGER.warn("could not use remote obo file, check internet connection", e);
+            } catch (Exception e) {
+                LOGGER.error("could not parse remote obo file", e);
             }
-        } catch (Exception e) {
-            LOGGER.error(e);
-            throw new AssertionError(e);
         }
+
+        if (onlineOntology == null) {
+            try (InputStream inStreamOffline = OBOMapper.class.getResourceAsStream("/de/mpc/pia/psi-ms.obo")) {
+                // get the shipped ontology
+                OboParser parser = new OboParser();
+                BufferedReader oboFile = new BufferedReader(new InputStreamReader(inStreamOffline));
+
+                shippedOntology = parser.parseOBO(oboFile, "PSI-MS", "MS ontology of the HUPO-PSI");
+            } catch (Exception e) {
+                LOGGER.error(e);
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+
+    /**
+     * Holder of the shared instance, which is created on first access.
+     */
+    private static class InstanceHolder {
+        private static final OBOMapper INSTANCE = new OBOMapper();
+    }
+
+
+    /**
+     * Returns the {@link OBOMapper} of the shipped OBO, which is shared in the
+     * JVM. It is created on the first call.
+     *
+     * @return
+     */
+    public static OBOMapper getInstance() {
+        return InstanceHolder.INSTANCE;
     }
 
 
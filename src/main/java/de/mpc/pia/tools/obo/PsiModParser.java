@@ -43,48 +43,46 @@ public class PsiModParser extends AbstractOBOMapper {
 
 
     /**
-     * Constructor for the PsiModParser. Uses the online OBO file (if accessible)
-     * or a locally shipped file otherwise.
+     * Constructor for the PsiModParser. Uses only the locally shipped OBO
+     * file, without any network access.
      *
      */
     public PsiModParser() {
-        this(true);
+        this(false);
     }
 
 
     /**
      * Creates a new PsiModParser, using the online OBO or the shipped file only.
+     * The shipped OBO is only parsed, if the online OBO is not used or not
+     * accessible.
      *
      * @param useOnline whether to use the online OBO
      */
     public PsiModParser(boolean useOnline) {
+        if (useOnline) {
+            // get the online ontology
+            try (InputStream inStream = new URL(OntologyConstants.PSI_MOD_OBO_URL).openStream()) {
+                OboParser parser = new OboParser();
+                BufferedReader oboFile = new BufferedReader(new InputStreamReader(inStream));
 
-
-        // get the shipped ontology
-        try (InputStream inStream = OBOMapper.class.getResourceAsStream("/de/mpc/pia/PSI-MOD.obo")) {
-            OboParser parser = new OboParser();
-            BufferedReader oboFile = new BufferedReader(new InputStreamReader(inStream));
-
-            ontology = parser.parseOBO(oboFile, "PSI-MOD", "modifications defined by the HUPO-PSI");
-        } catch (IOException e) {
-            if (!useOnline) {
-                LOGGER.warn("could not read local obo file", e);
-            }
-        } catch (Exception e) {
-            if (!useOnline) {
+                ontology = parser.parseOBO(oboFile, "PSI-MOD", "modifications defined by the HUPO-PSI");
+            } catch (IOException e) {
+                LOGGER.warn("Could not read online obo file, check internet connection.", e);
+            } catch (Exception e) {
                 LOGGER.error(e);
             }
         }
 
-        if (useOnline) {
-            // get the online ontology
-            try (InputStream inStream = new URL(OntologyConstants.PSI_MOD_OBO_URL).openStream()) {
+        if (ontology == null) {
+            // get the shipped ontology
+            try (InputStream inStream = OBOMapper.class.getResourceAsStream("/de/mpc/pia/PSI-MOD.obo")) {
                 OboParser parser = new OboParser();
                 BufferedReader oboFile = new BufferedReader(new InputStreamReader(inStream));
 
                 ontology = parser.parseOBO(oboFile, "PSI-MOD", "modifications defined by the HUPO-PSI");
             } catch (IOException e) {
-                LOGGER.warn("Could not read online obo file, check internet connection.", e);
+                LOGGER.warn("could not read local obo file", e);
             } catch (Exception e) {
                 LOGGER.error(e);
             }
@@ -96,6 +94,25 @@ public class PsiModParser extends AbstractOBOMapper {
     }
 
 
+    /**
+     * Holder of the shared instance, which is created on first access.
+     */
+    private static class InstanceHolder {
+        private static final PsiModParser INSTANCE = new PsiModParser();
+    }
+
+
+    /**
+     * Returns the {@link PsiModParser} of the shipped OBO, which is shared in
+     * the JVM. It is created on the first call.
+     *
+     * @return
+     */
+    public static PsiModParser getInstance() {
+        return InstanceHolder.INSTANCE;
+    }
+
+
     @Override
     public Ontology getCurrentOntology() {
         return ontology;
@@ -1,32 +1,51 @@
 package de.mpc.pia.tools.openms;
 
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
 
 import org.apache.log4j.Logger;
 
 import de.mpc.pia.tools.openms.jaxb.IdXML;
 import de.mpc.pia.tools.openms.jaxb.IdentificationRun;
+import de.mpc.pia.tools.openms.jaxb.PeptideHit;
+import de.mpc.pia.tools.openms.jaxb.PeptideIdentification;
+import de.mpc.pia.tools.openms.jaxb.ProteinHit;
+import de.mpc.pia.tools.openms.jaxb.ProteinIdentification;
 import de.mpc.pia.tools.openms.jaxb.SearchParameters;
 
 /**
  * This is a very basic parser for IdXML.
  * <p>
  * It is mainly build using JAXB and the provided schema file of OpenMS's
- * IdXML format.
+ * IdXML format. The file is streamed by StAX and only single elements are
+ * unmarshalled, so the PeptideIdentifications are passed one at a time to an
+ * {@link IdXMLHandler} and never all kept in memory. The references to the
+ * SearchParameters and ProteinHits are resolved by the parser.
  *
  * @author julian
  *
  */
 public class IdXMLParser {
 
-    /** the {@link IdentificationRun} from the IdXML file */
-    private List<IdentificationRun> identificationRuns;
+    /** the name of the parsed file */
+    private final String idXMLFileName;
 
     /** the {@link SearchParameters} from the IdXML file*/
     private List<SearchParameters> searchParameters;
@@ -35,33 +54,153 @@ public class IdXMLParser {
     /** logger for this class */
     private static final Logger LOGGER = Logger.getLogger(IdXMLParser.class);
 
+    /** the element and attribute names, which are handled while streaming */
+    private static final String XML_TAG_ID_XML = "IdXML";
+    private static final String XML_TAG_SEARCH_PARAMETERS = "SearchParameters";
+    private static final String XML_TAG_IDENTIFICATION_RUN = "IdentificationRun";
+    private static final String XML_TAG_PROTEIN_IDENTIFICATION = "ProteinIdentification";
+    private static final String XML_TAG_PEPTIDE_IDENTIFICATION = "PeptideIdentification";
+    private static final String XML_TAG_PEPTIDE_HIT = "PeptideHit";
+    private static final String XML_ATTR_PROTEIN_REFS = "protein_refs";
+
+
+    /**
+     * Handles the parsed content of an IdXML file.
+     */
+    public interface IdXMLHandler {
+
+        /**
+         * Called for each IdentificationRun before its PeptideIdentifications.
+         * The SearchParameters and the ProteinIdentification (if any) of the
+         * run are set, but not the PeptideIdentifications.
+         *
+         * @param idRun
+         * @return false, if the parsing should stop
+         */
+        boolean startIdentificationRun(IdentificationRun idRun);
+
+        /**
+         * Called for each PeptideIdentification of the current run.
+         *
+         * @param pepID
+         */
+        void processPeptideIdentification(PeptideIdentification pepID);
+    }
+
 
     /**
-     * Basic constructor, reads in the IdXML file
+     * Basic constructor, the file is only read by {@link #parse(IdXMLHandler)}.
      *
      * @param idXMLFileName
-     * @throws JAXBException
-     * @throws FileNotFoundException
      */
-    public IdXMLParser(String idXMLFileName)
-            throws JAXBException, FileNotFoundException {
-        JAXBContext context = JAXBContext.newInstance(IdXML.class);
-        Unmarshaller um = context.createUnmarshaller();
+    public IdXMLParser(String idXMLFileName) {
+        this.idXMLFileName = idXMLFileName;
+        this.searchParameters = new ArrayList<>();
+    }
 
-        IdXML idXML = (IdXML)um.unmarshal(new FileReader(idXMLFileName));
 
-        if (idXML.getVersion() < 1.2) {
-            LOGGER.error("Reading in probable incompatible idXML version " +
-                    idXML.getVersion());
+    /**
+     * Counts the IdentificationRuns in the file, without unmarshalling
+     * anything.
+     *
+     * @return
+     * @throws IOException
+     */
+    public int countIdentificationRuns() throws IOException {
+        int nrRuns = 0;
+
+        try (InputStream in = new BufferedInputStream(new FileInputStream(idXMLFileName))) {
+            XMLStreamReader xmlr = createXMLStreamReader(in);
+            while (xmlr.hasNext()) {
+                if ((xmlr.next() == XMLStreamConstants.START_ELEMENT)
+                        && XML_TAG_IDENTIFICATION_RUN.equals(xmlr.getLocalName())) {
+                    nrRuns++;
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
         }
 
-        searchParameters =  idXML.getSearchParameters();
-        identificationRuns = idXML.getIdentificationRun();
+        return nrRuns;
+    }
+
+
+    /**
+     * Streams through the file and passes the IdentificationRuns and
+     * PeptideIdentifications to the handler.
+     *
+     * @param handler
+     * @throws IOException
+     */
+    public void parse(IdXMLHandler handler) throws IOException {
+        searchParameters = new ArrayList<>();
+        Map<String, SearchParameters> searchParametersMap = new HashMap<>();
+
+        try (InputStream in = new BufferedInputStream(new FileInputStream(idXMLFileName))) {
+            ProteinHitsReader xmlr = new ProteinHitsReader(createXMLStreamReader(in));
+
+            Unmarshaller um = JAXBContext.newInstance(IdXML.class).createUnmarshaller();
+            // the references to other elements are resolved here
+            um.setEventHandler(event -> true);
+
+            IdentificationRun idRun = null;
+            Map<String, ProteinHit> proteinHits = new HashMap<>();
+            boolean runStarted = false;
+
+            while (xmlr.hasNext()) {
+                int event = xmlr.getEventType();
+
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String tag = xmlr.getLocalName();
+
+                    if (XML_TAG_ID_XML.equals(tag)) {
+                        checkVersion(xmlr.getAttributeValue(null, "version"));
+                    } else if (XML_TAG_SEARCH_PARAMETERS.equals(tag)) {
+                        SearchParameters params = um.unmarshal(xmlr, SearchParameters.class).getValue();
+                        searchParameters.add(params);
+                        searchParametersMap.put(params.getId(), params);
+                        continue;
+                    } else if (XML_TAG_IDENTIFICATION_RUN.equals(tag)) {
+                        idRun = createIdentificationRun(xmlr, searchParametersMap);
+                        proteinHits.clear();
+                        runStarted = false;
+                    } else if (XML_TAG_PROTEIN_IDENTIFICATION.equals(tag) && (idRun != null)) {
+                        ProteinIdentification protID = um.unmarshal(xmlr, ProteinIdentification.class).getValue();
+                        idRun.setProteinIdentification(protID);
+                        protID.getProteinHit().forEach(protHit -> proteinHits.put(protHit.getId(), protHit));
+                        continue;
+                    } else if (XML_TAG_PEPTIDE_IDENTIFICATION.equals(tag) && (idRun != null)) {
+                        if (!runStarted) {
+                            if (!handler.startIdentificationRun(idRun)) {
+                                return;
+                            }
+                            runStarted = true;
+                        }
+
+                        xmlr.clearProteinRefs();
+                        PeptideIdentification pepID = um.unmarshal(xmlr, PeptideIdentification.class).getValue();
+                        resolveProteinRefs(pepID, xmlr.getProteinRefs(), proteinHits);
+                        handler.processPeptideIdentification(pepID);
+                        continue;
+                    }
+                } else if ((event == XMLStreamConstants.END_ELEMENT)
+                        && XML_TAG_IDENTIFICATION_RUN.equals(xmlr.getLocalName())) {
+                    if (!runStarted && (idRun != null) && !handler.startIdentificationRun(idRun)) {
+                        return;
+                    }
+                    idRun = null;
+                }
+
+                xmlr.next();
+            }
+        } catch (XMLStreamException | JAXBException e) {
+            throw new IOException(e);
+        }
     }
 
 
     /**
-     * Returns the List of {@link SearchParameters}
+     * Returns the List of {@link SearchParameters}, after the file is parsed.
      * @return
      */
     public List<SearchParameters> getSearchParameters() {
@@ -70,10 +209,130 @@ public class IdXMLParser {
 
 
     /**
-     * Returns the List of {@link IdentificationRun}s
-     * @return
+     * Creates a StAX reader for the given stream.
      */
-    public List<IdentificationRun> getIdentificationRuns() {
-        return identificationRuns;
+    private static XMLStreamReader createXMLStreamReader(InputStream in) throws XMLStreamException {
+        XMLInputFactory xmlif = XMLInputFactory.newInstance();
+        xmlif.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        return xmlif.createXMLStreamReader(in);
+    }
+
+
+    /**
+     * Logs an error for versions, which are probably not compatible.
+     */
+    private static void checkVersion(String version) {
+        try {
+            if ((version != null) && (Float.parseFloat(version) < 1.2)) {
+                LOGGER.error("Reading in probable incompatible idXML version " + version);
+            }
+        } catch (NumberFormatException e) {
+            LOGGER.error("Could not parse idXML version " + version);
+        }
+    }
+
+
+    /**
+     * Creates the IdentificationRun (without any of its children) from the
+     * attributes at the current position of the reader.
+     */
+    private static IdentificationRun createIdentificationRun(XMLStreamReader xmlr,
+            Map<String, SearchParameters> searchParametersMap) {
+        IdentificationRun idRun = new IdentificationRun();
+
+        idRun.setSearchEngine(xmlr.getAttributeValue(null, "search_engine"));
+        idRun.setSearchEngineVersion(xmlr.getAttributeValue(null, "search_engine_version"));
+        idRun.setSearchParametersRef(
+                searchParametersMap.get(xmlr.getAttributeValue(null, "search_parameters_ref")));
+
+        String date = xmlr.getAttributeValue(null, "date");
+        if (date != null) {
+            try {
+                idRun.setDate(DatatypeFactory.newInstance().newXMLGregorianCalendar(date.trim()));
+            } catch (DatatypeConfigurationException | IllegalArgumentException e) {
+                LOGGER.warn("Could not parse date of IdentificationRun: " + date);
+            }
+        }
+
+        return idRun;
+    }
+
+
+    /**
+     * Sets the ProteinHits of the PeptideHits from the captured protein_refs,
+     * which are in the same order as the PeptideHits.
+     */
+    private static void resolveProteinRefs(PeptideIdentification pepID, List<String> proteinRefs,
+            Map<String, ProteinHit> proteinHits) {
+        List<PeptideHit> pepHits = pepID.getPeptideHit();
+
+        for (int idx = 0; idx < pepHits.size(); idx++) {
+            List<Object> refs = pepHits.get(idx).getProteinRefs();
+            refs.clear();
+
+            String refsValue = (idx < proteinRefs.size()) ? proteinRefs.get(idx) : null;
+            if ((refsValue == null) || refsValue.trim().isEmpty()) {
+                continue;
+            }
+
+            for (String ref : refsValue.trim().split("\\s+")) {
+                ProteinHit protHit = proteinHits.get(ref);
+                if (protHit != null) {
+                    refs.add(protHit);
+                } else {
+                    LOGGER.warn("Could not find ProteinHit " + ref);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Captures the protein_refs of the PeptideHits, while JAXB reads through
+     * a PeptideIdentification.
+     */
+    private static class ProteinHitsReader extends StreamReaderDelegate {
+
+        /** the protein_refs of the read PeptideHits */
+        private final List<String> proteinRefs;
+
+
+        private ProteinHitsReader(XMLStreamReader reader) {
+            super(reader);
+            this.proteinRefs = new ArrayList<>();
+        }
+
+
+        @Override
+        public int next() throws XMLStreamException {
+            int event = super.next();
+            if ((event == XMLStreamConstants.START_ELEMENT) && XML_TAG_PEPTIDE_HIT.equals(getLocalName())) {
+                proteinRefs.add(getAttributeValue(null, XML_ATTR_PROTEIN_REFS));
+            }
+            return event;
+        }
+
+
+        @Override
+        public int nextTag() throws XMLStreamException {
+            int event = next();
+            while (((event == XMLStreamConstants.CHARACTERS) && isWhiteSpace())
+                    || (event == XMLStreamConstants.SPACE)
+                    || (event == XMLStreamConstants.COMMENT)
+                    || (event == XMLStreamConstants.PROCESSING_INSTRUCTION)) {
+                event = next();
+            }
+            return event;
+        }
+
+
+        private void clearProteinRefs() {
+            proteinRefs.clear();
+        }
+
+
+        private List<String> getProteinRefs() {
+            return proteinRefs;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,282 @@
+package de.mpc.pia.tools.unimod;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+
+import de.mpc.pia.tools.unimod.jaxb.ModT;
+import de.mpc.pia.tools.unimod.jaxb.SpecificityT;
+
+
+/**
+ * Immutable lookup indexes over the modifications of the Unimod, built once
+ * after parsing. The modifications are identified by their position in the
+ * original list, so that every lookup returns the first matching modification
+ * in Unimod order, like a linear scan would.
+ *
+ * @author julian
+ *
+ */
+class UnimodIndex {
+
+    /** the tolerance of the range queries, wider than the mass tolerance, which is checked exactly afterwards */
+    private static final double RANGE_TOLERANCE = 2 * UnimodParser.UNIMOD_MASS_TOLERANCE;
+
+    /** the indexed modifications, in Unimod order */
+    private final ModT[] modifications;
+
+    /** mapping from the record ID to the position */
+    private final Map<Long, Integer> recordIdIndex;
+
+    /** mapping from the lower case title, full name and alternative names to the (sorted) positions */
+    private final Map<String, int[]> nameIndex;
+
+    /** the monoisotopic mass deltas, sorted ascending */
+    private final double[] sortedMasses;
+
+    /** the positions of the modifications corresponding to sortedMasses */
+    private final int[] sortedMassPositions;
+
+    /** bitmask of the residues (bit 0 = A ... bit 25 = Z) of each modification */
+    private final int[] residueMasks;
+
+    /** whether the modification has a terminal specificity (and is thus allowed on any residue) */
+    private final boolean[] terminalSpecificity;
+
+
+    /**
+     * Builds the indexes for the given modifications.
+     *
+     * @param modList
+     */
+    UnimodIndex(List<ModT> modList) {
+        modifications = modList.toArray(new ModT[modList.size()]);
+        recordIdIndex = new HashMap<>(modifications.length * 2);
+        residueMasks = new int[modifications.length];
+        terminalSpecificity = new boolean[modifications.length];
+
+        Map<String, TreeSet<Integer>> names = new HashMap<>(modifications.length * 4);
+        List<Integer> massPositions = new ArrayList<>(modifications.length);
+
+        for (int pos = 0; pos < modifications.length; pos++) {
+            ModT mod = modifications[pos];
+
+            recordIdIndex.putIfAbsent(mod.getRecordId(), pos);
+
+            addName(names, mod.getTitle(), pos);
+            addName(names, mod.getFullName(), pos);
+            for (String altName : mod.getAltName()) {
+                addName(names, altName, pos);
+            }
+
+            if ((mod.getDelta() != null) && (mod.getDelta().getMonoMass() != null)) {
+                massPositions.add(pos);
+            }
+
+            indexSpecificities(mod, pos);
+        }
+
+        nameIndex = new HashMap<>(names.size() * 2);
+        for (Map.Entry<String, TreeSet<Integer>> nameIt : names.entrySet()) {
+            nameIndex.put(nameIt.getKey(),
+                    nameIt.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+
+        massPositions.sort(Comparator.comparingDouble(pos -> modifications[pos].getDelta().getMonoMass()));
+        sortedMasses = new double[massPositions.size()];
+        sortedMassPositions = new int[massPositions.size()];
+        for (int i = 0; i < sortedMasses.length; i++) {
+            sortedMassPositions[i] = massPositions.get(i);
+            sortedMasses[i] = modifications[sortedMassPositions[i]].getDelta().getMonoMass();
+        }
+    }
+
+
+    /**
+     * Adds the name of the modification at the given position to the name
+     * mapping.
+     */
+    private static void addName(Map<String, TreeSet<Integer>> names, String name, int pos) {
+        if (name != null) {
+            names.computeIfAbsent(normalizeName(name), k -> new TreeSet<>()).add(pos);
+        }
+    }
+
+
+    /**
+     * Normalizes the name for the lookup in the name index.
+     */
+    private static String normalizeName(String name) {
+        return name.toLowerCase(Locale.ENGLISH);
+    }
+
+
+    /**
+     * Sets the residue bitmask and terminal flag for the modification at the
+     * given position.
+     */
+    private void indexSpecificities(ModT mod, int pos) {
+        for (SpecificityT spec : mod.getSpecificity()) {
+            String site = spec.getSite();
+
+            // TODO: make this more sophisticated
+            if ("N-term".equalsIgnoreCase(site) || "C-Term".equalsIgnoreCase(site)) {
+                terminalSpecificity[pos] = true;
+            } else {
+                int bit = residueBit(site);
+                if (bit > -1) {
+                    residueMasks[pos] |= 1 << bit;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Returns the bit of a single upper case residue letter or -1.
+     */
+    private static int residueBit(String residue) {
+        if ((residue != null) && (residue.length() == 1)) {
+            char c = residue.charAt(0);
+            if ((c >= 'A') && (c <= 'Z')) {
+                return c - 'A';
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Returns the modification with the given record ID or null.
+     *
+     * @param recordId
+     * @return
+     */
+    ModT getByRecordId(Long recordId) {
+        Integer pos = recordIdIndex.get(recordId);
+        return (pos != null) ? modifications[pos] : null;
+    }
+
+
+    /**
+     * Returns the first modification (in Unimod order) having the query as
+     * title, full name or alternative name, which is allowed on all residues.
+     *
+     * @param query
+     * @param residues
+     * @return
+     */
+    ModT getByName(String query, List<String> residues) {
+        return getByNameAndMass(query, null, residues);
+    }
+
+
+    /**
+     * Returns the first modification (in Unimod order) having the query as
+     * title, full name or alternative name, which is within the mass tolerance
+     * of the given delta (if not null) and allowed on all residues.
+     *
+     * @param query
+     * @param massdelta
+     * @param residues
+     * @return
+     */
+    ModT getByNameAndMass(String query, Double massdelta, List<String> residues) {
+        if (query == null) {
+            return null;
+        }
+
+        int[] positions = nameIndex.get(normalizeName(query));
+        if (positions == null) {
+            return null;
+        }
+
+        for (int pos : positions) {
+            ModT mod = modifications[pos];
+            if (((massdelta == null) || isWithinTolerance(mod, massdelta))
+                    && checkResidues(pos, residues)) {
+                return mod;
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Returns the first modification (in Unimod order) within the mass
+     * tolerance of the given delta, which is allowed on all residues.
+     *
+     * @param massdelta
+     * @param residues
+     * @return
+     */
+    ModT getByMass(Double massdelta, List<String> residues) {
+        int from = lowerBound(massdelta - RANGE_TOLERANCE);
+
+        int firstPos = Integer.MAX_VALUE;
+        for (int i = from; (i < sortedMasses.length) && (sortedMasses[i] <= massdelta + RANGE_TOLERANCE); i++) {
+            int pos = sortedMassPositions[i];
+            if ((pos < firstPos)
+                    && isWithinTolerance(modifications[pos], massdelta)
+                    && checkResidues(pos, residues)) {
+                firstPos = pos;
+            }
+        }
+
+        return (firstPos < Integer.MAX_VALUE) ? modifications[firstPos] : null;
+    }
+
+
+    /**
+     * Returns the first index in sortedMasses with a mass not smaller than the
+     * given one.
+     */
+    private int lowerBound(double mass) {
+        int low = 0;
+        int high = sortedMasses.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedMasses[mid] < mass) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+
+    /**
+     * Whether the mono mass of the modification is within the tolerance of the
+     * given delta.
+     */
+    private static boolean isWithinTolerance(ModT mod, double massdelta) {
+        return Math.abs(mod.getDelta().getMonoMass() - massdelta) <= UnimodParser.UNIMOD_MASS_TOLERANCE;
+    }
+
+
+    /**
+     * Checks for the given residues whether all of them are allowed for the
+     * modification at the given position. Modifications with a terminal
+     * specificity are allowed everywhere, "." is always allowed.
+     */
+    private boolean checkResidues(int pos, List<String> residues) {
+        if (terminalSpecificity[pos]) {
+            return true;
+        }
+
+        for (String residue : residues) {
+            if (!".".equals(residue)) {
+                int bit = residueBit(residue);
+                if ((bit < 0) || ((residueMasks[pos] & (1 << bit)) == 0)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
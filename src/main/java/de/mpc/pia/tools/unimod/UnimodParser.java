@@ -4,9 +4,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
@@ -19,7 +17,6 @@ import uk.ac.ebi.jmzidml.model.mzidml.CvParam;
 import uk.ac.ebi.jmzidml.model.mzidml.Modification;
 
 import de.mpc.pia.tools.unimod.jaxb.ModT;
-import de.mpc.pia.tools.unimod.jaxb.SpecificityT;
 import de.mpc.pia.tools.unimod.jaxb.UnimodT;
 
 
@@ -54,19 +51,29 @@ public class UnimodParser {
         cvUnimod.setUri("http://www.unimod.org/obo/unimod.obo");
     }
 
-    /** the modifications from the unimod */
-    private List<ModT> modifications;
+    /** the lookup indexes of the modifications from the unimod */
+    private UnimodIndex index;
 
 
     /** logger for this class */
     private static final Logger LOGGER = Logger.getLogger(UnimodParser.class);
 
 
+    /**
+     * Creates a new UnimodParser, using only the locally shipped unimod.xml,
+     * without any network access.
+     */
     public UnimodParser() {
-        this(true);
+        this(false);
     }
 
 
+    /**
+     * Creates a new UnimodParser, using the online unimod.xml (if accessible)
+     * or the shipped file.
+     *
+     * @param useOnline whether to use the online unimod.xml
+     */
     public UnimodParser(boolean useOnline) {
         InputStream inStream = null;
 
@@ -89,7 +96,7 @@ public class UnimodParser {
             @SuppressWarnings("unchecked")
             JAXBElement<UnimodT> doc = (JAXBElement<UnimodT>)um.unmarshal(inStream);
 
-            modifications = doc.getValue().getModifications().getMod();
+            index = new UnimodIndex(doc.getValue().getModifications().getMod());
         } catch (Exception e) {
             LOGGER.error("could not parse unimod.xml file", e);
             throw new AssertionError(e);
@@ -105,6 +112,27 @@ public class UnimodParser {
     }
 
 
+    /**
+     * Holder of the shared instance, which is created on first access.
+     */
+    private static class InstanceHolder {
+        private static final UnimodParser INSTANCE = new UnimodParser();
+    }
+
+
+    /**
+     * Returns the {@link UnimodParser} of the shipped unimod.xml, which is
+     * shared in the JVM. It is created on the
+     * first call and can be used by multiple threads, as the modifications are
+     * not changed after parsing.
+     *
+     * @return
+     */
+    public static UnimodParser getInstance() {
+        return InstanceHolder.INSTANCE;
+    }
+
+
     /**
      * Returns the Cv definition for unimod
      * @return
@@ -187,12 +215,7 @@ public class UnimodParser {
         }
 
         try {
-            Long id = Long.parseLong(idStr);
-            for (ModT mod : modifications) {
-                if (mod.getRecordId().equals(id)) {
-                    return mod;
-                }
-            }
+            return index.getByRecordId(Long.parseLong(idStr));
         } catch (NumberFormatException e) {
             LOGGER.error("Could not parse accession in UniMod: " + idStr, e);
         }
@@ -208,16 +231,7 @@ public class UnimodParser {
      * @return
      */
     public ModT getModificationByName(String query, List<String> residues) {
-
-        for (ModT mod : modifications) {
-            boolean nameFound = isAnyName(query, mod);
-
-            if (nameFound && checkResidues(mod, residues)) {
-                return mod;
-            }
-        }
-
-        return null;
+        return index.getByName(query, residues);
     }
 
 
@@ -246,18 +260,7 @@ public class UnimodParser {
      */
     public ModT getModificationByNameAndMass(String query, Double massdelta,
             List<String> residues) {
-
-        for (ModT mod : modifications) {
-            boolean nameFound = isAnyName(query, mod);
-
-            if (nameFound &&
-                    (Math.abs(mod.getDelta().getMonoMass() - massdelta) <= UNIMOD_MASS_TOLERANCE) &&
-                    checkResidues(mod, residues)) {
-                return mod;
-            }
-        }
-
-        return null;
+        return index.getByNameAndMass(query, massdelta, residues);
     }
 
 
@@ -319,45 +322,6 @@ public class UnimodParser {
      * @return
      */
     public ModT getModificationByMass(Double massdelta, List<String> residues) {
-        for (ModT mod : modifications) {
-            if ((Math.abs(mod.getDelta().getMonoMass() - massdelta) <= UNIMOD_MASS_TOLERANCE)
-                    && checkResidues(mod, residues)) {
-                return mod;
-            }
-        }
-
-        return null;
-    }
-
-
-    /**
-     * Checks for the given residues whether all of them are allowed for the
-     * given modification.
-     *
-     * @param modification
-     * @param residues
-     * @return
-     */
-    private static boolean checkResidues(ModT modification, List<String> residues) {
-        Set<String> specificities =
-                new HashSet<>(modification.getSpecificity().size());
-        for (SpecificityT spec : modification.getSpecificity()) {
-            specificities.add(spec.getSite());
-
-            // TODO: make this more sophisticated
-            if (  "N-term".equalsIgnoreCase(spec.getSite())
-                    || "C-Term".equalsIgnoreCase(spec.getSite())) {
-                return true;
-            }
-        }
-
-        boolean residuesOK = true;
-        for (String residue : residues) {
-            if (!".".equals(residue)) {
-                residuesOK &= specificities.contains(residue);
-            }
-        }
-
-        return residuesOK;
+        return index.getByMass(massdelta, residues);
     }
 }
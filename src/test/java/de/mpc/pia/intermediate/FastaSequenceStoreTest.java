@@ -0,0 +1,159 @@
+package de.mpc.pia.intermediate;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.mpc.pia.intermediate.compiler.parser.FastaHeaderInfos;
+
+/**
+ * test cases for the memory-mapped sequences of FASTA files
+ *
+ * @author julian
+ *
+ */
+public class FastaSequenceStoreTest {
+
+    private File tmpDir;
+
+    private File fastaFile;
+
+    private Map<String, String> sequences;
+
+
+    @Before
+    public void setUp() throws IOException {
+        File resource = new File(FastaSequenceStoreTest.class.getResource("/cRAP-contaminants-20120229.fasta").getPath());
+
+        // use a copy, to not write the index into the resources
+        tmpDir = Files.createTempDirectory("piaFastaStore").toFile();
+        fastaFile = new File(tmpDir, resource.getName());
+        Files.copy(resource.toPath(), fastaFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        // read the sequences like the FastaFileParser
+        sequences = new LinkedHashMap<>();
+        try (BufferedReader br = Files.newBufferedReader(fastaFile.toPath())) {
+            String strLine;
+            String accession = null;
+            StringBuilder sequence = new StringBuilder();
+            while ((strLine = br.readLine()) != null) {
+                if (strLine.startsWith(">")) {
+                    if ((accession != null) && (sequence.length() > 0)) {
+                        sequences.putIfAbsent(accession, sequence.toString());
+                    }
+                    accession = FastaHeaderInfos.parseHeaderInfos(strLine).getAccession();
+                    sequence = new StringBuilder();
+                } else {
+                    sequence.append(strLine.trim());
+                }
+            }
+            if ((accession != null) && (sequence.length() > 0)) {
+                sequences.putIfAbsent(accession, sequence.toString());
+            }
+        }
+    }
+
+
+    @After
+    public void tearDown() {
+        for (File file : tmpDir.listFiles()) {
+            file.delete();
+        }
+        tmpDir.delete();
+    }
+
+
+    @Test
+    public void testSequences() throws IOException {
+        FastaSequenceStore store = new FastaSequenceStore(fastaFile.getAbsolutePath());
+
+        assertEquals(sequences.size(), store.size());
+        for (Map.Entry<String, String> seqIt : sequences.entrySet()) {
+            assertTrue(store.contains(seqIt.getKey()));
+            assertEquals("wrong sequence for " + seqIt.getKey(), seqIt.getValue(), store.getSequence(seqIt.getKey()));
+        }
+
+        assertFalse(store.contains("not_in_the_file"));
+        assertNull(store.getSequence("not_in_the_file"));
+    }
+
+
+    @Test
+    public void testReuseIndex() throws IOException {
+        new FastaSequenceStore(fastaFile.getAbsolutePath());
+
+        File indexFile = new File(fastaFile.getAbsolutePath() + FastaSequenceStore.INDEX_SUFFIX);
+        assertTrue("the index was not written", indexFile.exists());
+        assertEquals(sequences.size(), Files.readAllLines(indexFile.toPath()).size());
+
+        FastaSequenceStore store = new FastaSequenceStore(fastaFile.getAbsolutePath());
+        assertEquals(sequences.size(), store.size());
+        for (Map.Entry<String, String> seqIt : sequences.entrySet()) {
+            assertEquals(seqIt.getValue(), store.getSequence(seqIt.getKey()));
+        }
+    }
+
+
+    @Test
+    public void testLineBreaksAndEmptyEntries() throws IOException {
+        File crlfFile = new File(tmpDir, "crlf.fasta");
+        String fasta = ">sp|P00001|FIRST_HUMAN first protein\r\n"
+                + "MKPEPTIDE\r\nKPEP\r\n"
+                + "\r\n"
+                + ">sp|P00002|EMPTY_HUMAN no sequence\r\n"
+                + ">sp|P00003|LAST_HUMAN last protein\r\n"
+                + "PEPTIDER";
+        Files.write(crlfFile.toPath(), fasta.getBytes(StandardCharsets.US_ASCII));
+
+        FastaSequenceStore store = new FastaSequenceStore(crlfFile.getAbsolutePath());
+        assertEquals(2, store.size());
+        assertEquals("MKPEPTIDEKPEP", store.getSequence("P00001"));
+        assertFalse(store.contains("P00002"));
+        assertEquals("PEPTIDER", store.getSequence("P00003"));
+    }
+
+
+    @Test
+    public void testAccessionWithStore() throws IOException, ClassNotFoundException {
+        FastaSequenceStore store = new FastaSequenceStore(fastaFile.getAbsolutePath());
+
+        String accStr = sequences.keySet().iterator().next();
+        Accession accession = new Accession(1L, accStr, sequences.get(accStr));
+        Accession other = new Accession(1L, accStr, sequences.get(accStr));
+
+        accession.setSequenceStore(store);
+        assertEquals(sequences.get(accStr), accession.getDbSequence());
+        assertEquals(other, accession);
+        assertEquals(other.hashCode(), accession.hashCode());
+
+        // a differing sequence is kept
+        Accession differing = new Accession(2L, accStr, "PEPTIDE");
+        differing.setSequenceStore(store);
+        assertEquals("PEPTIDE", differing.getDbSequence());
+
+        // the sequence is written into the serialization
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(accession);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            Accession deserialized = (Accession) in.readObject();
+            assertEquals(sequences.get(accStr), deserialized.getDbSequence());
+        }
+    }
+}
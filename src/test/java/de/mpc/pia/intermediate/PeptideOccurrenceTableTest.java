@@ -0,0 +1,192 @@
+package de.mpc.pia.intermediate;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class PeptideOccurrenceTableTest {
+
+    private Accession protein1 = null;
+    private Accession protein2 = null;
+    private Accession noSequence = null;
+    private Accession givenResidues = null;
+
+    private Peptide peptideA = null;
+    private Peptide peptideB = null;
+
+    private PeptideOccurrenceTable table = null;
+
+
+    @Before
+    public void setUp() {
+        protein1 = new Accession(1L, "protein1", "PEPTIDEKPEPTIDER");
+        protein2 = new Accession(2L, "protein2", "MKPEPTIDE");
+        noSequence = new Accession(3L, "noSequence", null);
+        givenResidues = new Accession(4L, "givenResidues", null);
+
+        peptideA = new Peptide(2, "PEPTIDE");
+        peptideA.addAccessionOccurrence(protein2, 3, 9);
+        peptideA.addAccessionOccurrence(protein1, 9, 15);
+        peptideA.addAccessionOccurrence(protein1, 1, 7);
+
+        peptideB = new Peptide(1, "TIDER");
+        peptideB.addAccessionOccurrence(givenResidues, 5, 9, 'R', 'A');
+        peptideB.addAccessionOccurrence(noSequence, 5, 9);
+        peptideB.addAccessionOccurrence(protein1, 12, 16);
+
+        table = PeptideOccurrenceTable.build(Arrays.asList(peptideA, peptideB));
+    }
+
+
+    @Test
+    public void testRows() {
+        assertEquals(6, table.getNrRows());
+        assertSame(table, peptideA.getOccurrenceTable());
+        assertSame(table, PeptideOccurrenceTable.getTable(peptideB));
+
+        // peptide B has the lower ID, so it comes first
+        assertEquals(0, table.getRowsStart(1L));
+        assertEquals(3, table.getRowsEnd(1L));
+        assertEquals(3, table.getRowsStart(2L));
+        assertEquals(6, table.getRowsEnd(2L));
+
+        // not contained peptides and accessions give empty ranges
+        assertEquals(table.getRowsStart(5L), table.getRowsEnd(5L));
+        assertEquals(table.getRowsStart(2L, 3L), table.getRowsEnd(2L, 3L));
+
+        // two occurrences of peptide A in protein1, sorted by the start
+        int row = table.getRowsStart(2L, 1L);
+        assertEquals(2, table.getRowsEnd(2L, 1L) - row);
+        assertSame(protein1, table.getAccession(row));
+        assertEquals(1, table.getStart(row));
+        assertEquals(7, table.getEnd(row));
+        assertEquals(9, table.getStart(row + 1));
+        assertEquals(15, table.getEnd(row + 1));
+
+        // adding an occurrence unlinks the table
+        peptideA.addAccessionOccurrence(noSequence, 1, 7);
+        assertNull(peptideA.getOccurrenceTable());
+        PeptideOccurrenceTable rebuilt = PeptideOccurrenceTable.getTable(peptideA);
+        assertEquals(4, rebuilt.getNrRows());
+        // the rebuilt table is linked and not built again
+        assertSame(rebuilt, peptideA.getOccurrenceTable());
+        assertSame(rebuilt, PeptideOccurrenceTable.getTable(peptideA));
+
+        // the old table does not contain all occurrences of A any more
+        table.linkPeptides(Arrays.asList(peptideA, peptideB));
+        assertSame(rebuilt, peptideA.getOccurrenceTable());
+        assertSame(table, peptideB.getOccurrenceTable());
+
+        Peptide notContained = new Peptide(5, "PEPTIDER");
+        notContained.addAccessionOccurrence(protein1, 2, 9);
+        table.linkPeptides(Collections.singletonList(notContained));
+        assertNull(notContained.getOccurrenceTable());
+    }
+
+
+    @Test
+    public void testResidues() {
+        int row = table.getRowsStart(2L, 1L);
+        assertEquals(PeptideOccurrenceTable.TERMINUS_RESIDUE, table.getPre(row));
+        assertEquals('K', table.getPost(row));
+        assertEquals('K', table.getPre(row + 1));
+        assertEquals('R', table.getPost(row + 1));
+
+        row = table.getRowsStart(2L, 2L);
+        assertEquals('K', table.getPre(row));
+        assertEquals(PeptideOccurrenceTable.TERMINUS_RESIDUE, table.getPost(row));
+
+        row = table.getRowsStart(1L, 1L);
+        assertEquals('P', table.getPre(row));
+        assertEquals(PeptideOccurrenceTable.TERMINUS_RESIDUE, table.getPost(row));
+
+        // no sequence, so the residues are not known
+        row = table.getRowsStart(1L, 3L);
+        assertEquals(PeptideOccurrenceTable.UNKNOWN_RESIDUE, table.getPre(row));
+        assertEquals(PeptideOccurrenceTable.UNKNOWN_RESIDUE, table.getPost(row));
+
+        // the given residues are used
+        row = table.getRowsStart(1L, 4L);
+        assertEquals('R', table.getPre(row));
+        assertEquals('A', table.getPost(row));
+    }
+
+
+    @Test
+    public void testSequenceFetchedOncePerAccession() {
+        AtomicInteger nrFetches = new AtomicInteger();
+        Accession counting = new Accession(5L, "counting", "MKPEPTIDEKPEPTIDER") {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public String getDbSequence() {
+                nrFetches.incrementAndGet();
+                return super.getDbSequence();
+            }
+        };
+
+        Peptide peptideC = new Peptide(3, "PEPTIDE");
+        peptideC.addAccessionOccurrence(counting, 3, 9);
+        peptideC.addAccessionOccurrence(counting, 11, 17);
+        Peptide peptideD = new Peptide(4, "KPEPTIDE");
+        peptideD.addAccessionOccurrence(counting, 2, 9);
+        peptideD.addAccessionOccurrence(protein1, 8, 15);
+
+        PeptideOccurrenceTable countingTable = PeptideOccurrenceTable.build(Arrays.asList(peptideC, peptideD));
+        assertEquals(1, nrFetches.get());
+
+        int row = countingTable.getRowsStart(4L, 5L);
+        assertEquals('M', countingTable.getPre(row));
+        assertEquals('K', countingTable.getPost(row));
+    }
+
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testLinkAfterDeserialization() throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(table);
+            oos.writeObject(Arrays.asList(peptideA, peptideB));
+        }
+
+        PeptideOccurrenceTable readTable;
+        List<Peptide> readPeptides;
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            readTable = (PeptideOccurrenceTable) ois.readObject();
+            readPeptides = (List<Peptide>) ois.readObject();
+        }
+
+        assertNull(readPeptides.get(0).getOccurrenceTable());
+
+        readTable.linkPeptides(readPeptides);
+        assertSame(readTable, PeptideOccurrenceTable.getTable(readPeptides.get(0)));
+        assertSame(readTable, PeptideOccurrenceTable.getTable(readPeptides.get(1)));
+        assertEquals(6, readTable.getNrRows());
+    }
+
+
+    @Test
+    public void testFlankingResidues() {
+        assertEquals(PeptideOccurrenceTable.TERMINUS_RESIDUE, PeptideOccurrenceTable.getPreResidue("MKPEPTIDE", 1));
+        assertEquals('K', PeptideOccurrenceTable.getPreResidue("MKPEPTIDE", 3));
+        assertEquals('P', PeptideOccurrenceTable.getPostResidue("MKPEPTIDE", 2));
+        assertEquals(PeptideOccurrenceTable.TERMINUS_RESIDUE, PeptideOccurrenceTable.getPostResidue("MKPEPTIDE", 9));
+
+        assertEquals(PeptideOccurrenceTable.UNKNOWN_RESIDUE, PeptideOccurrenceTable.getPreResidue(null, 3));
+        assertEquals(PeptideOccurrenceTable.UNKNOWN_RESIDUE, PeptideOccurrenceTable.getPreResidue("MKPEPTIDE", 0));
+        assertEquals(PeptideOccurrenceTable.UNKNOWN_RESIDUE, PeptideOccurrenceTable.getPostResidue("MKPEPTIDE", 10));
+    }
+}
@@ -0,0 +1,102 @@
+package de.mpc.pia.intermediate.compiler.parser;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.mpc.pia.intermediate.compiler.PIACompiler;
+import de.mpc.pia.intermediate.compiler.PIASimpleCompiler;
+
+/**
+ * test cases for the import of compressed input files
+ *
+ * @author julian
+ *
+ */
+public class CompressedInputFilesTest {
+
+    private File tideFile;
+
+    private File gzipFile;
+
+
+    @Before
+    public void setUp() throws IOException {
+        tideFile = new File(CompressedInputFilesTest.class.getResource("/tide-search-cut.txt").getPath());
+
+        gzipFile = File.createTempFile("tide-search-cut", ".txt.gz");
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(gzipFile))) {
+            Files.copy(tideFile.toPath(), out);
+        }
+    }
+
+
+    @After
+    public void tearDown() {
+        gzipFile.delete();
+    }
+
+
+    @Test
+    public void testDecompression() throws IOException {
+        assertEquals(CompressedInputFiles.Compression.NONE, CompressedInputFiles.getCompression(tideFile.getAbsolutePath()));
+        assertEquals(CompressedInputFiles.Compression.GZIP, CompressedInputFiles.getCompression(gzipFile.getAbsolutePath()));
+
+        File tmpFile = CompressedInputFiles.decompressToTempFile(gzipFile.getAbsolutePath());
+        assertTrue(tmpFile.getName().endsWith(".txt"));
+        assertArrayEquals(Files.readAllBytes(tideFile.toPath()), Files.readAllBytes(tmpFile.toPath()));
+        tmpFile.delete();
+    }
+
+
+    @Test
+    public void testDecompressStart() throws IOException {
+        byte[] content = Files.readAllBytes(tideFile.toPath());
+
+        File tmpFile = CompressedInputFiles.decompressStartToTempFile(gzipFile.getAbsolutePath(), 1000);
+        byte[] start = Files.readAllBytes(tmpFile.toPath());
+        tmpFile.delete();
+
+        assertTrue(start.length > 0);
+        assertTrue(start.length <= 1000);
+        assertEquals('\n', start[start.length - 1]);
+        for (int i = 0; i < start.length; i++) {
+            assertEquals(content[i], start[i]);
+        }
+
+        tmpFile = CompressedInputFiles.decompressStartToTempFile(gzipFile.getAbsolutePath(), content.length);
+        assertArrayEquals(content, Files.readAllBytes(tmpFile.toPath()));
+        tmpFile.delete();
+    }
+
+
+    @Test
+    public void testCompressedFileType() {
+        assertEquals(InputFileParserFactory.InputFileTypes.TIDE_TXT_INPUT,
+                InputFileParserFactory.getFileTypeByContent(gzipFile.getAbsolutePath()));
+    }
+
+
+    @Test
+    public void testCompressedImport() {
+        PIACompiler compiler = new PIASimpleCompiler();
+        assertTrue(compiler.getDataFromFile(tideFile.getName(), tideFile.getAbsolutePath(), null,
+                InputFileParserFactory.InputFileTypes.TIDE_TXT_INPUT.getFileTypeShort()));
+
+        PIACompiler gzipCompiler = new PIASimpleCompiler();
+        assertTrue(gzipCompiler.getDataFromFile(gzipFile.getName(), gzipFile.getAbsolutePath(), null,
+                InputFileParserFactory.InputFileTypes.TIDE_TXT_INPUT.getFileTypeShort()));
+
+        assertEquals(compiler.getNrPeptides(), gzipCompiler.getNrPeptides());
+        assertEquals(compiler.getNrPeptideSpectrumMatches(), gzipCompiler.getNrPeptideSpectrumMatches());
+    }
+}
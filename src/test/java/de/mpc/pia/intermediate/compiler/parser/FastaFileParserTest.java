@@ -0,0 +1,71 @@
+package de.mpc.pia.intermediate.compiler.parser;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.mpc.pia.intermediate.compiler.PIACompiler;
+import de.mpc.pia.intermediate.compiler.PIASimpleCompiler;
+
+
+public class FastaFileParserTest {
+
+    /** more proteins than fit into the digestion queue */
+    private static final int NR_PROTEINS = 2500;
+
+    private File fastaFile;
+
+
+    @Before
+    public void setUp() throws IOException {
+        fastaFile = File.createTempFile("pia_testFasta", ".fasta");
+
+        Random random = new Random(42);
+        String aminoAcids = "ACDEFGHILMNPQSTVWY";
+        try (BufferedWriter writer = Files.newBufferedWriter(fastaFile.toPath())) {
+            for (int i = 0; i < NR_PROTEINS; i++) {
+                writer.write(">sp|PROT" + i + "|TEST_PROTEIN " + i + "\n");
+
+                StringBuilder sequence = new StringBuilder();
+                for (int j = 0; j < 60; j++) {
+                    sequence.append(aminoAcids.charAt(random.nextInt(aminoAcids.length())));
+                    if (j % 12 == 11) {
+                        sequence.append('K');
+                    }
+                }
+                writer.write(sequence.toString());
+                writer.write("\n");
+            }
+        }
+    }
+
+
+    @After
+    public void tearDown() {
+        fastaFile.delete();
+    }
+
+
+    @Test(timeout = 120000)
+    public void testMoreProteinsThanQueueSize() {
+        PIACompiler compiler = new PIASimpleCompiler();
+        compiler.setNrThreads(2);
+
+        assertTrue(FastaFileParser.getDataFromFastaFile("fasta", fastaFile.getAbsolutePath(), compiler,
+                "(?<=[KR])(?!P)", 5, 30, 0));
+
+        assertNotNull("first protein missing", compiler.getAccession("PROT0"));
+        assertNotNull("last protein missing", compiler.getAccession("PROT" + (NR_PROTEINS - 1)));
+        assertTrue(compiler.getNrPeptides() > NR_PROTEINS);
+
+        compiler.finish();
+    }
+}
@@ -0,0 +1,69 @@
+package de.mpc.pia.intermediate.compiler.parser;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.mpc.pia.intermediate.Accession;
+import de.mpc.pia.intermediate.compiler.PIACompiler;
+import de.mpc.pia.intermediate.compiler.PIASimpleCompiler;
+import de.mpc.pia.intermediate.compiler.parser.searchengines.MascotDatFileParser;
+
+/**
+ * test cases for the import of Mascot DAT files
+ *
+ * @author julian
+ *
+ */
+public class MascotDatFileParserTest {
+
+    private File datFile;
+
+
+    @Before
+    public void setUp() {
+        datFile = new File(MascotDatFileParserTest.class.getResource("/test-datasets/test-mascot.dat").getPath());
+    }
+
+
+    @Test
+    public void testCheckFileType() {
+        assertTrue(MascotDatFileParser.checkFileType(datFile.getAbsolutePath()));
+    }
+
+
+    @Test
+    public void testIndexedImport() {
+        PIACompiler compiler = new PIASimpleCompiler();
+        assertTrue(compiler.getDataFromFile(datFile.getName(), datFile.getAbsolutePath(), null,
+                InputFileParserFactory.InputFileTypes.MASCOT_DAT_INPUT.getFileTypeShort()));
+
+        PIACompiler indexCompiler = new PIASimpleCompiler();
+        indexCompiler.setIndexMascotDatFiles(true);
+        assertTrue(indexCompiler.getDataFromFile(datFile.getName(), datFile.getAbsolutePath(), null,
+                InputFileParserFactory.InputFileTypes.MASCOT_DAT_INPUT.getFileTypeShort()));
+
+        // two target and one decoy PSM
+        assertEquals(3, compiler.getNrPeptideSpectrumMatches());
+        assertEquals(compiler.getNrPeptideSpectrumMatches(), indexCompiler.getNrPeptideSpectrumMatches());
+        assertEquals(compiler.getNrPeptides(), indexCompiler.getNrPeptides());
+
+        for (PIACompiler piaCompiler : new PIACompiler[] {compiler, indexCompiler}) {
+            Accession acc = piaCompiler.getAccession("K1C10_HUMAN");
+            assertNotNull(acc);
+            assertEquals("Keratin, type I cytoskeletal 10 OS=Homo sapiens GN=KRT10 PE=1 SV=6",
+                    acc.getDescriptions().values().iterator().next());
+
+            acc = piaCompiler.getAccession("ALBU_HUMAN");
+            assertNotNull(acc);
+            assertEquals("Serum albumin OS=Homo sapiens GN=ALB PE=1 SV=2",
+                    acc.getDescriptions().values().iterator().next());
+        }
+
+        compiler.finish();
+        indexCompiler.finish();
+    }
+}
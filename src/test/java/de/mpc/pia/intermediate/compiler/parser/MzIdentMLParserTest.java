@@ -5,6 +5,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -20,6 +21,8 @@ public class MzIdentMLParserTest {
 
     private File mzid55mergeTandem;
     private File mzid55mergeOmssa;
+    private File mzidMSGF;
+    private File mzidMSGFVersion12;
 
     private String piaIntermediateFileName = "MzIdentMLParserTest.pia.xml";
 
@@ -28,6 +31,8 @@ public class MzIdentMLParserTest {
     public void setUp() {
         mzid55mergeTandem = new File(MzIdentMLParserTest.class.getResource("/55merge_tandem.mzid").getPath());
         mzid55mergeOmssa = new File(MzIdentMLParserTest.class.getResource("/55merge_omssa.mzid").getPath());
+        mzidMSGF = new File(MzIdentMLParserTest.class.getResource("/test-datasets/test-msgf.mzid").getPath());
+        mzidMSGFVersion12 = new File(MzIdentMLParserTest.class.getResource("/test-datasets/test-msgf-1.2.mzid").getPath());
     }
 
 
@@ -113,4 +118,25 @@ public class MzIdentMLParserTest {
 
         piaIntermediateFile.delete();
     }
+
+
+    @Test
+    public void testPIACompilerMzidVersions() {
+        PIACompiler compilerVersion11 = new PIASimpleCompiler();
+        assertEquals("mzIdentML 1.1 file could not be parsed", true,
+                compilerVersion11.getDataFromFile("msgf", mzidMSGF.getAbsolutePath(), null, null));
+
+        PIACompiler compilerVersion12 = new PIASimpleCompiler();
+        assertEquals("mzIdentML 1.2 file could not be parsed", true,
+                compilerVersion12.getDataFromFile("msgf", mzidMSGFVersion12.getAbsolutePath(), null, null));
+
+        assertTrue("no PSMs parsed", compilerVersion11.getNrPeptideSpectrumMatches() > 0);
+        assertEquals("different number of PSMs", compilerVersion11.getNrPeptideSpectrumMatches(),
+                compilerVersion12.getNrPeptideSpectrumMatches());
+        assertEquals("different number of peptides", compilerVersion11.getNrPeptides(),
+                compilerVersion12.getNrPeptides());
+
+        compilerVersion11.finish();
+        compilerVersion12.finish();
+    }
 }
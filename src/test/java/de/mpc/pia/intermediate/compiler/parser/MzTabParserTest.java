@@ -0,0 +1,106 @@
+package de.mpc.pia.intermediate.compiler.parser;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.mpc.pia.intermediate.Accession;
+import de.mpc.pia.intermediate.compiler.PIACompiler;
+import de.mpc.pia.intermediate.compiler.PIASimpleCompiler;
+
+/**
+ * test cases for the (streamed) import of mzTab files
+ *
+ * @author julian
+ *
+ */
+public class MzTabParserTest {
+
+    private File mzTabFile;
+
+    private String proteinAccession;
+
+
+    @Before
+    public void setUp() throws IOException {
+        mzTabFile = new File(MzTabParserTest.class.getResource("/control_exo_rep1_high_mol_weight.dat-pride.mztab").getPath());
+
+        // the accession of the first PSM
+        try (Stream<String> lines = Files.lines(mzTabFile.toPath())) {
+            proteinAccession = lines.filter(line -> line.startsWith("PSM\t"))
+                    .map(line -> line.split("\t")[3])
+                    .findFirst()
+                    .orElse(null);
+        }
+    }
+
+
+    @Test
+    public void testStreamedImport() {
+        PIACompiler compiler = new PIASimpleCompiler();
+        assertTrue(compiler.getDataFromFile(mzTabFile.getName(), mzTabFile.getAbsolutePath(), null,
+                InputFileParserFactory.InputFileTypes.MZTAB_INPUT.getFileTypeShort()));
+
+        PIACompiler streamingCompiler = new PIASimpleCompiler();
+        streamingCompiler.setStreamMzTabFiles(true);
+        assertTrue(streamingCompiler.getDataFromFile(mzTabFile.getName(), mzTabFile.getAbsolutePath(), null,
+                InputFileParserFactory.InputFileTypes.MZTAB_INPUT.getFileTypeShort()));
+
+        assertEquals(compiler.getNrPeptides(), streamingCompiler.getNrPeptides());
+        assertEquals(compiler.getNrPeptideSpectrumMatches(), streamingCompiler.getNrPeptideSpectrumMatches());
+
+        Accession acc = compiler.getAccession(proteinAccession);
+        Accession streamedAcc = streamingCompiler.getAccession(proteinAccession);
+        assertNotNull(streamedAcc);
+        assertEquals(acc.getDescriptions(), streamedAcc.getDescriptions());
+        assertEquals(acc.getDbSequence(), streamedAcc.getDbSequence());
+    }
+
+
+    @Test
+    public void testStreamedImportSkipsErroneousPSMs() throws IOException {
+        List<String> lines = Files.readAllLines(mzTabFile.toPath());
+
+        // corrupt the charge of a PSM, which has only one line
+        Map<String, Long> psmIdCounts = lines.stream()
+                .filter(line -> line.startsWith("PSM\t"))
+                .map(line -> line.split("\t")[2])
+                .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+        for (int i = 0; i < lines.size(); i++) {
+            String[] columns = lines.get(i).split("\t", -1);
+            if ("PSM".equals(columns[0]) && (psmIdCounts.get(columns[2]) == 1)) {
+                columns[11] = "notACharge";
+                lines.set(i, String.join("\t", columns));
+                break;
+            }
+        }
+
+        File corruptedFile = File.createTempFile("pia_testCorrupted", ".mztab");
+        Files.write(corruptedFile.toPath(), lines);
+
+        PIACompiler streamingCompiler = new PIASimpleCompiler();
+        streamingCompiler.setStreamMzTabFiles(true);
+        assertTrue(streamingCompiler.getDataFromFile(mzTabFile.getName(), mzTabFile.getAbsolutePath(), null,
+                InputFileParserFactory.InputFileTypes.MZTAB_INPUT.getFileTypeShort()));
+
+        PIACompiler corruptedCompiler = new PIASimpleCompiler();
+        corruptedCompiler.setStreamMzTabFiles(true);
+        assertTrue(corruptedCompiler.getDataFromFile(corruptedFile.getName(), corruptedFile.getAbsolutePath(), null,
+                InputFileParserFactory.InputFileTypes.MZTAB_INPUT.getFileTypeShort()));
+
+        assertEquals(streamingCompiler.getNrPeptideSpectrumMatches() - 1,
+                corruptedCompiler.getNrPeptideSpectrumMatches());
+
+        corruptedFile.delete();
+    }
+}
@@ -0,0 +1,85 @@
+package de.mpc.pia.intermediate.compiler.parser;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * test cases for the reader of tab separated files
+ *
+ * @author julian
+ *
+ */
+public class TabularFileReaderTest {
+
+    private File tideFile;
+
+
+    @Before
+    public void setUp() {
+        tideFile = new File(TabularFileReaderTest.class.getResource("/tide-search-cut.txt").getPath());
+    }
+
+
+    @Test
+    public void testTideFile() throws IOException {
+        List<String> lines = Files.readAllLines(tideFile.toPath());
+
+        try (TabularFileReader reader = new TabularFileReader(tideFile.getAbsolutePath(), '\t')) {
+            assertEquals(Arrays.asList(lines.get(0).split("\t")), reader.getHeaders());
+
+            int chargeCol = reader.getColumn("charge");
+            int mzCol = reader.getColumn("spectrum precursor m/z");
+            assertEquals(TabularFileReader.MISSING_COLUMN, reader.getColumn("not a header"));
+
+            int lineIdx = 1;
+            while (reader.nextRow()) {
+                String[] columns = lines.get(lineIdx++).split("\t");
+
+                for (int idx = 0; idx < columns.length; idx++) {
+                    assertEquals(columns[idx], reader.getString(idx));
+                }
+                assertEquals(Integer.parseInt(columns[chargeCol]), reader.getInt(chargeCol));
+                assertEquals(Double.parseDouble(columns[mzCol]), reader.getDouble(mzCol), 0.0);
+                assertTrue(reader.valueEquals(chargeCol, columns[chargeCol]));
+            }
+
+            assertEquals(lines.size() - 1, reader.getRowCount());
+        }
+    }
+
+
+    @Test
+    public void testLineEndings() throws IOException {
+        String content = "a\tb\r\n1\t\r\n\n-7\tx";
+
+        try (TabularFileReader reader = new TabularFileReader(
+                new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), '\t')) {
+            assertEquals(Arrays.asList("a", "b"), reader.getHeaders());
+
+            assertTrue(reader.nextRow());
+            assertEquals(1, reader.getInt(0));
+            assertFalse(reader.hasValue(1));
+            assertEquals("", reader.getString(1));
+
+            // the empty line is skipped
+            assertTrue(reader.nextRow());
+            assertEquals(4, reader.getLineNumber());
+            assertEquals(-7, reader.getInt(0));
+            assertEquals("x", reader.getString(1));
+            assertNull(reader.getString(2));
+
+            assertFalse(reader.nextRow());
+            assertEquals(2, reader.getRowCount());
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package de.mpc.pia.intermediate.compiler.parser;
 
+import de.mpc.pia.intermediate.PeptideSpectrumMatch;
 import de.mpc.pia.intermediate.compiler.PIACompiler;
 import de.mpc.pia.intermediate.compiler.PIASimpleCompiler;
 import de.mpc.pia.modeller.PIAModeller;
@@ -8,6 +9,11 @@ import org.junit.Test;
 
 import java.io.File;
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 
 import static org.junit.Assert.*;
 
@@ -36,6 +42,8 @@ public class ThermoMSFFileParserTest {
         boolean ok = compiler.getDataFromFile(msfFile.getName(), msfFile.getAbsolutePath(), null,
                 InputFileParserFactory.InputFileTypes.THERMO_MSF_INPUT.getFileTypeShort());
         assertTrue("Could not get data from MSF file", ok);
+        // all peptides of the file with protein information
+        assertEquals("Wrong number of PSMs", 42, compiler.getNrPeptideSpectrumMatches());
         compiler.buildClusterList();
         compiler.buildIntermediateStructure();
 
@@ -51,4 +59,45 @@ public class ThermoMSFFileParserTest {
 
         piaIntermediateFile.delete();
     }
+
+
+    @Test
+    public void testPSMWithoutSpectrumHeader() throws Exception {
+        File msfCopy = File.createTempFile("pia_testMSF", ".msf");
+        Files.copy(msfFile.toPath(), msfCopy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        try {
+            // delete the spectrum header of the first peptide with protein information
+            try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + msfCopy.getAbsolutePath());
+                    PreparedStatement delete = connection.prepareStatement(
+                            "DELETE FROM SpectrumHeaders WHERE SpectrumID = (SELECT SpectrumID FROM Peptides "
+                                    + "WHERE PeptideID IN (SELECT PeptideID FROM PeptidesProteins) "
+                                    + "ORDER BY PeptideID LIMIT 1)")) {
+                assertEquals(1, delete.executeUpdate());
+            }
+
+            PIACompiler compiler = new PIASimpleCompiler();
+            assertTrue("Could not get data from MSF file", compiler.getDataFromFile(msfCopy.getName(),
+                    msfCopy.getAbsolutePath(), null,
+                    InputFileParserFactory.InputFileTypes.THERMO_MSF_INPUT.getFileTypeShort()));
+
+            // the PSM without spectrum header is kept with an unknown charge
+            assertEquals("Wrong number of PSMs", 42, compiler.getNrPeptideSpectrumMatches());
+
+            int nrWithoutCharge = 0;
+            for (Long psmID : compiler.getAllPeptideSpectrumMatcheIDs()) {
+                PeptideSpectrumMatch psm = compiler.getPeptideSpectrumMatch(psmID);
+                if (psm.getCharge() == 0) {
+                    nrWithoutCharge++;
+                    assertNull(psm.getSourceID());
+                    assertTrue(Double.isNaN(psm.getMassToCharge()));
+                }
+            }
+            assertEquals(1, nrWithoutCharge);
+
+            compiler.finish();
+        } finally {
+            msfCopy.delete();
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,130 @@
+package de.mpc.pia.intermediate.compiler.parser.searchengines;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class ThermoMSFPeptideReaderTest {
+
+    private File msfFile;
+
+    /** the processing node of the Mascot search in the MSF file */
+    private static final long MASCOT_NODE_NUMBER = 3L;
+
+
+    @Before
+    public void setUp() throws Exception {
+        URI uri = ThermoMSFPeptideReaderTest.class.getClassLoader().getResource("QExHF04458.msf").toURI();
+        msfFile = new File(uri);
+    }
+
+
+    @Test
+    public void testPagedPeptidesMatchAllPeptides() throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + msfFile.getAbsolutePath())) {
+            int nrPeptides = countPeptides(connection);
+            assertEquals(53, nrPeptides);
+
+            for (int pageSize : new int[] {1, 10, ThermoMSFPeptideReader.PAGE_SIZE}) {
+                List<ThermoMSFPeptideReader.MSFPeptide> peptides = readAllPeptides(connection, pageSize);
+                assertEquals("wrong number of peptides with page size " + pageSize, nrPeptides, peptides.size());
+
+                for (int i = 1; i < peptides.size(); i++) {
+                    assertTrue(peptides.get(i - 1).peptideID < peptides.get(i).peptideID);
+                }
+                for (ThermoMSFPeptideReader.MSFPeptide peptide : peptides) {
+                    assertNotNull(peptide.charge);
+                    assertNotNull(peptide.precursorMZ);
+                    assertFalse(peptide.scores.isEmpty());
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void testPeptidesWithoutSpectrum() throws Exception {
+        File msfCopy = File.createTempFile("pia_testMSF", ".msf");
+        Files.copy(msfFile.toPath(), msfCopy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + msfCopy.getAbsolutePath())) {
+            long peptideID;
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT PeptideID, SpectrumID FROM Peptides WHERE ProcessingNodeNumber = ? ORDER BY PeptideID");
+                    PreparedStatement delete = connection.prepareStatement(
+                            "DELETE FROM SpectrumHeaders WHERE SpectrumID = ?")) {
+                statement.setLong(1, MASCOT_NODE_NUMBER);
+                try (ResultSet rs = statement.executeQuery()) {
+                    assertTrue(rs.next());
+                    peptideID = rs.getLong(1);
+                    delete.setLong(1, rs.getLong(2));
+                }
+                assertTrue(delete.executeUpdate() > 0);
+            }
+
+            List<ThermoMSFPeptideReader.MSFPeptide> peptides = readAllPeptides(connection, 10);
+            assertEquals(countPeptides(connection), peptides.size());
+
+            ThermoMSFPeptideReader.MSFPeptide peptide = peptides.get(0);
+            assertEquals(peptideID, peptide.peptideID);
+            assertNull(peptide.charge);
+            assertNull(peptide.firstScan);
+            assertNull(peptide.precursorMZ);
+            assertNull(peptide.fileID);
+        } finally {
+            msfCopy.delete();
+        }
+    }
+
+
+    @Test
+    public void testCountPeptidesPerNode() throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + msfFile.getAbsolutePath())) {
+            Map<Long, Long> nodeCounts = ThermoMSFPeptideReader.countPeptidesPerNode(connection, false);
+            assertEquals(1, nodeCounts.size());
+            assertEquals(Long.valueOf(countPeptides(connection)), nodeCounts.get(MASCOT_NODE_NUMBER));
+        }
+    }
+
+
+    private static int countPeptides(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT COUNT(*) FROM Peptides WHERE ProcessingNodeNumber = ?")) {
+            statement.setLong(1, MASCOT_NODE_NUMBER);
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+
+    private static List<ThermoMSFPeptideReader.MSFPeptide> readAllPeptides(Connection connection, int pageSize)
+            throws SQLException {
+        List<ThermoMSFPeptideReader.MSFPeptide> allPeptides = new ArrayList<>();
+        try (ThermoMSFPeptideReader reader =
+                new ThermoMSFPeptideReader(connection, MASCOT_NODE_NUMBER, false, pageSize)) {
+            List<ThermoMSFPeptideReader.MSFPeptide> peptides = reader.nextPage();
+            while (!peptides.isEmpty()) {
+                allPeptides.addAll(peptides);
+                peptides = reader.nextPage();
+            }
+        }
+        return allPeptides;
+    }
+}
@@ -155,4 +155,27 @@ public class PeptideModellerTest {
     }
 
 
+    @Test
+    public void testGroupedPeptides() {
+        for (boolean considerModifications : new boolean[] {false, true}) {
+            PIAModeller modeller = new PIAModeller(piaFile.getAbsolutePath());
+            modeller.setCreatePSMSets(true);
+            modeller.setConsiderModifications(considerModifications);
+
+            for (Long fileID : modeller.getPeptideModeller().getFiles().keySet()) {
+                int nrPSMs = 0;
+                for (ReportPeptide repPep : modeller.getPeptideModeller().getFilteredReportPeptides(fileID, null)) {
+                    for (PSMReportItem psm : repPep.getPSMs()) {
+                        assertEquals(repPep.getStringID(), ReportPeptide.createStringID(psm, considerModifications));
+                    }
+                    nrPSMs += repPep.getPSMs().size();
+                }
+
+                int expectedPSMs = fileID.equals(0L) ?
+                        modeller.getPSMModeller().getFilteredReportPSMSets(null).size() :
+                        modeller.getPSMModeller().getFilteredReportPSMs(fileID, null).size();
+                assertEquals("not all PSMs are grouped for file " + fileID, expectedPSMs, nrPSMs);
+            }
+        }
+    }
 }
@@ -1,10 +1,21 @@
 package de.mpc.pia.modeller.exporter;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -66,4 +77,98 @@ public class CSVExporterTest {
 
         exportFile.delete();
     }
+
+
+    @Test
+    public void testParallelAndProjectedExport() throws IOException {
+        PIAModeller piaModeller = new PIAModeller(piaFile.getAbsolutePath());
+
+        piaModeller.getPSMModeller().setAllDecoyPattern("Rnd.*");
+        piaModeller.getPSMModeller().setAllTopIdentifications(1);
+        piaModeller.getPSMModeller().calculateAllFDR();
+
+        File sequentialFile = File.createTempFile("pia_testCSV", ".csv");
+        CSVExporter exporter = new CSVExporter(piaModeller);
+        assertTrue(exporter.exportToCSV(1L, sequentialFile, true, false, false, false));
+
+        File parallelFile = File.createTempFile("pia_testCSV", ".csv");
+        exporter = new CSVExporter(piaModeller);
+        exporter.setNrThreads(4);
+        assertTrue(exporter.exportToCSV(1L, parallelFile, true, false, false, false));
+
+        assertArrayEquals(Files.readAllBytes(sequentialFile.toPath()), Files.readAllBytes(parallelFile.toPath()));
+
+        // only sequence and charge in a compressed TSV
+        File projectedFile = File.createTempFile("pia_testCSV", ".tsv.gz");
+        exporter = new CSVExporter(piaModeller);
+        exporter.setSeparator(CSVExporter.TSV_SEPARATOR);
+        exporter.setExportedColumns(Arrays.asList("Sequence", "Charge"));
+        exporter.setCompressOutput(true);
+        assertTrue(exporter.exportToCSV(1L, projectedFile, true, false, false, false));
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(projectedFile))))) {
+            assertEquals("\"COLS_PSM\"\t\"Sequence\"\t\"Charge\"", reader.readLine());
+
+            String line;
+            int nrLines = 0;
+            while ((line = reader.readLine()) != null) {
+                assertTrue(line.startsWith("PSM\t"));
+                assertEquals(3, line.split("\t").length);
+                nrLines++;
+            }
+            assertEquals(Files.readAllLines(sequentialFile.toPath()).size() - 1, nrLines);
+        }
+
+        sequentialFile.delete();
+        parallelFile.delete();
+        projectedFile.delete();
+    }
+
+
+    @Test
+    public void testDefaultAndUniqueColumnsLayout() throws IOException {
+        PIAModeller piaModeller = new PIAModeller(piaFile.getAbsolutePath());
+
+        piaModeller.getPSMModeller().setAllDecoyPattern("Rnd.*");
+        piaModeller.getPSMModeller().setAllTopIdentifications(1);
+        piaModeller.getPSMModeller().calculateAllFDR();
+        piaModeller.getPSMModeller().calculateCombinedFDRScore();
+
+        // the default layout is the one of the previous versions
+        File defaultFile = File.createTempFile("pia_testCSV", ".csv");
+        CSVExporter exporter = new CSVExporter(piaModeller);
+        assertTrue(exporter.exportToCSV(0L, defaultFile, true, false, false, false));
+
+        List<String> lines = Files.readAllLines(defaultFile.toPath());
+        assertEquals("\"COLS_PSMSET\",\"Sequence\",\"Accessions\",\"Modifications\",\"Decoy\",\"Charge\","
+                + "\"m/z\",\"deltaMass\",\"deltaPPM\",\"Retention time\",\"Missed Cleavages\","
+                + "\"nrIdentifications\",\"scores\",\"score names\",\"score shorts\"", lines.get(0));
+        assertEquals("\"COLS_PSM\",\"Sequence\",\"Sequence\",\"Accessions\",\"Modifications\",\"Decoy\","
+                + "\"Charge\",\"m/z\",\"deltaMass\",\"deltaPPM\",\"Retention time\",\"Missed Cleavages\","
+                + "\"Source ID\",\"Spectrum title\",\"scores\",\"score names\",\"score shorts\"", lines.get(1));
+
+        // the PSM sets and PSMs contain the accessions twice
+        Pattern duplicatedAccessions = Pattern.compile("^(PSMSET|PSM),\"[^\"]*\",(\"[^\"]*\"),\\2,.*$");
+        for (String line : lines.subList(2, lines.size())) {
+            assertTrue(line, duplicatedAccessions.matcher(line).matches());
+        }
+
+        // with unique columns, each column is written once
+        File uniqueFile = File.createTempFile("pia_testCSV", ".csv");
+        exporter = new CSVExporter(piaModeller);
+        exporter.setUniqueColumns(true);
+        assertTrue(exporter.exportToCSV(0L, uniqueFile, true, false, false, false));
+
+        List<String> uniqueLines = Files.readAllLines(uniqueFile.toPath());
+        assertEquals(lines.get(0), uniqueLines.get(0));
+        assertEquals("\"COLS_PSM\",\"Sequence\",\"Accessions\",\"Modifications\",\"Decoy\","
+                + "\"Charge\",\"m/z\",\"deltaMass\",\"deltaPPM\",\"Retention time\",\"Missed Cleavages\","
+                + "\"Source ID\",\"Spectrum title\",\"scores\",\"score names\",\"score shorts\"", uniqueLines.get(1));
+        assertEquals(lines.size(), uniqueLines.size());
+        assertFalse(duplicatedAccessions.matcher(uniqueLines.get(2)).matches());
+
+        defaultFile.delete();
+        uniqueFile.delete();
+    }
 }
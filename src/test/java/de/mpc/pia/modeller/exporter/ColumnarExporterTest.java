@@ -0,0 +1,103 @@
+package de.mpc.pia.modeller.exporter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.mpc.pia.modeller.PIAModeller;
+import de.mpc.pia.modeller.protein.ReportProtein;
+import de.mpc.pia.modeller.protein.inference.SpectrumExtractorInference;
+import de.mpc.pia.modeller.protein.scoring.AbstractScoring;
+import de.mpc.pia.modeller.protein.scoring.MultiplicativeScoring;
+import de.mpc.pia.modeller.protein.scoring.settings.PSMForScoring;
+import de.mpc.pia.modeller.psm.ReportPSM;
+import de.mpc.pia.modeller.score.ScoreModelEnum;
+
+
+public class ColumnarExporterTest {
+
+    private File piaFile;
+
+
+    @Before
+    public void setUp() {
+        piaFile = new File(ColumnarExporterTest.class.getResource("/55merge_mascot_tandem.pia.xml").getPath());
+    }
+
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        PIAModeller piaModeller = new PIAModeller(piaFile.getAbsolutePath());
+
+        piaModeller.getPSMModeller().setAllDecoyPattern("Rnd.*");
+        piaModeller.getPSMModeller().setAllTopIdentifications(0);
+        piaModeller.getPSMModeller().calculateAllFDR();
+        piaModeller.getPSMModeller().calculateCombinedFDRScore();
+
+        SpectrumExtractorInference seInference = new SpectrumExtractorInference();
+        seInference.setScoring(new MultiplicativeScoring(new HashMap<>()));
+        seInference.getScoring().setSetting(AbstractScoring.SCORING_SETTING_ID, ScoreModelEnum.PSM_LEVEL_COMBINED_FDR_SCORE.getShortName());
+        seInference.getScoring().setSetting(AbstractScoring.SCORING_SPECTRA_SETTING_ID, PSMForScoring.ONLY_BEST.getShortName());
+        piaModeller.getProteinModeller().infereProteins(seInference);
+
+        File exportFile = File.createTempFile("pia_testColumnar", ".piac");
+        ColumnarExporter exporter = new ColumnarExporter(piaModeller);
+        // force several row groups
+        exporter.setRowGroupSize(100);
+        assertTrue(exporter.exportToColumnar(1L, exportFile, true, true, true, false));
+
+        Map<String, ColumnarReader.Table> tables = ColumnarReader.readTables(exportFile);
+        assertEquals(3, tables.size());
+
+        // the PSMs
+        List<ReportPSM> psms = piaModeller.getPSMModeller().getFilteredReportPSMs(1L, null);
+        ColumnarReader.Table psmTable = tables.get(ColumnarExporter.PSM_TABLE);
+        assertEquals(psms.size(), psmTable.getNrRows());
+
+        List<Object> sequences = psmTable.getColumn("sequence");
+        List<Object> accessions = psmTable.getColumn("accessions");
+        List<Object> charges = psmTable.getColumn("charge");
+        List<Object> decoys = psmTable.getColumn("decoy");
+        List<Object> qValues = psmTable.getColumn("q_value");
+        for (int i = 0; i < psms.size(); i++) {
+            ReportPSM psm = psms.get(i);
+            assertEquals(psm.getSequence(), sequences.get(i));
+            assertEquals(psm.getAccessions().size(), ((List<?>) accessions.get(i)).size());
+            assertEquals(psm.getAccessions().get(0).getAccession(), ((List<?>) accessions.get(i)).get(0));
+            assertEquals(psm.getCharge(), charges.get(i));
+            assertEquals(psm.getIsDecoy(), decoys.get(i));
+            assertEquals(psm.getQValue(), (Double) qValues.get(i), 0.0);
+        }
+
+        for (String scoreShort : piaModeller.getPSMModeller().getScoreShortNames(1L)) {
+            assertNotNull(psmTable.getColumn(ColumnarExporter.SCORE_COLUMN_PREFIX + scoreShort));
+        }
+
+        // the peptides
+        assertEquals(piaModeller.getPeptideModeller().getFilteredReportPeptides(1L, null).size(),
+                tables.get(ColumnarExporter.PEPTIDE_TABLE).getNrRows());
+
+        // the proteins
+        List<ReportProtein> proteins = piaModeller.getProteinModeller().getFilteredReportProteins(null);
+        ColumnarReader.Table proteinTable = tables.get(ColumnarExporter.PROTEIN_TABLE);
+        assertEquals(proteins.size(), proteinTable.getNrRows());
+
+        List<Object> scores = proteinTable.getColumn("score");
+        List<Object> nrPeptides = proteinTable.getColumn("nr_peptides");
+        for (int i = 0; i < proteins.size(); i++) {
+            assertEquals(proteins.get(i).getScore(), (Double) scores.get(i), 0.0);
+            assertEquals(proteins.get(i).getNrPeptides(), nrPeptides.get(i));
+        }
+
+        exportFile.delete();
+    }
+}
@@ -4,7 +4,11 @@ import static org.junit.Assert.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -61,4 +65,43 @@ public class IdXMLExporterTest {
 
         exportFile.delete();
     }
+
+
+    @Test
+    public void testConcurrentExport() throws IOException {
+        PIAModeller piaModeller = new PIAModeller(piaFile.getAbsolutePath());
+
+        piaModeller.getPSMModeller().setAllDecoyPattern("Rnd.*");
+        piaModeller.getPSMModeller().setAllTopIdentifications(0);
+        piaModeller.getPSMModeller().calculateAllFDR();
+
+        IdXMLExporter exporter = new IdXMLExporter(piaModeller);
+
+        Map<Long, File> sequentialFiles = new LinkedHashMap<>();
+        Map<Long, File> concurrentFiles = new LinkedHashMap<>();
+        for (Long fileID = 1L; fileID <= 2L; fileID++) {
+            sequentialFiles.put(fileID, File.createTempFile("pia_idXmlExportTest_seq_" + fileID, ".idXML"));
+            concurrentFiles.put(fileID, File.createTempFile("pia_idXmlExportTest_conc_" + fileID, ".idXML"));
+        }
+
+        assertTrue(exporter.exportToIdXML(sequentialFiles, false, false));
+
+        exporter.setNrThreads(2);
+        assertTrue(exporter.exportToIdXML(concurrentFiles, false, false));
+
+        for (Long fileID : sequentialFiles.keySet()) {
+            // the files differ only in the export date
+            assertEquals(readWithoutDate(sequentialFiles.get(fileID)),
+                    readWithoutDate(concurrentFiles.get(fileID)));
+
+            sequentialFiles.get(fileID).delete();
+            concurrentFiles.get(fileID).delete();
+        }
+    }
+
+
+    private static String readWithoutDate(File file) throws IOException {
+        String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        return content.replaceAll("date=\"[^\"]*\"", "");
+    }
 }
@@ -0,0 +1,104 @@
+package de.mpc.pia.modeller.exporter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.mpc.pia.modeller.PIAModeller;
+import de.mpc.pia.modeller.protein.inference.SpectrumExtractorInference;
+import de.mpc.pia.modeller.protein.scoring.AbstractScoring;
+import de.mpc.pia.modeller.protein.scoring.MultiplicativeScoring;
+import de.mpc.pia.modeller.protein.scoring.settings.PSMForScoring;
+import de.mpc.pia.modeller.score.ScoreModelEnum;
+import uk.ac.ebi.jmzidml.model.mzidml.SearchDatabase;
+
+
+public class MultiFormatExporterTest {
+
+    private File piaFile;
+
+
+    @Before
+    public void setUp() {
+        piaFile = new File(MultiFormatExporterTest.class.getResource("/55merge_mascot_tandem.pia.xml").getPath());
+    }
+
+
+    @Test
+    public void testConcurrentExports() {
+        PIAModeller piaModeller = new PIAModeller(piaFile.getAbsolutePath());
+
+        piaModeller.getPSMModeller().setAllDecoyPattern("Rnd.*");
+        piaModeller.getPSMModeller().setAllTopIdentifications(0);
+        piaModeller.getPSMModeller().calculateAllFDR();
+        piaModeller.getPSMModeller().calculateCombinedFDRScore();
+
+        SpectrumExtractorInference seInference = new SpectrumExtractorInference();
+        seInference.setScoring(new MultiplicativeScoring(new HashMap<>()));
+        seInference.getScoring().setSetting(AbstractScoring.SCORING_SETTING_ID, ScoreModelEnum.PSM_LEVEL_COMBINED_FDR_SCORE.getShortName());
+        seInference.getScoring().setSetting(AbstractScoring.SCORING_SPECTRA_SETTING_ID, PSMForScoring.ONLY_BEST.getShortName());
+        piaModeller.getProteinModeller().infereProteins(seInference);
+
+        // the single exports
+        ByteArrayOutputStream csvSingle = new ByteArrayOutputStream();
+        assertTrue(new CSVExporter(piaModeller).exportToCSV(0L, csvSingle, true, true, true, false));
+        ByteArrayOutputStream mzTabSingle = new ByteArrayOutputStream();
+        assertTrue(new MzTabExporter(piaModeller).exportToMzTab(1L, mzTabSingle, false, false, false));
+
+        // the same exports together with mzIdentML and idXML
+        MultiFormatExporter exporter = new MultiFormatExporter(piaModeller);
+        exporter.setNrThreads(4);
+
+        ByteArrayOutputStream csvOut = new ByteArrayOutputStream();
+        exporter.addCSVExport(0L, csvOut, true, true, true, false);
+        ByteArrayOutputStream mzTabOut = new ByteArrayOutputStream();
+        exporter.addMzTabExport(1L, mzTabOut, false, false, false);
+        ByteArrayOutputStream mzIdentMLOut = new ByteArrayOutputStream();
+        exporter.addMzIdentMLExport(0L, mzIdentMLOut, true, false);
+        ByteArrayOutputStream idXMLOut = new ByteArrayOutputStream();
+        exporter.addIdXMLExport(0L, idXMLOut, true, false);
+
+        assertEquals(4, exporter.getNrExports());
+        assertTrue(exporter.export());
+        assertEquals(0, exporter.getNrExports());
+
+        assertArrayEquals(csvSingle.toByteArray(), csvOut.toByteArray());
+        assertArrayEquals(mzTabSingle.toByteArray(), mzTabOut.toByteArray());
+        assertTrue(mzIdentMLOut.size() > 0);
+        assertTrue(idXMLOut.size() > 0);
+    }
+
+
+    @Test
+    public void testMzIdentMLExportKeepsModellerInputs() {
+        PIAModeller piaModeller = new PIAModeller(piaFile.getAbsolutePath());
+        piaModeller.getPSMModeller().setAllDecoyPattern("Rnd.*");
+        piaModeller.getPSMModeller().calculateAllFDR();
+
+        Map<String, String> locations = new HashMap<>();
+        Map<String, Integer> nrCvParams = new HashMap<>();
+        for (SearchDatabase db : piaModeller.getSearchDatabases().values()) {
+            locations.put(db.getId(), db.getLocation());
+            nrCvParams.put(db.getId(), db.getCvParam().size());
+        }
+
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream mzIdentMLOut = new ByteArrayOutputStream();
+            assertTrue(new MzIdentMLExporter(piaModeller).exportToMzIdentML(1L, mzIdentMLOut, false, false));
+        }
+
+        // the export refines copies, so the modeller's elements are unchanged
+        for (SearchDatabase db : piaModeller.getSearchDatabases().values()) {
+            assertEquals(locations.get(db.getId()), db.getLocation());
+            assertEquals(nrCvParams.get(db.getId()), Integer.valueOf(db.getCvParam().size()));
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package de.mpc.pia.modeller.exporter;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -9,6 +10,9 @@ import java.util.HashMap;
 import org.junit.Before;
 import org.junit.Test;
 
+import de.mpc.pia.intermediate.compiler.PIACompiler;
+import de.mpc.pia.intermediate.compiler.PIASimpleCompiler;
+import de.mpc.pia.intermediate.compiler.parser.InputFileParserFactory;
 import de.mpc.pia.modeller.PIAModeller;
 import de.mpc.pia.modeller.protein.inference.SpectrumExtractorInference;
 import de.mpc.pia.modeller.protein.scoring.AbstractScoring;
@@ -61,6 +65,26 @@ public class MzIdentMLExporterTest {
 
         assertTrue(exporter.exportToMzIdentML(0L, exportFile, true, false));
 
+        // streamed exporting
+        MzIdentMLExporter streamingExporter = new MzIdentMLExporter(piaModeller);
+        streamingExporter.setStreamExport(true);
+        File streamedFile = File.createTempFile("pia_testStreamedMzIdentML", ".mzid");
+
+        assertTrue(streamingExporter.exportToMzIdentML(0L, streamedFile, true, false));
+
+        // both exports should contain the same identifications
+        PIACompiler compiler = new PIASimpleCompiler();
+        assertTrue(compiler.getDataFromFile("export", exportFile.getAbsolutePath(), null,
+                InputFileParserFactory.InputFileTypes.MZIDENTML_INPUT.getFileTypeShort()));
+
+        PIACompiler streamedCompiler = new PIASimpleCompiler();
+        assertTrue(streamedCompiler.getDataFromFile("streamed", streamedFile.getAbsolutePath(), null,
+                InputFileParserFactory.InputFileTypes.MZIDENTML_INPUT.getFileTypeShort()));
+
+        assertEquals(compiler.getNrPeptides(), streamedCompiler.getNrPeptides());
+        assertEquals(compiler.getNrPeptideSpectrumMatches(), streamedCompiler.getNrPeptideSpectrumMatches());
+
         exportFile.delete();
+        streamedFile.delete();
     }
 }
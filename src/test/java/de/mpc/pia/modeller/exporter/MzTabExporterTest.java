@@ -1,9 +1,11 @@
 package de.mpc.pia.modeller.exporter;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -115,4 +117,39 @@ public class MzTabExporterTest {
 
         //exportFile.delete();
     }
+
+
+    @Test
+    public void testParallelExport() throws IOException {
+        PIAModeller piaModeller = new PIAModeller(piaFile.getAbsolutePath());
+
+        piaModeller.getPSMModeller().applyGeneralSettings(true);
+        piaModeller.getPSMModeller().setAllDecoyPattern("Rnd.*");
+        piaModeller.getPSMModeller().setAllTopIdentifications(0);
+
+        piaModeller.getPSMModeller().calculateAllFDR();
+        piaModeller.getPSMModeller().calculateCombinedFDRScore();
+
+        SpectrumExtractorInference seInference = new SpectrumExtractorInference();
+        seInference.setScoring(new MultiplicativeScoring(new HashMap<>()));
+        seInference.getScoring().setSetting(AbstractScoring.SCORING_SETTING_ID, ScoreModelEnum.PSM_LEVEL_COMBINED_FDR_SCORE.getShortName());
+        seInference.getScoring().setSetting(AbstractScoring.SCORING_SPECTRA_SETTING_ID, PSMForScoring.ONLY_BEST.getShortName());
+        piaModeller.getProteinModeller().infereProteins(seInference);
+
+        for (boolean proteinLevel : new boolean[]{false, true}) {
+            File sequentialFile = File.createTempFile("pia_testParallelExport", ".mzTab");
+            MzTabExporter exporter = new MzTabExporter(piaModeller);
+            assertTrue(exporter.exportToMzTab(0L, sequentialFile, proteinLevel, false, false, false));
+
+            File parallelFile = File.createTempFile("pia_testParallelExport", ".mzTab");
+            exporter = new MzTabExporter(piaModeller);
+            exporter.setNrThreads(4);
+            assertTrue(exporter.exportToMzTab(0L, parallelFile, proteinLevel, false, false, false));
+
+            assertArrayEquals(Files.readAllBytes(sequentialFile.toPath()), Files.readAllBytes(parallelFile.toPath()));
+
+            sequentialFile.delete();
+            parallelFile.delete();
+        }
+    }
 }
@@ -0,0 +1,125 @@
+package de.mpc.pia.modeller.protein.inference;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.mpc.pia.intermediate.Accession;
+import de.mpc.pia.modeller.PIAModeller;
+import de.mpc.pia.modeller.protein.ReportProtein;
+import de.mpc.pia.modeller.protein.scoring.AbstractScoring;
+import de.mpc.pia.modeller.protein.scoring.MultiplicativeScoring;
+import de.mpc.pia.modeller.protein.scoring.settings.PSMForScoring;
+import de.mpc.pia.modeller.report.filter.FilterComparator;
+import de.mpc.pia.modeller.report.filter.impl.PSMScoreFilter;
+import de.mpc.pia.modeller.score.ScoreModelEnum;
+import de.mpc.pia.tools.AtomicBitSet;
+
+
+public class SpectrumExtractorInferenceTest {
+
+    private File piaFile;
+
+
+    @Before
+    public void setUp() throws URISyntaxException {
+        piaFile = new File(SpectrumExtractorInferenceTest.class.getClassLoader().getResource("yeast-gold-015-filtered.pia.xml").toURI());
+    }
+
+
+    @Test
+    public void testAtomicBitSet() {
+        AtomicBitSet bitSet = new AtomicBitSet(130);
+
+        assertEquals(130, bitSet.size());
+        assertEquals(0, bitSet.cardinality());
+
+        assertTrue(bitSet.set(0));
+        assertTrue(bitSet.set(64));
+        assertTrue(bitSet.set(129));
+        assertFalse(bitSet.set(64));
+
+        assertTrue(bitSet.get(64));
+        assertFalse(bitSet.get(63));
+        assertEquals(3, bitSet.cardinality());
+
+        assertEquals(0, bitSet.nextSetBit(0));
+        assertEquals(64, bitSet.nextSetBit(1));
+        assertEquals(129, bitSet.nextSetBit(65));
+        assertEquals(-1, bitSet.nextSetBit(130));
+
+        assertTrue(bitSet.clear(64));
+        assertFalse(bitSet.clear(64));
+        assertFalse(bitSet.get(64));
+        assertEquals(129, bitSet.nextSetBit(1));
+        assertTrue(bitSet.set(64));
+
+        bitSet.clear();
+        assertEquals(0, bitSet.cardinality());
+        assertFalse(bitSet.get(129));
+        assertEquals(-1, bitSet.nextSetBit(0));
+    }
+
+
+    @Test
+    public void testSameResultsForAnyNumberOfThreads() {
+        List<String> singleThreaded = runInference(1);
+        List<String> multiThreaded = runInference(4);
+
+        assertFalse("no proteins inferred", singleThreaded.isEmpty());
+        assertEquals("Different inference results for different number of threads",
+                singleThreaded, multiThreaded);
+    }
+
+
+    /**
+     * Runs the inference with the given number of threads and returns a string
+     * representation of each reported protein in the reported order.
+     */
+    private List<String> runInference(int nrThreads) {
+        PIAModeller piaModeller = new PIAModeller(piaFile.getAbsolutePath());
+
+        piaModeller.setCreatePSMSets(true);
+
+        piaModeller.getPSMModeller().setAllDecoyPattern("s.*");
+        piaModeller.getPSMModeller().setAllTopIdentifications(0);
+
+        piaModeller.getPSMModeller().calculateAllFDR();
+        piaModeller.getPSMModeller().calculateCombinedFDRScore();
+
+        piaModeller.setConsiderModifications(false);
+
+        SpectrumExtractorInference seInference = new SpectrumExtractorInference();
+
+        seInference.addFilter(
+                new PSMScoreFilter(FilterComparator.less_equal, false, 0.01, ScoreModelEnum.PSM_LEVEL_FDR_SCORE.getShortName()));
+
+        seInference.setScoring(new MultiplicativeScoring(new HashMap<>()));
+        seInference.getScoring().setSetting(AbstractScoring.SCORING_SETTING_ID, ScoreModelEnum.PSM_LEVEL_FDR_SCORE.getShortName());
+        seInference.getScoring().setSetting(AbstractScoring.SCORING_SPECTRA_SETTING_ID, PSMForScoring.ONLY_BEST.getShortName());
+        seInference.setAllowedThreads(nrThreads);
+
+        piaModeller.getProteinModeller().infereProteins(seInference);
+
+        List<String> proteins = new ArrayList<>();
+        for (ReportProtein protein : piaModeller.getProteinModeller().getFilteredReportProteins(null)) {
+            String accessions = protein.getAccessions().stream()
+                    .map(Accession::getAccession)
+                    .sorted()
+                    .collect(Collectors.joining(","));
+
+            proteins.add(accessions + ";" + protein.getScore() + ";" + protein.getNrPeptides() + ";"
+                    + protein.getNrPSMs() + ";" + protein.getNrSpectra() + ";" + protein.getSubSets().size());
+        }
+
+        return proteins;
+    }
+}
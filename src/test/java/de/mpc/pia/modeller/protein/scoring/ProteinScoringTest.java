@@ -0,0 +1,156 @@
+package de.mpc.pia.modeller.protein.scoring;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.mpc.pia.modeller.PIAModeller;
+import de.mpc.pia.modeller.protein.ReportProtein;
+import de.mpc.pia.modeller.protein.inference.SpectrumExtractorInference;
+import de.mpc.pia.modeller.protein.scoring.settings.PSMForScoring;
+import de.mpc.pia.modeller.report.filter.FilterComparator;
+import de.mpc.pia.modeller.report.filter.impl.PSMScoreFilter;
+import de.mpc.pia.modeller.score.ScoreModel;
+import de.mpc.pia.modeller.score.ScoreModelEnum;
+
+/**
+ * test cases for the protein scorings, the streamed scorings must give the
+ * same results as a calculation on the lists of the scores
+ *
+ * @author julian
+ *
+ */
+public class ProteinScoringTest {
+
+    private PIAModeller piaModeller;
+
+    private double scoreDelta = 0.000001;
+
+
+    @Before
+    public void setUp() throws URISyntaxException {
+        File piaFile = new File(ProteinScoringTest.class.getClassLoader().getResource("yeast-gold-015-filtered.pia.xml").toURI());
+
+        piaModeller = new PIAModeller(piaFile.getAbsolutePath());
+
+        piaModeller.setCreatePSMSets(true);
+
+        piaModeller.getPSMModeller().setAllDecoyPattern("s.*");
+        piaModeller.getPSMModeller().setAllTopIdentifications(0);
+
+        piaModeller.getPSMModeller().calculateAllFDR();
+        piaModeller.getPSMModeller().calculateCombinedFDRScore();
+
+        piaModeller.setConsiderModifications(false);
+
+        SpectrumExtractorInference seInference = new SpectrumExtractorInference();
+
+        seInference.addFilter(
+                new PSMScoreFilter(FilterComparator.less_equal, false, 0.01, ScoreModelEnum.PSM_LEVEL_FDR_SCORE.getShortName()));
+
+        seInference.setScoring(new MultiplicativeScoring(new HashMap<>()));
+        seInference.getScoring().setSetting(AbstractScoring.SCORING_SETTING_ID, ScoreModelEnum.PSM_LEVEL_FDR_SCORE.getShortName());
+        seInference.getScoring().setSetting(AbstractScoring.SCORING_SPECTRA_SETTING_ID, PSMForScoring.ONLY_BEST.getShortName());
+
+        piaModeller.getProteinModeller().infereProteins(seInference);
+    }
+
+
+    @Test
+    public void testScoringsOnScoreLists() {
+        List<ReportProtein> proteins = piaModeller.getProteinModeller().getFilteredReportProteins(null);
+        assertFalse(proteins.isEmpty());
+
+        String[] scoreShorts = {ScoreModelEnum.PSM_LEVEL_FDR_SCORE.getShortName(),
+                ScoreModelEnum.PSM_LEVEL_COMBINED_FDR_SCORE.getShortName()};
+
+        for (String scoreShort : scoreShorts) {
+            for (PSMForScoring psmForScoring : PSMForScoring.values()) {
+                AbstractScoring[] scorings = {new AdditiveScoring(new HashMap<>()),
+                        new MultiplicativeScoring(new HashMap<>()),
+                        new GeometricMeanScoring(new HashMap<>())};
+
+                for (AbstractScoring scoring : scorings) {
+                    scoring.setSetting(AbstractScoring.SCORING_SETTING_ID, scoreShort);
+                    scoring.setSetting(AbstractScoring.SCORING_SPECTRA_SETTING_ID, psmForScoring.getShortName());
+
+                    for (ReportProtein protein : proteins) {
+                        List<ScoreModel> scores = psmForScoring.getProteinsScores(protein, scoreShort);
+                        scores.removeIf(score -> score.getValue().isNaN());
+
+                        Double expected;
+                        if (scoring instanceof AdditiveScoring) {
+                            expected = additiveScore(scores);
+                        } else if (scoring instanceof MultiplicativeScoring) {
+                            expected = negativeLogScore(scores, 1.0);
+                        } else {
+                            expected = negativeLogScore(scores, 1.0 / scores.size());
+                        }
+
+                        assertEquals(scoring.getName() + " (" + scoreShort + ", " + psmForScoring.getShortName() + ")",
+                                expected, scoring.calculateProteinScore(protein), scoreDelta);
+                    }
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void testGeometricMeanOfSpecialScores() {
+        ScoreModelEnum higherBetter = ScoreModelEnum.MASCOT_SCORE;
+        ScoreModelEnum lowerBetter = ScoreModelEnum.PSM_LEVEL_FDR_SCORE;
+
+        // a single score is returned unchanged (respectively its -log())
+        assertEquals(-2.5, GeometricMeanScoring.calculateGeometricMeanScore(
+                Arrays.asList(new ScoreModel(-2.5, higherBetter))), scoreDelta);
+        assertEquals(0.0, GeometricMeanScoring.calculateGeometricMeanScore(
+                Arrays.asList(new ScoreModel(0.0, higherBetter))), scoreDelta);
+        assertEquals(2.0, GeometricMeanScoring.calculateGeometricMeanScore(
+                Arrays.asList(new ScoreModel(0.01, lowerBetter))), scoreDelta);
+
+        assertEquals(20.0, GeometricMeanScoring.calculateGeometricMeanScore(
+                Arrays.asList(new ScoreModel(10.0, higherBetter), new ScoreModel(40.0, higherBetter))), scoreDelta);
+        assertEquals(0.0, GeometricMeanScoring.calculateGeometricMeanScore(
+                Arrays.asList(new ScoreModel(10.0, higherBetter), new ScoreModel(0.0, higherBetter))), scoreDelta);
+        assertEquals(Double.POSITIVE_INFINITY, GeometricMeanScoring.calculateGeometricMeanScore(
+                Arrays.asList(new ScoreModel(0.01, lowerBetter), new ScoreModel(0.0, lowerBetter))), scoreDelta);
+        assertTrue(GeometricMeanScoring.calculateGeometricMeanScore(
+                Arrays.asList(new ScoreModel(10.0, higherBetter), new ScoreModel(-1.0, higherBetter))).isNaN());
+        assertTrue(GeometricMeanScoring.calculateGeometricMeanScore(new ArrayList<>()).isNaN());
+    }
+
+
+    /**
+     * sums the scores, NaN if there are none
+     */
+    private static Double additiveScore(List<ScoreModel> scores) {
+        Double sum = Double.NaN;
+        for (ScoreModel score : scores) {
+            sum = sum.isNaN() ? score.getValue() : (sum + score.getValue());
+        }
+        return sum;
+    }
+
+
+    /**
+     * sums the negative logarithms of the (lower is better) scores to the
+     * power of exp, NaN if there are none
+     */
+    private static Double negativeLogScore(List<ScoreModel> scores, double exp) {
+        Double sum = Double.NaN;
+        for (ScoreModel score : scores) {
+            double value = -Math.log10(Math.pow(score.getValue(), exp));
+            sum = sum.isNaN() ? value : (sum + value);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,99 @@
+package de.mpc.pia.modeller.report.filter;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.mpc.pia.modeller.PIAModeller;
+import de.mpc.pia.modeller.psm.ReportPSM;
+import de.mpc.pia.modeller.psm.ReportPSMSet;
+import de.mpc.pia.modeller.report.filter.impl.PSMScoreFilter;
+import de.mpc.pia.modeller.report.filter.impl.PSMTopIdentificationFilter;
+import de.mpc.pia.modeller.score.ScoreModelEnum;
+
+/**
+ * test cases for the compiled filter lists, which must give the same results
+ * as the filtering with the plain filter lists
+ *
+ * @author julian
+ *
+ */
+public class CompiledFilterListTest {
+
+    private PIAModeller piaModeller = null;
+
+    @Before
+    public void setUp() {
+        File piaFile = new File(CompiledFilterListTest.class.getResource("/55merge_mascot_tandem.pia.xml").getPath());
+
+        piaModeller = new PIAModeller(piaFile.getAbsolutePath());
+
+        piaModeller.setCreatePSMSets(true);
+        piaModeller.getPSMModeller().setAllDecoyPattern("Rnd.*");
+        piaModeller.getPSMModeller().setAllTopIdentifications(1);
+
+        piaModeller.getPSMModeller().calculateAllFDR();
+        piaModeller.getPSMModeller().calculateCombinedFDRScore();
+    }
+
+
+    @Test
+    public void testSameResultsAsFilterList() {
+        List<List<AbstractFilter>> filterSets = new ArrayList<>();
+
+        List<AbstractFilter> filters = new ArrayList<>();
+        filters.add(RegisteredFilters.PSM_ACCESSIONS_FILTER.newInstanceOf(FilterComparator.regex, "Rnd1psu.*", true));
+        filters.add(RegisteredFilters.CHARGE_FILTER.newInstanceOf(FilterComparator.less_equal, 2, false));
+        filterSets.add(filters);
+
+        filters = new ArrayList<>();
+        filters.add(new PSMScoreFilter(FilterComparator.greater_equal, false, 10.0, "mascot_score"));
+        filters.add(new PSMTopIdentificationFilter(FilterComparator.equal, 1, false, "mascot_score"));
+        filters.add(RegisteredFilters.PSM_SEQUENCE_FILTER.newInstanceOf(FilterComparator.regex, ".*K", false));
+        filterSets.add(filters);
+
+        filters = new ArrayList<>();
+        filters.add(new PSMScoreFilter(FilterComparator.less_equal, false, 2.0, ScoreModelEnum.PSM_LEVEL_Q_VALUE.getShortName()));
+        filters.add(new PSMScoreFilter(FilterComparator.less_equal, false, 1.0, ScoreModelEnum.PSM_LEVEL_COMBINED_FDR_SCORE.getShortName()));
+        filters.add(RegisteredFilters.PSM_ACCESSIONS_FILTER.newInstanceOf(FilterComparator.contains_only, "psu|NC_LIV_020800", false));
+        filterSets.add(filters);
+
+        List<ReportPSMSet> psmSets = piaModeller.getPSMModeller().getFilteredReportPSMSets(new ArrayList<>());
+
+        for (Long fileID : new Long[] {1L, 2L}) {
+            List<ReportPSM> psms = piaModeller.getPSMModeller().getFilteredReportPSMs(fileID, new ArrayList<>());
+            assertFalse(psms.isEmpty());
+
+            for (List<AbstractFilter> filterSet : filterSets) {
+                CompiledFilterList compiled = FilterFactory.compileFilters(filterSet, fileID);
+
+                for (ReportPSM psm : psms) {
+                    assertEquals("different filtering for " + psm.getSourceID() + " with " + filterSet,
+                            FilterFactory.satisfiesFilterList(psm, fileID, filterSet),
+                            compiled.satisfiesFilters(psm));
+                }
+
+                for (ReportPSMSet psmSet : psmSets) {
+                    assertEquals("different filtering for PSM set with " + filterSet,
+                            FilterFactory.satisfiesFilterList(psmSet, fileID, filterSet),
+                            compiled.satisfiesFilters(psmSet));
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void testEmptyFilters() {
+        CompiledFilterList compiled = FilterFactory.compileFilters(null, 0L);
+        assertTrue(compiled.isEmpty());
+
+        List<ReportPSM> psms = piaModeller.getPSMModeller().getFilteredReportPSMs(1L, new ArrayList<>());
+        assertEquals(psms.size(), compiled.applyFilters(psms).size());
+    }
+}
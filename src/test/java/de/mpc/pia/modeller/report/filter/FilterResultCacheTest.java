@@ -0,0 +1,116 @@
+package de.mpc.pia.modeller.report.filter;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.mpc.pia.modeller.PIAModeller;
+import de.mpc.pia.modeller.psm.ReportPSM;
+import de.mpc.pia.modeller.psm.ReportPSMSet;
+import de.mpc.pia.modeller.report.SortOrder;
+import de.mpc.pia.modeller.report.filter.impl.PSMScoreFilter;
+import de.mpc.pia.modeller.score.ScoreModelEnum;
+
+/**
+ * test cases for the cached filter results of the modellers
+ *
+ * @author julian
+ *
+ */
+public class FilterResultCacheTest {
+
+    private PIAModeller piaModeller = null;
+
+    private List<AbstractFilter> filters;
+
+    @Before
+    public void setUp() {
+        File piaFile = new File(FilterResultCacheTest.class.getResource("/55merge_mascot_tandem.pia.xml").getPath());
+
+        piaModeller = new PIAModeller(piaFile.getAbsolutePath());
+
+        piaModeller.setCreatePSMSets(true);
+        piaModeller.getPSMModeller().setAllDecoyPattern("Rnd.*");
+        piaModeller.getPSMModeller().setAllTopIdentifications(1);
+
+        filters = new ArrayList<>();
+        filters.add(RegisteredFilters.CHARGE_FILTER.newInstanceOf(FilterComparator.less_equal, 2, false));
+        filters.add(new PSMScoreFilter(FilterComparator.less_equal, false, 0.05, ScoreModelEnum.PSM_LEVEL_FDR_SCORE.getShortName()));
+    }
+
+
+    @Test
+    public void testCachedResults() {
+        piaModeller.getPSMModeller().calculateAllFDR();
+
+        List<ReportPSM> allPSMs = piaModeller.getPSMModeller().getFilteredReportPSMs(1L, null);
+        List<ReportPSM> psms = piaModeller.getPSMModeller().getFilteredReportPSMs(1L, filters);
+
+        assertFalse(psms.isEmpty());
+        assertEquals(FilterFactory.applyFilters(new ArrayList<>(allPSMs), filters, 1L), psms);
+
+        FilterResultCache cache = new FilterResultCache();
+        assertSame("the result was not cached",
+                cache.getFilterResult(ReportPSM.class, 1L, allPSMs, filters, false),
+                cache.getFilterResult(ReportPSM.class, 1L, allPSMs, filters, false));
+
+        // the returned lists are copies, changing them does not change the cached result
+        int nrPSMs = psms.size();
+        psms.clear();
+        assertEquals(nrPSMs, piaModeller.getPSMModeller().getFilteredReportPSMs(1L, filters).size());
+
+        // the sets use the same filters, but are another level
+        List<ReportPSMSet> psmSets = piaModeller.getPSMModeller().getFilteredReportPSMSets(filters);
+        assertEquals(FilterFactory.applyFilters(
+                new ArrayList<>(piaModeller.getPSMModeller().getReportPSMSets().values()), filters, 0L).size(),
+                psmSets.size());
+    }
+
+
+    @Test
+    public void testInvalidation() {
+        List<ReportPSM> psms = piaModeller.getPSMModeller().getFilteredReportPSMs(1L, filters);
+        assertTrue("no FDR was calculated, so no PSM should pass", psms.isEmpty());
+
+        // FDR changes the filter results
+        piaModeller.getPSMModeller().calculateAllFDR();
+        psms = piaModeller.getPSMModeller().getFilteredReportPSMs(1L, filters);
+        assertFalse(psms.isEmpty());
+
+        // sorting changes the positions in the list
+        List<String> sortOrders = new ArrayList<>();
+        sortOrders.add("charge");
+        Map<String, SortOrder> sortables = new HashMap<>();
+        sortables.put("charge", SortOrder.descending);
+        piaModeller.getPSMModeller().sortReport(1L, sortOrders, sortables);
+
+        List<ReportPSM> sortedPSMs = piaModeller.getPSMModeller().getFilteredReportPSMs(1L, filters);
+        assertEquals(FilterFactory.applyFilters(
+                new ArrayList<>(piaModeller.getPSMModeller().getFilteredReportPSMs(1L, null)), filters, 1L),
+                sortedPSMs);
+        assertEquals(psms.size(), sortedPSMs.size());
+    }
+
+
+    @Test
+    public void testParallelFiltering() {
+        piaModeller.getPSMModeller().calculateAllFDR();
+
+        List<ReportPSM> allPSMs = piaModeller.getPSMModeller().getFilteredReportPSMs(1L, null);
+        List<ReportPSM> manyPSMs = new ArrayList<>();
+        while (manyPSMs.size() < FilterResultCache.PARALLEL_THRESHOLD) {
+            manyPSMs.addAll(allPSMs);
+        }
+
+        FilterResultCache cache = new FilterResultCache();
+        assertEquals(FilterFactory.applyFilters(manyPSMs, filters, 1L),
+                cache.getFilteredList(ReportPSM.class, 1L, manyPSMs, filters, true));
+    }
+}
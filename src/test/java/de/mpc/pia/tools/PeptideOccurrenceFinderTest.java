@@ -0,0 +1,56 @@
+package de.mpc.pia.tools;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+
+public class PeptideOccurrenceFinderTest {
+
+    @Test
+    public void testExactOccurrences() {
+        assertEquals(Arrays.asList(3, 10),
+                PeptideOccurrenceFinder.findStartSites("PEPK", "MAPEPKLLRPEPKR"));
+
+        // case insensitive and overlapping
+        assertEquals(Arrays.asList(1, 2),
+                PeptideOccurrenceFinder.findStartSites("aaa", "AAAA"));
+
+        assertEquals(Collections.emptyList(),
+                PeptideOccurrenceFinder.findStartSites("PEPR", "MAPEPKLLRPEPKR"));
+        assertEquals(Collections.emptyList(),
+                PeptideOccurrenceFinder.findStartSites("MAPEPKLLRPEPKRX", "MAPEPKLLRPEPKR"));
+        assertEquals(Collections.emptyList(),
+                PeptideOccurrenceFinder.findStartSites(null, "MAPEPKLLRPEPKR"));
+    }
+
+
+    @Test
+    public void testWildcardOccurrences() {
+        // X in the peptide
+        assertEquals(Arrays.asList(3, 10),
+                PeptideOccurrenceFinder.findStartSites("PXPK", "MAPEPKLLRPEPKR"));
+
+        // X in the protein
+        assertEquals(Arrays.asList(3, 10),
+                PeptideOccurrenceFinder.findStartSites("PEPK", "MAPXPKLLRPEPKR"));
+
+        // X at the start of the protein
+        assertEquals(Collections.singletonList(1),
+                PeptideOccurrenceFinder.findStartSites("MAPE", "XAPEGR"));
+    }
+
+
+    @Test
+    public void testLeucineIsoleucineOccurrences() {
+        assertEquals(Collections.emptyList(),
+                PeptideOccurrenceFinder.findStartSites("PEPLK", "MAPEPIKR"));
+        assertEquals(Collections.singletonList(3),
+                PeptideOccurrenceFinder.findStartSites("PEPLK", "MAPEPIKR", true));
+        assertEquals(Arrays.asList(1, 5),
+                PeptideOccurrenceFinder.findStartSites("iK", "LKRAIK", true));
+    }
+}
@@ -0,0 +1,63 @@
+package de.mpc.pia.tools;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class ReadAheadInputStreamTest {
+
+    @Test(timeout = 10000)
+    public void testReadAll() throws IOException {
+        byte[] data = new byte[100000];
+        new Random(42).nextBytes(data);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new ReadAheadInputStream(new ByteArrayInputStream(data), 1000)) {
+            byte[] buffer = new byte[333];
+            int read;
+            while ((read = in.read(buffer)) > -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+
+        assertArrayEquals(data, out.toByteArray());
+    }
+
+
+    @Test(timeout = 10000)
+    public void testRuntimeExceptionInSource() throws IOException {
+        InputStream failingSource = new InputStream() {
+            private int nrRead = 0;
+
+            @Override
+            public int read() {
+                if (nrRead++ > 2500) {
+                    throw new IllegalStateException("broken source");
+                }
+                return 'A';
+            }
+        };
+
+        try (InputStream in = new ReadAheadInputStream(failingSource, 1000)) {
+            byte[] buffer = new byte[1000];
+            int nrBytes = 0;
+            try {
+                int read;
+                while ((read = in.read(buffer)) > -1) {
+                    nrBytes += read;
+                }
+                fail("the exception of the source was not passed");
+            } catch (IOException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+            assertEquals(2000, nrBytes);
+        }
+    }
+}
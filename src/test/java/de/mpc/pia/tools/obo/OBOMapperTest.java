@@ -1,5 +1,8 @@
 package de.mpc.pia.tools.obo;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Set;
@@ -26,6 +29,28 @@ public class OBOMapperTest {
     }
 
 
+    @Test
+    public void testSharedInstance() {
+        OBOMapper oboMapper = OBOMapper.getInstance();
+        assertSame(oboMapper, OBOMapper.getInstance());
+        testMapper(oboMapper);
+    }
+
+
+    @Test
+    public void testIndexedLookups() {
+        OBOMapper oboMapper = new OBOMapper(false);
+
+        assertEquals("MS:1001251", oboMapper.getTermByName("Trypsin").getName());
+        assertNull(oboMapper.getTermByName("sure_not_there"));
+
+        assertTrue(oboMapper.getRelatedAccessions("MS:1001251", OBOMapper.OBO_HAS_REGEXP).contains("MS:1001176"));
+        assertTrue(oboMapper.getRelatedAccessions("MS:1001251", OBOMapper.OBO_IS_A).contains("MS:1001045"));
+        assertTrue(oboMapper.getRelatedAccessions("MS:1002052", OBOMapper.OBO_HAS_ORDER).contains(OBOMapper.OBO_LOWERSCOREBETTER));
+        assertTrue(oboMapper.getRelatedAccessions("MS:1001251", OBOMapper.OBO_HAS_ORDER).isEmpty());
+    }
+
+
     private void testMapper(OBOMapper oboMapper) {
         boolean foundTrypsin = false;
         boolean foundMascotScore = false;
@@ -7,6 +7,8 @@ import java.util.Collections;
 
 import org.junit.Test;
 
+import de.mpc.pia.tools.unimod.jaxb.ModT;
+
 
 public class UnimodParserTest {
 
@@ -27,6 +29,27 @@ public class UnimodParserTest {
     }
 
 
+    @Test
+    public void testIndexedLookups() {
+        UnimodParser unimodParser = new UnimodParser(false);
+
+        ModT oxidation = unimodParser.getModificationByAccession("UNIMOD:35");
+        assertEquals("Oxidation", oxidation.getTitle());
+        assertSame(oxidation, unimodParser.getModificationByName("oxidation", Collections.singletonList("M")));
+        assertSame(oxidation, unimodParser.getModificationByMass(15.9953, "M"));
+        assertSame(oxidation, unimodParser.getModificationByNameAndMass("Oxidation", 15.9949, Arrays.asList("M", ".")));
+
+        assertNull(unimodParser.getModificationByNameAndMass("Oxidation", 16.5, Collections.singletonList("M")));
+        assertNull(unimodParser.getModificationByAccession("UNIMOD:999999"));
+    }
+
+
+    @Test
+    public void testSharedInstance() {
+        assertSame(UnimodParser.getInstance(), UnimodParser.getInstance());
+    }
+
+
     private void testParser(UnimodParser unimodParser) {
         assertNotNull(unimodParser.getModificationByName("Carbamidomethyl", Collections.singletonList("C")));
         assertNotNull(unimodParser.getModificationByName("Oxidation", Collections.singletonList("M")));